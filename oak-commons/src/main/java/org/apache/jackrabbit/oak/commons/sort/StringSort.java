@@ -91,6 +91,10 @@ public class StringSort implements Iterable<String>, Closeable {
         }
     }
 
+    /**
+     * Returns an iterator over the ids. Once {@link #sort() sorted},
+     * iterators may be created and consumed concurrently.
+     */
     public Iterator<String> getIds() throws IOException {
         if (useFile) {
             return persistentState.getIterator();
@@ -205,7 +209,7 @@ public class StringSort implements Iterable<String>, Closeable {
             );
         }
 
-        public Iterator<String> getIterator() throws IOException {
+        public synchronized Iterator<String> getIterator() throws IOException {
             CloseableIterator itr = new CloseableIterator(Files.newReader(sortedFile, charset));
             openedIterators.add(itr);
             return itr;
@@ -217,7 +221,7 @@ public class StringSort implements Iterable<String>, Closeable {
         }
 
         @Override
-        public void close() throws IOException {
+        public synchronized void close() throws IOException {
             Closer closer = Closer.create();
             try {
                 //Closing is done in LIFO manner!
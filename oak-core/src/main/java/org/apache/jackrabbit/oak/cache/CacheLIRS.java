@@ -94,6 +94,12 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
     private final Weigher<K, V> weigher;
     
     private final CacheLoader<K, V> loader;
+
+    /**
+     * Listener notified when resident entries are removed from the cache,
+     * or {@code null} if no listener is registered.
+     */
+    private final EvictionCallback<K, V> evictionCallback;
     
     /**
      * A concurrent hash map of keys where loading is in progress. Key: the
@@ -115,6 +121,12 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
         this(null, maxEntries, 1, 16, maxEntries / 100, null);
     }
 
+    CacheLIRS(Weigher<K, V> weigher, long maxMemory, int averageMemory, 
+            int segmentCount, int stackMoveDistance, final CacheLoader<K, V> loader) {
+        this(weigher, maxMemory, averageMemory, segmentCount, stackMoveDistance,
+                loader, null);
+    }
+
     /**
      * Create a new cache with the given memory size.
      *
@@ -123,11 +135,14 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
      * @param segmentCount the number of cache segments (must be a power of 2)
      * @param stackMoveDistance how many other item are to be moved to the top
      *        of the stack before the current item is moved
+     * @param evictionCallback the listener for removed entries, or null
      */
     @SuppressWarnings("unchecked")
     CacheLIRS(Weigher<K, V> weigher, long maxMemory, int averageMemory, 
-            int segmentCount, int stackMoveDistance, final CacheLoader<K, V> loader) {
+            int segmentCount, int stackMoveDistance, final CacheLoader<K, V> loader,
+            EvictionCallback<K, V> evictionCallback) {
         this.weigher = weigher;
+        this.evictionCallback = evictionCallback;
         setMaxMemory(maxMemory);
         setAverageMemory(averageMemory);
         if (Integer.bitCount(segmentCount) != 1) {
@@ -308,6 +323,21 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
         return getSegment(hash).get(key, hash);
     }
 
+    /**
+     * Record a cache hit for the given key. This is meant for callers that
+     * keep their own reference to a cached value and access it without going
+     * through the cache. Like {@link #getIfPresent(Object)}, this sometimes
+     * adjusts the internal state of the cache, so that the entry stays in the
+     * cache while it is used, but it does not count as a miss if the entry
+     * is no longer resident.
+     *
+     * @param key the key (may not be null)
+     */
+    public void recordHit(Object key) {
+        int hash = getHash(key);
+        getSegment(hash).recordHit(key, hash);
+    }
+
     /**
      * Get the size of the given value. The default implementation returns the
      * average memory as configured for this cache.
@@ -786,6 +816,32 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
                 missCount++;
                 return null;
             }
+            refresh(e, key, hash);
+            hitCount++;
+            return value;
+        }
+
+        /**
+         * Record a hit for the given key, adjusting the internal state of
+         * the cache like {@link #get(Object, int)} if the entry is resident.
+         *
+         * @param key the key (may not be null)
+         * @param hash the hash
+         */
+        void recordHit(Object key, int hash) {
+            Entry<K, V> e = find(key, hash);
+            if (e != null && e.value != null) {
+                refresh(e, key, hash);
+            }
+            hitCount++;
+        }
+
+        /**
+         * Move a resident entry towards the top of the stack, unless it is a
+         * hot entry that was moved recently. This avoids synchronization for
+         * most accesses of hot entries.
+         */
+        private void refresh(Entry<K, V> e, Object key, int hash) {
             if (e.isHot()) {
                 if (e != stack.stackNext) {
                     if (stackMoveDistance == 0 || stackMoveCounter - e.topMove > stackMoveDistance) {
@@ -795,8 +851,6 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
             } else {
                 access(key, hash);
             }
-            hitCount++;
-            return value;
         }
 
         /**
@@ -1135,9 +1189,11 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
                 usedMemory -= e.memory;
                 evictionCount++;
                 removeFromQueue(e);
+                V evicted = e.value;
                 e.value = null;
                 e.memory = 0;
                 addToQueue(queue2, e);
+                cache.evicted(e.key, evicted);
                 // the size of the non-resident-cold entries needs to be limited
                 while (queue2Size + queue2Size > stackSize) {
                     e = queue2.queuePrev;
@@ -1395,12 +1451,51 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
 
     }
     
+    /**
+     * Notify the eviction callback (if any) that the given entry was removed.
+     *
+     * @param key the key
+     * @param value the value that was removed
+     */
+    void evicted(K key, V value) {
+        if (evictionCallback != null) {
+            try {
+                evictionCallback.evicted(key, value);
+            } catch (RuntimeException e) {
+                LOG.warn("Ignoring exception thrown by eviction callback", e);
+            }
+        }
+    }
+
+    /**
+     * Listener for resident entries that are evicted because the cache is
+     * full. Entries that are explicitly removed or replaced are not
+     * reported. The callback is called while holding the lock of the
+     * respective cache segment, so it must not block and must not access
+     * the cache.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     */
+    public interface EvictionCallback<K, V> {
+
+        /**
+         * Called after a resident entry was evicted from the cache.
+         *
+         * @param key the key of the removed entry
+         * @param value the value of the removed entry
+         */
+        void evicted(K key, V value);
+
+    }
+
     /**
      * A builder for the cache.
      */
     public static class Builder {
         
         private Weigher<?, ?> weigher;
+        private EvictionCallback<?, ?> evictionCallback;
         private long maxWeight;
         private int averageWeight = 100;
         private int segmentCount = 16;
@@ -1440,6 +1535,11 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
             return this;
         }
 
+        public <K, V> Builder evictionCallback(EvictionCallback<K, V> evictionCallback) {
+            this.evictionCallback = evictionCallback;
+            return this;
+        }
+
         public Builder stackMoveDistance(int stackMoveDistance) {
             if (stackMoveDistance < 0) {
                 LOG.warn("Illegal stack move distance: " + stackMoveDistance + ", using 16");
@@ -1457,8 +1557,10 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
                 CacheLoader<K, V> cacheLoader) {
             @SuppressWarnings("unchecked")
             Weigher<K, V> w = (Weigher<K, V>) weigher;
+            @SuppressWarnings("unchecked")
+            EvictionCallback<K, V> cb = (EvictionCallback<K, V>) evictionCallback;
             return new CacheLIRS<K, V>(w, maxWeight, averageWeight, 
-                    segmentCount, stackMoveDistance, cacheLoader);
+                    segmentCount, stackMoveDistance, cacheLoader, cb);
         }
 
     }
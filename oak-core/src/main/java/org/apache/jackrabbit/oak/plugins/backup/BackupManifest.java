@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.backup;
+
+import static com.google.common.collect.Maps.newTreeMap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+/**
+ * Manifest of a file level backup of a {@code FileStore}: the length and
+ * CRC32 checksum of each file in the backup. Used to detect which files
+ * changed since the previous backup and to verify the backed up files.
+ */
+class BackupManifest {
+
+    static final String MANIFEST_FILE_NAME = "backup.manifest";
+
+    static class Entry {
+
+        final long length;
+
+        final long checksum;
+
+        Entry(long length, long checksum) {
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+    }
+
+    private final Map<String, Entry> entries = newTreeMap();
+
+    /**
+     * Reads the manifest of the backup in the given directory.
+     *
+     * @param directory  backup directory
+     * @return  the manifest, which is empty if there is none
+     */
+    static BackupManifest read(File directory) throws IOException {
+        BackupManifest manifest = new BackupManifest();
+        File file = new File(directory, MANIFEST_FILE_NAME);
+        if (file.isFile()) {
+            Properties properties = new Properties();
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+            for (String name : properties.stringPropertyNames()) {
+                String[] value = properties.getProperty(name).split(" ");
+                try {
+                    manifest.put(name, new Entry(
+                            Long.parseLong(value[0]), Long.parseLong(value[1])));
+                } catch (RuntimeException e) {
+                    throw new IOException(
+                            "Invalid backup manifest entry for " + name, e);
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes this manifest to the given backup directory.
+     */
+    void write(File directory) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            properties.setProperty(entry.getKey(),
+                    entry.getValue().length + " " + entry.getValue().checksum);
+        }
+        File tmp = new File(directory, MANIFEST_FILE_NAME + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            properties.store(out, "FileStore backup");
+        } finally {
+            out.close();
+        }
+        File file = new File(directory, MANIFEST_FILE_NAME);
+        if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            throw new IOException("Failed to write the backup manifest " + file);
+        }
+    }
+
+    Entry get(String name) {
+        return entries.get(name);
+    }
+
+    void put(String name, Entry entry) {
+        entries.put(name, entry);
+    }
+
+    Map<String, Entry> getEntries() {
+        return entries;
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Verifies the files in the given directory against this manifest.
+     *
+     * @throws IOException  if a file is missing or corrupt
+     */
+    void verify(File directory) throws IOException {
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            File file = new File(directory, entry.getKey());
+            Entry expected = entry.getValue();
+            if (file.length() != expected.length
+                    || checksum(file, expected.length) != expected.checksum) {
+                throw new IOException("Backup file " + file + " is missing or corrupt");
+            }
+        }
+    }
+
+    /**
+     * @return  the CRC32 checksum of the first {@code length} bytes of
+     *          the given file
+     */
+    static long checksum(File file, long length) throws IOException {
+        CheckedInputStream in = new CheckedInputStream(
+                new FileInputStream(file), new CRC32());
+        try {
+            long read = ByteStreams.copy(
+                    ByteStreams.limit(in, length), ByteStreams.nullOutputStream());
+            if (read != length) {
+                throw new IOException("File " + file + " is shorter than " + length);
+            }
+            return in.getChecksum().getValue();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies the bytes of {@code source} from {@code offset} to
+     * {@code length} to the same position of {@code target}, which is
+     * truncated to {@code length}. The copy is verified by comparing the
+     * checksums of source and target.
+     *
+     * @return  the checksum of the first {@code length} bytes of the target
+     */
+    static long copy(File source, File target, long offset, long length)
+            throws IOException {
+        InputStream in = new FileInputStream(source);
+        try {
+            ByteStreams.skipFully(in, offset);
+            OutputStream out = new FileOutputStream(target, offset > 0);
+            boolean threw = true;
+            try {
+                long copied = ByteStreams.copy(ByteStreams.limit(in, length - offset), out);
+                if (copied != length - offset) {
+                    throw new IOException("File " + source + " is shorter than " + length);
+                }
+                threw = false;
+            } finally {
+                Closeables.close(out, threw);
+            }
+        } finally {
+            in.close();
+        }
+
+        long checksum = checksum(target, length);
+        if (target.length() != length || checksum != checksum(source, length)) {
+            throw new IOException("Verification of the copy " + target + " failed");
+        }
+        return checksum;
+    }
+
+}
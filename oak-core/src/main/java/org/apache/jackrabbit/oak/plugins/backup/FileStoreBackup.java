@@ -18,10 +18,15 @@
  */
 package org.apache.jackrabbit.oak.plugins.backup;
 
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Sets.newHashSet;
 import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.ImmutableMap;
@@ -43,6 +48,8 @@ public class FileStoreBackup {
 
     static int MAX_FILE_SIZE = 256;
 
+    private static final String JOURNAL_FILE_NAME = "journal.log";
+
     public static void backup(NodeStore store, File destination)
             throws IOException {
         long s = System.currentTimeMillis();
@@ -91,4 +98,139 @@ public class FileStoreBackup {
 
         log.debug("Backup finished in {} ms.", System.currentTimeMillis() - s);
     }
+
+    /**
+     * Incremental file level backup of a running {@code FileStore}. Unlike
+     * {@link #backup(NodeStore, File)} this does not rewrite the content,
+     * but copies the tar files and the journal of the store. Tar files are
+     * immutable once closed, so only the tar files created or changed since
+     * the previous backup to {@code destination} and the journal entries
+     * written since then are copied. Tar files removed by a cleanup of the
+     * store are also removed from the backup.
+     * <p>
+     * Every copied file is verified against its source. The lengths and
+     * checksums of all files are recorded in a manifest, which is used by
+     * {@link FileStoreRestore} to verify the backup before restoring it.
+     * <p>
+     * The tar files of the cold tier of the store, if any, are backed up
+     * along with the others. A cleanup or a tier migration running
+     * concurrently might remove a tar file before it is copied, in which
+     * case the backup fails and should be retried.
+     *
+     * @param store        the store to back up
+     * @param destination  the backup directory
+     */
+    public static void incrementalBackup(FileStore store, File destination)
+            throws IOException {
+        long s = System.currentTimeMillis();
+        if (!destination.isDirectory() && !destination.mkdirs()) {
+            throw new IOException("Failed to create backup directory " + destination);
+        }
+
+        // 1. persist the current head and determine the journal entries to
+        // back up. Segments referenced by these entries are all contained
+        // in the tar files as they are at this point.
+        store.flush();
+        File directory = store.getDirectory();
+        File journal = new File(directory, JOURNAL_FILE_NAME);
+        long journalLength = getCompleteLength(journal);
+
+        BackupManifest previous = BackupManifest.read(destination);
+        BackupManifest manifest = new BackupManifest();
+
+        // 2. copy the new and changed tar files
+        Set<String> names = newHashSet();
+        int copied = 0;
+        List<File> files = listTarFiles(directory);
+        File coldDirectory = store.getColdDirectory();
+        if (coldDirectory != null) {
+            files.addAll(listTarFiles(coldDirectory));
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!names.add(name)) {
+                // moved between the tiers while listing
+                continue;
+            }
+
+            long length = file.length();
+            File target = new File(destination, name);
+            BackupManifest.Entry entry = previous.get(name);
+            if (entry == null || entry.length != length
+                    || target.length() != length) {
+                entry = new BackupManifest.Entry(length,
+                        BackupManifest.copy(file, target, 0, length));
+                copied++;
+            }
+            manifest.put(name, entry);
+        }
+
+        // 3. remove the tar files removed from the store by cleanup
+        File[] backedUp = destination.listFiles();
+        if (backedUp != null) {
+            for (File file : backedUp) {
+                String name = file.getName();
+                if (name.endsWith(".tar") && !names.contains(name)
+                        && !file.delete()) {
+                    log.warn("Failed to remove {} from the backup", file);
+                }
+            }
+        }
+
+        // 4. append the new journal entries, or copy the whole journal if
+        // the backed up journal is not a prefix of the current one
+        File target = new File(destination, JOURNAL_FILE_NAME);
+        BackupManifest.Entry entry = previous.get(JOURNAL_FILE_NAME);
+        long offset = 0;
+        if (entry != null && entry.length <= journalLength
+                && target.length() == entry.length
+                && BackupManifest.checksum(journal, entry.length) == entry.checksum) {
+            offset = entry.length;
+        }
+        manifest.put(JOURNAL_FILE_NAME, new BackupManifest.Entry(journalLength,
+                BackupManifest.copy(journal, target, offset, journalLength)));
+
+        // 5. commit the backup
+        manifest.write(destination);
+
+        log.debug("Incremental backup of {} tar files and {} journal bytes " +
+                "to {} finished in {} ms.", copied, journalLength - offset,
+                destination, System.currentTimeMillis() - s);
+    }
+
+    private static List<File> listTarFiles(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Failed to list the files in " + directory);
+        }
+        List<File> tarFiles = newArrayList();
+        for (File file : files) {
+            if (file.isFile() && file.getName().endsWith(".tar")) {
+                tarFiles.add(file);
+            }
+        }
+        return tarFiles;
+    }
+
+    /**
+     * @return  the length of the given journal up to and including its last
+     *          complete line
+     */
+    private static long getCompleteLength(File journal) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(journal, "r");
+        try {
+            long length = file.length();
+            while (length > 0) {
+                file.seek(length - 1);
+                if (file.read() == '\n') {
+                    break;
+                }
+                length--;
+            }
+            return length;
+        } finally {
+            file.close();
+        }
+    }
+
 }
@@ -20,6 +20,7 @@ package org.apache.jackrabbit.oak.plugins.backup;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 
 import org.apache.jackrabbit.oak.api.CommitFailedException;
 import org.apache.jackrabbit.oak.plugins.segment.Compactor;
@@ -50,6 +51,7 @@ public class FileStoreRestore {
             throw new IOException("Folder " + source
                     + " is not a valid FileStore directory");
         }
+        verify(source);
 
         // 2. init filestore
         FileStore restore = new FileStore(source, MAX_FILE_SIZE, false);
@@ -62,6 +64,69 @@ public class FileStoreRestore {
         }
     }
 
+    /**
+     * Restores a backup created by
+     * {@link FileStoreBackup#incrementalBackup(FileStore, File)} by copying
+     * its files to the directory of a {@code FileStore}. The backup is
+     * verified before anything is copied. The store must not be open while
+     * it is restored. Its existing tar files and journal are replaced.
+     *
+     * @param source       the backup directory
+     * @param destination  the directory of the store to restore to
+     */
+    public static void restoreFiles(File source, File destination)
+            throws IOException {
+        long s = System.currentTimeMillis();
+        if (!validFileStore(source)) {
+            throw new IOException("Folder " + source
+                    + " is not a valid FileStore directory");
+        }
+        BackupManifest manifest = BackupManifest.read(source);
+        if (manifest.isEmpty()) {
+            throw new IOException("Folder " + source
+                    + " does not contain an incremental backup");
+        }
+        manifest.verify(source);
+
+        if (!destination.isDirectory() && !destination.mkdirs()) {
+            throw new IOException("Failed to create directory " + destination);
+        }
+        File[] files = destination.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(".tar") && manifest.get(name) == null
+                        && !file.delete()) {
+                    throw new IOException("Failed to remove " + file);
+                }
+            }
+        }
+        for (Map.Entry<String, BackupManifest.Entry> entry
+                : manifest.getEntries().entrySet()) {
+            String name = entry.getKey();
+            File target = new File(destination, name);
+            long checksum = BackupManifest.copy(new File(source, name),
+                    target, 0, entry.getValue().length);
+            if (checksum != entry.getValue().checksum) {
+                throw new IOException("Verification of the copy " + target + " failed");
+            }
+        }
+        log.debug("Restore of {} files finished in {} ms.",
+                manifest.getEntries().size(), System.currentTimeMillis() - s);
+    }
+
+    /**
+     * Verifies the files of an incremental backup against the checksums
+     * recorded when backing them up. Backups without such checksums are
+     * not verified.
+     *
+     * @param source  the backup directory
+     * @throws IOException  if a file of the backup is missing or corrupt
+     */
+    public static void verify(File source) throws IOException {
+        BackupManifest.read(source).verify(source);
+    }
+
     private static void restore(NodeState source, NodeStore store,
             SegmentWriter writer) throws CommitFailedException {
         long s = System.currentTimeMillis();
@@ -16,6 +16,10 @@
  */
 package org.apache.jackrabbit.oak.plugins.document;
 
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
 /**
  * Stats about background write operations.
  */
@@ -27,12 +31,19 @@ class BackgroundWriteStats {
     long write;
     long num;
 
+    /**
+     * Time in milliseconds to write the _lastRev updates of a level, keyed
+     * by the depth of the level, in the order the levels were written.
+     */
+    final Map<Integer, Long> levels = Maps.newLinkedHashMap();
+
     @Override
     public String toString() {
         return "clean:" + clean +
                 ", split:" + split+
                 ", lock:" + lock +
                 ", write:" + write +
-                ", num:" + num;
+                ", num:" + num +
+                ", levels:" + levels;
     }
 }
@@ -31,6 +31,8 @@ import org.apache.jackrabbit.oak.plugins.document.util.Utils;
 
 import com.google.common.collect.Maps;
 
+import static com.google.common.base.Preconditions.checkState;
+
 /**
  * A document corresponds to a node stored in the DocumentNodeStore. A document
  * contains all the revisions of a node stored in the {@link DocumentStore}.
@@ -133,6 +135,19 @@ public class Document implements CacheValue {
         }
     }
 
+    /**
+     * Seals this document with the given data. Unlike {@link #seal()}, the
+     * data is neither transformed nor iterated and used as is. The map and
+     * its values must already be immutable, but the map may materialize its
+     * values lazily when they are accessed.
+     *
+     * @param sealedData the immutable data of this document.
+     */
+    void seal(@Nonnull Map<String, Object> sealedData) {
+        checkState(!sealed.getAndSet(true), "Document is already sealed");
+        data = sealedData;
+    }
+
     /**
      * Determines if this document is sealed or not
      * @return true if document is sealed.
@@ -41,6 +41,7 @@ import org.apache.jackrabbit.oak.commons.json.JsopReader;
 import org.apache.jackrabbit.oak.commons.json.JsopStream;
 import org.apache.jackrabbit.oak.commons.json.JsopTokenizer;
 import org.apache.jackrabbit.oak.plugins.document.DocumentNodeState.Children;
+import org.apache.jackrabbit.oak.plugins.document.cache.DirectNodeDocumentCache;
 import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
 import org.apache.jackrabbit.oak.plugins.document.mongo.MongoBlobStore;
 import org.apache.jackrabbit.oak.plugins.document.mongo.MongoDocumentStore;
@@ -486,10 +487,16 @@ public class DocumentMK {
         private boolean useSimpleRevision;
         private long splitDocumentAgeMillis = 5 * 60 * 1000;
         private long offHeapCacheSize = -1;
+        private boolean directDocumentCache = Boolean.getBoolean(
+                "oak.documentMK.directDocumentCache");
         private long maxReplicationLagMillis = TimeUnit.HOURS.toMillis(6);
         private boolean disableBranches;
         private Clock clock = Clock.SIMPLE;
         private Executor executor;
+        private int backgroundWriteThreads = Integer.getInteger(
+                "oak.documentMK.backgroundWriteThreads", 4);
+        private int backgroundReadThreads = Integer.getInteger(
+                "oak.documentMK.backgroundReadThreads", 4);
         private String persistentCacheURI = DEFAULT_PERSISTENT_CACHE_URI;
         private PersistentCache persistentCache;
 
@@ -794,6 +801,28 @@ public class DocumentMK {
             return this;
         }
 
+        /**
+         * Keep the document cache in direct memory instead of the heap. The
+         * documents are stored in a compact binary form and only the
+         * properties accessed are materialized on the heap. The cache uses
+         * the configured document cache size. This takes precedence over
+         * the secondary off heap cache configured with
+         * {@link #offHeapCacheSize(long)}. Documents are not written to the
+         * {@link #setPersistentCache(String) persistent cache} when this
+         * cache is used.
+         *
+         * @param directDocumentCache whether to use the direct memory cache.
+         * @return this
+         */
+        public Builder setDirectDocumentCache(boolean directDocumentCache) {
+            this.directDocumentCache = directDocumentCache;
+            return this;
+        }
+
+        public boolean useDirectDocumentCache() {
+            return directDocumentCache;
+        }
+
         public Executor getExecutor() {
             if(executor == null){
                 return MoreExecutors.sameThreadExecutor();
@@ -806,6 +835,42 @@ public class DocumentMK {
             return this;
         }
 
+        /**
+         * Sets the number of threads used to write the _lastRev updates of
+         * a level of the tree concurrently in the background update. With
+         * one thread the updates are written by the background update
+         * thread itself.
+         *
+         * @param backgroundWriteThreads the number of threads.
+         * @return this
+         */
+        public Builder setBackgroundWriteThreads(int backgroundWriteThreads) {
+            this.backgroundWriteThreads = backgroundWriteThreads;
+            return this;
+        }
+
+        public int getBackgroundWriteThreads() {
+            return backgroundWriteThreads;
+        }
+
+        /**
+         * Sets the number of threads used for the stages of the background
+         * read: reading the journal of other cluster nodes, invalidating
+         * the caches and preparing the diff cache entry. With one thread
+         * the stages are run by the background read thread itself.
+         *
+         * @param backgroundReadThreads the number of threads.
+         * @return this
+         */
+        public Builder setBackgroundReadThreads(int backgroundReadThreads) {
+            this.backgroundReadThreads = backgroundReadThreads;
+            return this;
+        }
+
+        public int getBackgroundReadThreads() {
+            return backgroundReadThreads;
+        }
+
         public Builder clock(Clock clock) {
             this.clock = clock;
             return this;
@@ -872,6 +937,12 @@ public class DocumentMK {
         }
 
         public Cache<CacheValue, NodeDocument> buildDocumentCache(DocumentStore docStore) {
+            if (useDirectDocumentCache()) {
+                // not wrapped, the document stores use the direct cache
+                // for iterating over the cached entries and close it
+                return new DirectNodeDocumentCache(
+                        getDocumentCacheSize(), weigher, docStore);
+            }
             return buildCache(CacheType.DOCUMENT, getDocumentCacheSize(), null, docStore);
         }
 
@@ -882,6 +953,15 @@ public class DocumentMK {
                 DocumentStore docStore
                 ) {
             Cache<K, V> cache = buildCache(maxWeight);
+            return wrapCache(cache, cacheType, docNodeStore, docStore);
+        }
+
+        private <K extends CacheValue, V extends CacheValue> Cache<K, V> wrapCache(
+                Cache<K, V> cache,
+                CacheType cacheType,
+                DocumentNodeStore docNodeStore,
+                DocumentStore docStore
+                ) {
             PersistentCache p = getPersistentCache();
             if (p != null) {
                 if (docNodeStore != null) {
@@ -21,6 +21,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.Iterables.filter;
 import static com.google.common.collect.Iterables.toArray;
 import static com.google.common.collect.Iterables.transform;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
 import static java.util.Collections.singletonList;
 import static org.apache.jackrabbit.oak.api.CommitFailedException.MERGE;
 import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
@@ -55,6 +56,11 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -68,11 +74,13 @@ import javax.management.NotCompliantMBeanException;
 
 import com.google.common.base.Function;
 import com.google.common.base.Predicates;
+import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import org.apache.jackrabbit.oak.api.PropertyState;
@@ -375,6 +383,23 @@ public final class DocumentNodeStore
     
     private final Executor executor;
 
+    /**
+     * Executor for the concurrent _lastRev updates of the background update.
+     */
+    private final ExecutorService backgroundWriteExecutor;
+
+    /**
+     * Executor for the concurrent stages of the background read.
+     */
+    private final ExecutorService backgroundReadExecutor;
+
+    /**
+     * The time in milliseconds between the most recent commit of another
+     * cluster node and when it became visible on this cluster node, as
+     * measured by the last background read with external changes.
+     */
+    private volatile long externalChangeLag;
+
     private final LastRevRecoveryAgent lastRevRecoveryAgent;
 
     private final boolean disableBranches;
@@ -411,6 +436,12 @@ public final class DocumentNodeStore
             clusterNodeInfo = null;
         }
         this.clusterId = cid;
+        this.backgroundWriteExecutor = createBackgroundExecutor(
+                builder.getBackgroundWriteThreads(),
+                "DocumentNodeStore background write thread (" + clusterId + ")-");
+        this.backgroundReadExecutor = createBackgroundExecutor(
+                builder.getBackgroundReadThreads(),
+                "DocumentNodeStore background read thread (" + clusterId + ")-");
         this.revisionComparator = new Revision.RevisionComparator(clusterId);
         this.branches = new UnmergedBranches(getRevisionComparator());
         this.asyncDelay = builder.getAsyncDelay();
@@ -548,6 +579,8 @@ public final class DocumentNodeStore
                 // ignore
             }
         }
+        backgroundWriteExecutor.shutdown();
+        backgroundReadExecutor.shutdown();
 
         // now mark this cluster node as inactive by
         // disposing the clusterNodeInfo
@@ -1764,6 +1797,9 @@ public final class DocumentNodeStore
         StringSort externalSort = JournalEntry.newSorter();
         
         Map<Revision, Revision> externalChanges = Maps.newHashMap();
+        // the most recent revision of each cluster node with external changes
+        List<Revision> recentRevisions = Lists.newArrayList();
+        List<Future<Long>> journalReads = Lists.newArrayList();
         for (Map.Entry<Integer, Revision> e : lastRevMap.entrySet()) {
             int machineId = e.getKey();
             if (machineId == clusterId) {
@@ -1783,24 +1819,35 @@ public final class DocumentNodeStore
                         || r.getTimestamp() > revisionPurgeMillis()) {
                     externalChanges.put(r, otherSeen);
                 }
+                if (last != null) {
+                    recentRevisions.add(r);
+                }
                 // collect external changes
                 if (last != null && externalSort != null) {
+                    // read the journal of the cluster nodes concurrently and
                     // add changes for this particular clusterId to the externalSort
-                    try {
-                        fillExternalChanges(externalSort, last, r, store);
-                    } catch (IOException e1) {
-                        LOG.error("backgroundRead: Exception while reading external changes from journal: "+e1, e1);
-                        externalSort = null;
-                    }
+                    journalReads.add(submit(backgroundReadExecutor,
+                            newJournalRead(externalSort, last, r)));
                 }
             }
         }
+        // the time of the oldest external change read from the journal
+        long oldestChange = Long.MAX_VALUE;
+        try {
+            for (long timestamp : awaitAll(journalReads)) {
+                oldestChange = Math.min(oldestChange, timestamp);
+            }
+        } catch (IOException e1) {
+            LOG.error("backgroundRead: Exception while reading external changes from journal: "+e1, e1);
+            externalSort = null;
+        }
 
         stats.readHead = clock.getTime() - time;
         time = clock.getTime();
 
         if (!externalChanges.isEmpty()) {
-            // invalidate caches
+            // invalidate caches and prepare the diff cache entry concurrently
+            Future<JournalEntry.PendingDiff> pendingDiff = null;
             if (externalSort == null) {
                 // if no externalSort available, then invalidate the classic way: everything
                 stats.cacheStats = store.invalidateCache();
@@ -1808,25 +1855,18 @@ public final class DocumentNodeStore
             } else {
                 try {
                     externalSort.sort();
-                    stats.cacheStats = store.invalidateCache(pathToId(externalSort));
-                    // OAK-3002: only invalidate affected items (using journal)
-                    long origSize = docChildrenCache.size();
-                    if (origSize == 0) {
-                        // if docChildrenCache is empty, don't bother
-                        // calling invalidateAll either way 
-                        // (esp calling invalidateAll(Iterable) will
-                        // potentially iterate over all keys even though
-                        // there's nothing to be deleted)
-                        LOG.trace("backgroundRead: docChildrenCache nothing to invalidate");
-                    } else {
-                        // however, if the docChildrenCache is not empty,
-                        // use the invalidateAll(Iterable) variant,
-                        // passing it a Iterable<StringValue>, as that's
-                        // what is contained in the cache
-                        docChildrenCache.invalidateAll(asStringValueIterable(externalSort));
-                        long newSize = docChildrenCache.size();
-                        LOG.trace("backgroundRead: docChildrenCache invalidation result: orig: {}, new: {} ", origSize, newSize);
+                    if (dispatchChange) {
+                        // then there were external changes and reading them
+                        // was successful -> prepare them for the diff cache
+                        pendingDiff = submit(backgroundReadExecutor,
+                                newPendingDiff(externalSort, stats));
                     }
+                    Future<Void> docChildrenInvalidation = submit(
+                            backgroundReadExecutor,
+                            newDocChildrenInvalidation(externalSort));
+                    // OAK-3002: only invalidate affected items (using journal)
+                    stats.cacheStats = store.invalidateCache(pathToId(externalSort));
+                    getUninterruptibly(docChildrenInvalidation);
                 } catch (Exception ioe) {
                     LOG.error("backgroundRead: got IOException during external sorting/cache invalidation (as a result, invalidating entire cache): "+ioe, ioe);
                     stats.cacheStats = store.invalidateCache();
@@ -1834,6 +1874,15 @@ public final class DocumentNodeStore
                 }
             }
             stats.cacheInvalidationTime = clock.getTime() - time;
+
+            JournalEntry.PendingDiff diff = null;
+            if (pendingDiff != null) {
+                try {
+                    diff = getUninterruptibly(pendingDiff);
+                } catch (ExecutionException e1) {
+                    LOG.error("backgroundRead: Exception while processing external changes from journal: "+e1.getCause(), e1.getCause());
+                }
+            }
             time = clock.getTime();
 
             // make sure update to revision comparator is atomic
@@ -1853,16 +1902,12 @@ public final class DocumentNodeStore
                 Revision oldHead = headRevision;
                 // the new head revision is after other revisions
                 setHeadRevision(newRevision());
+                updateExternalChangeLag(recentRevisions, oldestChange, stats);
                 if (dispatchChange) {
                     time = clock.getTime();
-                    if (externalSort != null) {
-                        // then there were external changes and reading them
-                        // was successful -> apply them to the diff cache
-                        try {
-                            JournalEntry.applyTo(externalSort, diffCache, oldHead, headRevision);
-                        } catch (Exception e1) {
-                            LOG.error("backgroundRead: Exception while processing external changes from journal: "+e1, e1);
-                        }
+                    if (diff != null) {
+                        // apply the prepared external changes to the diff cache
+                        diff.applyTo(diffCache, oldHead, headRevision);
                     }
                     stats.populateDiffCache = clock.getTime() - time;
                     time = clock.getTime();
@@ -1881,14 +1926,145 @@ public final class DocumentNodeStore
         return stats;
     }
 
+    /**
+     * Returns a task, which reads the external changes of a cluster node
+     * from the journal and adds the changed paths to the given sorter. The
+     * result of the task is the time of the oldest journal entry read.
+     */
+    private Callable<Long> newJournalRead(@Nonnull final StringSort sorter,
+                                          @Nonnull final Revision from,
+                                          @Nonnull final Revision to) {
+        return new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                return fillExternalChanges(sorter, from, to, store);
+            }
+        };
+    }
+
+    /**
+     * Returns a task, which prepares the diff cache entry for the sorted
+     * external changes.
+     */
+    private Callable<JournalEntry.PendingDiff> newPendingDiff(
+            @Nonnull final StringSort externalSort,
+            @Nonnull final BackgroundReadStats stats) {
+        return new Callable<JournalEntry.PendingDiff>() {
+            @Override
+            public JournalEntry.PendingDiff call() throws IOException {
+                long time = clock.getTime();
+                JournalEntry.PendingDiff diff = new JournalEntry.PendingDiff();
+                JournalEntry.applyTo(externalSort, diff);
+                stats.prepareDiffCache = clock.getTime() - time;
+                return diff;
+            }
+        };
+    }
+
+    /**
+     * Returns a task, which invalidates the entries of the
+     * {@link #docChildrenCache} for the sorted external changes.
+     */
+    private Callable<Void> newDocChildrenInvalidation(
+            @Nonnull final StringSort externalSort) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                long origSize = docChildrenCache.size();
+                if (origSize == 0) {
+                    // if docChildrenCache is empty, don't bother
+                    // calling invalidateAll either way 
+                    // (esp calling invalidateAll(Iterable) will
+                    // potentially iterate over all keys even though
+                    // there's nothing to be deleted)
+                    LOG.trace("backgroundRead: docChildrenCache nothing to invalidate");
+                } else {
+                    // however, if the docChildrenCache is not empty,
+                    // use the invalidateAll(Iterable) variant,
+                    // passing it a Iterable<StringValue>, as that's
+                    // what is contained in the cache
+                    docChildrenCache.invalidateAll(asStringValueIterable(externalSort));
+                    long newSize = docChildrenCache.size();
+                    LOG.trace("backgroundRead: docChildrenCache invalidation result: orig: {}, new: {} ", origSize, newSize);
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Updates the {@link #externalChangeLag} with the time it took until the
+     * oldest of the external changes, which just became visible, was made
+     * visible. The time of the oldest change is taken from the journal. The
+     * most recent revisions of the other cluster nodes are used for those
+     * without journal entries.
+     *
+     * @param recentRevisions the most recent revisions of other cluster nodes.
+     * @param oldestChange the time of the oldest journal entry read or
+     *                     {@link Long#MAX_VALUE} if there is none.
+     * @param stats the stats of the background read.
+     */
+    private void updateExternalChangeLag(@Nonnull List<Revision> recentRevisions,
+                                         long oldestChange,
+                                         @Nonnull BackgroundReadStats stats) {
+        for (Revision r : recentRevisions) {
+            oldestChange = Math.min(oldestChange, r.getTimestamp());
+        }
+        if (oldestChange == Long.MAX_VALUE) {
+            return;
+        }
+        long lag = Math.max(0, clock.getTime() - oldestChange);
+        stats.lag = lag;
+        externalChangeLag = lag;
+    }
+
+    /**
+     * Runs the given task with the executor.
+     *
+     * @return the future result of the task.
+     */
+    private static <T> Future<T> submit(@Nonnull Executor executor,
+                                        @Nonnull Callable<T> task) {
+        FutureTask<T> future = new FutureTask<T>(task);
+        executor.execute(future);
+        return future;
+    }
+
+    /**
+     * Waits until all given tasks are done and re-throws the first failure.
+     *
+     * @return the results of the tasks.
+     */
+    private static <T> List<T> awaitAll(@Nonnull List<Future<T>> tasks)
+            throws IOException {
+        List<T> results = Lists.newArrayListWithCapacity(tasks.size());
+        Throwable failure = null;
+        for (Future<T> task : tasks) {
+            try {
+                results.add(getUninterruptibly(task));
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure != null) {
+            Throwables.propagateIfPossible(failure, IOException.class);
+            throw new IOException(failure);
+        }
+        return results;
+    }
+
     private static class BackgroundReadStats {
         CacheInvalidationStats cacheStats;
         long readHead;
         long cacheInvalidationTime;
         long populateDiffCache;
+        long prepareDiffCache;
         long lock;
         long dispatchChanges;
         long purge;
+        long lag;
 
         @Override
         public String toString() {
@@ -1900,10 +2076,12 @@ public final class DocumentNodeStore
                     "cacheStats:" + cacheStatsMsg +
                     ", head:" + readHead +
                     ", cache:" + cacheInvalidationTime +
+                    ", prepareDiff: " + prepareDiffCache +
                     ", diff: " + populateDiffCache +
                     ", lock:" + lock +
                     ", dispatch:" + dispatchChanges +
                     ", purge:" + purge +
+                    ", lag:" + lag +
                     '}';
         }
     }
@@ -1989,6 +2167,15 @@ public final class DocumentNodeStore
         return Collections.unmodifiableSet(splitCandidates.keySet());
     }
 
+    /**
+     * @return the executor for the concurrent _lastRev updates of the
+     *          background update.
+     */
+    @Nonnull
+    Executor getBackgroundWriteExecutor() {
+        return backgroundWriteExecutor;
+    }
+
     BackgroundWriteStats backgroundWrite() {
         return unsavedLastRevisions.persist(this, new UnsavedModifications.Snapshot() {
             @Override
@@ -2003,6 +2190,23 @@ public final class DocumentNodeStore
 
     //-----------------------------< internal >---------------------------------
 
+    private static ExecutorService createBackgroundExecutor(
+            int threads, final String name) {
+        if (threads <= 1) {
+            return MoreExecutors.sameThreadExecutor();
+        }
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread thread = new Thread(r, name + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
     @Nonnull
     private Commit newTrunkCommit(@Nonnull Revision base) {
         checkArgument(!checkNotNull(base).isBranch(),
@@ -2486,6 +2690,11 @@ public final class DocumentNodeStore
                     }), String.class);
         }
 
+        @Override
+        public long getExternalChangeLag() {
+            return externalChangeLag;
+        }
+
         @Override
         public String formatRevision(String rev, boolean utc){
             Revision r = Revision.fromString(rev);
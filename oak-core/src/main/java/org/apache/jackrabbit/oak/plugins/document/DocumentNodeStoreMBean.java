@@ -39,5 +39,12 @@ public interface DocumentNodeStoreMBean {
 
     String[] getLastKnownRevisions();
 
+    /**
+     * @return the time in milliseconds it took until the oldest of the
+     *          external changes made visible by the most recent background
+     *          read became visible on this cluster node.
+     */
+    long getExternalChangeLag();
+
     String formatRevision(@Name("revision") String rev, @Name("UTC")boolean utc);
 }
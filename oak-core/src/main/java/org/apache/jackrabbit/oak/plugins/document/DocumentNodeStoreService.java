@@ -182,6 +182,8 @@ public class DocumentNodeStoreService {
 
     private static final String PROP_OFF_HEAP_CACHE = "offHeapCache";
 
+    private static final String PROP_DIRECT_DOCUMENT_CACHE = "directDocumentCache";
+
     @Property(intValue =  DEFAULT_CHANGES_SIZE,
             label = "Mongo Changes Collection Size (in MB)",
             description = "With the MongoDB backend, the DocumentNodeStore uses a capped collection to cache the diff. " +
@@ -350,6 +352,7 @@ public class DocumentNodeStoreService {
         String db = PropertiesUtil.toString(prop(PROP_DB, FWK_PROP_DB), DEFAULT_DB);
 
         int offHeapCache = toInteger(prop(PROP_OFF_HEAP_CACHE), DEFAULT_OFF_HEAP_CACHE);
+        boolean directDocumentCache = toBoolean(prop(PROP_DIRECT_DOCUMENT_CACHE), false);
         int cacheSize = toInteger(prop(PROP_CACHE), DEFAULT_CACHE);
         int nodeCachePercentage = toInteger(prop(PROP_NODE_CACHE_PERCENTAGE), DEFAULT_NODE_CACHE_PERCENTAGE);
         int childrenCachePercentage = toInteger(prop(PROP_CHILDREN_CACHE_PERCENTAGE), DEFAULT_CHILDREN_CACHE_PERCENTAGE);
@@ -376,6 +379,9 @@ public class DocumentNodeStoreService {
         if (persistentCache != null && persistentCache.length() > 0) {
             mkBuilder.setPersistentCache(persistentCache);
         }
+        if (directDocumentCache) {
+            mkBuilder.setDirectDocumentCache(true);
+        }
 
         //Set blobstore before setting the DB
         if (customBlobStore) {
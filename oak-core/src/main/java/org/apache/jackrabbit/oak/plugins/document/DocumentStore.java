@@ -199,6 +199,21 @@ public interface DocumentStore {
                                      List<String> keys,
                                      UpdateOp updateOp);
 
+    /**
+     * Update multiple documents, each with its own update operation. Only
+     * existing documents are updated and operations for documents that do
+     * not exist are simply ignored. Conditions of the operations are not
+     * checked. If this method fails with an exception, then only some of the
+     * documents may have been updated. There is no guarantee in which
+     * sequence the updates are performed.
+     *
+     * @param <T> the document type.
+     * @param collection the collection.
+     * @param updateOps the update operations.
+     */
+    <T extends Document> void update(Collection<T> collection,
+                                     List<UpdateOp> updateOps);
+
     /**
      * Create or update a document. For MongoDB, this is using "findAndModify" with
      * the "upsert" flag (insert or update). The returned document is immutable.
@@ -211,6 +226,24 @@ public interface DocumentStore {
     @CheckForNull
     <T extends Document> T createOrUpdate(Collection<T> collection, UpdateOp update);
 
+    /**
+     * Create or update multiple documents. The result is the same as calling
+     * {@link #createOrUpdate(Collection, UpdateOp)} for each of the
+     * {@code updateOps} in the given order, but implementations may send the
+     * changes to the backend in batches and update their cache in one pass.
+     * The operations are not atomic: if this method fails with an exception,
+     * only some of the documents may have been created or updated. The
+     * returned documents are immutable.
+     *
+     * @param <T> the document type
+     * @param collection the collection
+     * @param updateOps the update operations
+     * @return the old documents in the order of the {@code updateOps}, with
+     *         <code>null</code> for documents that didn't exist before.
+     */
+    @Nonnull
+    <T extends Document> List<T> createOrUpdate(Collection<T> collection, List<UpdateOp> updateOps);
+
     /**
      * Performs a conditional update (e.g. using
      * {@link UpdateOp.Condition.Type#EXISTS} and only updates the
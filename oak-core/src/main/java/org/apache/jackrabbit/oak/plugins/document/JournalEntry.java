@@ -94,11 +94,20 @@ public final class JournalEntry extends Document {
                         @Nonnull Revision from,
                         @Nonnull Revision to) throws IOException {
         LOG.debug("applyTo: starting for {} to {}", from, to);
-        // note that it is not de-duplicated yet
-        LOG.debug("applyTo: sorting done.");
-
-        final DiffCache.Entry entry = checkNotNull(diffCache).newEntry(from, to, false);
+        applyTo(externalSort, checkNotNull(diffCache).newEntry(from, to, false));
+    }
 
+    /**
+     * Appends the changes of the sorted external changes to the given diff
+     * cache entry and marks it as done.
+     *
+     * @param externalSort the sorted paths of the external changes.
+     * @param entry the diff cache entry.
+     * @throws IOException if reading the paths fails.
+     */
+    static void applyTo(@Nonnull StringSort externalSort,
+                        @Nonnull DiffCache.Entry entry) throws IOException {
+        // note that it is not de-duplicated yet
         final Iterator<String> it = externalSort.getIds();
         if (!it.hasNext()) {
             // nothing at all? that's quite unusual..
@@ -166,16 +175,20 @@ public final class JournalEntry extends Document {
     /**
      * Reads all external changes between the two given revisions (with the same
      * clusterId) from the journal and appends the paths therein to the provided
-     * sorter.
+     * sorter. This method may be called concurrently with the same sorter
+     * for different cluster nodes, the paths are added to the sorter while
+     * holding its monitor.
      *
      * @param sorter the StringSort to which all externally changed paths
      *               between the provided revisions will be added
      * @param from   the lower bound of the revision range (exclusive).
      * @param to     the upper bound of the revision range (inclusive).
      * @param store  the document store to query.
+     * @return the revision timestamp of the oldest journal entry read or
+     *         {@link Long#MAX_VALUE} if there is none.
      * @throws IOException
      */
-    static void fillExternalChanges(@Nonnull StringSort sorter,
+    static long fillExternalChanges(@Nonnull StringSort sorter,
                                     @Nonnull Revision from,
                                     @Nonnull Revision to,
                                     @Nonnull DocumentStore store)
@@ -194,6 +207,7 @@ public final class JournalEntry extends Document {
         // limit, then loop and do subsequent queries
         final String toId = asId(to);
         String fromId = asId(from);
+        long oldest = Long.MAX_VALUE;
         while (true) {
             if (fromId.equals(inclusiveToId)) {
                 // avoid query if from and to are off by just 1 counter (which
@@ -204,8 +218,13 @@ public final class JournalEntry extends Document {
             }
             List<JournalEntry> partialResult = store.query(JOURNAL, fromId, toId, READ_CHUNK_SIZE);
 
-            for (JournalEntry d : partialResult) {
-                d.addTo(sorter);
+            synchronized (sorter) {
+                for (JournalEntry d : partialResult) {
+                    d.addTo(sorter);
+                }
+            }
+            if (oldest == Long.MAX_VALUE && !partialResult.isEmpty()) {
+                oldest = partialResult.get(0).getRevisionTimestamp();
             }
             if (partialResult.size() < READ_CHUNK_SIZE) {
                 break;
@@ -215,6 +234,7 @@ public final class JournalEntry extends Document {
             // include the from which we'd otherwise double-process)
             fromId = partialResult.get(partialResult.size() - 1).getId();
         }
+        return oldest;
     }
 
     long getRevisionTimestamp() {
@@ -369,6 +389,49 @@ public final class JournalEntry extends Document {
         return changes;
     }
 
+    /**
+     * A diff cache entry, which keeps the appended changes until they are
+     * added to a diff cache with {@link #applyTo(DiffCache, Revision, Revision)}.
+     * This allows to prepare the diff cache entry for external changes before
+     * the revision range of the changes is known.
+     */
+    static final class PendingDiff implements DiffCache.Entry {
+
+        private final List<String> paths = Lists.newArrayList();
+
+        private final List<String> changes = Lists.newArrayList();
+
+        @Override
+        public void append(@Nonnull String path, @Nonnull String changes) {
+            this.paths.add(path);
+            this.changes.add(changes);
+        }
+
+        @Override
+        public boolean done() {
+            return true;
+        }
+
+        /**
+         * Adds the changes of this entry to the given diff cache.
+         *
+         * @param diffCache the diff cache.
+         * @param from the from revision.
+         * @param to the to revision.
+         * @return {@code true} if the entry was successfully added to the
+         *          cache, {@code false} otherwise.
+         */
+        boolean applyTo(@Nonnull DiffCache diffCache,
+                        @Nonnull Revision from,
+                        @Nonnull Revision to) {
+            DiffCache.Entry entry = diffCache.newEntry(from, to, false);
+            for (int i = 0; i < paths.size(); i++) {
+                entry.append(paths.get(i), changes.get(i));
+            }
+            return entry.done();
+        }
+    }
+
     private static final class TreeNode {
 
         private static final Map<String, TreeNode> NO_CHILDREN = Collections.emptyMap();
@@ -328,7 +328,7 @@ public final class NodeDocument extends Document implements CachedNodeDocument{
     /**
      * Time at which this object was check for cache consistency
      */
-    private final AtomicLong lastCheckTime = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong lastCheckTime;
 
     private final long creationTime;
 
@@ -344,8 +344,39 @@ public final class NodeDocument extends Document implements CachedNodeDocument{
      *                     in case of being resurrected from a serialized for
      */
     public NodeDocument(@Nonnull DocumentStore store, long creationTime) {
+        this(store, creationTime, new AtomicLong(System.currentTimeMillis()));
+    }
+
+    private NodeDocument(@Nonnull DocumentStore store,
+                         long creationTime,
+                         @Nonnull AtomicLong lastCheckTime) {
         this.store = checkNotNull(store);
         this.creationTime = creationTime;
+        this.lastCheckTime = checkNotNull(lastCheckTime);
+    }
+
+    /**
+     * Creates a sealed document backed by the given data. The data is
+     * neither copied nor iterated, which allows a cache that keeps documents
+     * in a serialized form to materialize only the values that are actually
+     * accessed. The returned document shares the last check time with the
+     * cache entry it was created from, that is, {@link #markUpToDate(long)}
+     * on the document also marks the cache entry.
+     *
+     * @param store the document store.
+     * @param data the immutable data of the document.
+     * @param creationTime time at which the document was created.
+     * @param lastCheckTime the last check time shared with the cache entry.
+     * @return the sealed document.
+     */
+    @Nonnull
+    public static NodeDocument newSealedDocument(@Nonnull DocumentStore store,
+                                                 @Nonnull Map<String, Object> data,
+                                                 long creationTime,
+                                                 @Nonnull AtomicLong lastCheckTime) {
+        NodeDocument doc = new NodeDocument(store, creationTime, lastCheckTime);
+        doc.seal(checkNotNull(data));
+        return doc;
     }
 
     /**
@@ -22,6 +22,10 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.locks.Lock;
 
 import javax.annotation.CheckForNull;
@@ -35,8 +39,10 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.PeekingIterator;
 
@@ -56,6 +62,11 @@ class UnsavedModifications {
      */
     static final int BACKGROUND_MULTI_UPDATE_LIMIT = 10000;
 
+    /**
+     * The maximum number of updates of single nodes written at once.
+     */
+    static final int BACKGROUND_BATCH_SIZE = 100;
+
     private final ConcurrentMap<String, Revision> map = MapFactory.getInstance().create();
 
     /**
@@ -132,6 +143,16 @@ class UnsavedModifications {
      * Persist the pending changes to _lastRev to the given store. This method
      * will persist a snapshot of the pending revisions by acquiring the passed
      * lock for a short period of time.
+     * <p>
+     * The updates are written level by level, starting with the deepest
+     * nodes, which guarantees the _lastRev of a node is only written after
+     * the _lastRev of its descendants. The updates of a level are written
+     * concurrently with the {@link DocumentNodeStore#getBackgroundWriteExecutor()
+     * background write executor}, while the updates of the next level are
+     * prepared. Nodes of a level with the same pending revision are updated
+     * with a single multi update, the updates of nodes with distinct
+     * revisions are sent to the document store in batches. The root node is
+     * always updated last.
      *
      * @param store the document node store.
      * @param snapshot callback when the snapshot of the pending changes is
@@ -166,56 +187,178 @@ class UnsavedModifications {
             lock.unlock();
         }
         stats.num = pending.size();
-        UpdateOp updateOp = null;
-        Revision lastRev = null;
-        PeekingIterator<String> paths = Iterators.peekingIterator(
-                pending.keySet().iterator());
-        int i = 0;
-        ArrayList<String> pathList = new ArrayList<String>();
-        while (paths.hasNext()) {
-            String p = paths.peek();
-            Revision r = pending.get(p);
-
-            int size = pathList.size();
-            if (updateOp == null) {
-                // create UpdateOp
-                Commit commit = new Commit(store, r, null, null);
-                updateOp = commit.getUpdateOperationForNode(p);
-                NodeDocument.setLastRev(updateOp, r);
-                lastRev = r;
-                pathList.add(p);
-                paths.next();
-                i++;
-            } else if (r.equals(lastRev)) {
+        Executor executor = store.getBackgroundWriteExecutor();
+        PeekingIterator<Map.Entry<String, Revision>> entries =
+                Iterators.peekingIterator(pending.entrySet().iterator());
+        List<Future<Void>> running = Collections.emptyList();
+        int runningDepth = -1;
+        long runningStart = 0;
+        while (entries.hasNext()) {
+            // prepare the updates of the next level while
+            // the previous level is written
+            int depth = Utils.pathDepth(entries.peek().getKey());
+            List<Runnable> updates = prepareLevel(store, entries, depth);
+
+            // wait for the previous level before writing this one
+            awaitLevel(running);
+            if (runningDepth >= 0) {
+                stats.levels.put(runningDepth, clock.getTime() - runningStart);
+            }
+            runningDepth = depth;
+            runningStart = clock.getTime();
+            running = new ArrayList<Future<Void>>(updates.size());
+            for (Runnable update : updates) {
+                FutureTask<Void> task = new FutureTask<Void>(update, null);
+                running.add(task);
+                executor.execute(task);
+            }
+        }
+        awaitLevel(running);
+        if (runningDepth >= 0) {
+            stats.levels.put(runningDepth, clock.getTime() - runningStart);
+        }
+        stats.write = clock.getTime() - time;
+        return stats;
+    }
+
+    /**
+     * Prepares the _lastRev updates of the pending nodes at the given depth.
+     *
+     * @param store the document node store.
+     * @param entries the pending paths and revisions, positioned at the
+     *                first path with the given depth. The entries at the
+     *                given depth are consumed.
+     * @param depth the depth of the level.
+     * @return the updates, which can be run concurrently.
+     */
+    private List<Runnable> prepareLevel(@Nonnull DocumentNodeStore store,
+                                        @Nonnull PeekingIterator<Map.Entry<String, Revision>> entries,
+                                        int depth) {
+        // group the paths by revision
+        Map<Revision, List<String>> pathsByRevision = Maps.newLinkedHashMap();
+        while (entries.hasNext()
+                && Utils.pathDepth(entries.peek().getKey()) == depth) {
+            Map.Entry<String, Revision> entry = entries.next();
+            List<String> paths = pathsByRevision.get(entry.getValue());
+            if (paths == null) {
+                paths = new ArrayList<String>();
+                pathsByRevision.put(entry.getValue(), paths);
+            }
+            paths.add(entry.getKey());
+        }
+
+        List<Runnable> updates = new ArrayList<Runnable>();
+        List<UpdateOp> batch = new ArrayList<UpdateOp>();
+        Map<String, Revision> batchPaths = Maps.newHashMap();
+        for (Map.Entry<Revision, List<String>> entry : pathsByRevision.entrySet()) {
+            Revision r = entry.getKey();
+            List<String> paths = entry.getValue();
+            UpdateOp updateOp = newUpdateOp(store, paths.get(0), r);
+            if (paths.size() == 1 && depth > 0) {
+                batch.add(updateOp);
+                batchPaths.put(paths.get(0), r);
+                if (batch.size() >= BACKGROUND_BATCH_SIZE) {
+                    updates.add(newBatchUpdate(store, batch, batchPaths));
+                    batch = new ArrayList<UpdateOp>();
+                    batchPaths = Maps.newHashMap();
+                }
+            } else {
                 // use multi update when possible
-                pathList.add(p);
-                paths.next();
-                i++;
+                for (List<String> chunk : Lists.partition(
+                        paths, BACKGROUND_MULTI_UPDATE_LIMIT)) {
+                    updates.add(newMultiUpdate(store, chunk, r, updateOp));
+                }
             }
-            // call update if any of the following is true:
-            // - this is the second-to-last or last path (update last path, the
-            //   root document, individually)
-            // - revision is not equal to last revision (size of ids didn't change)
-            // - the update limit is reached
-            if (i + 2 > pending.size()
-                    || size == pathList.size()
-                    || pathList.size() >= BACKGROUND_MULTI_UPDATE_LIMIT) {
+        }
+        if (!batch.isEmpty()) {
+            updates.add(newBatchUpdate(store, batch, batchPaths));
+        }
+        return updates;
+    }
+
+    private static UpdateOp newUpdateOp(@Nonnull DocumentNodeStore store,
+                                        @Nonnull String path,
+                                        @Nonnull Revision r) {
+        Commit commit = new Commit(store, r, null, null);
+        UpdateOp updateOp = commit.getUpdateOperationForNode(path);
+        NodeDocument.setLastRev(updateOp, r);
+        return updateOp;
+    }
+
+    /**
+     * Returns an update, which applies the given {@code updateOp} to all
+     * nodes with the given paths.
+     */
+    private Runnable newMultiUpdate(@Nonnull final DocumentNodeStore store,
+                                    @Nonnull final List<String> paths,
+                                    @Nonnull final Revision lastRev,
+                                    @Nonnull final UpdateOp updateOp) {
+        return new Runnable() {
+            @Override
+            public void run() {
                 List<String> ids = new ArrayList<String>();
-                for (String path : pathList) {
+                for (String path : paths) {
                     ids.add(Utils.getIdFromPath(path));
                 }
                 store.getDocumentStore().update(NODES, ids, updateOp);
                 LOG.debug("Updated _lastRev to {} on {}", lastRev, ids);
-                for (String path : pathList) {
+                for (String path : paths) {
                     map.remove(path, lastRev);
                 }
-                pathList.clear();
-                updateOp = null;
-                lastRev = null;
+            }
+        };
+    }
+
+    /**
+     * Returns an update, which writes the given updates of single nodes with
+     * one call to the document store.
+     */
+    private Runnable newBatchUpdate(@Nonnull final DocumentNodeStore store,
+                                    @Nonnull final List<UpdateOp> batch,
+                                    @Nonnull final Map<String, Revision> batchPaths) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                // must not re-create documents removed in the meantime
+                store.getDocumentStore().update(NODES, batch);
+                LOG.debug("Updated _lastRev on {}", batchPaths);
+                for (Map.Entry<String, Revision> entry : batchPaths.entrySet()) {
+                    map.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        };
+    }
+
+    /**
+     * Waits until the given updates of a level are done. If an update
+     * failed, the exception is re-thrown after all updates are done.
+     */
+    private static void awaitLevel(@Nonnull List<Future<Void>> updates) {
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (Future<Void> update : updates) {
+            while (true) {
+                try {
+                    update.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // do not leave updates of this level running
+                    // when the next level is written
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
             }
         }
-        stats.write = clock.getTime() - time;
-        return stats;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw Throwables.propagate(failure);
+        }
     }
 
     @Override
@@ -0,0 +1,549 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.cache;
+
+import java.io.Closeable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicates;
+import com.google.common.cache.AbstractCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+import org.apache.jackrabbit.oak.cache.CacheStats;
+import org.apache.jackrabbit.oak.cache.CacheValue;
+import org.apache.jackrabbit.oak.plugins.document.CachedNodeDocument;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.NodeDocument;
+import org.apache.jackrabbit.oak.plugins.document.util.StringValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A NodeDocument cache, which keeps the documents in direct memory instead
+ * of the heap. Documents are stored in the compact layout of the
+ * {@link DocumentBinaryFormat} in the pages of a {@link DirectPageStore}.
+ * A document read from the cache is materialized lazily, only the
+ * properties accessed are deserialized. With a large cache, this keeps the
+ * bulk of the cached data out of reach of the garbage collector.
+ * <p>
+ * The cache keeps an on-heap index with the key, the mod count, the path
+ * and the pages of each document. The index is a Guava cache with the
+ * weight of an entry being the direct memory it occupies, which provides
+ * the size based eviction and the {@link #stats() statistics}. The
+ * {@link NodeDocument#NULL} marker and documents that cannot be stored in
+ * direct memory are kept on the heap.
+ */
+public class DirectNodeDocumentCache extends AbstractCache<CacheValue, NodeDocument>
+        implements OffHeapCache, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DirectNodeDocumentCache.class);
+
+    private final DocumentStore store;
+
+    private final DirectPageStore pages;
+
+    private final Cache<CacheValue, IndexEntry> index;
+
+    private final CacheStats cacheStats;
+
+    private ConcurrentMap<CacheValue, NodeDocument> asMap;
+
+    /**
+     * @param maxWeight the maximum weight of the cache, this is also the
+     *                  maximum size of the direct memory used.
+     * @param weigher the weigher for the cache entries.
+     * @param store the store the documents belong to.
+     */
+    public DirectNodeDocumentCache(long maxWeight,
+                                   @Nonnull Weigher<CacheValue, CacheValue> weigher,
+                                   @Nonnull DocumentStore store) {
+        this.store = checkNotNull(store);
+        this.pages = new DirectPageStore(maxWeight);
+        this.index = CacheBuilder.newBuilder()
+                .weigher(checkNotNull(weigher))
+                .maximumWeight(maxWeight)
+                .removalListener(new EntryRemovalListener())
+                .recordStats()
+                .build();
+        this.cacheStats = new CacheStats(index, "Document-Documents", weigher, maxWeight);
+    }
+
+    @Override
+    public NodeDocument getIfPresent(Object key) {
+        IndexEntry entry = index.getIfPresent(key);
+        return entry != null ? entry.getDocument() : null;
+    }
+
+    @Override
+    public NodeDocument get(CacheValue key, final Callable<? extends NodeDocument> valueLoader)
+            throws ExecutionException {
+        final AtomicReference<NodeDocument> loaded = new AtomicReference<NodeDocument>();
+        IndexEntry entry = index.get(key, new Callable<IndexEntry>() {
+            @Override
+            public IndexEntry call() throws Exception {
+                NodeDocument doc = valueLoader.call();
+                loaded.set(doc);
+                return doc != null ? newEntry(doc) : null;
+            }
+        });
+        NodeDocument doc = loaded.get();
+        if (doc == null) {
+            doc = entry.getDocument();
+            if (doc == null) {
+                // removed from the cache in the meantime
+                return get(key, valueLoader);
+            }
+        }
+        return doc;
+    }
+
+    @Override
+    public void put(CacheValue key, NodeDocument value) {
+        index.put(key, newEntry(value));
+    }
+
+    @Override
+    public void invalidate(Object key) {
+        index.invalidate(key);
+    }
+
+    @Override
+    public void invalidateAll() {
+        index.invalidateAll();
+    }
+
+    @Override
+    public long size() {
+        return index.size();
+    }
+
+    @Override
+    public com.google.common.cache.CacheStats stats() {
+        return index.stats();
+    }
+
+    @Override
+    public void cleanUp() {
+        index.cleanUp();
+    }
+
+    /**
+     * Returns a view of this cache as a map. Iterating over the map
+     * materializes the documents, use {@link #offHeapEntriesMap()} to
+     * iterate over the cached entries instead. The conditional operations
+     * of the map compare the documents by their serialized form.
+     */
+    @Override
+    public synchronized ConcurrentMap<CacheValue, NodeDocument> asMap() {
+        if (asMap == null) {
+            asMap = new DocumentMap();
+        }
+        return asMap;
+    }
+
+    @Override
+    public Map<CacheValue, ? extends CachedNodeDocument> offHeapEntriesMap() {
+        return Maps.transformValues(index.asMap(), new Function<IndexEntry, CachedNodeDocument>() {
+            @Override
+            public CachedNodeDocument apply(IndexEntry entry) {
+                return entry.asCachedNodeDocument();
+            }
+        });
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cacheStats;
+    }
+
+    @Nullable
+    @Override
+    public CachedNodeDocument getCachedDocument(String id) {
+        // does not count as a cache access
+        IndexEntry entry = index.asMap().get(new StringValue(id));
+        return entry != null ? entry.asCachedNodeDocument() : null;
+    }
+
+    /**
+     * @return the number of bytes of direct memory used by cached documents.
+     */
+    public long getDirectMemoryUsed() {
+        return pages.getUsedMemory();
+    }
+
+    @Override
+    public void close() {
+        index.invalidateAll();
+        pages.close();
+    }
+
+    private IndexEntry newEntry(@Nonnull NodeDocument doc) {
+        if (doc != NodeDocument.NULL) {
+            try {
+                byte[] data = DocumentBinaryFormat.write(doc);
+                int[] ids = pages.store(data);
+                if (ids != null) {
+                    return new DirectEntry(doc, ids, data.length);
+                }
+                LOG.debug("Direct memory exhausted, keeping document {} on the heap", doc.getId());
+            } catch (IllegalArgumentException e) {
+                LOG.debug("Cannot serialize document {}, keeping it on the heap", doc.getId(), e);
+            }
+        }
+        return new HeapEntry(doc);
+    }
+
+    private static class EntryRemovalListener implements RemovalListener<CacheValue, IndexEntry> {
+
+        @Override
+        public void onRemoval(RemovalNotification<CacheValue, IndexEntry> n) {
+            IndexEntry entry = n.getValue();
+            if (entry != null) {
+                entry.release();
+            }
+        }
+    }
+
+    private abstract static class IndexEntry implements CacheValue {
+
+        /**
+         * @return the document or {@code null} if the entry was released
+         *          in the meantime.
+         */
+        @CheckForNull
+        abstract NodeDocument getDocument();
+
+        @Nonnull
+        abstract CachedNodeDocument asCachedNodeDocument();
+
+        /**
+         * @return whether this entry holds the given document, which is
+         *          the case if it has the same serialized form. Used for
+         *          the conditional operations of the {@link #asMap()} view.
+         */
+        abstract boolean holds(@Nonnull NodeDocument doc);
+
+        /**
+         * Called when the entry is removed from the cache.
+         */
+        void release() {
+        }
+    }
+
+    /**
+     * An entry for a document kept on the heap.
+     */
+    private static final class HeapEntry extends IndexEntry {
+
+        private final NodeDocument doc;
+
+        HeapEntry(NodeDocument doc) {
+            this.doc = doc;
+        }
+
+        @Override
+        NodeDocument getDocument() {
+            return doc;
+        }
+
+        @Override
+        CachedNodeDocument asCachedNodeDocument() {
+            return doc;
+        }
+
+        @Override
+        boolean holds(NodeDocument doc) {
+            return this.doc == doc;
+        }
+
+        @Override
+        public int getMemory() {
+            return doc.getMemory();
+        }
+    }
+
+    /**
+     * An entry for a document in direct memory. The pages are freed when
+     * the entry was removed from the cache and is not read anymore.
+     */
+    private final class DirectEntry extends IndexEntry implements CachedNodeDocument {
+
+        private final Number modCount;
+
+        private final long created;
+
+        private final AtomicLong lastCheckTime;
+
+        private final String path;
+
+        private final int[] pageIds;
+
+        private final int length;
+
+        /**
+         * One reference for the cache, one for each ongoing read.
+         */
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        DirectEntry(NodeDocument doc, int[] pageIds, int length) {
+            this.modCount = doc.getModCount();
+            this.created = doc.getCreated();
+            this.lastCheckTime = new AtomicLong(doc.getLastCheckTime());
+            this.path = doc.getPath();
+            this.pageIds = pageIds;
+            this.length = length;
+        }
+
+        @Override
+        NodeDocument getDocument() {
+            if (!retain()) {
+                return null;
+            }
+            byte[] data;
+            try {
+                data = pages.read(pageIds, length);
+            } finally {
+                release();
+            }
+            return NodeDocument.newSealedDocument(store,
+                    DocumentBinaryFormat.read(data), created, lastCheckTime);
+        }
+
+        @Override
+        CachedNodeDocument asCachedNodeDocument() {
+            return this;
+        }
+
+        @Override
+        boolean holds(NodeDocument doc) {
+            if (doc == NodeDocument.NULL || !retain()) {
+                return false;
+            }
+            try {
+                return Arrays.equals(pages.read(pageIds, length),
+                        DocumentBinaryFormat.write(doc));
+            } catch (IllegalArgumentException e) {
+                // cannot be serialized, hence is not held by this entry
+                return false;
+            } finally {
+                release();
+            }
+        }
+
+        @Override
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                pages.free(pageIds);
+            }
+        }
+
+        private boolean retain() {
+            for (;;) {
+                int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public Number getModCount() {
+            return modCount;
+        }
+
+        @Override
+        public long getCreated() {
+            return created;
+        }
+
+        @Override
+        public long getLastCheckTime() {
+            return lastCheckTime.get();
+        }
+
+        @Override
+        public void markUpToDate(long checkTime) {
+            lastCheckTime.set(checkTime);
+        }
+
+        @Override
+        public boolean isUpToDate(long lastCheckTime) {
+            return lastCheckTime <= this.lastCheckTime.get();
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public int getMemory() {
+            return 128 + pageIds.length * (DirectPageStore.PAGE_SIZE + 4)
+                    + (path != null ? path.length() * 2 : 0);
+        }
+    }
+
+    /**
+     * The {@link #asMap()} view of this cache.
+     */
+    private final class DocumentMap extends AbstractMap<CacheValue, NodeDocument>
+            implements ConcurrentMap<CacheValue, NodeDocument> {
+
+        @Override
+        public NodeDocument get(Object key) {
+            IndexEntry entry = index.asMap().get(key);
+            return entry != null ? entry.getDocument() : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return index.asMap().containsKey(key);
+        }
+
+        @Override
+        public NodeDocument put(CacheValue key, NodeDocument value) {
+            NodeDocument previous = get(key);
+            DirectNodeDocumentCache.this.put(key, value);
+            return previous;
+        }
+
+        @Override
+        public NodeDocument remove(Object key) {
+            NodeDocument previous = get(key);
+            index.invalidate(key);
+            return previous;
+        }
+
+        @Override
+        public void clear() {
+            index.invalidateAll();
+        }
+
+        @Override
+        public int size() {
+            return index.asMap().size();
+        }
+
+        @Override
+        public Set<Map.Entry<CacheValue, NodeDocument>> entrySet() {
+            return new AbstractSet<Map.Entry<CacheValue, NodeDocument>>() {
+                @Override
+                public Iterator<Map.Entry<CacheValue, NodeDocument>> iterator() {
+                    Iterator<Map.Entry<CacheValue, NodeDocument>> it = Iterators.transform(
+                            index.asMap().entrySet().iterator(),
+                            new Function<Map.Entry<CacheValue, IndexEntry>, Map.Entry<CacheValue, NodeDocument>>() {
+                                @Override
+                                public Map.Entry<CacheValue, NodeDocument> apply(Map.Entry<CacheValue, IndexEntry> e) {
+                                    NodeDocument doc = e.getValue().getDocument();
+                                    return doc != null ? Maps.immutableEntry(e.getKey(), doc) : null;
+                                }
+                            });
+                    return Iterators.filter(it, Predicates.notNull());
+                }
+
+                @Override
+                public int size() {
+                    return index.asMap().size();
+                }
+            };
+        }
+
+        @Override
+        public NodeDocument putIfAbsent(CacheValue key, NodeDocument value) {
+            IndexEntry entry = newEntry(value);
+            for (;;) {
+                IndexEntry previous = index.asMap().putIfAbsent(key, entry);
+                if (previous == null) {
+                    return null;
+                }
+                NodeDocument doc = previous.getDocument();
+                if (doc != null) {
+                    entry.release();
+                    return doc;
+                }
+                // removed from the cache in the meantime
+            }
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            IndexEntry entry = index.asMap().get(key);
+            return entry != null && value instanceof NodeDocument
+                    && entry.holds((NodeDocument) value)
+                    && index.asMap().remove(key, entry);
+        }
+
+        @Override
+        public boolean replace(CacheValue key, NodeDocument oldValue, NodeDocument newValue) {
+            IndexEntry entry = index.asMap().get(key);
+            if (entry == null || !entry.holds(oldValue)) {
+                return false;
+            }
+            IndexEntry replacement = newEntry(newValue);
+            if (index.asMap().replace(key, entry, replacement)) {
+                return true;
+            }
+            replacement.release();
+            return false;
+        }
+
+        @Override
+        public NodeDocument replace(CacheValue key, NodeDocument value) {
+            IndexEntry replacement = newEntry(value);
+            for (;;) {
+                IndexEntry entry = index.asMap().get(key);
+                if (entry == null) {
+                    replacement.release();
+                    return null;
+                }
+                // read before the replaced entry is released
+                NodeDocument doc = entry.getDocument();
+                if (doc != null && index.asMap().replace(key, entry, replacement)) {
+                    return doc;
+                }
+            }
+        }
+    }
+}
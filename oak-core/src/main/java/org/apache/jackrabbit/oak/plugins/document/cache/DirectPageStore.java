@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Stores byte arrays in fixed size pages of direct memory. A value occupies
+ * as many pages as needed and the pages of a value need not be adjacent. As
+ * all pages have the same size, a freed page can be reused for a value of
+ * any size and the memory does not fragment. The direct buffers are
+ * allocated in segments when they are first needed, up to the capacity.
+ * <p>
+ * This class does not track which values are live, the caller must free
+ * the pages of a value exactly once and must not read them afterwards.
+ * <p>
+ * Reading and writing the pages does not lock. The segments are published
+ * copy-on-write through a volatile reference, which is cleared on close.
+ */
+final class DirectPageStore {
+
+    static final int PAGE_SIZE = 512;
+
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final int PAGES_PER_SEGMENT = SEGMENT_SIZE / PAGE_SIZE;
+
+    private final int pageCount;
+
+    /**
+     * The allocated segments, replaced with a copy when a segment is
+     * allocated. {@code null} once the store is closed.
+     */
+    private volatile ByteBuffer[] segments;
+
+    /**
+     * Stack of pages that were freed.
+     */
+    private int[] freePages = new int[1024];
+
+    private int freeCount;
+
+    /**
+     * The first page that was never allocated.
+     */
+    private int nextPage;
+
+    /**
+     * @param capacity the maximum number of bytes of direct memory to use.
+     */
+    DirectPageStore(long capacity) {
+        this.pageCount = (int) Math.min(Integer.MAX_VALUE, Math.max(0, capacity / PAGE_SIZE));
+        this.segments = new ByteBuffer[(pageCount + PAGES_PER_SEGMENT - 1) / PAGES_PER_SEGMENT];
+    }
+
+    /**
+     * @return the number of pages needed to store {@code length} bytes.
+     */
+    static int pagesFor(int length) {
+        return (length + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+
+    /**
+     * Stores the data in newly allocated pages.
+     *
+     * @param data the data to store.
+     * @return the pages holding the data or {@code null} if there are not
+     *          enough free pages.
+     */
+    @CheckForNull
+    int[] store(@Nonnull byte[] data) {
+        int[] pages = allocate(pagesFor(data.length));
+        if (pages != null) {
+            for (int i = 0, offset = 0; i < pages.length; i++, offset += PAGE_SIZE) {
+                page(pages[i]).put(data, offset, Math.min(PAGE_SIZE, data.length - offset));
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Reads data stored with {@link #store(byte[])}.
+     *
+     * @param pages the pages holding the data.
+     * @param length the length of the data.
+     * @return a copy of the data.
+     */
+    @Nonnull
+    byte[] read(@Nonnull int[] pages, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0, offset = 0; i < pages.length; i++, offset += PAGE_SIZE) {
+            page(pages[i]).get(data, offset, Math.min(PAGE_SIZE, length - offset));
+        }
+        return data;
+    }
+
+    /**
+     * Frees the given pages for reuse.
+     *
+     * @param pages the pages to free.
+     */
+    synchronized void free(@Nonnull int[] pages) {
+        if (segments == null) {
+            return;
+        }
+        if (freeCount + pages.length > freePages.length) {
+            freePages = Arrays.copyOf(freePages,
+                    Math.max(freePages.length * 2, freeCount + pages.length));
+        }
+        System.arraycopy(pages, 0, freePages, freeCount, pages.length);
+        freeCount += pages.length;
+    }
+
+    /**
+     * @return the number of bytes of direct memory allocated so far.
+     */
+    long getAllocatedMemory() {
+        ByteBuffer[] segments = this.segments;
+        if (segments == null) {
+            return 0;
+        }
+        long size = 0;
+        for (ByteBuffer segment : segments) {
+            if (segment != null) {
+                size += segment.capacity();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of bytes in pages currently in use.
+     */
+    synchronized long getUsedMemory() {
+        if (segments == null) {
+            return 0;
+        }
+        return (long) (nextPage - freeCount) * PAGE_SIZE;
+    }
+
+    /**
+     * Releases the direct memory. The memory is returned to the system when
+     * the buffers are garbage collected.
+     */
+    synchronized void close() {
+        segments = null;
+        freeCount = 0;
+    }
+
+    @CheckForNull
+    private synchronized int[] allocate(int count) {
+        if (segments == null || count > freeCount + pageCount - nextPage) {
+            return null;
+        }
+        int[] pages = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (freeCount > 0) {
+                pages[i] = freePages[--freeCount];
+            } else {
+                int s = nextPage / PAGES_PER_SEGMENT;
+                if (segments[s] == null) {
+                    int size = Math.min(PAGES_PER_SEGMENT, pageCount - s * PAGES_PER_SEGMENT) * PAGE_SIZE;
+                    ByteBuffer[] copy = Arrays.copyOf(segments, segments.length);
+                    copy[s] = ByteBuffer.allocateDirect(size);
+                    segments = copy;
+                }
+                pages[i] = nextPage++;
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * @return a buffer positioned at the start of the given page.
+     */
+    private ByteBuffer page(int page) {
+        ByteBuffer[] segments = this.segments;
+        if (segments == null) {
+            throw new IllegalStateException("Page store is closed");
+        }
+        ByteBuffer buffer = segments[page / PAGES_PER_SEGMENT].duplicate();
+        buffer.position((page % PAGES_PER_SEGMENT) * PAGE_SIZE);
+        return buffer;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.cache;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.plugins.document.Document;
+import org.apache.jackrabbit.oak.plugins.document.util.BinaryDocumentCodec;
+
+/**
+ * The binary layout of documents in the {@link DirectNodeDocumentCache}.
+ * It is the {@link BinaryDocumentCodec} encoding with the length of each
+ * value, which means a value is only materialized when it is accessed.
+ * {@code Integer} values are kept as such.
+ */
+final class DocumentBinaryFormat {
+
+    private static final byte[] NO_HEADER = new byte[0];
+
+    private static final BinaryDocumentCodec CODEC = new BinaryDocumentCodec(true, true);
+
+    private DocumentBinaryFormat() {
+    }
+
+    /**
+     * Serializes all properties of the document.
+     *
+     * @param doc the document.
+     * @return the serialized document.
+     * @throws IllegalArgumentException if the document contains a value of
+     *          a type that cannot be serialized.
+     */
+    @Nonnull
+    static byte[] write(@Nonnull Document doc) {
+        return CODEC.write(NO_HEADER, doc, Collections.<String>emptySet());
+    }
+
+    /**
+     * Reads the properties serialized with {@link #write(Document)}. Only
+     * the names are read immediately, the values are read when they are
+     * first accessed.
+     *
+     * @param data the serialized document.
+     * @return an immutable map with the properties of the document.
+     */
+    @Nonnull
+    static Map<String, Object> read(@Nonnull byte[] data) {
+        return CODEC.readLazily(data, 0);
+    }
+}
@@ -216,6 +216,17 @@ public class MemoryDocumentStore implements DocumentStore {
         return internalCreateOrUpdate(collection, update, false);
     }
 
+    @Nonnull
+    @Override
+    public <T extends Document> List<T> createOrUpdate(Collection<T> collection,
+                                                       List<UpdateOp> updateOps) {
+        List<T> result = new ArrayList<T>(updateOps.size());
+        for (UpdateOp update : updateOps) {
+            result.add(internalCreateOrUpdate(collection, update, false));
+        }
+        return result;
+    }
+
     @Override
     public <T extends Document> T findAndUpdate(Collection<T> collection, UpdateOp update) {
         return internalCreateOrUpdate(collection, update, true);
@@ -317,6 +328,24 @@ public class MemoryDocumentStore implements DocumentStore {
         }
     }
 
+    @Override
+    public <T extends Document> void update(Collection<T> collection,
+                                            List<UpdateOp> updateOps) {
+        Lock lock = rwLock.writeLock();
+        lock.lock();
+        try {
+            ConcurrentSkipListMap<String, T> map = getMap(collection);
+            for (UpdateOp update : updateOps) {
+                if (!map.containsKey(update.getId())) {
+                    continue;
+                }
+                internalCreateOrUpdate(collection, update, false);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder buff = new StringBuilder();
@@ -22,11 +22,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedSet;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -66,6 +70,7 @@ import org.apache.jackrabbit.oak.plugins.document.UpdateOp.Operation;
 import org.apache.jackrabbit.oak.plugins.document.UpdateUtils;
 import org.apache.jackrabbit.oak.plugins.document.cache.CacheInvalidationStats;
 import org.apache.jackrabbit.oak.plugins.document.cache.ForwardingListener;
+import org.apache.jackrabbit.oak.plugins.document.cache.DirectNodeDocumentCache;
 import org.apache.jackrabbit.oak.plugins.document.cache.NodeDocOffHeapCache;
 import org.apache.jackrabbit.oak.plugins.document.cache.OffHeapCache;
 import org.apache.jackrabbit.oak.plugins.document.mongo.CacheInvalidator.InvalidationResult;
@@ -83,6 +88,9 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Striped;
 import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
@@ -239,14 +247,18 @@ public class MongoDocumentStore implements DocumentStore {
 
 
         // TODO expire entries if the parent was changed
-        if (builder.useOffHeapCache()) {
+        if (builder.useOffHeapCache() && !builder.useDirectDocumentCache()) {
             nodesCache = createOffHeapCache(builder);
         } else {
             nodesCache = builder.buildDocumentCache(this);
         }
 
-        cacheStats = new CacheStats(nodesCache, "Document-Documents", builder.getWeigher(),
-                builder.getDocumentCacheSize());
+        if (nodesCache instanceof DirectNodeDocumentCache) {
+            cacheStats = ((DirectNodeDocumentCache) nodesCache).getCacheStats();
+        } else {
+            cacheStats = new CacheStats(nodesCache, "Document-Documents", builder.getWeigher(),
+                    builder.getDocumentCacheSize());
+        }
         LOG.info("Configuration maxReplicationLagMillis {}, " +
                 "maxDeltaForModTimeIdxSecs {}, disableIndexHint {}",
                 maxReplicationLagMillis, maxDeltaForModTimeIdxSecs, disableIndexHint);
@@ -844,6 +856,138 @@ public class MongoDocumentStore implements DocumentStore {
         return doc;
     }
 
+    /**
+     * Sends the update operations to MongoDB in one unordered bulk write.
+     * Each operation is an upsert conditional on the modCount of the
+     * current document, as known from the cache or read in a single query.
+     * An operation whose condition doesn't hold because the document was
+     * changed concurrently fails with a duplicate key error, and is then
+     * applied with {@link #createOrUpdate(Collection, UpdateOp)}. The same
+     * is done for operations with conditions and for repeated ids.
+     */
+    @Nonnull
+    @Override
+    public <T extends Document> List<T> createOrUpdate(Collection<T> collection,
+                                                       List<UpdateOp> updateOps) {
+        log("createOrUpdate", updateOps);
+        List<T> result = new ArrayList<T>(Collections.<T>nCopies(updateOps.size(), null));
+        // indexes of the operations applied one by one
+        SortedSet<Integer> remaining = new TreeSet<Integer>();
+        List<Integer> bulkIndexes = new ArrayList<Integer>();
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < updateOps.size(); i++) {
+            UpdateOp update = updateOps.get(i);
+            if (update.getConditions().isEmpty() && ids.add(update.getId())) {
+                bulkIndexes.add(i);
+            } else {
+                remaining.add(i);
+            }
+        }
+
+        final long start = PERFLOG.start();
+        try {
+            if (bulkIndexes.size() > 1) {
+                Map<String, T> oldDocs = findDocuments(collection, ids);
+                DBCollection dbCollection = getDBCollection(collection);
+                BulkWriteOperation bulk = dbCollection.initializeUnorderedBulkOperation();
+                List<UpdateOp> updates = new ArrayList<UpdateOp>(bulkIndexes.size());
+                for (int i : bulkIndexes) {
+                    // make sure we don't modify the original updateOp
+                    UpdateOp update = updateOps.get(i).copy();
+                    T oldDoc = oldDocs.get(update.getId());
+                    QueryBuilder query = getByKeyQuery(update.getId());
+                    if (oldDoc == null) {
+                        query.and(Document.MOD_COUNT).exists(false);
+                    } else {
+                        query.and(Document.MOD_COUNT).is(oldDoc.getModCount());
+                    }
+                    bulk.find(query.get()).upsert().updateOne(createUpdate(update));
+                    updates.add(update);
+                }
+
+                Set<Integer> failed = new HashSet<Integer>();
+                try {
+                    bulk.execute();
+                } catch (BulkWriteException e) {
+                    // duplicate key errors of the upserts whose modCount
+                    // condition doesn't hold
+                    for (BulkWriteError error : e.getWriteErrors()) {
+                        failed.add(error.getIndex());
+                    }
+                }
+
+                for (int k = 0; k < bulkIndexes.size(); k++) {
+                    int i = bulkIndexes.get(k);
+                    if (failed.contains(k)) {
+                        remaining.add(i);
+                        continue;
+                    }
+                    UpdateOp update = updates.get(k);
+                    T oldDoc = oldDocs.get(update.getId());
+                    TreeLock lock = acquire(update.getId(), collection);
+                    try {
+                        applyToCache(collection, oldDoc, update);
+                    } finally {
+                        lock.unlock();
+                    }
+                    result.set(i, oldDoc);
+                }
+                LOG.debug("Bulk createOrUpdate of {} documents, {} retried",
+                        bulkIndexes.size(), failed.size());
+            } else {
+                remaining.addAll(bulkIndexes);
+            }
+        } catch (MongoException e) {
+            throw DocumentStoreException.convert(e);
+        } finally {
+            PERFLOG.end(start, 1, "createOrUpdate {} documents", updateOps.size());
+        }
+
+        for (int i : remaining) {
+            result.set(i, findAndModify(collection, updateOps.get(i), true, false));
+        }
+        log("createOrUpdate returns ", result);
+        return result;
+    }
+
+    /**
+     * Reads the current documents with the given ids from the cache or, if
+     * not cached, with a single query from the primary.
+     *
+     * @return the documents by id. Documents which don't exist are omitted.
+     */
+    @Nonnull
+    private <T extends Document> Map<String, T> findDocuments(Collection<T> collection,
+                                                              Set<String> ids) {
+        Map<String, T> docs = Maps.newHashMap();
+        List<String> uncached = new ArrayList<String>();
+        for (String id : ids) {
+            T doc = getIfCached(collection, id);
+            if (doc == null || doc == NodeDocument.NULL || doc.getModCount() == null) {
+                uncached.add(id);
+            } else {
+                docs.put(id, doc);
+            }
+        }
+        for (List<String> chunk : Lists.partition(uncached, IN_CLAUSE_BATCH_SIZE)) {
+            DBCursor cursor = getDBCollection(collection)
+                    .find(QueryBuilder.start(Document.ID).in(chunk).get())
+                    .setReadPreference(ReadPreference.primary());
+            try {
+                while (cursor.hasNext()) {
+                    T doc = convertFromDBObject(collection, cursor.next());
+                    if (doc != null && doc.getModCount() != null) {
+                        doc.seal();
+                        docs.put(doc.getId(), doc);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return docs;
+    }
+
     @Override
     public <T extends Document> T findAndUpdate(Collection<T> collection, UpdateOp update)
             throws DocumentStoreException {
@@ -973,6 +1117,66 @@ public class MongoDocumentStore implements DocumentStore {
         }
     }
 
+    /**
+     * Sends the update operations to MongoDB in one unordered bulk write.
+     * Like {@link #update(Collection, List, UpdateOp)} the updates are not
+     * upserts and not conditional, and cached documents are updated
+     * afterwards. The cached document of an id with more than one update
+     * is invalidated instead.
+     */
+    @Override
+    public <T extends Document> void update(Collection<T> collection,
+                                            List<UpdateOp> updateOps) {
+        log("update", updateOps);
+        if (updateOps.isEmpty()) {
+            return;
+        }
+        DBCollection dbCollection = getDBCollection(collection);
+        BulkWriteOperation bulk = dbCollection.initializeUnorderedBulkOperation();
+        Map<String, UpdateOp> updates = Maps.newLinkedHashMap();
+        Map<String, NodeDocument> cachedDocs = Maps.newHashMap();
+        for (UpdateOp updateOp : updateOps) {
+            // make sure we don't modify the original updateOp
+            UpdateOp update = updateOp.copy();
+            bulk.find(getByKeyQuery(update.getId()).get()).updateOne(createUpdate(update));
+            if (updates.put(update.getId(), update) != null) {
+                // repeated id: invalidate instead of applying to the cache
+                cachedDocs.put(update.getId(), null);
+            } else if (collection == Collection.NODES) {
+                cachedDocs.put(update.getId(),
+                        nodesCache.getIfPresent(new StringValue(update.getId())));
+            }
+        }
+        final long start = PERFLOG.start();
+        try {
+            try {
+                bulk.execute();
+                if (collection == Collection.NODES) {
+                    // update cache
+                    for (Entry<String, NodeDocument> entry : cachedDocs.entrySet()) {
+                        TreeLock lock = acquire(entry.getKey(), collection);
+                        try {
+                            if (entry.getValue() == null
+                                    || entry.getValue() == NodeDocument.NULL) {
+                                // make sure concurrently loaded document is invalidated
+                                nodesCache.invalidate(new StringValue(entry.getKey()));
+                            } else {
+                                applyToCache(Collection.NODES, entry.getValue(),
+                                        updates.get(entry.getKey()));
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                }
+            } catch (MongoException e) {
+                throw DocumentStoreException.convert(e);
+            }
+        } finally {
+            PERFLOG.end(start, 1, "update {} documents", updateOps.size());
+        }
+    }
+
     DocumentReadPreference getReadPreference(int maxCacheAge){
         if(maxCacheAge >= 0 && maxCacheAge < maxReplicationLagMillis) {
             return DocumentReadPreference.PRIMARY;
@@ -1090,14 +1294,17 @@ public class MongoDocumentStore implements DocumentStore {
 
     @Override
     public void dispose() {
-        nodes.getDB().getMongo().close();
-
-        if (nodesCache instanceof Closeable) {
-            try {
-                ((Closeable) nodesCache).close();
-            } catch (IOException e) {
+        try {
+            nodes.getDB().getMongo().close();
+        } finally {
+            // releases the direct memory of the off heap caches
+            if (nodesCache instanceof Closeable) {
+                try {
+                    ((Closeable) nodesCache).close();
+                } catch (IOException e) {
 
-                LOG.warn("Error occurred while closing Off Heap Cache", e);
+                    LOG.warn("Error occurred while closing Off Heap Cache", e);
+                }
             }
         }
     }
@@ -1121,6 +1328,10 @@ public class MongoDocumentStore implements DocumentStore {
     }
 
     Iterable<? extends Map.Entry<CacheValue, ? extends CachedNodeDocument>> getCacheEntries() {
+        if (nodesCache instanceof DirectNodeDocumentCache) {
+            // all entries are off heap, the map view would materialize them
+            return ((OffHeapCache) nodesCache).offHeapEntriesMap().entrySet();
+        }
         if (nodesCache instanceof OffHeapCache) {
             return Iterables.concat(nodesCache.asMap().entrySet(), ((OffHeapCache) nodesCache).offHeapEntriesMap().entrySet());
         }
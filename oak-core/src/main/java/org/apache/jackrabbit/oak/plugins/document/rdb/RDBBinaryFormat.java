@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.rdb;
+
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.plugins.document.Document;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStoreException;
+import org.apache.jackrabbit.oak.plugins.document.util.BinaryDocumentCodec;
+
+/**
+ * Compact binary serialization of documents, used as an alternative to the
+ * JSON serialization in the BDATA column. Parsing it is considerably
+ * cheaper than parsing JSON, in particular for documents with many
+ * revisions.
+ * <p>
+ * The format starts with the {@link #MAGIC} bytes, which can neither start
+ * a JSON text nor a GZIP stream, followed by the {@link #VERSION}. Then
+ * follow the properties in the {@link BinaryDocumentCodec} encoding,
+ * without value lengths and with all integral numbers as {@code Long}, the
+ * same as when read from JSON.
+ */
+final class RDBBinaryFormat {
+
+    /**
+     * The first bytes of the binary format. 0xC0 never occurs in UTF-8.
+     */
+    private static final byte[] MAGIC = { (byte) 0xC0, (byte) 0xDB };
+
+    /**
+     * The format version, encoded as a single byte after the magic bytes.
+     */
+    static final int VERSION = 1;
+
+    private static final byte[] HEADER = { MAGIC[0], MAGIC[1], (byte) VERSION };
+
+    private static final BinaryDocumentCodec CODEC = new BinaryDocumentCodec(false, false);
+
+    private RDBBinaryFormat() {
+    }
+
+    /**
+     * @return {@code true} if the data is in the binary format.
+     */
+    static boolean isBinary(@Nonnull byte[] data) {
+        return data.length >= MAGIC.length
+                && data[0] == MAGIC[0] && data[1] == MAGIC[1];
+    }
+
+    /**
+     * Serializes the properties of the document, except the given excluded
+     * properties.
+     */
+    @Nonnull
+    static byte[] write(@Nonnull Document doc, @Nonnull Set<String> excluded) {
+        try {
+            return CODEC.write(HEADER, doc, excluded);
+        } catch (IllegalArgumentException e) {
+            throw new DocumentStoreException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the properties serialized with {@link #write(Document, Set)}
+     * into the document.
+     */
+    static void read(@Nonnull byte[] data, @Nonnull Document doc) {
+        if (!isBinary(data)) {
+            throw new DocumentStoreException("not in binary format");
+        }
+        if (data.length < HEADER.length) {
+            throw new DocumentStoreException("unexpected end of data at " + data.length);
+        }
+        int version = data[MAGIC.length] & 0xFF;
+        if (version != VERSION) {
+            throw new DocumentStoreException("unsupported binary format version " + version);
+        }
+        try {
+            CODEC.read(data, HEADER.length, doc);
+        } catch (IllegalArgumentException e) {
+            throw new DocumentStoreException(e.getMessage(), e);
+        }
+    }
+}
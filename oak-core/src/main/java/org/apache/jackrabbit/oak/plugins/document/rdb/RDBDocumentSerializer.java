@@ -87,6 +87,15 @@ public class RDBDocumentSerializer {
         return sb.toString();
     }
 
+    /**
+     * Serializes all non-column properties of the {@link Document} into the
+     * compact binary format, which can be stored in place of the JSON
+     * serialization in the BDATA column.
+     */
+    public byte[] asBytes(@Nonnull Document doc) {
+        return RDBBinaryFormat.write(doc, columnProperties);
+    }
+
     /**
      * Serializes the changes in the {@link UpdateOp} into a JSON array; each
      * entry is another JSON array holding operation, key, revision, and value.
@@ -198,11 +207,15 @@ public class RDBDocumentSerializer {
         // update operations
         try {
             if (bdata != null && bdata.length != 0) {
-                String s = fromBlobData(bdata);
-                json = new JsopTokenizer(s);
-                json.read('{');
-                readDocumentFromJson(json, doc);
-                json.read(JsopReader.END);
+                byte[] data = fromBlobData(bdata);
+                if (RDBBinaryFormat.isBinary(data)) {
+                    RDBBinaryFormat.read(data, doc);
+                } else {
+                    json = new JsopTokenizer(new String(data, "UTF-8"));
+                    json.read('{');
+                    readDocumentFromJson(json, doc);
+                    json.read(JsopReader.END);
+                }
                 blobInUse = true;
             }
         } catch (Exception ex) {
@@ -374,15 +387,15 @@ public class RDBDocumentSerializer {
 
     private static byte[] GZIPSIG = { 31, -117 };
 
-    private static String fromBlobData(byte[] bdata) {
+    private static byte[] fromBlobData(byte[] bdata) {
         try {
             if (bdata.length >= 2 && bdata[0] == GZIPSIG[0] && bdata[1] == GZIPSIG[1]) {
                 // GZIP
                 ByteArrayInputStream bis = new ByteArrayInputStream(bdata);
                 GZIPInputStream gis = new GZIPInputStream(bis, 65536);
-                return IOUtils.toString(gis, "UTF-8");
+                return IOUtils.toByteArray(gis);
             } else {
-                return IOUtils.toString(bdata, "UTF-8");
+                return bdata;
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -20,6 +20,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static org.apache.jackrabbit.oak.plugins.document.UpdateUtils.checkConditions;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.sql.Connection;
@@ -41,6 +42,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.locks.Lock;
@@ -53,6 +56,7 @@ import javax.sql.DataSource;
 
 import org.apache.jackrabbit.oak.cache.CacheStats;
 import org.apache.jackrabbit.oak.cache.CacheValue;
+import org.apache.jackrabbit.oak.plugins.document.CachedNodeDocument;
 import org.apache.jackrabbit.oak.plugins.document.Collection;
 import org.apache.jackrabbit.oak.plugins.document.Document;
 import org.apache.jackrabbit.oak.plugins.document.DocumentMK;
@@ -67,6 +71,7 @@ import org.apache.jackrabbit.oak.plugins.document.UpdateOp.Key;
 import org.apache.jackrabbit.oak.plugins.document.UpdateOp.Operation;
 import org.apache.jackrabbit.oak.plugins.document.UpdateUtils;
 import org.apache.jackrabbit.oak.plugins.document.cache.CacheInvalidationStats;
+import org.apache.jackrabbit.oak.plugins.document.cache.DirectNodeDocumentCache;
 import org.apache.jackrabbit.oak.plugins.document.mongo.MongoDocumentStore;
 import org.apache.jackrabbit.oak.plugins.document.util.StringValue;
 import org.slf4j.Logger;
@@ -156,12 +161,19 @@ import com.google.common.util.concurrent.Striped;
  * <tr>
  * <th>BDATA</th>
  * <td>blob</td>
- * <td>the document's JSON serialization (usually GZIPped, only used for "large"
- * documents)</td>
+ * <td>the document's JSON or compact binary serialization (usually GZIPped,
+ * only used for "large" documents)</td>
  * </tr>
  * </tbody>
  * </table>
  * <p>
+ * BDATA is written in the compact binary format (see {@link RDBBinaryFormat})
+ * when the system property
+ * <code>org.apache.jackrabbit.oak.plugins.document.rdb.RDBDocumentStore.BINARYDATA</code>
+ * is set to <code>true</code>. Both formats are always readable, so existing
+ * documents are migrated to the binary format whenever their BDATA is
+ * rewritten. Note that older versions can not read the binary format.
+ * <p>
  * The names of database tables can be prefixed; the purpose is mainly for
  * testing, as tables can also be dropped automatically when the store is
  * disposed (this only happens for those tables that have been created on
@@ -265,11 +277,21 @@ public class RDBDocumentStore implements DocumentStore {
         internalUpdate(collection, keys, updateOp);
     }
 
+    @Override
+    public <T extends Document> void update(Collection<T> collection, List<UpdateOp> updateOps) {
+        internalCreateOrUpdate(collection, updateOps, false);
+    }
+
     @Override
     public <T extends Document> T createOrUpdate(Collection<T> collection, UpdateOp update) {
         return internalCreateOrUpdate(collection, update, true, false);
     }
 
+    @Override
+    public <T extends Document> List<T> createOrUpdate(Collection<T> collection, List<UpdateOp> updateOps) {
+        return internalCreateOrUpdate(collection, updateOps, true);
+    }
+
     @Override
     public <T extends Document> T findAndUpdate(Collection<T> collection, UpdateOp update) {
         return internalCreateOrUpdate(collection, update, false, true);
@@ -277,6 +299,13 @@ public class RDBDocumentStore implements DocumentStore {
 
     @Override
     public CacheInvalidationStats invalidateCache() {
+        if (nodesCache instanceof DirectNodeDocumentCache) {
+            // avoid materializing the documents held in direct memory
+            for (CachedNodeDocument nd : ((DirectNodeDocumentCache) nodesCache).offHeapEntriesMap().values()) {
+                nd.markUpToDate(0);
+            }
+            return null;
+        }
         for (NodeDocument nd : nodesCache.asMap().values()) {
             nd.markUpToDate(0);
         }
@@ -377,6 +406,13 @@ public class RDBDocumentStore implements DocumentStore {
         } catch (IOException ex) {
             LOG.error("closing connection handler", ex);
         }
+        if (nodesCache instanceof Closeable) {
+            try {
+                ((Closeable) nodesCache).close();
+            } catch (IOException ex) {
+                LOG.warn("Error occurred while closing the document cache", ex);
+            }
+        }
     }
 
     @Override
@@ -838,7 +874,11 @@ public class RDBDocumentStore implements DocumentStore {
         this.callStack = LOG.isDebugEnabled() ? new Exception("call stack of RDBDocumentStore creation") : null;
 
         this.nodesCache = builder.buildDocumentCache(this);
-        this.cacheStats = new CacheStats(nodesCache, "Document-Documents", builder.getWeigher(), builder.getDocumentCacheSize());
+        if (nodesCache instanceof DirectNodeDocumentCache) {
+            this.cacheStats = ((DirectNodeDocumentCache) nodesCache).getCacheStats();
+        } else {
+            this.cacheStats = new CacheStats(nodesCache, "Document-Documents", builder.getWeigher(), builder.getDocumentCacheSize());
+        }
 
         Connection con = this.ch.getRWConnection();
 
@@ -1145,6 +1185,111 @@ public class RDBDocumentStore implements DocumentStore {
         }
     }
 
+    /**
+     * Applies the updates in chunks of up to {@link #CHUNKSIZE} operations,
+     * each written in a single transaction using JDBC batches for the
+     * inserts and the updates. Updates are conditional on the modcount of
+     * the previous document. If any of the statements of a chunk fails,
+     * the transaction is rolled back and the operations of the chunk are
+     * applied one by one, as are operations with conditions and repeated
+     * ids. Operations for documents that don't exist are skipped unless
+     * {@code allowCreate} is set.
+     */
+    private <T extends Document> List<T> internalCreateOrUpdate(Collection<T> collection, List<UpdateOp> updates,
+            boolean allowCreate) {
+        List<T> result = new ArrayList<T>(Collections.<T> nCopies(updates.size(), null));
+        // indexes of the operations to apply one by one
+        SortedSet<Integer> remaining = new TreeSet<Integer>();
+        List<Integer> batched = new ArrayList<Integer>();
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < updates.size(); i++) {
+            UpdateOp update = updates.get(i);
+            if (!requiresPreviousState(update) && ids.add(update.getId())) {
+                batched.add(i);
+            } else {
+                remaining.add(i);
+            }
+        }
+
+        for (List<Integer> chunk : Lists.partition(batched, CHUNKSIZE)) {
+            List<Integer> inserted = new ArrayList<Integer>();
+            List<T> newDocs = new ArrayList<T>();
+            List<Integer> updated = new ArrayList<Integer>();
+            List<T> oldDocs = new ArrayList<T>();
+            List<T> changedDocs = new ArrayList<T>();
+            for (int i : chunk) {
+                UpdateOp update = updates.get(i).copy();
+                T oldDoc = readDocumentCached(collection, update.getId(), Integer.MAX_VALUE);
+                if (oldDoc == null) {
+                    if (!allowCreate) {
+                        continue;
+                    } else if (!update.isNew()) {
+                        remaining.add(i);
+                        continue;
+                    }
+                    T doc = collection.newDocument(this);
+                    update.increment(MODCOUNT, 1);
+                    if (hasChangesToCollisions(update)) {
+                        update.increment(COLLISIONSMODCOUNT, 1);
+                    }
+                    UpdateUtils.applyChanges(doc, update, comparator);
+                    inserted.add(i);
+                    newDocs.add(doc);
+                } else {
+                    updated.add(i);
+                    oldDocs.add(oldDoc);
+                    changedDocs.add(applyChanges(collection, oldDoc, update, false));
+                }
+            }
+
+            Connection connection = null;
+            String tableName = getTable(collection);
+            boolean success = false;
+            try {
+                connection = this.ch.getRWConnection();
+                success = (newDocs.isEmpty() || dbInsert(connection, tableName, newDocs))
+                        && (changedDocs.isEmpty() || dbBatchUpdate(connection, tableName, changedDocs, oldDocs));
+                if (success) {
+                    connection.commit();
+                } else {
+                    this.ch.rollbackConnection(connection);
+                }
+            } catch (SQLException ex) {
+                LOG.debug("batch update of " + chunk.size() + " documents failed, applying them one by one", ex);
+                this.ch.rollbackConnection(connection);
+                success = false;
+            } finally {
+                this.ch.closeConnection(connection);
+            }
+
+            if (success) {
+                for (T doc : newDocs) {
+                    addToCache(collection, doc);
+                }
+                for (int k = 0; k < updated.size(); k++) {
+                    T oldDoc = oldDocs.get(k);
+                    if (collection == Collection.NODES) {
+                        Lock l = getAndLock(idOf(oldDoc));
+                        try {
+                            applyToCache((NodeDocument) oldDoc, (NodeDocument) changedDocs.get(k));
+                        } finally {
+                            l.unlock();
+                        }
+                    }
+                    result.set(updated.get(k), oldDoc);
+                }
+            } else {
+                remaining.addAll(inserted);
+                remaining.addAll(updated);
+            }
+        }
+
+        for (int i : remaining) {
+            result.set(i, internalCreateOrUpdate(collection, updates.get(i), allowCreate, false));
+        }
+        return result;
+    }
+
     /**
      * @return previous version of document or <code>null</code>
      */
@@ -1453,9 +1598,8 @@ public class RDBDocumentStore implements DocumentStore {
                 }
             }
             if (!success) {
-                String data = SR.asString(document);
                 success = dbUpdate(connection, tableName, document.getId(), modified, hasBinary, deletedOnce, modcount, cmodcount,
-                        oldmodcount, data);
+                        oldmodcount, document);
                 connection.commit();
             }
             return success;
@@ -1519,6 +1663,9 @@ public class RDBDocumentStore implements DocumentStore {
     // Whether to use GZIP compression
     private static final boolean NOGZIP = Boolean
             .getBoolean("org.apache.jackrabbit.oak.plugins.document.rdb.RDBDocumentStore.NOGZIP");
+    // Whether to write BDATA in the compact binary format instead of JSON
+    private static final boolean BINARYDATA = Boolean
+            .getBoolean("org.apache.jackrabbit.oak.plugins.document.rdb.RDBDocumentStore.BINARYDATA");
     // Number of documents to insert at once for batch create
     private static final int CHUNKSIZE = Integer.getInteger(
             "org.apache.jackrabbit.oak.plugins.document.rdb.RDBDocumentStore.CHUNKSIZE", 64);
@@ -1532,6 +1679,21 @@ public class RDBDocumentStore implements DocumentStore {
     private static final String CREATEINDEX = System.getProperty(
             "org.apache.jackrabbit.oak.plugins.document.rdb.RDBDocumentStore.CREATEINDEX", "");
 
+    /**
+     * Serializes the document for the BDATA column, either as JSON or in
+     * the compact binary format.
+     *
+     * @param document the document.
+     * @param data the JSON serialization of the document.
+     */
+    private byte[] asBlobData(Document document, String data) {
+        if (BINARYDATA) {
+            return compress(SR.asBytes(document));
+        } else {
+            return asBytes(data);
+        }
+    }
+
     private static byte[] asBytes(String data) {
         byte[] bytes;
         try {
@@ -1540,12 +1702,15 @@ public class RDBDocumentStore implements DocumentStore {
             LOG.error("UTF-8 not supported??", ex);
             throw new DocumentStoreException(ex);
         }
+        return compress(bytes);
+    }
 
+    private static byte[] compress(byte[] bytes) {
         if (NOGZIP) {
             return bytes;
         } else {
             try {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length());
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length);
                 GZIPOutputStream gos = new GZIPOutputStream(bos) {
                     {
                         // TODO: make this configurable
@@ -1736,7 +1901,8 @@ public class RDBDocumentStore implements DocumentStore {
     }
 
     private boolean dbUpdate(Connection connection, String tableName, String id, Long modified, Boolean hasBinary,
-            Boolean deletedOnce, Long modcount, Long cmodcount, Long oldmodcount, String data) throws SQLException {
+            Boolean deletedOnce, Long modcount, Long cmodcount, Long oldmodcount, Document document) throws SQLException {
+        String data = SR.asString(document);
         String t = "update "
                 + tableName
                 + " set MODIFIED = ?, HASBINARY = ?, DELETEDONCE = ?, MODCOUNT = ?, CMODCOUNT = ?, DSIZE = ?, DATA = ?, BDATA = ? where ID = ?";
@@ -1758,7 +1924,7 @@ public class RDBDocumentStore implements DocumentStore {
                 stmt.setBinaryStream(si++, null, 0);
             } else {
                 stmt.setString(si++, "\"blob\"");
-                byte[] bytes = asBytes(data);
+                byte[] bytes = asBlobData(document, data);
                 stmt.setBytes(si++, bytes);
             }
 
@@ -1856,6 +2022,60 @@ public class RDBDocumentStore implements DocumentStore {
         }
     }
 
+    /**
+     * Rewrites the given documents in one JDBC batch, each conditional on
+     * the modcount of its previous version.
+     *
+     * @return <code>true</code> if all documents were updated
+     */
+    private <T extends Document> boolean dbBatchUpdate(Connection connection, String tableName, List<T> documents,
+            List<T> oldDocuments) throws SQLException {
+        PreparedStatement stmt = connection.prepareStatement("update " + tableName
+                + " set MODIFIED = ?, HASBINARY = ?, DELETEDONCE = ?, MODCOUNT = ?, CMODCOUNT = ?, DSIZE = ?, DATA = ?, BDATA = ? "
+                + "where ID = ? and MODCOUNT = ?");
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                T document = documents.get(i);
+                String data = SR.asString(document);
+                Number hasBinary = (Number) document.get(NodeDocument.HAS_BINARY_FLAG);
+                Boolean deletedOnce = (Boolean) document.get(NodeDocument.DELETED_ONCE);
+                Long cmodcount = (Long) document.get(COLLISIONSMODCOUNT);
+
+                int si = 1;
+                stmt.setObject(si++, document.get(MODIFIED), Types.BIGINT);
+                stmt.setObject(si++, (hasBinary != null && hasBinary.intValue() == NodeDocument.HAS_BINARY_VAL) ? 1 : 0, Types.SMALLINT);
+                stmt.setObject(si++, (deletedOnce != null && deletedOnce) ? 1 : 0, Types.SMALLINT);
+                stmt.setObject(si++, document.get(MODCOUNT), Types.BIGINT);
+                stmt.setObject(si++, cmodcount == null ? Long.valueOf(0) : cmodcount, Types.BIGINT);
+                stmt.setObject(si++, data.length(), Types.BIGINT);
+                if (data.length() < this.dataLimitInOctets / CHAR2OCTETRATIO) {
+                    stmt.setString(si++, data);
+                    stmt.setBinaryStream(si++, null, 0);
+                } else {
+                    stmt.setString(si++, "\"blob\"");
+                    byte[] bytes = asBlobData(document, data);
+                    stmt.setBytes(si++, bytes);
+                }
+                setIdInStatement(stmt, si++, document.getId());
+                stmt.setObject(si++, modcountOf(oldDocuments.get(i)), Types.BIGINT);
+                stmt.addBatch();
+            }
+            int[] results = stmt.executeBatch();
+            for (int i = 0; i < documents.size(); i++) {
+                // the update count is required to tell whether the
+                // modcount condition held
+                if (results[i] != 1) {
+                    LOG.debug("DB batch update failed for " + tableName + "/" + documents.get(i).getId() + " with result "
+                            + results[i]);
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            stmt.close();
+        }
+    }
+
     private <T extends Document> boolean dbInsert(Connection connection, String tableName, List<T> documents) throws SQLException {
 
         PreparedStatement stmt = connection.prepareStatement("insert into " + tableName +
@@ -1883,7 +2103,7 @@ public class RDBDocumentStore implements DocumentStore {
                     stmt.setBinaryStream(si++, null, 0);
                 } else {
                     stmt.setString(si++, "\"blob\"");
-                    byte[] bytes = asBytes(data);
+                    byte[] bytes = asBlobData(document, data);
                     stmt.setBytes(si++, bytes);
                 }
                 stmt.addBatch();
@@ -0,0 +1,496 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+import com.google.common.collect.UnmodifiableIterator;
+
+import org.apache.jackrabbit.oak.plugins.document.Document;
+import org.apache.jackrabbit.oak.plugins.document.Revision;
+import org.apache.jackrabbit.oak.plugins.document.StableRevisionComparator;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Compact binary encoding of the properties of a {@link Document}. The
+ * encoding starts with the number of properties, followed by the name and
+ * the value of each property:
+ * <ul>
+ * <li>names of well known system properties are encoded as a single
+ * number, other names as a string. Names are interned when read.</li>
+ * <li>values are encoded as a type tag followed by the value. Numbers and
+ * lengths are variable length encoded.</li>
+ * <li>maps are keyed by revision. Revisions are encoded as the difference
+ * of their timestamp to the previous revision of the map, the counter and
+ * the cluster id with the branch flag.</li>
+ * </ul>
+ * Optionally the length of each value precedes the value. The names can
+ * then be read without reading the values, see {@link #readLazily(byte[], int)}.
+ * <p>
+ * The encoding is persisted by some users, the tags and names must
+ * therefore not change. New tags and names may only be added at the end.
+ */
+public final class BinaryDocumentCodec {
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_TRUE = 1;
+    private static final int TYPE_FALSE = 2;
+    private static final int TYPE_LONG = 3;
+    private static final int TYPE_STRING = 4;
+    private static final int TYPE_MAP = 5;
+    private static final int TYPE_INTEGER = 6;
+
+    /**
+     * Names of well known properties, encoded by their index plus one.
+     */
+    private static final String[] NAMES = {
+            "_id", "_modified", "_modCount", "_collisionsModCount", "_bin",
+            "_deletedOnce", "_deleted", "_revisions", "_commitRoot",
+            "_lastRev", "_prev", "_stalePrev", "_collisions", "_children",
+            "_path", "_sdType", "_sdMaxRevTime"
+    };
+
+    private static final Map<String, Integer> NAME_CODES = new TreeMap<String, Integer>();
+
+    static {
+        for (int i = 0; i < NAMES.length; i++) {
+            NAME_CODES.put(NAMES[i], i + 1);
+        }
+    }
+
+    private static final Interner<String> NAME_INTERNER = Interners.newWeakInterner();
+
+    private final boolean valueLengths;
+
+    private final boolean integers;
+
+    /**
+     * @param valueLengths whether the length of each value precedes the
+     *          value, which is needed to read the data lazily.
+     * @param integers whether {@code Integer} values are kept as such. If
+     *          {@code false}, they are encoded and read as {@code Long}.
+     */
+    public BinaryDocumentCodec(boolean valueLengths, boolean integers) {
+        this.valueLengths = valueLengths;
+        this.integers = integers;
+    }
+
+    /**
+     * Encodes the properties of the document, except the given excluded
+     * properties.
+     *
+     * @param header bytes written before the properties.
+     * @param doc the document.
+     * @param excluded the names of the properties to skip.
+     * @return the encoded document.
+     * @throws IllegalArgumentException if the document contains a value of
+     *          a type that cannot be encoded.
+     */
+    @Nonnull
+    public byte[] write(@Nonnull byte[] header,
+                        @Nonnull Document doc,
+                        @Nonnull Set<String> excluded) {
+        Writer out = new Writer(1024);
+        Writer value = valueLengths ? new Writer(256) : out;
+        out.write(header, 0, header.length);
+        int count = 0;
+        for (String key : doc.keySet()) {
+            if (!excluded.contains(key)) {
+                count++;
+            }
+        }
+        out.writeVarInt(count);
+        for (String key : doc.keySet()) {
+            if (excluded.contains(key)) {
+                continue;
+            }
+            Integer code = NAME_CODES.get(key);
+            if (code != null) {
+                out.writeVarInt(code);
+            } else {
+                out.writeVarInt(0);
+                out.writeString(key);
+            }
+            if (valueLengths) {
+                value.reset();
+                writeValue(value, doc.get(key));
+                out.writeVarInt(value.size());
+                value.copyTo(out);
+            } else {
+                writeValue(out, doc.get(key));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the properties encoded with {@link #write(byte[], Document, Set)}
+     * into the given document. The data must end after the last property.
+     *
+     * @param data the encoded document.
+     * @param offset the offset of the properties, after the header.
+     * @param doc the document to put the properties into.
+     * @throws IllegalArgumentException if the data is malformed.
+     */
+    public void read(@Nonnull byte[] data, int offset, @Nonnull Document doc) {
+        Reader in = new Reader(data, offset);
+        int count = in.readVarInt();
+        for (int i = 0; i < count; i++) {
+            String key = readName(in);
+            if (valueLengths) {
+                in.readVarInt();
+            }
+            doc.put(key, readValue(in, false));
+        }
+        if (in.pos != data.length) {
+            throw new IllegalArgumentException("unexpected data after document at " + in.pos);
+        }
+    }
+
+    /**
+     * Reads the properties encoded with {@link #write(byte[], Document, Set)}.
+     * Only the names are read immediately, the values are read when they
+     * are first accessed. Requires the value lengths to be encoded.
+     *
+     * @param data the encoded document. Must not be modified afterwards.
+     * @param offset the offset of the properties, after the header.
+     * @return an immutable map with the properties of the document.
+     * @throws IllegalArgumentException if the names are malformed.
+     */
+    @Nonnull
+    public Map<String, Object> readLazily(@Nonnull byte[] data, int offset) {
+        checkState(valueLengths, "Value lengths are not encoded");
+        return new LazyData(data, offset);
+    }
+
+    private void writeValue(Writer out, Object value) {
+        if (value == null) {
+            out.write(TYPE_NULL);
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+        } else if (integers && value instanceof Integer) {
+            out.write(TYPE_INTEGER);
+            out.writeVarLong(zigZag((Integer) value));
+        } else if (value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte) {
+            out.write(TYPE_LONG);
+            out.writeVarLong(zigZag(((Number) value).longValue()));
+        } else if (value instanceof String) {
+            out.write(TYPE_STRING);
+            out.writeString((String) value);
+        } else if (value instanceof Map) {
+            @SuppressWarnings("unchecked")
+            Map<Object, Object> map = (Map<Object, Object>) value;
+            out.write(TYPE_MAP);
+            out.writeVarInt(map.size());
+            long timestamp = 0;
+            for (Map.Entry<Object, Object> e : map.entrySet()) {
+                Object k = e.getKey();
+                Revision r = k instanceof Revision
+                        ? (Revision) k : Revision.fromString(k.toString());
+                out.writeVarLong(zigZag(r.getTimestamp() - timestamp));
+                out.writeVarInt(r.getCounter());
+                out.writeVarInt(r.getClusterId() << 1 | (r.isBranch() ? 1 : 0));
+                timestamp = r.getTimestamp();
+                writeValue(out, e.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("unexpected type: " + value.getClass());
+        }
+    }
+
+    /**
+     * @param immutable whether maps are returned as unmodifiable views.
+     */
+    private static Object readValue(Reader in, boolean immutable) {
+        int type = in.read();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_TRUE:
+                return Boolean.TRUE;
+            case TYPE_FALSE:
+                return Boolean.FALSE;
+            case TYPE_LONG:
+                return unZigZag(in.readVarLong());
+            case TYPE_INTEGER:
+                return (int) unZigZag(in.readVarLong());
+            case TYPE_STRING:
+                return in.readString();
+            case TYPE_MAP:
+                TreeMap<Revision, Object> map = new TreeMap<Revision, Object>(StableRevisionComparator.REVERSE);
+                int size = in.readVarInt();
+                long timestamp = 0;
+                for (int i = 0; i < size; i++) {
+                    timestamp += unZigZag(in.readVarLong());
+                    int counter = in.readVarInt();
+                    int clusterIdAndBranch = in.readVarInt();
+                    Revision r = new Revision(timestamp, counter,
+                            clusterIdAndBranch >>> 1, (clusterIdAndBranch & 1) != 0);
+                    map.put(r, readValue(in, immutable));
+                }
+                return immutable ? Maps.unmodifiableNavigableMap(map) : map;
+            default:
+                throw new IllegalArgumentException("unknown value type " + type + " at " + (in.pos - 1));
+        }
+    }
+
+    private static String readName(Reader in) {
+        int code = in.readVarInt();
+        if (code == 0) {
+            return NAME_INTERNER.intern(in.readString());
+        } else if (code <= NAMES.length) {
+            return NAMES[code - 1];
+        }
+        throw new IllegalArgumentException("unknown property name code " + code);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * The properties of an encoded document. The names are read when the
+     * map is created, each value is read when it is first accessed.
+     */
+    private static final class LazyData extends AbstractMap<String, Object> {
+
+        private static final Object NOT_READ = new Object();
+
+        private final byte[] data;
+
+        private final String[] names;
+
+        private final int[] offsets;
+
+        private final AtomicReferenceArray<Object> values;
+
+        LazyData(byte[] data, int offset) {
+            this.data = data;
+            Reader in = new Reader(data, offset);
+            int count = in.readVarInt();
+            this.names = new String[count];
+            this.offsets = new int[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = readName(in);
+                int length = in.readVarInt();
+                offsets[i] = in.pos;
+                in.skip(length);
+            }
+            this.values = new AtomicReferenceArray<Object>(count);
+            for (int i = 0; i < count; i++) {
+                values.set(i, NOT_READ);
+            }
+        }
+
+        @Override
+        public Object get(Object key) {
+            int index = indexOf(key);
+            return index < 0 ? null : value(index);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return names.length;
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return new AbstractSet<String>() {
+                @Override
+                public Iterator<String> iterator() {
+                    return Iterators.forArray(names);
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return containsKey(o);
+                }
+
+                @Override
+                public int size() {
+                    return names.length;
+                }
+            };
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new UnmodifiableIterator<Entry<String, Object>>() {
+                        private int index;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < names.length;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int i = index++;
+                            return Maps.immutableEntry(names[i], value(i));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return names.length;
+                }
+            };
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private Object value(int index) {
+            Object value = values.get(index);
+            if (value == NOT_READ) {
+                // concurrent readers may read the same value, which is fine
+                value = readValue(new Reader(data, offsets[index]), true);
+                values.set(index, value);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Output buffer with variable length encoding of numbers.
+     */
+    private static final class Writer extends ByteArrayOutputStream {
+
+        Writer(int size) {
+            super(size);
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(Charsets.UTF_8);
+            writeVarInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void copyTo(Writer target) {
+            target.write(buf, 0, count);
+        }
+    }
+
+    /**
+     * Reads from a byte array, the counterpart of the {@link Writer}.
+     */
+    private static final class Reader {
+
+        private final byte[] data;
+
+        private int pos;
+
+        Reader(byte[] data, int pos) {
+            this.data = data;
+            this.pos = pos;
+        }
+
+        int read() {
+            if (pos >= data.length) {
+                throw new IllegalArgumentException("unexpected end of data at " + pos);
+            }
+            return data[pos++] & 0xFF;
+        }
+
+        void skip(int length) {
+            if (length < 0 || length > data.length - pos) {
+                throw new IllegalArgumentException("invalid length " + length + " at " + pos);
+            }
+            pos += length;
+        }
+
+        int readVarInt() {
+            long value = readVarLong();
+            if (value > 0xFFFFFFFFL) {
+                throw new IllegalArgumentException("invalid number at " + pos);
+            }
+            return (int) value;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("invalid number at " + pos);
+        }
+
+        String readString() {
+            int length = readVarInt();
+            int start = pos;
+            skip(length);
+            return new String(data, start, length, Charsets.UTF_8);
+        }
+    }
+}
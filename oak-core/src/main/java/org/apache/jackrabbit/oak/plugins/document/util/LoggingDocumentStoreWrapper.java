@@ -206,6 +206,24 @@ public class LoggingDocumentStoreWrapper implements DocumentStore {
         }
     }
 
+    @Override
+    public <T extends Document> void update(final Collection<T> collection,
+                                            final List<UpdateOp> updateOps) {
+        try {
+            logMethod("update", collection, updateOps);
+            logResult(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    store.update(collection, updateOps);
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            logException(e);
+            throw convert(e);
+        }
+    }
+
     @Nonnull
     @Override
     public <T extends Document> T createOrUpdate(final Collection<T> collection,
@@ -224,6 +242,24 @@ public class LoggingDocumentStoreWrapper implements DocumentStore {
         }
     }
 
+    @Nonnull
+    @Override
+    public <T extends Document> List<T> createOrUpdate(final Collection<T> collection,
+                                                       final List<UpdateOp> updateOps) {
+        try {
+            logMethod("createOrUpdate", collection, updateOps);
+            return logResult(new Callable<List<T>>() {
+                @Override
+                public List<T> call() throws Exception {
+                    return store.createOrUpdate(collection, updateOps);
+                }
+            });
+        } catch (Exception e) {
+            logException(e);
+            throw convert(e);
+        }
+    }
+
     @Override
     public <T extends Document> T findAndUpdate(final Collection<T> collection,
                                                 final UpdateOp update) {
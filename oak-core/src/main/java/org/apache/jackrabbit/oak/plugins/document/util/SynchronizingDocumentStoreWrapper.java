@@ -91,11 +91,23 @@ public class SynchronizingDocumentStoreWrapper implements DocumentStore {
         store.update(collection, keys, updateOp);
     }
 
+    @Override
+    public synchronized <T extends Document> void update(final Collection<T> collection,
+            final List<UpdateOp> updateOps) {
+        store.update(collection, updateOps);
+    }
+
     @Override
     public synchronized <T extends Document> T createOrUpdate(final Collection<T> collection, final UpdateOp update) {
         return store.createOrUpdate(collection, update);
     }
 
+    @Override
+    public synchronized <T extends Document> List<T> createOrUpdate(final Collection<T> collection,
+            final List<UpdateOp> updateOps) {
+        return store.createOrUpdate(collection, updateOps);
+    }
+
     @Override
     public synchronized <T extends Document> T findAndUpdate(final Collection<T> collection, final UpdateOp update) {
         return store.findAndUpdate(collection, update);
@@ -239,6 +239,21 @@ public class TimingDocumentStoreWrapper implements DocumentStore {
         }
     }
 
+    @Override
+    public <T extends Document> void update(Collection<T> collection,
+                                            List<UpdateOp> updateOps) {
+        try {
+            long start = now();
+            base.update(collection, updateOps);
+            updateAndLogTimes("update multiple", start, 0, 0);
+            if (logCommonCall()) {
+                logCommonCall(start, "update multiple " + collection + " " + updateOps.size());
+            }
+        } catch (Exception e) {
+            throw convert(e);
+        }
+    }
+
     @Override
     @CheckForNull
     public <T extends Document> T createOrUpdate(Collection<T> collection, UpdateOp update) {
@@ -255,6 +270,27 @@ public class TimingDocumentStoreWrapper implements DocumentStore {
         }
     }
 
+    @Override
+    @Nonnull
+    public <T extends Document> List<T> createOrUpdate(Collection<T> collection,
+                                                       List<UpdateOp> updateOps) {
+        try {
+            long start = now();
+            List<T> result = base.createOrUpdate(collection, updateOps);
+            int resultSize = 0;
+            for (T doc : result) {
+                resultSize += size(doc);
+            }
+            updateAndLogTimes("createOrUpdate multiple", start, 0, resultSize);
+            if (logCommonCall()) {
+                logCommonCall(start, "createOrUpdate multiple " + collection + " " + updateOps.size());
+            }
+            return result;
+        } catch (Exception e) {
+            throw convert(e);
+        }
+    }
+
     @Override
     @CheckForNull
     public <T extends Document> T findAndUpdate(Collection<T> collection, UpdateOp update) {
@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.segment;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newHashSet;
+import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
+import static org.apache.jackrabbit.oak.commons.PathUtils.elements;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.Lists;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateDiff;
+
+/**
+ * Index of the paths changed between consecutive revisions of the root node.
+ * A {@link SegmentNodeState} consults this index when compared against a
+ * base state, so that the child nodes of nodes with many children only need
+ * to be compared along the changed paths instead of comparing the complete
+ * child node maps. Revisions not covered by the index are compared as usual.
+ * <p>
+ * The index is filled by the store, e.g. the {@code FileStore} indexes each
+ * commit when it sets the head state and persists the changes on flush.
+ * It is bounded to the {@link #MAX_ENTRIES} most recent entries. The
+ * entries are keyed by the plain identifiers of the records, so that the
+ * index does not keep the segments of old revisions from being collected.
+ * <p>
+ * The paths of nodes that were added or removed end with a
+ * {@link #SUBTREE_SUFFIX}, as the complete subtree below such a path might
+ * differ between revisions further apart, e.g. if a node is removed by one
+ * commit and added again by the next one. The child nodes of such a node
+ * are compared as usual.
+ */
+public class ChangeIndex {
+
+    /**
+     * Maximum number of changed paths recorded for a single commit. Larger
+     * commits are not indexed.
+     */
+    public static final int MAX_PATHS = 1000;
+
+    /**
+     * Maximum number of commits kept in the index
+     */
+    public static final int MAX_ENTRIES = 10000;
+
+    /**
+     * Maximum number of changed paths of the commits between two revisions
+     * for which the index is used. The comparison of revisions further apart
+     * falls back to comparing the node states.
+     */
+    private static final int MAX_UNION = 10 * MAX_PATHS;
+
+    /**
+     * Suffix of the paths of added or removed nodes, whose subtree changed
+     * as a whole.
+     */
+    public static final String SUBTREE_SUFFIX = "/";
+
+    private final Map<Key, Entry> entries =
+            new ConcurrentHashMap<Key, Entry>();
+
+    private final Queue<Key> order = new ConcurrentLinkedQueue<Key>();
+
+    /**
+     * Adds the paths changed by a commit to this index.
+     *
+     * @param before  the record id of the root node before the commit
+     * @param after   the record id of the root node after the commit
+     * @param paths   the relative paths of all nodes that were added,
+     *                removed or have changed properties, where the paths of
+     *                added or removed nodes end with {@link #SUBTREE_SUFFIX}
+     */
+    public synchronized void put(@Nonnull RecordId before,
+            @Nonnull RecordId after, @Nonnull Collection<String> paths) {
+        if (!before.equals(after)) {
+            Key key = new Key(after);
+            if (entries.put(key, new Entry(new Key(before), paths)) == null) {
+                order.add(key);
+            }
+            while (entries.size() > MAX_ENTRIES) {
+                entries.remove(order.remove());
+            }
+        }
+    }
+
+    /**
+     * Returns the changes between two revisions of the root node, if these
+     * are connected through a chain of indexed commits.
+     *
+     * @param before  record id of the base state
+     * @param after   record id of the changed state
+     * @return  the tree of changed paths, or {@code null} if unknown
+     */
+    @CheckForNull
+    ChangeTree getChanges(@Nonnull RecordId before, @Nonnull RecordId after) {
+        Entry entry = entries.get(new Key(after));
+        if (entry == null) {
+            return null;
+        }
+        Key beforeKey = new Key(before);
+
+        Set<String> paths = newHashSet();
+        for (int i = 0; entry != null && i < MAX_ENTRIES; i++) {
+            paths.addAll(entry.paths);
+            if (paths.size() > MAX_UNION) {
+                return null;
+            } else if (entry.before.equals(beforeKey)) {
+                ChangeTree tree = new ChangeTree();
+                for (String path : paths) {
+                    boolean subtree = path.endsWith(SUBTREE_SUFFIX);
+                    if (subtree) {
+                        path = path.substring(0, path.length() - SUBTREE_SUFFIX.length());
+                    }
+                    ChangeTree node = tree;
+                    for (String name : elements(path)) {
+                        node = node.getOrAdd(name);
+                    }
+                    if (subtree) {
+                        node.subtreeChanged = true;
+                    }
+                }
+                return tree;
+            }
+            entry = entries.get(entry.before);
+        }
+        return null;
+    }
+
+    /**
+     * @return  the number of commits in this index
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Collects the relative paths of all nodes that were added, removed or
+     * have changed properties between the given node states.
+     *
+     * @param before  the base state
+     * @param after   the changed state
+     * @param max     maximum number of paths to collect
+     * @return  the changed paths or {@code null} if there are more than
+     *          {@code max}. The paths of added or removed nodes end with
+     *          {@link #SUBTREE_SUFFIX}.
+     */
+    @CheckForNull
+    public static List<String> collectChanges(
+            @Nonnull NodeState before, @Nonnull NodeState after, int max) {
+        PathCollector collector = new PathCollector("", max);
+        if (after.compareAgainstBaseState(before, collector)) {
+            return collector.paths;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Identifier of a record, without a reference to its segment.
+     */
+    private static final class Key {
+
+        private final long msb;
+
+        private final long lsb;
+
+        private final int offset;
+
+        Key(RecordId id) {
+            SegmentId segmentId = id.getSegmentId();
+            this.msb = segmentId.getMostSignificantBits();
+            this.lsb = segmentId.getLeastSignificantBits();
+            this.offset = id.getOffset();
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            } else if (object instanceof Key) {
+                Key that = (Key) object;
+                return msb == that.msb && lsb == that.lsb && offset == that.offset;
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (msb ^ (msb >>> 32) ^ lsb ^ (lsb >>> 32)) ^ offset;
+        }
+
+    }
+
+    private static class Entry {
+
+        private final Key before;
+
+        private final List<String> paths;
+
+        Entry(Key before, Collection<String> paths) {
+            this.before = checkNotNull(before);
+            this.paths = Lists.newArrayList(paths);
+        }
+
+    }
+
+    /**
+     * Tree of the changed paths below a node. Child nodes not contained in
+     * this tree did not change.
+     */
+    static final class ChangeTree {
+
+        private Map<String, ChangeTree> children = Collections.emptyMap();
+
+        private boolean subtreeChanged;
+
+        ChangeTree getOrAdd(String name) {
+            ChangeTree child = children.get(name);
+            if (child == null) {
+                if (children.isEmpty()) {
+                    children = newHashMap();
+                }
+                child = new ChangeTree();
+                children.put(name, child);
+            }
+            return child;
+        }
+
+        /**
+         * @return  the changed child nodes and their changes
+         */
+        Map<String, ChangeTree> getChildren() {
+            return children;
+        }
+
+        /**
+         * @return  {@code true} if the node was added or removed, in which
+         *          case the complete subtree might have changed and
+         *          {@link #getChildren()} is not exhaustive
+         */
+        boolean isSubtreeChanged() {
+            return subtreeChanged;
+        }
+
+    }
+
+    private static class PathCollector implements NodeStateDiff {
+
+        private final String path;
+
+        private final List<String> paths;
+
+        private final int max;
+
+        private boolean propertiesChanged;
+
+        PathCollector(String path, int max) {
+            this(path, max, Lists.<String>newArrayList());
+        }
+
+        private PathCollector(String path, int max, List<String> paths) {
+            this.path = path;
+            this.max = max;
+            this.paths = paths;
+        }
+
+        private boolean add(String path) {
+            paths.add(path);
+            return paths.size() <= max;
+        }
+
+        private boolean propertyChange() {
+            if (!propertiesChanged) {
+                propertiesChanged = true;
+                return add(path);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean propertyAdded(PropertyState after) {
+            return propertyChange();
+        }
+
+        @Override
+        public boolean propertyChanged(PropertyState before, PropertyState after) {
+            return propertyChange();
+        }
+
+        @Override
+        public boolean propertyDeleted(PropertyState before) {
+            return propertyChange();
+        }
+
+        @Override
+        public boolean childNodeAdded(String name, NodeState after) {
+            return add(concat(path, name) + SUBTREE_SUFFIX);
+        }
+
+        @Override
+        public boolean childNodeChanged(
+                String name, NodeState before, NodeState after) {
+            return after.compareAgainstBaseState(before,
+                    new PathCollector(concat(path, name), max, paths));
+        }
+
+        @Override
+        public boolean childNodeDeleted(String name, NodeState before) {
+            return add(concat(path, name) + SUBTREE_SUFFIX);
+        }
+
+    }
+
+}
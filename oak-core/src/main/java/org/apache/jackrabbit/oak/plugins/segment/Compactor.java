@@ -16,17 +16,36 @@
  */
 package org.apache.jackrabbit.oak.plugins.segment;
 
-import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.propagate;
 import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+import static java.lang.System.currentTimeMillis;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
 import static org.apache.jackrabbit.oak.api.Type.BINARIES;
 import static org.apache.jackrabbit.oak.api.Type.BINARY;
+import static org.apache.jackrabbit.oak.plugins.segment.SegmentNodeStore.ROOT;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.apache.jackrabbit.oak.api.Blob;
 import org.apache.jackrabbit.oak.api.PropertyState;
@@ -36,12 +55,15 @@ import org.apache.jackrabbit.oak.plugins.memory.BinaryPropertyState;
 import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
 import org.apache.jackrabbit.oak.plugins.memory.MultiBinaryPropertyState;
 import org.apache.jackrabbit.oak.plugins.memory.PropertyStates;
+import org.apache.jackrabbit.oak.spi.gc.GCMonitor;
 import org.apache.jackrabbit.oak.spi.state.ApplyDiff;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Predicate;
 import com.google.common.hash.Hashing;
 
 /**
@@ -60,6 +82,12 @@ public class Compactor {
                 r.getSegmentId().getLeastSignificantBits(), r.getOffset() };
     }
 
+    /**
+     * Number of compacted nodes after which progress is reported to the
+     * {@link GCMonitor}.
+     */
+    private static final long PROGRESS_INTERVAL = 100000;
+
     private final SegmentWriter writer;
 
     private final PartialCompactionMap map;
@@ -77,40 +105,337 @@ public class Compactor {
      */
     private final boolean cloneBinaries;
 
+    /**
+     * Number of worker threads used to compact the subtrees of the repository
+     * root node. A value of {@code 1} compacts everything in the calling
+     * thread.
+     */
+    private final int threads;
+
+    private final GCMonitor gcMonitor;
+
+    /**
+     * Segments whose records should be rewritten or {@code null} to rewrite
+     * all records reachable from the compacted state. Subtrees without any
+     * records in the included segments are retained as they are.
+     */
+    private final Predicate<SegmentId> include;
+
+    /**
+     * Roots of subtrees found to have no records in any of the
+     * {@link #include included} segments, neither themselves nor in their
+     * subtrees. Guarded by its own monitor, which also guards
+     * {@link #rewritten}.
+     */
+    private final PrimitiveRecordIdSet retained = new PrimitiveRecordIdSet();
+
+    /**
+     * Nodes found to have records in the {@link #include included} segments,
+     * either themselves or in their subtrees.
+     */
+    private final PrimitiveRecordIdSet rewritten = new PrimitiveRecordIdSet();
+
+    private final AtomicLong compactedNodes = new AtomicLong();
+
+    private final long start = currentTimeMillis();
+
     public Compactor(SegmentWriter writer) {
         this(writer, null, false);
     }
 
     public Compactor(SegmentWriter writer, SegmentWriter mapWriter, boolean cloneBinaries) {
+        this(writer, mapWriter != null ? new PersistedCompactionMap(mapWriter) : null,
+                cloneBinaries, 1, GCMonitor.EMPTY);
+    }
+
+    /**
+     * Create a new compactor, which compacts the subtrees of the repository
+     * root node concurrently if more than one thread is given. Each of the worker
+     * threads writes through its own {@link SegmentWriter}, the compacted
+     * subtrees are then merged into the compacted root node by
+     * {@code writer}.
+     *
+     * @param writer         writer for the compacted root node
+     * @param map            map for recording the compacted records or
+     *                       {@code null} for an in memory compaction map
+     * @param cloneBinaries  whether to clone large binaries
+     * @param threads        number of compaction worker threads
+     * @param gcMonitor      monitor receiving progress information
+     */
+    public Compactor(SegmentWriter writer, PartialCompactionMap map, boolean cloneBinaries,
+            int threads, @Nonnull GCMonitor gcMonitor) {
+        this(writer, map, cloneBinaries, threads, gcMonitor, null);
+    }
+
+    /**
+     * Create a new compactor for incremental compaction, which only rewrites
+     * the records in the segments matched by {@code include} (along with the
+     * nodes referring to them). Subtrees without any such records are kept
+     * as they are.
+     *
+     * @param include  segments to compact or {@code null} to compact all
+     * @see #Compactor(SegmentWriter, PartialCompactionMap, boolean, int, GCMonitor)
+     */
+    public Compactor(SegmentWriter writer, PartialCompactionMap map, boolean cloneBinaries,
+            int threads, @Nonnull GCMonitor gcMonitor, @Nullable Predicate<SegmentId> include) {
+        checkArgument(threads > 0, "threads must be positive");
         this.writer = writer;
-        if (mapWriter != null) {
-            this.map = new PersistedCompactionMap(mapWriter);
+        if (map != null) {
+            this.map = map;
         } else {
             this.map = new InMemoryCompactionMap(writer.getTracker());
         }
         this.cloneBinaries = cloneBinaries;
+        this.threads = threads;
+        this.gcMonitor = checkNotNull(gcMonitor);
+        this.include = include;
     }
 
     protected SegmentNodeBuilder process(NodeState before, NodeState after) {
         SegmentNodeBuilder builder = new SegmentNodeBuilder(
                 writer.writeNode(before), writer);
-        after.compareAgainstBaseState(before, new CompactDiff(builder));
+        if (threads > 1) {
+            processParallel(before, after, builder);
+        } else {
+            after.compareAgainstBaseState(before, new CompactDiff(builder, writer));
+        }
         return builder;
     }
 
+    /**
+     * Compact the changes between {@code before} and {@code after} by handing
+     * each added or changed child of the repository root to a pool of worker
+     * threads. If {@code after} is the super root, the other children of the
+     * super root (i.e. the checkpoints) are compacted by the calling thread
+     * once the repository root is done. As checkpoints mostly share their
+     * content with the repository root, they are then de-duplicated through
+     * the compaction map instead of being compacted concurrently. Properties
+     * and removed child nodes are handled by the calling thread.
+     */
+    private void processParallel(NodeState before, NodeState after, SegmentNodeBuilder builder) {
+        SegmentTracker tracker = writer.getTracker();
+        BlockingQueue<SegmentWriter> writers = new LinkedBlockingQueue<SegmentWriter>();
+        for (int k = 0; k < threads; k++) {
+            writers.add(new SegmentWriter(tracker.getStore(), tracker,
+                    writer.getVersion(), writer.getCacheManager()));
+        }
+
+        ExecutorService executor = newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread thread = new Thread(r, "TarMK compaction worker-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            if (after.hasChildNode(ROOT)) {
+                if (compactRoot(before.getChildNode(ROOT), after.getChildNode(ROOT),
+                        builder, executor, writers)) {
+                    after.compareAgainstBaseState(before, new CompactDiff(builder, writer) {
+                        @Override
+                        public boolean childNodeAdded(String name, NodeState after) {
+                            return ROOT.equals(name) || super.childNodeAdded(name, after);
+                        }
+
+                        @Override
+                        public boolean childNodeChanged(String name, NodeState before, NodeState after) {
+                            return ROOT.equals(name) || super.childNodeChanged(name, before, after);
+                        }
+                    });
+                }
+            } else {
+                ParallelCompactDiff diff = new ParallelCompactDiff(builder, executor, writers);
+                if (after.compareAgainstBaseState(before, diff)) {
+                    diff.join();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            for (SegmentWriter w : writers) {
+                w.flush();
+            }
+        }
+    }
+
+    /**
+     * Compact the repository root {@code after} on top of {@code before}
+     * and set it as the {@link SegmentNodeStore#ROOT root} child of the
+     * given super root builder. The children of the repository root are
+     * compacted concurrently.
+     *
+     * @return  {@code false} if the diff was aborted
+     */
+    private boolean compactRoot(NodeState before, NodeState after, NodeBuilder builder,
+            ExecutorService executor, BlockingQueue<SegmentWriter> writers) {
+        RecordId id = null;
+        if (after instanceof SegmentNodeState) {
+            id = ((SegmentNodeState) after).getRecordId();
+            RecordId compactedId = getCompacted(id);
+            if (compactedId != null) {
+                builder.setChildNode(ROOT, new SegmentNodeState(compactedId));
+                return true;
+            }
+        }
+        if (isRetained(after)) {
+            builder.setChildNode(ROOT, after);
+            return true;
+        }
+
+        // compact on a standalone builder, so that the record written below
+        // is the one kept by the super root and recorded in the compaction map
+        NodeBuilder root = new SegmentNodeBuilder(writer.writeNode(
+                before.exists() ? before : EmptyNodeState.EMPTY_NODE), writer);
+        ParallelCompactDiff diff = new ParallelCompactDiff(root, executor, writers);
+        boolean success = before.exists()
+                ? after.compareAgainstBaseState(before, diff)
+                : EmptyNodeState.compareAgainstEmptyState(after, diff);
+        if (success) {
+            diff.join();
+            SegmentNodeState state = writer.writeNode(root.getNodeState());
+            builder.setChildNode(ROOT, state);
+            if (id != null) {
+                putCompacted(id, state.getRecordId());
+            }
+            compacted();
+        }
+        return success;
+    }
+
     public SegmentNodeState compact(NodeState before, NodeState after) {
+        long nodes = compactedNodes.get();
+        long t0 = currentTimeMillis();
         SegmentNodeState compacted = process(before, after).getNodeState();
         writer.flush();
+
+        long dt = currentTimeMillis() - t0;
+        nodes = compactedNodes.get() - nodes;
+        gcMonitor.info("TarMK compaction compacted {} nodes in {}ms using {} threads ({} nodes/s)",
+                nodes, dt, threads, nodes * 1000 / Math.max(1, dt));
         return compacted;
     }
 
+    /**
+     * @return  the total number of nodes compacted by this compactor so far
+     */
+    public long getCompactedNodes() {
+        return compactedNodes.get();
+    }
+
     public PartialCompactionMap getCompactionMap() {
-        map.compress();
+        synchronized (map) {
+            map.compress();
+        }
         return map;
     }
 
+    private RecordId getCompacted(RecordId id) {
+        synchronized (map) {
+            return map.get(id);
+        }
+    }
+
+    private void putCompacted(RecordId before, RecordId after) {
+        synchronized (map) {
+            // concurrent workers might have compacted a shared record twice
+            if (map.get(before) == null) {
+                map.put(before, after);
+            }
+        }
+    }
+
+    /**
+     * Determine whether the given node can be kept as it is because neither
+     * the node nor any node in its subtree has records in the included
+     * segments. Only the node record, its template, its property values and
+     * the records of its child node map are checked, records shared through
+     * these are kept alive by cleanup.
+     */
+    private boolean isRetained(NodeState state) {
+        if (include == null || !(state instanceof SegmentNodeState)) {
+            return false;
+        }
+
+        SegmentNodeState node = (SegmentNodeState) state;
+        if (hasIncludedRecords(node)) {
+            return false;
+        }
+        synchronized (retained) {
+            retained.addIfNotPresent(node.getRecordId());
+        }
+        return true;
+    }
+
+    /**
+     * Determine whether the given node or any node in its subtree has records
+     * in the included segments. Such nodes are recorded in {@link #rewritten}.
+     * Their children without included records are the roots of the subtrees
+     * the compactor keeps as they are, these are recorded in {@link #retained}.
+     * Nodes within retained subtrees are not recorded.
+     */
+    private boolean hasIncludedRecords(SegmentNodeState node) {
+        RecordId id = node.getRecordId();
+        synchronized (retained) {
+            if (retained.contains(id)) {
+                return false;
+            } else if (rewritten.contains(id)) {
+                return true;
+            }
+        }
+
+        boolean included = include.apply(id.getSegmentId())
+                || include.apply(node.getTemplateId().getSegmentId());
+        if (!included) {
+            for (PropertyState property : node.getProperties()) {
+                if (property instanceof SegmentPropertyState && include.apply(
+                        ((SegmentPropertyState) property).getRecordId().getSegmentId())) {
+                    included = true;
+                    break;
+                }
+            }
+        }
+        if (!included && node.getTemplate().getChildName() == Template.MANY_CHILD_NODES) {
+            included = node.getChildNodeMap().hasRecordsIn(include);
+        }
+
+        // the children are checked even if this node has included records,
+        // as the compactor will then ask for each of them anyway
+        List<RecordId> retainedChildren = newArrayList();
+        for (ChildNodeEntry child : node.getChildNodeEntries()) {
+            SegmentNodeState childNode = (SegmentNodeState) child.getNodeState();
+            if (hasIncludedRecords(childNode)) {
+                included = true;
+            } else {
+                retainedChildren.add(childNode.getRecordId());
+            }
+        }
+
+        if (included) {
+            synchronized (retained) {
+                rewritten.addIfNotPresent(id);
+                for (RecordId childId : retainedChildren) {
+                    retained.addIfNotPresent(childId);
+                }
+            }
+        }
+        return included;
+    }
+
+    private void compacted() {
+        long nodes = compactedNodes.incrementAndGet();
+        if (nodes % PROGRESS_INTERVAL == 0) {
+            long dt = Math.max(1, currentTimeMillis() - start);
+            gcMonitor.info("TarMK compaction progress: {} nodes compacted ({} nodes/s)",
+                    nodes, nodes * 1000 / dt);
+        }
+    }
+
     private class CompactDiff extends ApplyDiff {
 
+        private final SegmentWriter writer;
+
         /**
          * Current processed path, or null if the trace log is not enabled at
          * the beginning of the compaction call. The null check will also be
@@ -118,8 +443,9 @@ public class Compactor {
          */
         private final String path;
 
-        CompactDiff(NodeBuilder builder) {
+        CompactDiff(NodeBuilder builder, SegmentWriter writer) {
             super(builder);
+            this.writer = writer;
             if (log.isTraceEnabled()) {
                 this.path = "/";
             } else {
@@ -127,8 +453,9 @@ public class Compactor {
             }
         }
 
-        private CompactDiff(NodeBuilder builder, String path, String childName) {
+        private CompactDiff(NodeBuilder builder, SegmentWriter writer, String path, String childName) {
             super(builder);
+            this.writer = writer;
             if (path != null) {
                 this.path = concat(path, childName);
             } else {
@@ -141,7 +468,7 @@ public class Compactor {
             if (path != null) {
                 log.trace("propertyAdded {}/{}", path, after.getName());
             }
-            return super.propertyAdded(compact(after));
+            return super.propertyAdded(compact(after, writer));
         }
 
         @Override
@@ -149,7 +476,7 @@ public class Compactor {
             if (path != null) {
                 log.trace("propertyChanged {}/{}", path, after.getName());
             }
-            return super.propertyChanged(before, compact(after));
+            return super.propertyChanged(before, compact(after, writer));
         }
 
         @Override
@@ -157,75 +484,210 @@ public class Compactor {
             if (path != null) {
                 log.trace("childNodeAdded {}/{}", path, name);
             }
+            SegmentNodeState state = compactAdded(name, after);
+            if (state != null) {
+                builder.setChildNode(name, state);
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public boolean childNodeChanged(
+                String name, NodeState before, NodeState after) {
+            if (path != null) {
+                log.trace("childNodeChanged {}/{}", path, name);
+            }
+
             RecordId id = null;
             if (after instanceof SegmentNodeState) {
                 id = ((SegmentNodeState) after).getRecordId();
-                RecordId compactedId = map.get(id);
+                RecordId compactedId = getCompacted(id);
                 if (compactedId != null) {
                     builder.setChildNode(name, new SegmentNodeState(compactedId));
                     return true;
                 }
             }
+            if (isRetained(after)) {
+                builder.setChildNode(name, after);
+                return true;
+            }
 
-            NodeBuilder child = EmptyNodeState.EMPTY_NODE.builder();
-            boolean success = EmptyNodeState.compareAgainstEmptyState(after,
-                    new CompactDiff(child, path, name));
+            NodeBuilder child = builder.getChildNode(name);
+            boolean success = after.compareAgainstBaseState(before,
+                    new CompactDiff(child, writer, path, name));
 
             if (success) {
-                SegmentNodeState state = writer.writeNode(child.getNodeState());
-                builder.setChildNode(name, state);
+                RecordId compactedId = writer.writeNode(child.getNodeState())
+                        .getRecordId();
                 if (id != null) {
-                    map.put(id, state.getRecordId());
+                    putCompacted(id, compactedId);
                 }
+                compacted();
             }
 
             return success;
         }
 
-        @Override
-        public boolean childNodeChanged(
-                String name, NodeState before, NodeState after) {
-            if (path != null) {
-                log.trace("childNodeChanged {}/{}", path, name);
+        /**
+         * Compact the added child node {@code name}.
+         * @return  the compacted node or {@code null} if the diff was aborted
+         */
+        SegmentNodeState compactAdded(String name, NodeState after) {
+            RecordId id = null;
+            if (after instanceof SegmentNodeState) {
+                id = ((SegmentNodeState) after).getRecordId();
+                RecordId compactedId = getCompacted(id);
+                if (compactedId != null) {
+                    return new SegmentNodeState(compactedId);
+                }
+            }
+            if (isRetained(after)) {
+                return (SegmentNodeState) after;
+            }
+
+            NodeBuilder child = EmptyNodeState.EMPTY_NODE.builder();
+            boolean success = EmptyNodeState.compareAgainstEmptyState(after,
+                    new CompactDiff(child, writer, path, name));
+
+            if (success) {
+                SegmentNodeState state = writer.writeNode(child.getNodeState());
+                if (id != null) {
+                    putCompacted(id, state.getRecordId());
+                }
+                compacted();
+                return state;
+            } else {
+                return null;
             }
+        }
 
+        /**
+         * Compact the changed child node {@code name} on top of its
+         * {@code before} state.
+         * @return  the compacted node or {@code null} if the diff was aborted
+         */
+        SegmentNodeState compactChanged(String name, NodeState before, NodeState after) {
             RecordId id = null;
             if (after instanceof SegmentNodeState) {
                 id = ((SegmentNodeState) after).getRecordId();
-                RecordId compactedId = map.get(id);
+                RecordId compactedId = getCompacted(id);
                 if (compactedId != null) {
-                    builder.setChildNode(name, new SegmentNodeState(compactedId));
-                    return true;
+                    return new SegmentNodeState(compactedId);
                 }
             }
+            if (isRetained(after)) {
+                return (SegmentNodeState) after;
+            }
 
-            NodeBuilder child = builder.getChildNode(name);
+            NodeBuilder child = new SegmentNodeBuilder(writer.writeNode(before), writer);
             boolean success = after.compareAgainstBaseState(before,
-                    new CompactDiff(child, path, name));
+                    new CompactDiff(child, writer, path, name));
 
             if (success) {
-                RecordId compactedId = writer.writeNode(child.getNodeState())
-                        .getRecordId();
+                SegmentNodeState state = writer.writeNode(child.getNodeState());
                 if (id != null) {
-                    map.put(id, compactedId);
+                    putCompacted(id, state.getRecordId());
                 }
+                compacted();
+                return state;
+            } else {
+                return null;
             }
+        }
 
-            return success;
+    }
+
+    /**
+     * Diff for the repository root node, which compacts each added or changed child
+     * node in a separate task on the given executor. Each task takes a
+     * writer from the shared pool for the duration of the task so that
+     * no two workers write to the same segment.
+     */
+    private class ParallelCompactDiff extends CompactDiff {
+
+        private final ExecutorService executor;
+
+        private final BlockingQueue<SegmentWriter> writers;
+
+        private final Map<String, Future<SegmentNodeState>> children = newLinkedHashMap();
+
+        ParallelCompactDiff(NodeBuilder builder, ExecutorService executor,
+                BlockingQueue<SegmentWriter> writers) {
+            super(builder, Compactor.this.writer);
+            this.executor = executor;
+            this.writers = writers;
+        }
+
+        @Override
+        public boolean childNodeAdded(final String name, final NodeState after) {
+            children.put(name, executor.submit(new Callable<SegmentNodeState>() {
+                @Override
+                public SegmentNodeState call() throws InterruptedException {
+                    SegmentWriter w = writers.take();
+                    try {
+                        return new CompactDiff(builder, w).compactAdded(name, after);
+                    } finally {
+                        writers.add(w);
+                    }
+                }
+            }));
+            return true;
+        }
+
+        @Override
+        public boolean childNodeChanged(
+                final String name, final NodeState before, final NodeState after) {
+            children.put(name, executor.submit(new Callable<SegmentNodeState>() {
+                @Override
+                public SegmentNodeState call() throws InterruptedException {
+                    SegmentWriter w = writers.take();
+                    try {
+                        return new CompactDiff(builder, w).compactChanged(name, before, after);
+                    } finally {
+                        writers.add(w);
+                    }
+                }
+            }));
+            return true;
+        }
+
+        /**
+         * Wait for all workers to complete and merge the compacted child
+         * nodes into the builder of the root node.
+         */
+        void join() {
+            try {
+                int done = 0;
+                for (Map.Entry<String, Future<SegmentNodeState>> child : children.entrySet()) {
+                    SegmentNodeState state = child.getValue().get();
+                    if (state != null) {
+                        builder.setChildNode(child.getKey(), state);
+                    }
+                    gcMonitor.info("TarMK compaction progress: {} of {} subtrees compacted, " +
+                            "{} nodes compacted so far", ++done, children.size(), compactedNodes.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw propagate(e);
+            } catch (ExecutionException e) {
+                throw propagate(e.getCause());
+            }
         }
 
     }
 
-    private PropertyState compact(PropertyState property) {
+    private PropertyState compact(PropertyState property, SegmentWriter writer) {
         String name = property.getName();
         Type<?> type = property.getType();
         if (type == BINARY) {
-            Blob blob = compact(property.getValue(Type.BINARY));
+            Blob blob = compact(property.getValue(Type.BINARY), writer);
             return BinaryPropertyState.binaryProperty(name, blob);
         } else if (type == BINARIES) {
             List<Blob> blobs = new ArrayList<Blob>();
             for (Blob blob : property.getValue(BINARIES)) {
-                blobs.add(compact(blob));
+                blobs.add(compact(blob, writer));
             }
             return MultiBinaryPropertyState.binaryPropertyFromBlob(name, blobs);
         } else {
@@ -238,16 +700,17 @@ public class Compactor {
      * Compacts (and de-duplicates) the given blob.
      *
      * @param blob blob to be compacted
+     * @param writer writer for the compacted blob
      * @return compacted blob
      */
-    private Blob compact(Blob blob) {
+    private Blob compact(Blob blob, SegmentWriter writer) {
         if (blob instanceof SegmentBlob) {
             SegmentBlob sb = (SegmentBlob) blob;
 
             try {
                 // else check if we've already cloned this specific record
                 RecordId id = sb.getRecordId();
-                RecordId compactedId = map.get(id);
+                RecordId compactedId = getCompacted(id);
                 if (compactedId != null) {
                     return new SegmentBlob(compactedId);
                 }
@@ -255,17 +718,21 @@ public class Compactor {
                 // if the blob is inlined or external, just clone it
                 if (sb.isExternal() || sb.length() < Segment.MEDIUM_LIMIT) {
                     SegmentBlob clone = sb.clone(writer, cloneBinaries);
-                    map.put(id, clone.getRecordId());
+                    putCompacted(id, clone.getRecordId());
                     return clone;
                 }
 
                 // alternatively look if the exact same binary has been cloned
                 String key = getBlobKey(blob);
-                List<RecordId> ids = binaries.get(key);
+                List<RecordId> ids;
+                synchronized (binaries) {
+                    ids = binaries.get(key);
+                    ids = ids == null ? null : newArrayList(ids);
+                }
                 if (ids != null) {
                     for (RecordId duplicateId : ids) {
                         if (new SegmentBlob(duplicateId).equals(sb)) {
-                            map.put(id, duplicateId);
+                            putCompacted(id, duplicateId);
                             return new SegmentBlob(duplicateId);
                         }
                     }
@@ -273,12 +740,15 @@ public class Compactor {
 
                 // if not, clone the blob and keep track of the result
                 sb = sb.clone(writer, cloneBinaries);
-                map.put(id, sb.getRecordId());
-                if (ids == null) {
-                    ids = newArrayList();
-                    binaries.put(key, ids);
+                putCompacted(id, sb.getRecordId());
+                synchronized (binaries) {
+                    ids = binaries.get(key);
+                    if (ids == null) {
+                        ids = newArrayList();
+                        binaries.put(key, ids);
+                    }
+                    ids.add(sb.getRecordId());
                 }
-                ids.add(sb.getRecordId());
 
                 return sb;
             } catch (IOException e) {
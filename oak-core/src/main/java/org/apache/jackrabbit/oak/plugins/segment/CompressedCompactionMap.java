@@ -0,0 +1,536 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.segment;
+
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Maps.newTreeMap;
+import static com.google.common.collect.Sets.newTreeSet;
+import static org.apache.jackrabbit.oak.plugins.segment.PrimitiveRecordIdSet.allocateInts;
+import static org.apache.jackrabbit.oak.plugins.segment.PrimitiveRecordIdSet.allocateLongs;
+import static org.apache.jackrabbit.oak.plugins.segment.PrimitiveRecordIdSet.allocateShorts;
+import static org.apache.jackrabbit.oak.plugins.segment.Segment.decode;
+import static org.apache.jackrabbit.oak.plugins.segment.Segment.encode;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Space-optimized mapping of compacted record identifiers, which keeps the
+ * compacted entries in sorted tables. Used to optimize record equality
+ * comparisons across a compaction operation without holding references to
+ * the {@link SegmentId} instances of the old, compacted segments.
+ * <p>
+ * The data structure used by this class consists of four parts:
+ * <ol>
+ *   <li>The {@link #recent} map of recently compacted entries is maintained
+ *       while the compaction is in progress and new entries need to be added.
+ *       These entries are periodically compressed into the more
+ *       memory-efficient structure described below.
+ *   <li>The {@code msbs} and {@code lsbs} tables store the identifiers
+ *       of all old, compacted segments. The identifiers are stored in
+ *       increasing order, with the i'th identifier stored in the
+ *       {@code msbs[i]} and {@code lsbs[i]} slots. Interpolation search
+ *       is used to quickly locate any given identifier.
+ *   <li>Each compacted segment identifier is associated with a list of
+ *       mapping entries that point from a record offset within that
+ *       segment to the new identifier of the compacted record. The
+ *       {@code entryIndex} table is used to to locate these lists within
+ *       the larger entry tables described below. The list of entries for
+ *       the i'th identifier consists of entries from {@code entryIndex[i]}
+ *       (inclusive) to {@code entryIndex[i+1]} (exclusive). An extra
+ *       sentinel slot is added at the end of the table to make the above
+ *       rule work also for the last compacted segment identifier.
+ *   <li>The mapping entries are stored in the {@code beforeOffsets},
+ *       {@code afterSegmentIds} and {@code afterOffsets} tables. Once the
+ *       list of entries for a given compacted segment is found, the
+ *       before record offsets are scanned to find a match. If a match is
+ *       found, the corresponding compacted record will be identified by the
+ *       respective after segment identifier and offset.
+ * </ol>
+ * <p>
+ * The tables are either allocated on the heap or off-heap as direct
+ * buffers. Direct buffers are only released when they are garbage
+ * collected, so off-heap tables are grown with some headroom and the
+ * tables of the previous compression are reused for the next one while
+ * entries are added. An explicit call to {@link #compress()} trims the
+ * tables to their exact size again. Reusing the tables relies on the map
+ * only being read by the compactor while entries are added, which holds
+ * as a compaction map is only published once the compaction completed.
+ */
+abstract class CompressedCompactionMap implements PartialCompactionMap {
+
+    /**
+     * Number of map entries to keep until compressing this map.
+     */
+    private static final int COMPRESS_INTERVAL = Integer.getInteger("compress-interval", 100000);
+
+    protected final SegmentTracker tracker;
+
+    private final boolean offHeap;
+
+    private PrimitiveRecordIdMap recent;
+
+    /**
+     * The tables of the compressed entries. A new instance is only assigned
+     * once it is completely filled.
+     */
+    private volatile Tables tables;
+
+    /**
+     * Tables of the previous compression, which are not referenced by
+     * {@link #tables} any more and can be reused by the next compression,
+     * or {@code null} if none.
+     */
+    private Tables spare;
+
+    protected CompressedCompactionMap(@Nonnull SegmentTracker tracker, boolean offHeap) {
+        this.tracker = tracker;
+        this.offHeap = offHeap;
+        this.recent = new PrimitiveRecordIdMap(tracker);
+        this.tables = new Tables(offHeap);
+    }
+
+    /**
+     * Called before the compressed entries are searched for a record of the
+     * given segment. Subclasses can avoid the search by returning {@code false}
+     * if the segment is known not to be included.
+     *
+     * @param segmentId  identifier of the segment of the record
+     * @return  {@code false} if the segment is not included, {@code true} if
+     *          it might be included
+     */
+    protected boolean mightContain(@Nonnull SegmentId segmentId) {
+        return true;
+    }
+
+    /**
+     * Called when the compressed entries were rebuilt, before the new entries
+     * become visible to {@link #get(RecordId)}.
+     *
+     * @param msbs  most significant bits of the identifiers of the included
+     *              segments
+     * @param lsbs  least significant bits of the identifiers of the included
+     *              segments
+     * @param count number of included segments
+     */
+    protected void compressed(@Nonnull LongBuffer msbs, @Nonnull LongBuffer lsbs, int count) {
+    }
+
+    @Override
+    public boolean wasCompactedTo(@Nonnull RecordId before, @Nonnull RecordId after) {
+        return after.equals(get(before));
+    }
+
+    @Override
+    public boolean wasCompacted(@Nonnull UUID id) {
+        return findEntry(tables, id.getMostSignificantBits(), id.getLeastSignificantBits()) != -1;
+    }
+
+    @Override
+    @CheckForNull
+    public RecordId get(@Nonnull RecordId before) {
+        RecordId after = recent.get(before);
+        if (after != null) {
+            return after;
+        }
+
+        Tables t = tables;
+        SegmentId segmentId = before.getSegmentId();
+        if (t.segmentCount == 0 || !mightContain(segmentId)) {
+            return null;
+        }
+
+        int entry = findEntry(t,
+                segmentId.getMostSignificantBits(),
+                segmentId.getLeastSignificantBits());
+        if (entry != -1) {
+            int offset = before.getOffset();
+            int index = t.entryIndex.get(entry);
+            int limit = t.entryIndex.get(entry + 1);
+            for (int i = index; i < limit; i++) {
+                int o = decode(t.beforeOffsets.get(i));
+                if (o == offset) {
+                    // found it!
+                    return new RecordId(asSegmentId(t, i), decode(t.afterOffsets.get(i)));
+                } else if (o > offset) {
+                    return null;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    @Nonnull
+    private SegmentId asSegmentId(Tables t, int index) {
+        int idx = t.afterSegmentIds.get(index);
+        return new SegmentId(tracker, t.afterMsbs.get(idx), t.afterLsbs.get(idx));
+    }
+
+    @Override
+    public void put(@Nonnull RecordId before, @Nonnull RecordId after) {
+        if (get(before) != null) {
+            throw new IllegalArgumentException();
+        }
+        recent.put(before, after);
+        if (recent.size() >= COMPRESS_INTERVAL) {
+            compress(Collections.<UUID>emptySet(), false);
+        }
+    }
+
+    @Override
+    public void remove(@Nonnull Set<UUID> uuids) {
+        compress(uuids, true);
+    }
+
+    @Override
+    public void compress() {
+        compress(Collections.<UUID>emptySet(), true);
+    }
+
+    @Override
+    public long getSegmentCount() {
+        return tables.segmentCount;
+    }
+
+    @Override
+    public long getRecordCount() {
+        return tables.entryCount;
+    }
+
+    /**
+     * The weight of this map on the heap, which includes the map of recent
+     * entries. Tables allocated off-heap are not included.
+     */
+    @Override
+    public long getEstimatedWeight() {
+        // estimation of the object including the table objects
+        long total = 168 + 8 * 48 + recent.getTableSize();
+        if (!offHeap) {
+            total += tables.getSize();
+        }
+        return total;
+    }
+
+    /**
+     * @return  number of bytes allocated off-heap for the compressed entries,
+     *          including the tables kept for reuse
+     */
+    protected long getOffHeapSize() {
+        if (!offHeap) {
+            return 0;
+        }
+        Tables s = spare;
+        return tables.getSize() + (s != null ? s.getSize() : 0);
+    }
+
+    /**
+     * Compress the recent entries into the tables and drop the entries of
+     * the {@code removed} segments.
+     *
+     * @param removed  identifiers of the segments to remove
+     * @param trim     {@code true} to allocate the tables with their exact
+     *                 size and release all memory kept for reuse
+     */
+    private void compress(@Nonnull Set<UUID> removed, boolean trim) {
+        if (recent.isEmpty() && removed.isEmpty()) {
+            if (trim) {
+                spare = null;
+                recent = new PrimitiveRecordIdMap(tracker);
+            }
+            return;
+        }
+
+        Tables old = tables;
+        Set<UUID> uuids = newTreeSet();
+        Map<UUID, Map<Integer, RecordId>> mapping = newTreeMap();
+        for (Entry<RecordId, RecordId> entry : recent) {
+            RecordId before = entry.getKey();
+
+            SegmentId id = before.getSegmentId();
+            UUID uuid = new UUID(
+                    id.getMostSignificantBits(),
+                    id.getLeastSignificantBits());
+            uuids.add(uuid);
+
+            Map<Integer, RecordId> map = mapping.get(uuid);
+            if (map == null) {
+                map = newTreeMap();
+                mapping.put(uuid, map);
+            }
+            map.put(before.getOffset(), entry.getValue());
+        }
+
+        int oldSize = old.segmentCount;
+        for (int i = 0; i < oldSize; i++) {
+            uuids.add(new UUID(old.msbs.get(i), old.lsbs.get(i)));
+        }
+        uuids.removeAll(removed);
+
+        // count the entries in advance to allocate the tables exactly once
+        int newSize = uuids.size();
+        int newEntries = 0;
+        int oldEntry = 0;
+        for (UUID uuid : uuids) {
+            Map<Integer, RecordId> newSegment = mapping.get(uuid);
+            int count = newSegment == null ? 0 : newSegment.size();
+            oldEntry = skipTo(old, oldEntry, uuid);
+            if (oldEntry < oldSize && isEntry(old, oldEntry, uuid)) {
+                count += old.entryIndex.get(oldEntry + 1) - old.entryIndex.get(oldEntry);
+            }
+            newEntries += count;
+        }
+
+        boolean reuse = offHeap && !trim;
+        Tables next = reuse && spare != null ? spare : new Tables(offHeap);
+        spare = null;
+        next.allocate(newSize, newEntries, reuse);
+        Map<UUID, Integer> newAfterSegments = newHashMap();
+
+        int newIndex = 0;
+        int newEntry = 0;
+        oldEntry = 0;
+        for (UUID uuid : uuids) {
+            // offset -> record
+            Map<Integer, RecordId> newSegment = mapping.get(uuid);
+            if (newSegment == null) {
+                newSegment = newTreeMap();
+            }
+
+            oldEntry = skipTo(old, oldEntry, uuid);
+            if (oldEntry < oldSize && isEntry(old, oldEntry, uuid)) {
+                int index = old.entryIndex.get(oldEntry);
+                int limit = old.entryIndex.get(oldEntry + 1);
+                for (int i = index; i < limit; i++) {
+                    newSegment.put(decode(old.beforeOffsets.get(i)), new RecordId(
+                            asSegmentId(old, i), decode(old.afterOffsets.get(i))));
+                }
+                oldEntry++;
+            }
+
+            next.msbs.put(newEntry, uuid.getMostSignificantBits());
+            next.lsbs.put(newEntry, uuid.getLeastSignificantBits());
+            next.entryIndex.put(newEntry++, newIndex);
+            for (Entry<Integer, RecordId> entry : newSegment.entrySet()) {
+                int key = entry.getKey();
+                RecordId id = entry.getValue();
+                next.beforeOffsets.put(newIndex, encode(key));
+                next.afterOffsets.put(newIndex, encode(id.getOffset()));
+
+                SegmentId afterId = id.getSegmentId();
+                UUID aUUID = new UUID(
+                        afterId.getMostSignificantBits(),
+                        afterId.getLeastSignificantBits());
+                Integer aSIdx = newAfterSegments.get(aUUID);
+                if (aSIdx == null) {
+                    aSIdx = newAfterSegments.size();
+                    newAfterSegments.put(aUUID, aSIdx);
+                }
+                next.afterSegmentIds.put(newIndex, aSIdx);
+
+                newIndex++;
+            }
+        }
+        next.entryIndex.put(newEntry, newIndex);
+
+        next.allocateAfterSegments(newAfterSegments.size(), reuse);
+        for (Entry<UUID, Integer> entry : newAfterSegments.entrySet()) {
+            next.afterMsbs.put(entry.getValue(), entry.getKey().getMostSignificantBits());
+            next.afterLsbs.put(entry.getValue(), entry.getKey().getLeastSignificantBits());
+        }
+
+        compressed(next.msbs, next.lsbs, newSize);
+        tables = next;
+        if (reuse) {
+            spare = old;
+            recent.clear();
+        } else {
+            recent = new PrimitiveRecordIdMap(tracker);
+        }
+    }
+
+    /**
+     * Skip the old entries that sort before the given identifier.
+     * @return  index of the first old entry not before {@code uuid}
+     */
+    private static int skipTo(Tables t, int entry, UUID uuid) {
+        while (entry < t.segmentCount
+                && new UUID(t.msbs.get(entry), t.lsbs.get(entry)).compareTo(uuid) < 0) {
+            entry++;
+        }
+        return entry;
+    }
+
+    private static boolean isEntry(Tables t, int entry, UUID uuid) {
+        return t.msbs.get(entry) == uuid.getMostSignificantBits()
+                && t.lsbs.get(entry) == uuid.getLeastSignificantBits();
+    }
+
+    /**
+     * Finds the given segment identifier (UUID) within the list of
+     * identifiers of compacted segments tracked by this instance.
+     * Since the UUIDs are randomly generated and we keep the list
+     * sorted, we can use interpolation search to achieve
+     * {@code O(log log n)} lookup performance.
+     *
+     * @param msb most significant bits of the UUID
+     * @param lsb least significant bits of the UUID
+     * @return entry index, or {@code -1} if not found
+     */
+    private static int findEntry(Tables t, long msb, long lsb) {
+        int lowIndex = 0;
+        int highIndex = t.segmentCount - 1;
+
+        // Use floats to prevent integer overflow during interpolation.
+        // Lost accuracy is no problem, since we use interpolation only
+        // as a guess of where the target value is located and the actual
+        // comparisons are still done using the original values.
+        float lowValue = Long.MIN_VALUE;
+        float highValue = Long.MAX_VALUE;
+        float targetValue = msb;
+
+        while (lowIndex <= highIndex) {
+            int guessIndex = lowIndex;
+            float valueRange = highValue - lowValue;
+            if (valueRange >= 1) { // no point in interpolating further
+                // Math.round() also prevents IndexOutOfBoundsExceptions
+                // caused by possible inaccuracy in the float computations.
+                guessIndex += Math.round(
+                        (highIndex - lowIndex) * (targetValue - lowValue)
+                        / valueRange);
+            }
+
+            long m = t.msbs.get(guessIndex);
+            if (msb < m) {
+                highIndex = guessIndex - 1;
+                highValue = m;
+            } else if (msb > m) {
+                lowIndex = guessIndex + 1;
+                lowValue = m;
+            } else {
+                // getting close...
+                long l = t.lsbs.get(guessIndex);
+                if (lsb < l) {
+                    highIndex = guessIndex - 1;
+                    highValue = m;
+                } else if (lsb > l) {
+                    lowIndex = guessIndex + 1;
+                    lowValue = m;
+                } else {
+                    // found it!
+                    return guessIndex;
+                }
+            }
+        }
+
+        // not found
+        return -1;
+    }
+
+    /**
+     * The tables of the compressed entries. The capacity of the tables might
+     * exceed the number of segments and entries they contain.
+     */
+    private static final class Tables {
+
+        private final boolean offHeap;
+
+        int segmentCount;
+        int entryCount;
+
+        LongBuffer msbs;
+        LongBuffer lsbs;
+        IntBuffer entryIndex;
+
+        ShortBuffer beforeOffsets;
+        ShortBuffer afterOffsets;
+        IntBuffer afterSegmentIds;
+
+        LongBuffer afterMsbs;
+        LongBuffer afterLsbs;
+
+        Tables(boolean offHeap) {
+            this.offHeap = offHeap;
+            allocate(0, 0, false);
+            allocateAfterSegments(0, false);
+        }
+
+        /**
+         * Make sure the tables have room for the given number of segments
+         * and entries, reusing the current tables if they are large enough.
+         *
+         * @param grow  whether to allocate new tables with some headroom
+         */
+        void allocate(int segments, int entries, boolean grow) {
+            segmentCount = segments;
+            entryCount = entries;
+            msbs = longs(msbs, segments, grow);
+            lsbs = longs(lsbs, segments, grow);
+            entryIndex = ints(entryIndex, segments + 1, grow);
+            beforeOffsets = shorts(beforeOffsets, entries, grow);
+            afterOffsets = shorts(afterOffsets, entries, grow);
+            afterSegmentIds = ints(afterSegmentIds, entries, grow);
+        }
+
+        void allocateAfterSegments(int segments, boolean grow) {
+            afterMsbs = longs(afterMsbs, segments, grow);
+            afterLsbs = longs(afterLsbs, segments, grow);
+        }
+
+        /**
+         * @return  the number of bytes allocated for the tables
+         */
+        long getSize() {
+            return msbs.capacity() * 8L + lsbs.capacity() * 8L
+                    + entryIndex.capacity() * 4L + beforeOffsets.capacity() * 2L
+                    + afterOffsets.capacity() * 2L + afterSegmentIds.capacity() * 4L
+                    + afterMsbs.capacity() * 8L + afterLsbs.capacity() * 8L;
+        }
+
+        private LongBuffer longs(LongBuffer buffer, int count, boolean grow) {
+            if (buffer != null && buffer.capacity() >= count && grow) {
+                return buffer;
+            }
+            return allocateLongs(grow ? count + count / 2 : count, offHeap);
+        }
+
+        private IntBuffer ints(IntBuffer buffer, int count, boolean grow) {
+            if (buffer != null && buffer.capacity() >= count && grow) {
+                return buffer;
+            }
+            return allocateInts(grow ? count + count / 2 : count, offHeap);
+        }
+
+        private ShortBuffer shorts(ShortBuffer buffer, int count, boolean grow) {
+            if (buffer != null && buffer.capacity() >= count && grow) {
+                return buffer;
+            }
+            return allocateShorts(grow ? count + count / 2 : count, offHeap);
+        }
+
+    }
+
+}
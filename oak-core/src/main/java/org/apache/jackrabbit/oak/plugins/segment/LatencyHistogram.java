@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.segment;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Histogram of latencies with buckets of exponentially growing size.
+ * Bucket {@code 0} counts latencies below 1 unit, bucket {@code k}
+ * latencies from {@code 2^(k-1)} (inclusive) to {@code 2^k} units
+ * (exclusive). The last bucket counts all longer latencies.
+ * <p>
+ * Recording only updates atomic counters, so instances are thread safe
+ * and cheap enough to be always enabled.
+ */
+public class LatencyHistogram {
+
+    private final String unit;
+
+    private final AtomicLongArray counts;
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param buckets  number of buckets, at least 2
+     * @param unit     unit of the recorded latencies, used in
+     *                 {@link #toString()}
+     */
+    public LatencyHistogram(int buckets, @Nonnull String unit) {
+        checkArgument(buckets > 1, "buckets must be at least 2: %s", buckets);
+        this.unit = checkNotNull(unit);
+        this.counts = new AtomicLongArray(buckets);
+    }
+
+    /**
+     * Records a latency of {@code value} units.
+     */
+    public void record(long value) {
+        int buckets = counts.length();
+        int bucket = value <= 0
+                ? 0
+                : Math.min(buckets - 1, 64 - Long.numberOfLeadingZeros(value));
+        counts.incrementAndGet(bucket);
+
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * @return  number of recorded latencies
+     */
+    public long getCount() {
+        long count = 0;
+        for (int k = 0; k < counts.length(); k++) {
+            count += counts.get(k);
+        }
+        return count;
+    }
+
+    /**
+     * @return  maximal recorded latency
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return  a snapshot of the counts of the buckets
+     */
+    @Nonnull
+    public long[] getCounts() {
+        long[] result = new long[counts.length()];
+        for (int k = 0; k < result.length; k++) {
+            result[k] = counts.get(k);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        String sep = "";
+        long[] c = getCounts();
+        for (int k = 0; k < c.length; k++) {
+            if (c[k] > 0) {
+                sb.append(sep);
+                if (k == c.length - 1) {
+                    sb.append(">=").append(1L << (k - 1));
+                } else {
+                    sb.append('<').append(1L << k);
+                }
+                sb.append(unit).append(": ").append(c[k]);
+                sep = ", ";
+            }
+        }
+        return sb.toString();
+    }
+
+}
@@ -33,6 +33,7 @@ import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.jackrabbit.oak.spi.state.NodeStateDiff;
 
 import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
 import com.google.common.collect.ComparisonChain;
 
 /**
@@ -125,6 +126,48 @@ class MapRecord extends Record {
         return buckets;
     }
 
+    /**
+     * Checks whether this map has any records in the given segments. These
+     * are the branch and leaf records of the map, the records of the base
+     * maps it is a diff against and the records of the keys. The records of
+     * the values are not checked.
+     *
+     * @param segments  the segments to look for
+     * @return  {@code true} if a record of this map is in one of the segments
+     */
+    boolean hasRecordsIn(Predicate<SegmentId> segments) {
+        if (segments.apply(getRecordId().getSegmentId())) {
+            return true;
+        }
+
+        Segment segment = getSegment();
+        int head = segment.readInt(getOffset(0));
+        if (isDiff(head)) {
+            RecordId key = segment.readRecordId(getOffset(8));
+            RecordId base = segment.readRecordId(getOffset(8, 2));
+            return segments.apply(key.getSegmentId())
+                    || new MapRecord(base).hasRecordsIn(segments);
+        }
+
+        int size = getSize(head);
+        if (isBranch(size, getLevel(head))) {
+            for (MapRecord bucket : getBucketList(segment)) {
+                if (bucket.hasRecordsIn(segments)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        for (int i = 0; i < size; i++) {
+            RecordId key = segment.readRecordId(getOffset(4 + size * 4, i * 2));
+            if (segments.apply(key.getSegmentId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private List<MapRecord> getBucketList(Segment segment) {
         List<MapRecord> buckets = newArrayListWithCapacity(BUCKETS_PER_LEVEL);
         int bitmap = segment.readInt(getOffset(4));
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.segment;
+
+import java.nio.LongBuffer;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
+
+/**
+ * A {@code PartialCompactionMap} implementation keeping its compressed
+ * entries off-heap. The layout of the entries is the same as the one of
+ * {@link InMemoryCompactionMap}, but the sorted tables are allocated as
+ * direct buffers so that the heap usage stays flat across repeated
+ * compactions.
+ * <p>
+ * Each instance (i.e. each compaction generation) keeps a bloom filter of
+ * the identifiers of the compacted segments in front of the sorted tables,
+ * so that lookups of records which were not compacted by this generation
+ * usually fail without searching the tables. The bloom filter is rebuilt
+ * with the exact number of segments each time the map is compressed.
+ *
+ * @see CompressedCompactionMap
+ */
+public class OffHeapCompactionMap extends CompressedCompactionMap {
+
+    /**
+     * False positive probability of the bloom filter in front of the map
+     */
+    private static final double BLOOM_FILTER_FPP = 0.01;
+
+    /**
+     * Funnels {@link SegmentId}s on lookup and {@code {msb, lsb}} pairs when
+     * the filter is rebuilt, so that no segment id is created per entry.
+     * Both funnel the same bits.
+     */
+    private static final Funnel<Object> SEGMENT_ID_FUNNEL = new Funnel<Object>() {
+        @Override
+        public void funnel(Object from, PrimitiveSink into) {
+            if (from instanceof SegmentId) {
+                SegmentId id = (SegmentId) from;
+                into.putLong(id.getMostSignificantBits());
+                into.putLong(id.getLeastSignificantBits());
+            } else {
+                long[] bits = (long[]) from;
+                into.putLong(bits[0]);
+                into.putLong(bits[1]);
+            }
+        }
+    };
+
+    private volatile BloomFilter<Object> segments = newBloomFilter(0);
+
+    public OffHeapCompactionMap(@Nonnull SegmentTracker tracker) {
+        super(tracker, true);
+    }
+
+    private static BloomFilter<Object> newBloomFilter(int expectedInsertions) {
+        return BloomFilter.create(SEGMENT_ID_FUNNEL,
+                Math.max(1, expectedInsertions), BLOOM_FILTER_FPP);
+    }
+
+    @Override
+    protected boolean mightContain(@Nonnull SegmentId segmentId) {
+        return segments.mightContain(segmentId);
+    }
+
+    @Override
+    protected void compressed(@Nonnull LongBuffer msbs, @Nonnull LongBuffer lsbs, int count) {
+        BloomFilter<Object> newSegments = newBloomFilter(count);
+        long[] bits = new long[2];
+        for (int i = 0; i < count; i++) {
+            bits[0] = msbs.get(i);
+            bits[1] = lsbs.get(i);
+            newSegments.put(bits);
+        }
+        segments = newSegments;
+    }
+
+    /**
+     * The weight of this map on the heap, which consists of the bloom
+     * filter, the map of recent entries and the object itself. The memory
+     * allocated for the compressed entries is not included as it is off-heap.
+     */
+    @Override
+    public long getEstimatedWeight() {
+        // bloom filter: about 10 bits per segment at 1% false positive rate
+        return super.getEstimatedWeight() + 64 + getSegmentCount() * 10 / 8;
+    }
+
+}
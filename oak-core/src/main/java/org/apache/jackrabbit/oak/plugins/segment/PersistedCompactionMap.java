@@ -67,7 +67,7 @@ public class PersistedCompactionMap implements PartialCompactionMap {
     private long recordCount;
     private MapRecord entries;
 
-    PersistedCompactionMap(@Nonnull SegmentWriter writer) {
+    public PersistedCompactionMap(@Nonnull SegmentWriter writer) {
         this.writer = writer;
     }
 
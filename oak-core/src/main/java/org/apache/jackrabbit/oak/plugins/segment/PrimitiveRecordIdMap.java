@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.segment;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Maps.immutableEntry;
+import static org.apache.jackrabbit.oak.plugins.segment.PrimitiveRecordIdSet.allocateLongs;
+import static org.apache.jackrabbit.oak.plugins.segment.PrimitiveRecordIdSet.allocateOccupied;
+import static org.apache.jackrabbit.oak.plugins.segment.PrimitiveRecordIdSet.allocateShorts;
+import static org.apache.jackrabbit.oak.plugins.segment.PrimitiveRecordIdSet.capacityFor;
+import static org.apache.jackrabbit.oak.plugins.segment.PrimitiveRecordIdSet.find;
+import static org.apache.jackrabbit.oak.plugins.segment.PrimitiveRecordIdSet.isOccupied;
+import static org.apache.jackrabbit.oak.plugins.segment.PrimitiveRecordIdSet.needsResize;
+import static org.apache.jackrabbit.oak.plugins.segment.PrimitiveRecordIdSet.occupy;
+import static org.apache.jackrabbit.oak.plugins.segment.Segment.decode;
+import static org.apache.jackrabbit.oak.plugins.segment.Segment.encode;
+
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * A memory optimised map of {@link RecordId} keys to {@link RecordId}
+ * values. Keys and values are kept as primitive {@code (msb, lsb, offset)}
+ * triples in an open addressing hash table with linear probing, which can
+ * optionally be allocated off-heap. Record ids are only instantiated when
+ * values are retrieved.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @see PrimitiveRecordIdSet
+ */
+public class PrimitiveRecordIdMap implements Iterable<Entry<RecordId, RecordId>> {
+
+    private final SegmentTracker tracker;
+
+    private final boolean offHeap;
+
+    private LongBuffer keyIds;
+
+    private ShortBuffer keyOffsets;
+
+    private LongBuffer occupied;
+
+    private LongBuffer valueIds;
+
+    private ShortBuffer valueOffsets;
+
+    private int size;
+
+    /**
+     * @param tracker       tracker used to instantiate the segment ids of
+     *                      the returned record ids
+     * @param expectedSize  expected number of entries
+     * @param offHeap       whether to allocate the table off-heap
+     */
+    public PrimitiveRecordIdMap(
+            @Nonnull SegmentTracker tracker, int expectedSize, boolean offHeap) {
+        this.tracker = checkNotNull(tracker);
+        this.offHeap = offHeap;
+        allocate(capacityFor(expectedSize));
+    }
+
+    public PrimitiveRecordIdMap(@Nonnull SegmentTracker tracker) {
+        this(tracker, 0, false);
+    }
+
+    /**
+     * Associates {@code key} with {@code value}, replacing any previous
+     * value.
+     */
+    public void put(@Nonnull RecordId key, @Nonnull RecordId value) {
+        SegmentId keyId = key.getSegmentId();
+        long msb = keyId.getMostSignificantBits();
+        long lsb = keyId.getLeastSignificantBits();
+        short offset = encode(key.getOffset());
+
+        int slot = find(keyIds, keyOffsets, occupied, msb, lsb, offset);
+        if (slot < 0) {
+            if (needsResize(size + 1, keyOffsets.capacity())) {
+                resize();
+                slot = find(keyIds, keyOffsets, occupied, msb, lsb, offset);
+            }
+            slot = ~slot;
+            keyIds.put(2 * slot, msb);
+            keyIds.put(2 * slot + 1, lsb);
+            keyOffsets.put(slot, offset);
+            occupy(occupied, slot);
+            size++;
+        }
+
+        SegmentId valueId = value.getSegmentId();
+        valueIds.put(2 * slot, valueId.getMostSignificantBits());
+        valueIds.put(2 * slot + 1, valueId.getLeastSignificantBits());
+        valueOffsets.put(slot, encode(value.getOffset()));
+    }
+
+    /**
+     * Returns the value associated with a given {@code key} or {@code null} if none.
+     * @param key  the key to retrieve
+     * @return  the value associated with a given {@code key} or {@code null} if none.
+     */
+    @CheckForNull
+    public RecordId get(@Nonnull RecordId key) {
+        SegmentId keyId = key.getSegmentId();
+        int slot = find(keyIds, keyOffsets, occupied,
+                keyId.getMostSignificantBits(),
+                keyId.getLeastSignificantBits(),
+                encode(key.getOffset()));
+        if (slot >= 0) {
+            return getValue(slot);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of keys in this map
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all entries from this map while keeping the allocated table.
+     */
+    public void clear() {
+        for (int i = 0; i < occupied.capacity(); i++) {
+            occupied.put(i, 0);
+        }
+        size = 0;
+    }
+
+    /**
+     * @return  the number of bytes allocated for the hash table, either on
+     *          the heap or off-heap depending on how this map was created
+     */
+    public long getTableSize() {
+        return keyOffsets.capacity() * 36L + occupied.capacity() * 8L;
+    }
+
+    /**
+     * Iterates over the entries of this map in no particular order.
+     * The map must not be modified during the iteration.
+     */
+    @Override
+    public Iterator<Entry<RecordId, RecordId>> iterator() {
+        return new AbstractIterator<Entry<RecordId, RecordId>>() {
+            private int slot = 0;
+
+            @Override
+            protected Entry<RecordId, RecordId> computeNext() {
+                while (slot < keyOffsets.capacity()) {
+                    int s = slot++;
+                    if (isOccupied(occupied, s)) {
+                        RecordId key = new RecordId(
+                                tracker.getSegmentId(keyIds.get(2 * s), keyIds.get(2 * s + 1)),
+                                decode(keyOffsets.get(s)));
+                        return immutableEntry(key, getValue(s));
+                    }
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    private RecordId getValue(int slot) {
+        return new RecordId(
+                tracker.getSegmentId(valueIds.get(2 * slot), valueIds.get(2 * slot + 1)),
+                decode(valueOffsets.get(slot)));
+    }
+
+    private void allocate(int capacity) {
+        keyIds = allocateLongs(2 * capacity, offHeap);
+        keyOffsets = allocateShorts(capacity, offHeap);
+        occupied = allocateOccupied(capacity, offHeap);
+        valueIds = allocateLongs(2 * capacity, offHeap);
+        valueOffsets = allocateShorts(capacity, offHeap);
+    }
+
+    private void resize() {
+        LongBuffer oldKeyIds = keyIds;
+        ShortBuffer oldKeyOffsets = keyOffsets;
+        LongBuffer oldOccupied = occupied;
+        LongBuffer oldValueIds = valueIds;
+        ShortBuffer oldValueOffsets = valueOffsets;
+
+        allocate(2 * oldKeyOffsets.capacity());
+        for (int i = 0; i < oldKeyOffsets.capacity(); i++) {
+            if (isOccupied(oldOccupied, i)) {
+                long msb = oldKeyIds.get(2 * i);
+                long lsb = oldKeyIds.get(2 * i + 1);
+                short offset = oldKeyOffsets.get(i);
+                int slot = ~find(keyIds, keyOffsets, occupied, msb, lsb, offset);
+                keyIds.put(2 * slot, msb);
+                keyIds.put(2 * slot + 1, lsb);
+                keyOffsets.put(slot, offset);
+                occupy(occupied, slot);
+                valueIds.put(2 * slot, oldValueIds.get(2 * i));
+                valueIds.put(2 * slot + 1, oldValueIds.get(2 * i + 1));
+                valueOffsets.put(slot, oldValueOffsets.get(i));
+            }
+        }
+    }
+
+}
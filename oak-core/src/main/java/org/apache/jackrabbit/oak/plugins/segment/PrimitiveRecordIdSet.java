@@ -0,0 +1,297 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.segment;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.ByteBuffer.allocateDirect;
+import static org.apache.jackrabbit.oak.plugins.segment.Segment.encode;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A memory optimised set of {@link RecordId}s, which keeps the record
+ * identifiers as primitive {@code (msb, lsb, offset)} triples in an open
+ * addressing hash table with linear probing. Unlike {@link RecordIdSet}
+ * no objects are allocated per segment or per record, and the table can
+ * optionally be allocated off-heap.
+ * <p>
+ * The record identifiers are spread over {@link #PARTITIONS} tables by
+ * their hash code. Each table grows independently and is bounded by
+ * {@link #MAX_CAPACITY}, so the set as a whole can hold many more record
+ * identifiers than a single table.
+ * <p>
+ * The set doesn't keep references to the actual record ids it contains.
+ * This class is not thread safe.
+ */
+public class PrimitiveRecordIdSet {
+
+    /**
+     * Maximum number of slots of a table. Bounded by the number of bytes
+     * of a direct buffer holding two {@code long}s per slot.
+     */
+    static final int MAX_CAPACITY = 1 << 26;
+
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Number of bits of the hash code selecting the table of a record.
+     * These are the high bits, which are disjoint from the bits selecting
+     * the slot in a table of at most {@link #MAX_CAPACITY} slots.
+     */
+    private static final int PARTITION_BITS = 6;
+
+    /**
+     * Number of tables of a set.
+     */
+    static final int PARTITIONS = 1 << PARTITION_BITS;
+
+    private final boolean offHeap;
+
+    private final int initialCapacity;
+
+    /**
+     * Most and least significant bits of the segment identifiers, two
+     * {@code long}s per slot, for each table. Tables are allocated when
+     * the first record is added.
+     */
+    private final LongBuffer[] segmentIds = new LongBuffer[PARTITIONS];
+
+    private final ShortBuffer[] offsets = new ShortBuffer[PARTITIONS];
+
+    /**
+     * Bitmap of the occupied slots of each table, see {@link #find}.
+     */
+    private final LongBuffer[] occupied = new LongBuffer[PARTITIONS];
+
+    private final int[] sizes = new int[PARTITIONS];
+
+    private long size;
+
+    public PrimitiveRecordIdSet() {
+        this(0, false);
+    }
+
+    /**
+     * @param expectedSize  expected number of record identifiers
+     * @param offHeap       whether to allocate the tables off-heap
+     */
+    public PrimitiveRecordIdSet(int expectedSize, boolean offHeap) {
+        this.offHeap = offHeap;
+        this.initialCapacity = capacityFor(expectedSize / PARTITIONS);
+    }
+
+    /**
+     * Add {@code id} to this set if not already present
+     * @param id  the record id to add
+     * @return  {@code true} if added, {@code false} if already present
+     */
+    public boolean addIfNotPresent(@Nonnull RecordId id) {
+        SegmentId segmentId = id.getSegmentId();
+        long msb = segmentId.getMostSignificantBits();
+        long lsb = segmentId.getLeastSignificantBits();
+        short offset = encode(id.getOffset());
+
+        int partition = partition(msb, lsb, offset);
+        if (offsets[partition] == null) {
+            segmentIds[partition] = allocateLongs(2 * initialCapacity, offHeap);
+            offsets[partition] = allocateShorts(initialCapacity, offHeap);
+            occupied[partition] = allocateOccupied(initialCapacity, offHeap);
+        }
+
+        int slot = find(segmentIds[partition], offsets[partition], occupied[partition], msb, lsb, offset);
+        if (slot >= 0) {
+            return false;
+        }
+
+        if (needsResize(sizes[partition] + 1, offsets[partition].capacity())) {
+            resize(partition);
+            slot = find(segmentIds[partition], offsets[partition], occupied[partition], msb, lsb, offset);
+        }
+        slot = ~slot;
+        segmentIds[partition].put(2 * slot, msb);
+        segmentIds[partition].put(2 * slot + 1, lsb);
+        offsets[partition].put(slot, offset);
+        occupy(occupied[partition], slot);
+        sizes[partition]++;
+        size++;
+        return true;
+    }
+
+    /**
+     * Check whether {@code id} is present is this set.
+     * @param id  the record id to check for
+     * @return  {@code true} iff {@code id} is present.
+     */
+    public boolean contains(@Nonnull RecordId id) {
+        SegmentId segmentId = id.getSegmentId();
+        long msb = segmentId.getMostSignificantBits();
+        long lsb = segmentId.getLeastSignificantBits();
+        short offset = encode(id.getOffset());
+
+        int partition = partition(msb, lsb, offset);
+        return offsets[partition] != null
+                && find(segmentIds[partition], offsets[partition], occupied[partition], msb, lsb, offset) >= 0;
+    }
+
+    /**
+     * @return  the number of record ids in this set
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return  the number of bytes allocated for the hash tables, either on
+     *          the heap or off-heap depending on how this set was created
+     */
+    public long getTableSize() {
+        long tableSize = 0;
+        for (int i = 0; i < PARTITIONS; i++) {
+            if (offsets[i] != null) {
+                tableSize += offsets[i].capacity() * 18L + occupied[i].capacity() * 8L;
+            }
+        }
+        return tableSize;
+    }
+
+    private void resize(int partition) {
+        LongBuffer oldSegmentIds = segmentIds[partition];
+        ShortBuffer oldOffsets = offsets[partition];
+        LongBuffer oldOccupied = occupied[partition];
+        int capacity = 2 * oldOffsets.capacity();
+        LongBuffer newSegmentIds = allocateLongs(2 * capacity, offHeap);
+        ShortBuffer newOffsets = allocateShorts(capacity, offHeap);
+        LongBuffer newOccupied = allocateOccupied(capacity, offHeap);
+        for (int i = 0; i < oldOffsets.capacity(); i++) {
+            if (isOccupied(oldOccupied, i)) {
+                long msb = oldSegmentIds.get(2 * i);
+                long lsb = oldSegmentIds.get(2 * i + 1);
+                int slot = ~find(newSegmentIds, newOffsets, newOccupied, msb, lsb, oldOffsets.get(i));
+                newSegmentIds.put(2 * slot, msb);
+                newSegmentIds.put(2 * slot + 1, lsb);
+                newOffsets.put(slot, oldOffsets.get(i));
+                occupy(newOccupied, slot);
+            }
+        }
+        segmentIds[partition] = newSegmentIds;
+        offsets[partition] = newOffsets;
+        occupied[partition] = newOccupied;
+    }
+
+    private static int partition(long msb, long lsb, short offset) {
+        return hash(msb, lsb, offset) >>> (32 - PARTITION_BITS);
+    }
+
+    //------------------------------------------------------------< table >--
+
+    /**
+     * @return  the number of slots of a table for {@code size} entries
+     */
+    static int capacityFor(int size) {
+        int capacity = MIN_CAPACITY;
+        while (needsResize(size, capacity)) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    /**
+     * @return  {@code true} if a table with {@code capacity} slots exceeds
+     *          the maximum load factor of 0.75 with {@code size} entries
+     */
+    static boolean needsResize(int size, int capacity) {
+        if (size > capacity - (capacity >> 2)) {
+            checkArgument(capacity < MAX_CAPACITY,
+                    "Too many record ids: %s", size);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the slot of the given record in a table with two segment id
+     * {@code long}s and one offset per slot. Occupied slots are marked in
+     * a separate bitmap, as any segment id and offset is a valid key.
+     *
+     * @return  the slot containing the record, or the one's complement of
+     *          the empty slot where it should be added
+     */
+    static int find(LongBuffer segmentIds, ShortBuffer offsets, LongBuffer occupied,
+            long msb, long lsb, short offset) {
+        int mask = offsets.capacity() - 1;
+        int slot = hash(msb, lsb, offset) & mask;
+        while (true) {
+            if (!isOccupied(occupied, slot)) {
+                return ~slot;
+            } else if (segmentIds.get(2 * slot + 1) == lsb
+                    && offsets.get(slot) == offset
+                    && segmentIds.get(2 * slot) == msb) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return  a bitmap of the occupied slots of a table with
+     *          {@code capacity} slots, with all slots empty
+     */
+    static LongBuffer allocateOccupied(int capacity, boolean offHeap) {
+        return allocateLongs((capacity + 63) >>> 6, offHeap);
+    }
+
+    static boolean isOccupied(LongBuffer occupied, int slot) {
+        return (occupied.get(slot >>> 6) & (1L << slot)) != 0;
+    }
+
+    static void occupy(LongBuffer occupied, int slot) {
+        occupied.put(slot >>> 6, occupied.get(slot >>> 6) | (1L << slot));
+    }
+
+    static LongBuffer allocateLongs(int count, boolean offHeap) {
+        return offHeap
+                ? allocateDirect(count * 8).asLongBuffer()
+                : LongBuffer.allocate(count);
+    }
+
+    static IntBuffer allocateInts(int count, boolean offHeap) {
+        return offHeap
+                ? allocateDirect(count * 4).asIntBuffer()
+                : IntBuffer.allocate(count);
+    }
+
+    static ShortBuffer allocateShorts(int count, boolean offHeap) {
+        return offHeap
+                ? allocateDirect(count * 2).asShortBuffer()
+                : ShortBuffer.allocate(count);
+    }
+
+    private static int hash(long msb, long lsb, short offset) {
+        long h = (msb ^ lsb) * 0x9e3779b97f4a7c15L + offset;
+        h ^= h >>> 32;
+        h *= 0xff51afd7ed558ccdL;
+        return (int) (h ^ (h >>> 29));
+    }
+
+}
@@ -46,7 +46,7 @@ import org.apache.jackrabbit.oak.spi.state.NodeState;
  * space from aligning records is not accounted for.
  */
 public class RecordUsageAnalyser {
-    private final RecordIdSet seenIds = new RecordIdSet();
+    private final PrimitiveRecordIdSet seenIds = new PrimitiveRecordIdSet();
 
     private long mapSize;       // leaf and branch
     private long listSize;      // list and bucket
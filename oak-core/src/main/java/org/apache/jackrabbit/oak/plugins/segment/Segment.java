@@ -132,8 +132,6 @@ public class Segment {
      */
     private final ConcurrentMap<Integer, Template> templates = newConcurrentMap();
 
-    private volatile long accessed = 0;
-
     /**
      * Decode a 4 byte aligned segment offset.
      * @param offset  4 byte aligned segment offset
@@ -184,15 +182,6 @@ public class Segment {
         this.version = SegmentVersion.fromByte(buffer[3]);
     }
 
-    void access() {
-        accessed++;
-    }
-
-    boolean accessed() {
-        accessed >>>= 1;
-        return accessed != 0;
-    }
-
     SegmentVersion getSegmentVersion() {
         return version;
     }
@@ -278,6 +267,16 @@ public class Segment {
         return data.remaining();
     }
 
+    /**
+     * Returns a read-only view of the raw bytes of this segment, for
+     * transferring them without first copying them to a byte array.
+     *
+     * @return read-only buffer with the bytes of this segment
+     */
+    public ByteBuffer getData() {
+        return data.asReadOnlyBuffer();
+    }
+
     public long getCacheSize() {
         int size = 1024;
         if (!data.isDirect()) {
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.segment;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.commons.jmx.AnnotatedStandardMBean;
+
+/**
+ * Statistics of the commits of a {@link SegmentNodeStore}. Latency
+ * percentiles are calculated over a window of the most recent commits.
+ */
+public class SegmentCommitStats extends AnnotatedStandardMBean
+        implements SegmentCommitStatsMBean {
+
+    private static final int WINDOW = 1024;
+
+    private final boolean optimistic;
+
+    private final AtomicLong commitCount = new AtomicLong();
+
+    private final AtomicLong retryCount = new AtomicLong();
+
+    private final AtomicLong fallbackCount = new AtomicLong();
+
+    /**
+     * Latencies in microseconds of the most recent commits, written round robin.
+     */
+    private final long[] latencies = new long[WINDOW];
+
+    SegmentCommitStats(boolean optimistic) {
+        super(SegmentCommitStatsMBean.class);
+        this.optimistic = optimistic;
+    }
+
+    void committed(long nanos) {
+        long count = commitCount.getAndIncrement();
+        synchronized (latencies) {
+            latencies[(int) (count % WINDOW)] = NANOSECONDS.toMicros(nanos);
+        }
+    }
+
+    void retried() {
+        retryCount.incrementAndGet();
+    }
+
+    void fellBack() {
+        fallbackCount.incrementAndGet();
+    }
+
+    //------------------------------------------------------------< SegmentCommitStatsMBean >---
+
+    @Override
+    public boolean isOptimisticCommits() {
+        return optimistic;
+    }
+
+    @Override
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    @Override
+    public double getRetryRate() {
+        long commits = commitCount.get();
+        return commits == 0 ? 0 : (double) retryCount.get() / commits;
+    }
+
+    @Override
+    public long getFallbackCount() {
+        return fallbackCount.get();
+    }
+
+    @Nonnull
+    @Override
+    public String getCommitLatencyPercentiles() {
+        long[] sorted;
+        synchronized (latencies) {
+            int n = (int) Math.min(commitCount.get(), WINDOW);
+            sorted = Arrays.copyOf(latencies, n);
+        }
+        if (sorted.length == 0) {
+            return "";
+        }
+        Arrays.sort(sorted);
+        return "p50=" + percentile(sorted, 50) + "us" +
+                ", p90=" + percentile(sorted, 90) + "us" +
+                ", p99=" + percentile(sorted, 99) + "us" +
+                ", max=" + sorted[sorted.length - 1] + "us";
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        return sorted[(sorted.length - 1) * p / 100];
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentCommitStats{" +
+                "optimistic=" + optimistic +
+                ", commitCount=" + commitCount +
+                ", retryCount=" + retryCount +
+                ", fallbackCount=" + fallbackCount +
+                ", latencies=" + getCommitLatencyPercentiles() +
+                '}';
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.segment;
+
+import javax.annotation.Nonnull;
+
+/**
+ * MBean for monitoring the commits of the {@link SegmentNodeStore}.
+ */
+public interface SegmentCommitStatsMBean {
+    String TYPE = "Segment Commit Statistics";
+
+    /**
+     * @return  {@code true} if commit hooks run outside of the commit lock
+     * @see SegmentNodeStoreBuilder#withOptimisticCommits(boolean)
+     */
+    boolean isOptimisticCommits();
+
+    /**
+     * @return  number of commits so far
+     */
+    long getCommitCount();
+
+    /**
+     * @return  number of times the commit hooks had to be run again because
+     *          of conflicts with concurrent commits
+     */
+    long getRetryCount();
+
+    /**
+     * @return  ratio of retries to commits
+     */
+    double getRetryRate();
+
+    /**
+     * @return  number of optimistic commits that gave up and were completed
+     *          while holding the commit lock
+     */
+    long getFallbackCount();
+
+    /**
+     * @return  median, 90th, 99th percentile and maximum of the latencies of
+     *          the most recent commits in microseconds
+     */
+    @Nonnull
+    String getCommitLatencyPercentiles();
+}
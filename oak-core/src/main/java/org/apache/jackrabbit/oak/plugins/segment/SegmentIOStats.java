@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.segment;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.apache.jackrabbit.stats.TimeSeriesStatsUtil.asCompositeData;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.jackrabbit.oak.commons.jmx.AnnotatedStandardMBean;
+import org.apache.jackrabbit.stats.TimeSeriesRecorder;
+
+/**
+ * Segment I/O statistics of a {@link SegmentStore}. The latencies of the
+ * segment reads loading the segment from the store are recorded by the
+ * {@link SegmentTracker}. Hits of segments already in memory are not timed
+ * here, they are counted by {@link SegmentTracker#getSegmentCacheStats()}.
+ * The store records the number of bytes read and written, the number of
+ * tar files opened and the duration of its flushes.
+ * <p>
+ * Recording only updates a few atomic counters, so these statistics are
+ * always enabled. Users of this class need to schedule a call to
+ * {@link #run()} once per second to aggregate the time series.
+ */
+public class SegmentIOStats extends AnnotatedStandardMBean
+        implements SegmentIOStatsMBean, Runnable {
+
+    private final LatencyHistogram missLatencies = new LatencyHistogram(24, "us");
+
+    private final TimeSeriesRecorder bytesRead = new TimeSeriesRecorder(true);
+
+    private final TimeSeriesRecorder bytesWritten = new TimeSeriesRecorder(true);
+
+    private final TimeSeriesRecorder tarFileOpens = new TimeSeriesRecorder(true);
+
+    private final TimeSeriesRecorder flushTime = new TimeSeriesRecorder(true);
+
+    private final AtomicLong totalBytesRead = new AtomicLong();
+
+    private final AtomicLong totalBytesWritten = new AtomicLong();
+
+    private final AtomicLong totalTarFileOpens = new AtomicLong();
+
+    private final AtomicLong flushCount = new AtomicLong();
+
+    SegmentIOStats() {
+        super(SegmentIOStatsMBean.class);
+    }
+
+    /**
+     * Records the latency of a segment read that loaded the segment
+     * from the store.
+     *
+     * @param nanos  duration of the read
+     */
+    void segmentLoaded(long nanos) {
+        missLatencies.record(NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Records {@code bytes} read from the store.
+     */
+    public void bytesRead(int bytes) {
+        totalBytesRead.addAndGet(bytes);
+        bytesRead.getCounter().addAndGet(bytes);
+    }
+
+    /**
+     * Records {@code bytes} written to the store.
+     */
+    public void bytesWritten(int bytes) {
+        totalBytesWritten.addAndGet(bytes);
+        bytesWritten.getCounter().addAndGet(bytes);
+    }
+
+    /**
+     * Records the opening of a tar file by the store.
+     */
+    public void tarFileOpened() {
+        totalTarFileOpens.incrementAndGet();
+        tarFileOpens.getCounter().incrementAndGet();
+    }
+
+    /**
+     * Records a flush of the store that took {@code millis} ms.
+     */
+    public void flushed(long millis) {
+        flushCount.incrementAndGet();
+        flushTime.getCounter().addAndGet(millis);
+    }
+
+    //------------------------------------------------------------< Runnable >---
+
+    @Override
+    public void run() {
+        bytesRead.recordOneSecond();
+        bytesWritten.recordOneSecond();
+        tarFileOpens.recordOneSecond();
+        flushTime.recordOneSecond();
+    }
+
+    //------------------------------------------------------------< SegmentIOStatsMBean >---
+
+    @Override
+    public long getCacheMissCount() {
+        return missLatencies.getCount();
+    }
+
+    @Nonnull
+    @Override
+    public String getCacheMissLatencyHistogram() {
+        return missLatencies.toString();
+    }
+
+    @Override
+    public long getMaxCacheMissLatency() {
+        return missLatencies.getMax();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return totalBytesRead.get();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return totalBytesWritten.get();
+    }
+
+    @Override
+    public long getTarFileOpenCount() {
+        return totalTarFileOpens.get();
+    }
+
+    @Override
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    @Nonnull
+    @Override
+    public CompositeData getBytesReadHistory() {
+        return asCompositeData(bytesRead, "BytesRead");
+    }
+
+    @Nonnull
+    @Override
+    public CompositeData getBytesWrittenHistory() {
+        return asCompositeData(bytesWritten, "BytesWritten");
+    }
+
+    @Nonnull
+    @Override
+    public CompositeData getTarFileOpenHistory() {
+        return asCompositeData(tarFileOpens, "TarFileOpens");
+    }
+
+    @Nonnull
+    @Override
+    public CompositeData getFlushTimeHistory() {
+        return asCompositeData(flushTime, "FlushTime");
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentIOStats{" +
+                "missLatencies=" + missLatencies +
+                ", bytesRead=" + totalBytesRead +
+                ", bytesWritten=" + totalBytesWritten +
+                ", tarFileOpens=" + totalTarFileOpens +
+                ", flushCount=" + flushCount +
+                '}';
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.segment;
+
+import javax.annotation.Nonnull;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * MBean for monitoring the segment I/O of a {@link SegmentStore}.
+ */
+public interface SegmentIOStatsMBean {
+    String TYPE = "Segment IO Statistics";
+
+    /**
+     * @return  number of segment reads that loaded the segment from the store
+     */
+    long getCacheMissCount();
+
+    /**
+     * @return  histogram of the latencies of the segment reads that loaded
+     *          the segment from the store in microseconds
+     */
+    @Nonnull
+    String getCacheMissLatencyHistogram();
+
+    /**
+     * @return  maximal latency of a segment read that loaded the segment
+     *          from the store in microseconds
+     */
+    long getMaxCacheMissLatency();
+
+    /**
+     * @return  number of bytes of segments read from the store so far
+     */
+    long getBytesRead();
+
+    /**
+     * @return  number of bytes of segments written to the store so far
+     */
+    long getBytesWritten();
+
+    /**
+     * @return  number of tar files opened so far
+     */
+    long getTarFileOpenCount();
+
+    /**
+     * @return  number of flushes so far
+     */
+    long getFlushCount();
+
+    /**
+     * @return  time series of the number of bytes read per second
+     */
+    @Nonnull
+    CompositeData getBytesReadHistory();
+
+    /**
+     * @return  time series of the number of bytes written per second
+     */
+    @Nonnull
+    CompositeData getBytesWrittenHistory();
+
+    /**
+     * @return  time series of the number of tar files opened per second
+     */
+    @Nonnull
+    CompositeData getTarFileOpenHistory();
+
+    /**
+     * @return  time series of the time in ms spent flushing per second
+     */
+    @Nonnull
+    CompositeData getFlushTimeHistory();
+}
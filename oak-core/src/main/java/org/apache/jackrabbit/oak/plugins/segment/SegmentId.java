@@ -108,12 +108,18 @@ public class SegmentId implements Comparable<SegmentId> {
                     segment = tracker.getSegment(this);
                 }
             }
+        } else {
+            tracker.accessSegment(this);
         }
-        segment.access();
         return segment;
     }
 
-    synchronized void setSegment(Segment segment) {
+    /**
+     * Not synchronized, as this is called by the segment cache of the
+     * tracker while evicting, which could otherwise deadlock with a
+     * concurrent {@link #getSegment()} call that loads this segment.
+     */
+    void setSegment(Segment segment) {
         this.segment = segment;
     }
 
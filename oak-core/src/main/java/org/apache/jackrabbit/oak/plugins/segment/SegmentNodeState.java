@@ -36,6 +36,7 @@ import static org.apache.jackrabbit.oak.spi.state.AbstractNodeState.checkValidNa
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
@@ -44,6 +45,7 @@ import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
 import org.apache.jackrabbit.oak.plugins.memory.MemoryChildNodeEntry;
+import org.apache.jackrabbit.oak.plugins.segment.ChangeIndex.ChangeTree;
 import org.apache.jackrabbit.oak.spi.state.AbstractNodeState;
 import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
@@ -59,8 +61,23 @@ public class SegmentNodeState extends Record implements NodeState {
 
     private volatile Template template = null;
 
+    /**
+     * Changes of this node against the base state identified by
+     * {@link #changesBase}, or {@code null} if not known.
+     */
+    private final ChangeTree changes;
+
+    private final RecordId changesBase;
+
     public SegmentNodeState(RecordId id) {
+        this(id, null, null);
+    }
+
+    private SegmentNodeState(
+            RecordId id, RecordId changesBase, ChangeTree changes) {
         super(id);
+        this.changesBase = changesBase;
+        this.changes = changes;
     }
 
     RecordId getTemplateId() {
@@ -578,6 +595,12 @@ public class SegmentNodeState extends Record implements NodeState {
                 }
             }
         } else {
+            ChangeTree knownChanges = getChanges(that);
+            if (knownChanges != null && !knownChanges.isSubtreeChanged()) {
+                // only visit the changed child nodes instead of comparing
+                // the potentially large child node maps
+                return compareChildNodes(that, knownChanges, diff);
+            }
             MapRecord afterMap = afterTemplate.getChildNodeMap(afterId);
             MapRecord beforeMap = beforeTemplate.getChildNodeMap(beforeId);
             return afterMap.compare(beforeMap, diff);
@@ -586,6 +609,56 @@ public class SegmentNodeState extends Record implements NodeState {
         return true;
     }
 
+    /**
+     * @return  the changes of this node against {@code base} if known
+     *          from the {@link ChangeIndex}, {@code null} otherwise
+     */
+    @CheckForNull
+    private ChangeTree getChanges(SegmentNodeState base) {
+        RecordId baseId = base.getRecordId();
+        if (changes != null && baseId.equals(changesBase)) {
+            return changes;
+        } else {
+            return getTracker().getChangeIndex().getChanges(baseId, getRecordId());
+        }
+    }
+
+    private boolean compareChildNodes(
+            SegmentNodeState base, ChangeTree changes, NodeStateDiff diff) {
+        for (Map.Entry<String, ChangeTree> entry
+                : changes.getChildren().entrySet()) {
+            String name = entry.getKey();
+            NodeState beforeChild = base.getChildNode(name);
+            NodeState afterChild = getChildNode(name);
+            if (!afterChild.exists()) {
+                if (beforeChild.exists()
+                        && !diff.childNodeDeleted(name, beforeChild)) {
+                    return false;
+                }
+            } else if (!beforeChild.exists()) {
+                if (!diff.childNodeAdded(name, afterChild)) {
+                    return false;
+                }
+            } else if (entry.getValue().isSubtreeChanged()) {
+                // removed and added again: the changes below are unknown
+                if (!fastEquals(afterChild, beforeChild)
+                        && !diff.childNodeChanged(name, beforeChild, afterChild)) {
+                    return false;
+                }
+            } else if (!fastEquals(afterChild, beforeChild)) {
+                // pass the changes on to the comparison of the child node
+                NodeState after = new SegmentNodeState(
+                        ((SegmentNodeState) afterChild).getRecordId(),
+                        ((SegmentNodeState) beforeChild).getRecordId(),
+                        entry.getValue());
+                if (!diff.childNodeChanged(name, beforeChild, after)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     private static boolean compareProperties(
             PropertyState before, PropertyState after, NodeStateDiff diff) {
         if (before == null) {
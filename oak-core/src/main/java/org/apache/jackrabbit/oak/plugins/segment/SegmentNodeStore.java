@@ -46,6 +46,7 @@ import org.apache.jackrabbit.oak.api.Blob;
 import org.apache.jackrabbit.oak.api.CommitFailedException;
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.segment.file.FileStore;
 import org.apache.jackrabbit.oak.plugins.segment.memory.MemoryStore;
 import org.apache.jackrabbit.oak.spi.blob.BlobStore;
 import org.apache.jackrabbit.oak.spi.commit.ChangeDispatcher;
@@ -53,6 +54,7 @@ import org.apache.jackrabbit.oak.spi.commit.CommitHook;
 import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
 import org.apache.jackrabbit.oak.spi.commit.Observable;
 import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.AbstractRebaseDiff;
 import org.apache.jackrabbit.oak.spi.state.ConflictAnnotatingRebaseDiff;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
@@ -91,6 +93,20 @@ public class SegmentNodeStore implements NodeStore, Observable {
      */
     private final Semaphore commitSemaphore = new Semaphore(1);
 
+    /**
+     * Number of times the commit hooks of an optimistic commit are run
+     * before falling back to running them while holding the commit lock.
+     */
+    private static final int OPTIMISTIC_RETRIES = 3;
+
+    /**
+     * Whether commit hooks run outside of the {@link #commitSemaphore}.
+     * @see SegmentNodeStoreBuilder#withOptimisticCommits(boolean)
+     */
+    private final boolean optimisticCommits;
+
+    private final SegmentCommitStats commitStats;
+
     private long maximumBackoff = MILLISECONDS.convert(10, SECONDS);
 
     @Nonnull
@@ -109,7 +125,13 @@ public class SegmentNodeStore implements NodeStore, Observable {
     }
 
     SegmentNodeStore(SegmentStore store, boolean internal) {
+        this(store, internal, false);
+    }
+
+    SegmentNodeStore(SegmentStore store, boolean internal, boolean optimisticCommits) {
         this.store = store;
+        this.optimisticCommits = optimisticCommits;
+        this.commitStats = new SegmentCommitStats(optimisticCommits);
         this.head = new AtomicReference<SegmentNodeState>(store.getHead());
         this.changeDispatcher = new ChangeDispatcher(getRoot());
     }
@@ -122,6 +144,14 @@ public class SegmentNodeStore implements NodeStore, Observable {
         this.maximumBackoff = max;
     }
 
+    /**
+     * @return  commit statistics of this store
+     */
+    @Nonnull
+    public SegmentCommitStats getCommitStats() {
+        return commitStats;
+    }
+
     /**
      * Execute the passed callable with trying to acquire this store's commit lock.
      * @param c  callable to execute
@@ -172,6 +202,19 @@ public class SegmentNodeStore implements NodeStore, Observable {
         }
     }
 
+    /**
+     * Waits until the head state set by the current thread is durable if
+     * the underlying store is a {@link FileStore} with commit durability.
+     * Must be called after releasing the {@link #commitSemaphore}, so that
+     * concurrent commits share the same flush and a commit setting the head
+     * state more than once only waits for the last one.
+     */
+    private void awaitDurability() {
+        if (store instanceof FileStore) {
+            ((FileStore) store).awaitDurability();
+        }
+    }
+
     @Override
     public Closeable addObserver(Observer observer) {
         return changeDispatcher.addObserver(observer);
@@ -199,15 +242,29 @@ public class SegmentNodeStore implements NodeStore, Observable {
         SegmentNodeBuilder snb = (SegmentNodeBuilder) builder;
 
         try {
-            commitSemaphore.acquire();
-            try {
-                Commit commit = new Commit(snb, commitHook, info);
-                NodeState merged = commit.execute();
-                snb.reset(merged);
-                return merged;
-            } finally {
-                commitSemaphore.release();
+            long start = System.nanoTime();
+            Commit commit;
+            NodeState merged;
+            if (optimisticCommits) {
+                commit = new Commit(snb, commitHook, info);
+                merged = commit.executeOptimistic();
+            } else {
+                commitSemaphore.acquire();
+                try {
+                    // the commit writes the pending changes, which must not
+                    // interleave with compaction. See OAK-2192.
+                    commit = new Commit(snb, commitHook, info);
+                    merged = commit.execute();
+                } finally {
+                    commitSemaphore.release();
+                }
             }
+            if (commit.hasSetHead()) {
+                awaitDurability();
+            }
+            snb.reset(merged);
+            commitStats.committed(System.nanoTime() - start);
+            return merged;
         } catch (InterruptedException e) {
             throw new CommitFailedException(
                     "Segment", 2, "Merge interrupted", e);
@@ -279,7 +336,8 @@ public class SegmentNodeStore implements NodeStore, Observable {
         long now = System.currentTimeMillis();
 
         // try 5 times
-        for (int i = 0; i < 5; i++) {
+        boolean created = false;
+        for (int i = 0; i < 5 && !created; i++) {
             if (commitSemaphore.tryAcquire()) {
                 try {
                     refreshHead();
@@ -312,7 +370,7 @@ public class SegmentNodeStore implements NodeStore, Observable {
                     SegmentNodeState newState = builder.getNodeState();
                     if (store.setHead(state, newState)) {
                         refreshHead();
-                        return name;
+                        created = true;
                     } else {
                         log.debug(
                                 "Unable to update the head state for checkpoint {} ({}/5)",
@@ -325,7 +383,11 @@ public class SegmentNodeStore implements NodeStore, Observable {
             }
         }
 
-        log.debug("Failed to create checkpoint {}", name);
+        if (created) {
+            awaitDurability();
+        } else {
+            log.debug("Failed to create checkpoint {}", name);
+        }
         return name;
     }
 
@@ -369,7 +431,8 @@ public class SegmentNodeStore implements NodeStore, Observable {
         checkNotNull(checkpoint);
 
         // try 5 times
-        for (int i = 0; i < 5; i++) {
+        boolean released = false;
+        for (int i = 0; i < 5 && !released; i++) {
             if (commitSemaphore.tryAcquire()) {
                 try {
                     refreshHead();
@@ -384,7 +447,7 @@ public class SegmentNodeStore implements NodeStore, Observable {
                         SegmentNodeState newState = builder.getNodeState();
                         if (store.setHead(state, newState)) {
                             refreshHead();
-                            return true;
+                            released = true;
                         }
                     }
                 } finally {
@@ -392,7 +455,10 @@ public class SegmentNodeStore implements NodeStore, Observable {
                 }
             }
         }
-        return false;
+        if (released) {
+            awaitDurability();
+        }
+        return released;
     }
 
     NodeState getCheckpoints() {
@@ -411,6 +477,11 @@ public class SegmentNodeStore implements NodeStore, Observable {
 
         private final CommitInfo info;
 
+        /**
+         * Whether this commit updated the head state of the store.
+         */
+        private boolean headSet;
+
         Commit(@Nonnull SegmentNodeBuilder builder,
                 @Nonnull CommitHook hook, @Nonnull CommitInfo info) {
             checkNotNull(builder);
@@ -424,6 +495,7 @@ public class SegmentNodeStore implements NodeStore, Observable {
         private boolean setHead(SegmentNodeState before, SegmentNodeState after) {
             refreshHead();
             if (store.setHead(before, after)) {
+                headSet = true;
                 head.set(after);
                 changeDispatcher.contentChanged(after.getChildNode(ROOT), info);
                 refreshHead();
@@ -433,6 +505,15 @@ public class SegmentNodeStore implements NodeStore, Observable {
             }
         }
 
+        boolean hasSetHead() {
+            return headSet;
+        }
+
+        private boolean isLocked(SegmentNodeState state) {
+            return state.hasProperty("token")
+                    && state.getLong("timeout") >= currentTimeMillis();
+        }
+
         private SegmentNodeBuilder prepare(SegmentNodeState state) throws CommitFailedException {
             SegmentNodeBuilder builder = state.builder();
             if (fastEquals(before, state.getChildNode(ROOT))) {
@@ -519,6 +600,89 @@ public class SegmentNodeStore implements NodeStore, Observable {
             }
         }
 
+        /**
+         * Rebase the changes of {@code processed} against {@code base} onto
+         * {@code current}.
+         * @return  the rebased state or {@code null} on conflicts
+         */
+        @CheckForNull
+        private SegmentNodeState rebase(SegmentNodeState base,
+                SegmentNodeState processed, SegmentNodeState current) {
+            if (fastEquals(base, current)) {
+                return processed;
+            }
+            SegmentNodeBuilder builder = current.builder();
+            ConflictDetectingRebaseDiff diff = new ConflictDetectingRebaseDiff(builder);
+            processed.compareAgainstBaseState(base, diff);
+            if (diff.hasConflicts()) {
+                return null;
+            }
+            return builder.getNodeState();
+        }
+
+        /**
+         * Execute this commit running the commit hooks outside of the
+         * {@link #commitSemaphore} against a snapshot of the head state.
+         * Only rebasing the processed changes onto the current head and
+         * updating the head are done while holding the semaphore. The hooks
+         * are run again only if the processed changes conflict with changes
+         * committed concurrently. After {@link #OPTIMISTIC_RETRIES} attempts,
+         * while the journal is locked by someone else, or if the store was
+         * compacted while the hooks were running, the commit falls back to
+         * {@link #execute()} while holding the semaphore.
+         * <p>
+         * Note that changes from concurrent commits not conflicting with the
+         * changes of this commit have not been seen by the commit hooks of
+         * this commit.
+         */
+        @Nonnull
+        NodeState executeOptimistic()
+                throws CommitFailedException, InterruptedException {
+            if (fastEquals(before, after)) {
+                return getRoot();
+            }
+
+            getRoot(); // refresh the head state, if possible
+            SegmentNodeState base = head.get();
+            for (int i = 0; i < OPTIMISTIC_RETRIES && !isLocked(base); i++) {
+                if (i > 0) {
+                    commitStats.retried();
+                }
+                CompactionMap generation = store.getTracker().getCompactionMap();
+                SegmentNodeState processed = prepare(base).getNodeState();
+
+                commitSemaphore.acquire();
+                try {
+                    if (generation != store.getTracker().getCompactionMap()) {
+                        // the processed changes were written concurrently with
+                        // the compaction's head update. Rebase and run the hooks
+                        // again while holding the semaphore. See OAK-2192.
+                        commitStats.fellBack();
+                        return execute();
+                    }
+                    refreshHead();
+                    SegmentNodeState current = head.get();
+                    if (!isLocked(current)) {
+                        SegmentNodeState rebased = rebase(base, processed, current);
+                        if (rebased != null && setHead(current, rebased)) {
+                            return head.get().getChildNode(ROOT);
+                        }
+                    }
+                    base = head.get();
+                } finally {
+                    commitSemaphore.release();
+                }
+            }
+
+            commitStats.fellBack();
+            commitSemaphore.acquire();
+            try {
+                return execute();
+            } finally {
+                commitSemaphore.release();
+            }
+        }
+
         @Nonnull
         NodeState execute()
                 throws CommitFailedException, InterruptedException {
@@ -534,4 +698,87 @@ public class SegmentNodeStore implements NodeStore, Observable {
 
     }
 
+    /**
+     * Rebase diff that only records whether there are conflicts, without
+     * annotating them.
+     */
+    private static class ConflictDetectingRebaseDiff extends AbstractRebaseDiff {
+
+        private final ConflictDetectingRebaseDiff root;
+
+        private boolean conflict;
+
+        ConflictDetectingRebaseDiff(NodeBuilder builder) {
+            super(builder);
+            this.root = this;
+        }
+
+        private ConflictDetectingRebaseDiff(
+                NodeBuilder builder, ConflictDetectingRebaseDiff root) {
+            super(builder);
+            this.root = root;
+        }
+
+        boolean hasConflicts() {
+            return conflict;
+        }
+
+        private void conflict() {
+            root.conflict = true;
+        }
+
+        @Override
+        protected ConflictDetectingRebaseDiff createDiff(NodeBuilder builder, String name) {
+            return new ConflictDetectingRebaseDiff(builder.child(name), root);
+        }
+
+        @Override
+        protected void addExistingProperty(
+                NodeBuilder builder, PropertyState before, PropertyState after) {
+            conflict();
+        }
+
+        @Override
+        protected void changeDeletedProperty(NodeBuilder builder, PropertyState after) {
+            conflict();
+        }
+
+        @Override
+        protected void changeChangedProperty(
+                NodeBuilder builder, PropertyState before, PropertyState after) {
+            conflict();
+        }
+
+        @Override
+        protected void deleteDeletedProperty(NodeBuilder builder, PropertyState before) {
+            conflict();
+        }
+
+        @Override
+        protected void deleteChangedProperty(NodeBuilder builder, PropertyState before) {
+            conflict();
+        }
+
+        @Override
+        protected void addExistingNode(
+                NodeBuilder builder, String name, NodeState before, NodeState after) {
+            conflict();
+        }
+
+        @Override
+        protected void changeDeletedNode(NodeBuilder builder, String name, NodeState after) {
+            conflict();
+        }
+
+        @Override
+        protected void deleteDeletedNode(NodeBuilder builder, String name, NodeState before) {
+            conflict();
+        }
+
+        @Override
+        protected void deleteChangedNode(NodeBuilder builder, String name, NodeState before) {
+            conflict();
+        }
+    }
+
 }
@@ -46,6 +46,7 @@ public class SegmentNodeStoreBuilder {
     private boolean persistCompactionMap;
     private byte gainThreshold;
     private CompactionStrategy compactionStrategy;
+    private boolean optimisticCommits;
 
     static SegmentNodeStoreBuilder newSegmentNodeStore(SegmentStore store) {
         return new SegmentNodeStoreBuilder(store);
@@ -83,6 +84,19 @@ public class SegmentNodeStoreBuilder {
         return this;
     }
 
+    /**
+     * Run the commit hooks of concurrent commits in parallel outside of
+     * the commit lock. Only rebasing the processed changes onto the
+     * current head state and updating it are serialized. The commit hooks
+     * of a commit are run again only if its changes conflict with a
+     * concurrent commit. Note that commit hooks then don't see changes
+     * of concurrent commits that don't conflict with their own changes.
+     */
+    public SegmentNodeStoreBuilder withOptimisticCommits(boolean optimisticCommits) {
+        this.optimisticCommits = optimisticCommits;
+        return this;
+    }
+
     public CompactionStrategy getCompactionStrategy() {
         checkState(isCreated);
         return compactionStrategy;
@@ -92,7 +106,7 @@ public class SegmentNodeStoreBuilder {
     public SegmentNodeStore create() {
         checkState(!isCreated);
         isCreated = true;
-        final SegmentNodeStore segmentStore = new SegmentNodeStore(store, true);
+        final SegmentNodeStore segmentStore = new SegmentNodeStore(store, true, optimisticCommits);
         if (hasCompactionStrategy) {
             compactionStrategy = new CompactionStrategy(pauseCompaction,
                     cloneBinaries, CleanupType.valueOf(cleanup), cleanupTs,
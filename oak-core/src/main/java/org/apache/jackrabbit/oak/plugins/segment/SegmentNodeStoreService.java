@@ -24,9 +24,12 @@ import static org.apache.jackrabbit.oak.commons.PropertiesUtil.toLong;
 import static org.apache.jackrabbit.oak.osgi.OsgiUtil.fallbackLookup;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.CLEANUP_DEFAULT;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.CLONE_BINARIES_DEFAULT;
+import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.COMPACTION_THREADS_DEFAULT;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.FORCE_AFTER_FAIL_DEFAULT;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.GAIN_THRESHOLD_DEFAULT;
+import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.INCREMENTAL_COMPACTION_DEFAULT;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.MEMORY_THRESHOLD_DEFAULT;
+import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.OFF_HEAP_COMPACTION_MAP_DEFAULT;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.PAUSE_DEFAULT;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.PERSIST_COMPACTION_MAP_DEFAULT;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.RETRY_COUNT_DEFAULT;
@@ -51,7 +54,9 @@ import org.apache.felix.scr.annotations.PropertyOption;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.ReferencePolicy;
+import org.apache.jackrabbit.oak.api.jmx.CacheStatsMBean;
 import org.apache.jackrabbit.oak.api.jmx.CheckpointMBean;
+import org.apache.jackrabbit.oak.cache.CacheStats;
 import org.apache.jackrabbit.oak.osgi.ObserverTracker;
 import org.apache.jackrabbit.oak.osgi.OsgiWhiteboard;
 import org.apache.jackrabbit.oak.plugins.blob.BlobGC;
@@ -65,10 +70,15 @@ import org.apache.jackrabbit.oak.plugins.identifier.ClusterRepositoryInfo;
 import org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy;
 import org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategyMBean;
 import org.apache.jackrabbit.oak.plugins.segment.compaction.DefaultCompactionStrategyMBean;
+import org.apache.jackrabbit.oak.plugins.segment.file.Durability;
 import org.apache.jackrabbit.oak.plugins.segment.file.FileStore;
 import org.apache.jackrabbit.oak.plugins.segment.file.FileStore.Builder;
 import org.apache.jackrabbit.oak.plugins.segment.file.FileStoreGCMonitor;
+import org.apache.jackrabbit.oak.plugins.segment.file.FlushStats;
+import org.apache.jackrabbit.oak.plugins.segment.file.FlushStatsMBean;
 import org.apache.jackrabbit.oak.plugins.segment.file.GCMonitorMBean;
+import org.apache.jackrabbit.oak.plugins.segment.file.SegmentPrefetcher;
+import org.apache.jackrabbit.oak.plugins.segment.file.SegmentPrefetcherMBean;
 import org.apache.jackrabbit.oak.spi.blob.BlobStore;
 import org.apache.jackrabbit.oak.spi.blob.GarbageCollectableBlobStore;
 import org.apache.jackrabbit.oak.spi.commit.Observable;
@@ -133,6 +143,120 @@ public class SegmentNodeStoreService extends ProxyNodeStore
     )
     public static final String CACHE = "cache";
 
+    @Property(
+            intValue = WriterCacheManager.DEFAULT_STRING_CACHE_SIZE,
+            label = "String Deduplication Cache Size (MB)",
+            description = "Size of the cache of recently written strings, which are reused instead of rewritten. 0 disables the cache"
+    )
+    public static final String STRING_CACHE_SIZE = "stringCacheSize";
+
+    @Property(
+            intValue = WriterCacheManager.DEFAULT_TEMPLATE_CACHE_SIZE,
+            label = "Template Deduplication Cache Size (MB)",
+            description = "Size of the cache of recently written templates, which are reused instead of rewritten. 0 disables the cache"
+    )
+    public static final String TEMPLATE_CACHE_SIZE = "templateCacheSize";
+
+    @Property(
+            intValue = WriterCacheManager.DEFAULT_NODE_CACHE_SIZE,
+            label = "Node Deduplication Cache Size (MB)",
+            description = "Size of the cache of recently written nodes, which are reused instead of rewritten. 0 disables the cache"
+    )
+    public static final String NODE_CACHE_SIZE = "nodeCacheSize";
+
+    @Property(options = {
+            @PropertyOption(name = "INTERVAL", value = "INTERVAL"),
+            @PropertyOption(name = "BATCH", value = "BATCH"),
+            @PropertyOption(name = "COMMIT", value = "COMMIT") },
+            value = "INTERVAL",
+            label = "Durability",
+            description = "When the head state set by commits is persisted. " +
+                    "1. INTERVAL: by the background flush thread in regular intervals (tarmk.flushInterval), " +
+                    "2. BATCH: additionally as soon as a number of segments has been written (tarmk.flushBatchSize), " +
+                    "3. COMMIT: each commit waits until its head state is persisted, " +
+                    "concurrent commits are persisted together"
+    )
+    public static final String DURABILITY = "tarmk.durability";
+
+    @Property(
+            intValue = 5000,
+            label = "Flush Interval (ms)",
+            description = "Interval in ms in which the head state is persisted by the background flush thread"
+    )
+    public static final String FLUSH_INTERVAL = "tarmk.flushInterval";
+
+    @Property(
+            intValue = 100,
+            label = "Flush Batch Size",
+            description = "Number of segments written after which the head state is persisted. " +
+                    "Only applies to the BATCH durability."
+    )
+    public static final String FLUSH_BATCH_SIZE = "tarmk.flushBatchSize";
+
+    @Property(
+            intValue = 0,
+            label = "Writer Pool Size",
+            description = "Number of segment writers shared by concurrently committing threads. " +
+                    "0 means one writer per available processor."
+    )
+    public static final String WRITER_POOL_SIZE = "tarmk.writerPoolSize";
+
+    @Property(
+            boolValue = false,
+            label = "Compression",
+            description = "Compress data segments written to the tar files. Reduces the disk " +
+                    "footprint at the cost of decompressing segments when they are read. " +
+                    "Compressed segments can't be read by older versions of Oak."
+    )
+    public static final String COMPRESSION = "tarmk.compression";
+
+    @Property(
+            intValue = SegmentPrefetcher.DEFAULT_DEPTH,
+            label = "Prefetch Depth",
+            description = "Number of levels of referenced segments read ahead from the same tar file " +
+                    "on a segment cache miss. 0 disables prefetching."
+    )
+    public static final String PREFETCH_DEPTH = "tarmk.prefetch.depth";
+
+    @Property(
+            intValue = SegmentPrefetcher.DEFAULT_THREADS,
+            label = "Prefetch Threads",
+            description = "Number of threads reading segments ahead"
+    )
+    public static final String PREFETCH_THREADS = "tarmk.prefetch.threads";
+
+    @Property(
+            label = "Cold Directory",
+            description = "Directory of the cold storage tier, typically on a cheaper volume. Tar files " +
+                    "which are neither recently written nor frequently read are moved there. Tiering " +
+                    "is disabled if not set."
+    )
+    public static final String COLD_DIRECTORY = "tarmk.cold.directory";
+
+    @Property(
+            intValue = FileStore.DEFAULT_HOT_FILE_COUNT,
+            label = "Hot File Count",
+            description = "Number of most recently written tar files always kept in the main directory"
+    )
+    public static final String HOT_FILE_COUNT = "tarmk.hot.fileCount";
+
+    @Property(
+            intValue = FileStore.DEFAULT_COLD_READ_THRESHOLD,
+            label = "Cold Read Threshold",
+            description = "Number of segment reads per minute below which a tar file is moved to the " +
+                    "cold directory. Cold tar files are moved back once read twice as often."
+    )
+    public static final String COLD_READ_THRESHOLD = "tarmk.cold.readThreshold";
+
+    @Property(
+            boolValue = false,
+            label = "Optimistic Commits",
+            description = "Run the commit hooks of concurrent commits in parallel and only serialize " +
+                    "updating the head state. Commit hooks are run again for conflicting commits only, " +
+                    "so they don't see concurrent non conflicting changes."
+    )
+    public static final String OPTIMISTIC_COMMITS = "optimisticCommits";
+
     @Property(
             boolValue = CLONE_BINARIES_DEFAULT,
             label = "Clone Binaries",
@@ -201,6 +325,22 @@ public class SegmentNodeStoreService extends ProxyNodeStore
     )
     public static final String COMPACTION_FORCE_AFTER_FAIL = "compaction.forceAfterFail";
 
+    @Property(
+            intValue = COMPACTION_THREADS_DEFAULT,
+            label = "Compaction Threads",
+            description = "Number of threads compacting the subtrees of the root node concurrently. " +
+                    "A value of 1 disables parallel compaction."
+    )
+    public static final String COMPACTION_THREADS = "compaction.threads";
+
+    @Property(
+            boolValue = INCREMENTAL_COMPACTION_DEFAULT,
+            label = "Incremental Compaction",
+            description = "When enabled compaction only rewrites the content of those tar files whose " +
+                    "compaction gain estimate is beyond the compaction gain threshold."
+    )
+    public static final String COMPACTION_INCREMENTAL = "compaction.incremental";
+
     public static final int COMPACTION_LOCK_WAIT_TIME_DEFAULT = 60;
     @Property(
             intValue = COMPACTION_LOCK_WAIT_TIME_DEFAULT,
@@ -218,6 +358,14 @@ public class SegmentNodeStoreService extends ProxyNodeStore
     )
     public static final String PERSIST_COMPACTION_MAP = "persistCompactionMap";
 
+    @Property(
+            boolValue = OFF_HEAP_COMPACTION_MAP_DEFAULT,
+            label = "Off-heap Compaction Map",
+            description = "When enabled the compaction map keeps its entries off-heap. " +
+                    "Only applies if the compaction map is not persisted."
+    )
+    public static final String OFF_HEAP_COMPACTION_MAP = "offHeapCompactionMap";
+
     @Property(
             boolValue = false,
             label = "Standby Mode",
@@ -257,6 +405,17 @@ public class SegmentNodeStoreService extends ProxyNodeStore
     private Registration blobGCRegistration;
     private Registration compactionStrategyRegistration;
     private Registration fsgcMonitorMBean;
+    private Registration segmentCacheMBean;
+    private Registration stringCacheMBean;
+    private Registration templateCacheMBean;
+    private Registration nodeCacheMBean;
+    private Registration flushStatsMBean;
+
+    private Registration prefetcherMBean;
+
+    private Registration ioStatsMBean;
+
+    private Registration commitStatsMBean;
     private WhiteboardExecutor executor;
     private boolean customBlobStore;
 
@@ -348,10 +507,16 @@ public class SegmentNodeStoreService extends ProxyNodeStore
                 RETRY_COUNT_DEFAULT);
         boolean forceCommit = toBoolean(fallbackLookup(context, COMPACTION_FORCE_AFTER_FAIL),
                 FORCE_AFTER_FAIL_DEFAULT);
+        int compactionThreads = toInteger(fallbackLookup(context, COMPACTION_THREADS),
+                COMPACTION_THREADS_DEFAULT);
+        boolean incrementalCompaction = toBoolean(fallbackLookup(context, COMPACTION_INCREMENTAL),
+                INCREMENTAL_COMPACTION_DEFAULT);
         final int lockWaitTime = toInteger(fallbackLookup(context, COMPACTION_LOCK_WAIT_TIME),
                 COMPACTION_LOCK_WAIT_TIME_DEFAULT);
         boolean persistCompactionMap = toBoolean(fallbackLookup(context, PERSIST_COMPACTION_MAP),
                 PERSIST_COMPACTION_MAP_DEFAULT);
+        boolean offHeapCompactionMap = toBoolean(fallbackLookup(context, OFF_HEAP_COMPACTION_MAP),
+                OFF_HEAP_COMPACTION_MAP_DEFAULT);
         String cleanup = fallbackLookup(context, COMPACTION_CLEANUP);
         if (cleanup == null) {
             cleanup = CLEANUP_DEFAULT.toString();
@@ -371,6 +536,33 @@ public class SegmentNodeStoreService extends ProxyNodeStore
 
         final long blobGcMaxAgeInSecs = toLong(fallbackLookup(context, PROP_BLOB_GC_MAX_AGE), DEFAULT_BLOB_GC_MAX_AGE);
 
+        String durability = fallbackLookup(context, DURABILITY);
+        if (durability == null) {
+            durability = Durability.INTERVAL.toString();
+        }
+        int flushInterval = toInteger(fallbackLookup(context, FLUSH_INTERVAL), 5000);
+        int flushBatchSize = toInteger(fallbackLookup(context, FLUSH_BATCH_SIZE), 100);
+        int writerPoolSize = toInteger(fallbackLookup(context, WRITER_POOL_SIZE), 0);
+        if (writerPoolSize <= 0) {
+            writerPoolSize = SegmentWriterPool.DEFAULT_POOL_SIZE;
+        }
+        boolean compression = toBoolean(fallbackLookup(context, COMPRESSION), false);
+        int stringCacheSize = toInteger(fallbackLookup(context, STRING_CACHE_SIZE),
+                WriterCacheManager.DEFAULT_STRING_CACHE_SIZE);
+        int templateCacheSize = toInteger(fallbackLookup(context, TEMPLATE_CACHE_SIZE),
+                WriterCacheManager.DEFAULT_TEMPLATE_CACHE_SIZE);
+        int nodeCacheSize = toInteger(fallbackLookup(context, NODE_CACHE_SIZE),
+                WriterCacheManager.DEFAULT_NODE_CACHE_SIZE);
+        int prefetchDepth = toInteger(fallbackLookup(context, PREFETCH_DEPTH),
+                SegmentPrefetcher.DEFAULT_DEPTH);
+        int prefetchThreads = toInteger(fallbackLookup(context, PREFETCH_THREADS),
+                SegmentPrefetcher.DEFAULT_THREADS);
+        String coldDirectory = fallbackLookup(context, COLD_DIRECTORY);
+        int hotFileCount = toInteger(fallbackLookup(context, HOT_FILE_COUNT),
+                FileStore.DEFAULT_HOT_FILE_COUNT);
+        int coldReadThreshold = toInteger(fallbackLookup(context, COLD_READ_THRESHOLD),
+                FileStore.DEFAULT_COLD_READ_THRESHOLD);
+
         OsgiWhiteboard whiteboard = new OsgiWhiteboard(context.getBundleContext());
         gcMonitor = new GCMonitorTracker();
         gcMonitor.start(whiteboard);
@@ -378,7 +570,22 @@ public class SegmentNodeStoreService extends ProxyNodeStore
                 .withCacheSize(Integer.parseInt(cache))
                 .withMaxFileSize(Integer.parseInt(size))
                 .withMemoryMapping("64".equals(mode))
+                .withDurability(Durability.valueOf(durability))
+                .withFlushInterval(flushInterval)
+                .withFlushBatchSize(flushBatchSize)
+                .withWriterPoolSize(writerPoolSize)
+                .withStringCacheSize(stringCacheSize)
+                .withTemplateCacheSize(templateCacheSize)
+                .withNodeCacheSize(nodeCacheSize)
+                .withCompression(compression)
+                .withPrefetchDepth(prefetchDepth)
+                .withPrefetchThreads(prefetchThreads)
+                .withHotFileCount(hotFileCount)
+                .withColdReadThreshold(coldReadThreshold)
                 .withGCMonitor(gcMonitor);
+        if (coldDirectory != null && !coldDirectory.trim().isEmpty()) {
+            storeBuilder.withColdDirectory(new File(coldDirectory.trim()));
+        }
         if (customBlobStore) {
             log.info("Initializing SegmentNodeStore with BlobStore [{}]", blobStore);
             store = storeBuilder.withBlobStore(blobStore).create();
@@ -387,6 +594,8 @@ public class SegmentNodeStoreService extends ProxyNodeStore
         }
         SegmentNodeStoreBuilder nodeStoreBuilder = SegmentNodeStore
                 .newSegmentNodeStore(store);
+        nodeStoreBuilder.withOptimisticCommits(
+                toBoolean(fallbackLookup(context, OPTIMISTIC_COMMITS), false));
         nodeStoreBuilder.withCompactionStrategy(pauseCompaction, cloneBinaries,
                 cleanup, cleanupTs, memoryThreshold, lockWaitTime, retryCount,
                 forceCommit, persistCompactionMap, gainThreshold);
@@ -394,6 +603,9 @@ public class SegmentNodeStoreService extends ProxyNodeStore
 
         CompactionStrategy compactionStrategy = nodeStoreBuilder
                 .getCompactionStrategy();
+        compactionStrategy.setCompactionThreads(compactionThreads);
+        compactionStrategy.setIncrementalCompaction(incrementalCompaction);
+        compactionStrategy.setOffHeapCompactionMap(offHeapCompactionMap);
         store.setCompactionStrategy(compactionStrategy);
 
         FileStoreGCMonitor fsgcMonitor = new FileStoreGCMonitor(Clock.SIMPLE);
@@ -412,6 +624,39 @@ public class SegmentNodeStoreService extends ProxyNodeStore
         checkpointRegistration = registerMBean(whiteboard, CheckpointMBean.class, new SegmentCheckpointMBean(delegate),
                 CheckpointMBean.TYPE, "Segment node store checkpoint management");
 
+        CacheStats segmentCacheStats = store.getTracker().getSegmentCacheStats();
+        segmentCacheMBean = registerMBean(whiteboard, CacheStatsMBean.class, segmentCacheStats,
+                CacheStatsMBean.TYPE, segmentCacheStats.getName());
+
+        WriterCacheManager writerCaches = store.getTracker().getWriterPool().getCacheManager();
+        CacheStats stringCacheStats = writerCaches.getStringCacheStats();
+        stringCacheMBean = registerMBean(whiteboard, CacheStatsMBean.class, stringCacheStats,
+                CacheStatsMBean.TYPE, stringCacheStats.getName());
+        CacheStats templateCacheStats = writerCaches.getTemplateCacheStats();
+        templateCacheMBean = registerMBean(whiteboard, CacheStatsMBean.class, templateCacheStats,
+                CacheStatsMBean.TYPE, templateCacheStats.getName());
+        CacheStats nodeCacheStats = writerCaches.getNodeCacheStats();
+        nodeCacheMBean = registerMBean(whiteboard, CacheStatsMBean.class, nodeCacheStats,
+                CacheStatsMBean.TYPE, nodeCacheStats.getName());
+
+        FlushStats flushStats = store.getFlushStats();
+        flushStatsMBean = registerMBean(whiteboard, FlushStatsMBean.class, flushStats,
+                FlushStatsMBean.TYPE, "TarMK flush statistics");
+
+        SegmentPrefetcher prefetcher = store.getPrefetcher();
+        prefetcherMBean = registerMBean(whiteboard, SegmentPrefetcherMBean.class, prefetcher,
+                SegmentPrefetcherMBean.TYPE, "TarMK segment prefetch statistics");
+
+        SegmentIOStats ioStats = store.getTracker().getIOStats();
+        ioStatsMBean = new CompositeRegistration(
+                registerMBean(whiteboard, SegmentIOStatsMBean.class, ioStats,
+                        SegmentIOStatsMBean.TYPE, "TarMK segment I/O statistics"),
+                scheduleWithFixedDelay(whiteboard, ioStats, 1));
+
+        SegmentCommitStats commitStats = delegate.getCommitStats();
+        commitStatsMBean = registerMBean(whiteboard, SegmentCommitStatsMBean.class, commitStats,
+                SegmentCommitStatsMBean.TYPE, "Segment node store commit statistics");
+
         RevisionGC revisionGC = new RevisionGC(new Runnable() {
             @Override
             public void run() {
@@ -502,6 +747,38 @@ public class SegmentNodeStoreService extends ProxyNodeStore
             checkpointRegistration.unregister();
             checkpointRegistration = null;
         }
+        if (segmentCacheMBean != null) {
+            segmentCacheMBean.unregister();
+            segmentCacheMBean = null;
+        }
+        if (stringCacheMBean != null) {
+            stringCacheMBean.unregister();
+            stringCacheMBean = null;
+        }
+        if (templateCacheMBean != null) {
+            templateCacheMBean.unregister();
+            templateCacheMBean = null;
+        }
+        if (nodeCacheMBean != null) {
+            nodeCacheMBean.unregister();
+            nodeCacheMBean = null;
+        }
+        if (flushStatsMBean != null) {
+            flushStatsMBean.unregister();
+            flushStatsMBean = null;
+        }
+        if (prefetcherMBean != null) {
+            prefetcherMBean.unregister();
+            prefetcherMBean = null;
+        }
+        if (ioStatsMBean != null) {
+            ioStatsMBean.unregister();
+            ioStatsMBean = null;
+        }
+        if (commitStatsMBean != null) {
+            commitStatsMBean.unregister();
+            commitStatsMBean = null;
+        }
         if (revisionGCRegistration != null) {
             revisionGCRegistration.unregister();
             revisionGCRegistration = null;
@@ -16,18 +16,24 @@
  */
 package org.apache.jackrabbit.oak.plugins.segment;
 
-import static com.google.common.collect.Lists.newLinkedList;
+import static com.google.common.base.Throwables.propagate;
 import static com.google.common.collect.Queues.newArrayDeque;
 import static com.google.common.collect.Sets.newHashSet;
 
 import java.security.SecureRandom;
-import java.util.LinkedList;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nonnull;
 
+import com.google.common.cache.Weigher;
+import org.apache.jackrabbit.oak.cache.CacheLIRS;
+import org.apache.jackrabbit.oak.cache.CacheLIRS.EvictionCallback;
+import org.apache.jackrabbit.oak.cache.CacheStats;
 import org.apache.jackrabbit.oak.plugins.blob.ReferenceCollector;
 import org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy;
 import org.slf4j.Logger;
@@ -57,7 +63,15 @@ public class SegmentTracker {
 
     private static final int MB = 1024 * 1024;
 
-    private static final int DEFAULT_MEMORY_CACHE_SIZE = 256;
+    public static final int DEFAULT_MEMORY_CACHE_SIZE = 256;
+
+    private static final Weigher<SegmentId, Segment> SEGMENT_WEIGHER =
+            new Weigher<SegmentId, Segment>() {
+                @Override
+                public int weigh(SegmentId id, Segment segment) {
+                    return (int) segment.getCacheSize();
+                }
+            };
 
     /**
      * The random number source for generating new segment identifiers.
@@ -66,7 +80,11 @@ public class SegmentTracker {
 
     private final SegmentStore store;
 
-    private final SegmentWriter writer;
+    /**
+     * Pool of writers used for writing new records. Each thread writes
+     * to the segment buffer of the pooled writer bound to it.
+     */
+    private final SegmentWriterPool writers;
 
     /**
      * Serialized map that contains the link between old record
@@ -75,7 +93,11 @@ public class SegmentTracker {
      */
     private final AtomicReference<CompactionMap> compactionMap;
 
-    private final long cacheSize;
+    /**
+     * Paths changed by recent commits, used to speed up the comparison of
+     * the corresponding node states.
+     */
+    private final ChangeIndex changeIndex = new ChangeIndex();
 
     /**
      * Hash table of weak references to segment identifiers that are
@@ -88,23 +110,56 @@ public class SegmentTracker {
      */
     private final SegmentIdTable[] tables = new SegmentIdTable[32];
 
-    private final LinkedList<Segment> segments = newLinkedList();
+    /**
+     * Cache of recently accessed segments. Segments evicted from this
+     * cache are also released from their {@link SegmentId}, so that
+     * they can be garbage collected.
+     */
+    private final CacheLIRS<SegmentId, Segment> segmentCache;
 
-    private long currentSize;
+    private final CacheStats segmentCacheStats;
+
+    private final SegmentIOStats ioStats = new SegmentIOStats();
 
     public SegmentTracker(SegmentStore store, int cacheSizeMB,
-            SegmentVersion version) {
+            SegmentVersion version, int writerPoolSize,
+            @Nonnull WriterCacheManager writerCaches) {
         for (int i = 0; i < tables.length; i++) {
             tables[i] = new SegmentIdTable(this);
         }
 
         this.store = store;
-        this.writer = new SegmentWriter(store, this, version);
-        this.cacheSize = cacheSizeMB * MB;
+        this.writers = new SegmentWriterPool(
+                store, this, version, writerPoolSize, writerCaches);
+        long cacheSize = Math.max(1, (long) cacheSizeMB * MB);
+        this.segmentCache = CacheLIRS.newBuilder()
+                .maximumWeight(cacheSize)
+                .averageWeight(Segment.MAX_SEGMENT_SIZE / 2)
+                .weigher(SEGMENT_WEIGHER)
+                .evictionCallback(new EvictionCallback<SegmentId, Segment>() {
+                    @Override
+                    public void evicted(SegmentId id, Segment segment) {
+                        id.setSegment(null);
+                        log.debug("Removed segment {} from tracker cache", id);
+                    }
+                })
+                .build();
+        this.segmentCacheStats = new CacheStats(
+                segmentCache, "Segment", SEGMENT_WEIGHER, cacheSize);
         this.compactionMap = new AtomicReference<CompactionMap>(
                 CompactionMap.EMPTY);
     }
 
+    public SegmentTracker(SegmentStore store, int cacheSizeMB,
+            SegmentVersion version, int writerPoolSize) {
+        this(store, cacheSizeMB, version, writerPoolSize, new WriterCacheManager());
+    }
+
+    public SegmentTracker(SegmentStore store, int cacheSizeMB,
+            SegmentVersion version) {
+        this(store, cacheSizeMB, version, SegmentWriterPool.DEFAULT_POOL_SIZE);
+    }
+
     public SegmentTracker(SegmentStore store, SegmentVersion version) {
         this(store, DEFAULT_MEMORY_CACHE_SIZE, version);
     }
@@ -113,8 +168,20 @@ public class SegmentTracker {
         this(store, DEFAULT_MEMORY_CACHE_SIZE, SegmentVersion.V_11);
     }
 
+    /**
+     * @return  the segment writer bound to the current thread
+     * @see SegmentWriterPool#getWriter()
+     */
     public SegmentWriter getWriter() {
-        return writer;
+        return writers.getWriter();
+    }
+
+    /**
+     * @return  the pool of all segment writers of this tracker
+     */
+    @Nonnull
+    public SegmentWriterPool getWriterPool() {
+        return writers;
     }
 
     public SegmentStore getStore() {
@@ -122,61 +189,105 @@ public class SegmentTracker {
     }
 
     /**
-     * Clear the segment cache
+     * @return  the index of the paths changed by recent commits
      */
-    public synchronized void clearCache() {
-        segments.clear();
-        currentSize = 0;
+    @Nonnull
+    public ChangeIndex getChangeIndex() {
+        return changeIndex;
     }
 
-    Segment getSegment(SegmentId id) {
-        try {
-            Segment segment = store.readSegment(id);
-            setSegment(id, segment);
-            return segment;
-        } catch (SegmentNotFoundException snfe) {
-            long delta = System.currentTimeMillis() - id.getCreationTime();
-            log.error("Segment not found: {}. Creation date delta is {} ms.",
-                    id, delta, snfe);
-            throw snfe;
-        }
+    /**
+     * @return  statistics of the segment cache
+     */
+    @Nonnull
+    public CacheStats getSegmentCacheStats() {
+        return segmentCacheStats;
     }
 
-    void setSegment(SegmentId id, Segment segment) {
-        // done before synchronization to allow concurrent segment access
-        // while we update the cache below
-        id.setSegment(segment);
-
-        synchronized (this) {
-            long size = segment.getCacheSize();
-
-            segments.addFirst(segment);
-            currentSize += size;
+    /**
+     * @return  the segment I/O statistics of the store. Only reads loading
+     *          segments from the store are included in the read latencies,
+     *          see {@link #getSegmentCacheStats()} for the cache hits.
+     */
+    @Nonnull
+    public SegmentIOStats getIOStats() {
+        return ioStats;
+    }
 
-            log.debug("Added segment {} to tracker cache ({} bytes)",
-                    id, size);
+    /**
+     * Clear the segment cache. Segments that are still referenced by their
+     * identifiers stay accessible until those identifiers are released.
+     */
+    public void clearCache() {
+        segmentCache.invalidateAll();
+    }
 
-            // TODO possibly this cache could be improved
-            while (currentSize > cacheSize && segments.size() > 1) {
-                Segment last = segments.removeLast();
-                SegmentId lastId = last.getSegmentId();
-                if (last.accessed()) {
-                    segments.addFirst(last);
-                    log.debug("Segment {} was recently used, keeping in cache",
-                            lastId);
-                } else {
-                    long lastSize = last.getCacheSize();
+    /**
+     * Checks whether the segment with the given identifier is currently held
+     * in the segment cache. Does not count as an access of the segment.
+     *
+     * @return  {@code true} if the segment is cached, {@code false} otherwise
+     */
+    public boolean isCached(long msb, long lsb) {
+        return segmentCache.containsKey(getSegmentId(msb, lsb));
+    }
 
-                    lastId.setSegment(null);
-                    currentSize -= lastSize;
+    /**
+     * Records a hit for a segment that is already held in memory by the
+     * given identifier. This also refreshes the recency of the cache entry,
+     * so that frequently accessed segments are not evicted. The cache only
+     * locks when the entry actually needs to move, so that this is cheap
+     * enough to be called on every segment access.
+     */
+    void accessSegment(SegmentId id) {
+        segmentCache.recordHit(id);
+    }
 
-                    log.debug("Removed segment {} from tracker cache ({} bytes)",
-                            lastId, lastSize);
-                }
+    Segment getSegment(final SegmentId id) {
+        long start = System.nanoTime();
+        final AtomicBoolean loaded = new AtomicBoolean();
+        Callable<Segment> loader = new Callable<Segment>() {
+            @Override
+            public Segment call() {
+                loaded.set(true);
+                Segment segment = store.readSegment(id);
+                // set before the segment is added to the cache, so that
+                // a subsequent eviction always releases the reference
+                id.setSegment(segment);
+                return segment;
+            }
+        };
+        try {
+            Segment segment = segmentCache.get(id, loader);
+            if (segment.getSegmentId() != id) {
+                // cached for an identifier instance that has since been
+                // cleared from the segment id tables: reload for this one
+                segmentCache.invalidate(id);
+                segment = segmentCache.get(id, loader);
             }
+            if (loaded.get()) {
+                ioStats.segmentLoaded(System.nanoTime() - start);
+            }
+            return segment;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SegmentNotFoundException) {
+                long delta = System.currentTimeMillis() - id.getCreationTime();
+                log.error("Segment not found: {}. Creation date delta is {} ms.",
+                        id, delta, cause);
+                throw (SegmentNotFoundException) cause;
+            }
+            throw propagate(cause);
         }
     }
 
+    void setSegment(SegmentId id, Segment segment) {
+        // done before updating the cache to allow concurrent segment access
+        id.setSegment(segment);
+        segmentCache.put(id, segment);
+        log.debug("Added segment {} to tracker cache", id);
+    }
+
     public void setCompactionMap(PartialCompactionMap map) {
         compactionMap.set(compactionMap.get().cons(map));
     }
@@ -213,7 +324,7 @@ public class SegmentTracker {
     public void collectBlobReferences(ReferenceCollector collector) {
         Set<SegmentId> processed = newHashSet();
         Queue<SegmentId> queue = newArrayDeque(getReferencedSegmentIds());
-        writer.flush(); // force the current segment to have root record info
+        writers.flush(); // force the current segments to have root record info
         while (!queue.isEmpty()) {
             SegmentId id = queue.remove();
             if (id.isDataSegmentId() && processed.add(id)) {
@@ -49,10 +49,10 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import javax.jcr.PropertyType;
 
@@ -65,6 +65,7 @@ import org.apache.jackrabbit.oak.api.Blob;
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.plugins.memory.ModifiedNodeState;
+import org.apache.jackrabbit.oak.plugins.segment.WriterCacheManager.Kind;
 import org.apache.jackrabbit.oak.spi.blob.BlobStore;
 import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
 import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
@@ -112,18 +113,11 @@ public class SegmentWriter {
     private final SegmentStore store;
 
     /**
-     * Cache of recently stored string and template records, used to
-     * avoid storing duplicates of frequently occurring data.
-     * Should only be accessed from synchronized blocks to prevent corruption.
+     * Caches of recently stored string, template and node records, used to
+     * avoid storing duplicates of frequently occurring data. Possibly shared
+     * with other writers.
      */
-    @SuppressWarnings("serial")
-    private final Map<Object, RecordId> records =
-        new LinkedHashMap<Object, RecordId>(15000, 0.75f, true) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<Object, RecordId> e) {
-                return size() > 10000;
-            }
-        };
+    private final WriterCacheManager caches;
 
     /**
      * The set of root records (i.e. ones not referenced by other records)
@@ -162,9 +156,21 @@ public class SegmentWriter {
     private final SegmentVersion version;
 
     public SegmentWriter(SegmentStore store, SegmentTracker tracker, SegmentVersion version) {
+        this(store, tracker, version, new WriterCacheManager());
+    }
+
+    /**
+     * @param caches  deduplication caches, possibly shared with other writers
+     *                of the same store. Writers that must not reuse records
+     *                written by others, like the ones used for compaction,
+     *                should have their own caches.
+     */
+    public SegmentWriter(SegmentStore store, SegmentTracker tracker,
+            SegmentVersion version, WriterCacheManager caches) {
         this.store = store;
         this.tracker = tracker;
         this.version = version;
+        this.caches = checkNotNull(caches);
         this.buffer = createNewBuffer(version);
         this.segment = new Segment(tracker, buffer);
         segment.getSegmentId().setSegment(segment);
@@ -638,6 +644,16 @@ public class SegmentWriter {
         checkNotNull(list);
         checkArgument(list.size() > 0);
 
+        if (list.size() == 1) {
+            return list.get(0);
+        }
+
+        CompactionMap generation = tracker.getCompactionMap();
+        RecordId listId = caches.getNode(Kind.LIST, list, generation);
+        if (listId != null) {
+            return listId; // shortcut if the same list was recently stored
+        }
+
         List<RecordId> thisLevel = list;
         while (thisLevel.size() > 1) {
             List<RecordId> nextLevel = Lists.newArrayList();
@@ -651,7 +667,9 @@ public class SegmentWriter {
             }
             thisLevel = nextLevel;
         }
-        return thisLevel.iterator().next();
+        listId = thisLevel.iterator().next();
+        caches.putNode(Kind.LIST, list, listId, generation);
+        return listId;
     }
 
     MapRecord writeMap(MapRecord base, Map<String, RecordId> changes) {
@@ -690,6 +708,23 @@ public class SegmentWriter {
             }
         }
 
+        // a new map without removals is identified by its sorted entries
+        CompactionMap generation = tracker.getCompactionMap();
+        List<Object> content = null;
+        if (base == null && !changes.isEmpty()
+                && !changes.containsValue(null)) {
+            content = Lists.newArrayListWithCapacity(2 * changes.size());
+            for (Map.Entry<String, RecordId> entry
+                    : new TreeMap<String, RecordId>(changes).entrySet()) {
+                content.add(entry.getKey());
+                content.add(entry.getValue());
+            }
+            RecordId mapId = caches.getNode(Kind.MAP, content, generation);
+            if (mapId != null) {
+                return new MapRecord(mapId);
+            }
+        }
+
         List<MapEntry> entries = Lists.newArrayList();
         for (Map.Entry<String, RecordId> entry : changes.entrySet()) {
             String key = entry.getKey();
@@ -710,7 +745,11 @@ public class SegmentWriter {
             }
         }
 
-        return writeMapBucket(base, entries, 0);
+        MapRecord map = writeMapBucket(base, entries, 0);
+        if (content != null) {
+            caches.putNode(Kind.MAP, content, map.getRecordId(), generation);
+        }
+        return map;
     }
 
     /**
@@ -720,8 +759,10 @@ public class SegmentWriter {
      * @return value record identifier
      */
     public RecordId writeString(String string) {
-        synchronized (this) {
-            RecordId id = records.get(string);
+        // longer strings never fit the cache, as each char takes at least a byte
+        CompactionMap generation = tracker.getCompactionMap();
+        if (string.length() < Segment.MEDIUM_LIMIT) {
+            RecordId id = caches.getString(string, generation);
             if (id != null) {
                 return id; // shortcut if the same string was recently stored
             }
@@ -730,15 +771,12 @@ public class SegmentWriter {
         byte[] data = string.getBytes(Charsets.UTF_8);
 
         if (data.length < Segment.MEDIUM_LIMIT) {
-            // only cache short strings to avoid excessive memory use
-            synchronized (this) {
-                RecordId id = records.get(string);
-                if (id == null) {
-                    id = writeValueRecord(data.length, data);
-                    records.put(string, id);
-                }
-                return id;
-            }
+            // only cache short strings to avoid excessive memory use. Two
+            // threads might both write a string missing from the cache,
+            // which results in a harmless duplicate record.
+            RecordId id = writeValueRecord(data.length, data);
+            caches.putString(string, id, generation);
+            return id;
         }
 
         int pos = 0;
@@ -795,8 +833,8 @@ public class SegmentWriter {
         return new SegmentBlob(id);
     }
 
-    public synchronized void dropCache() {
-        records.clear();
+    public void dropCache() {
+        caches.clear();
     }
 
     /**
@@ -899,20 +937,26 @@ public class SegmentWriter {
             }
         } else {
             RecordId listId = writeList(valueIds);
-            synchronized (this) {
-                RecordId propertyId = prepare(
-                        RecordType.LIST, 4, Collections.singleton(listId));
-                writeInt(count);
-                writeRecordId(listId);
-                return propertyId;
+            List<RecordId> content = Collections.singletonList(listId);
+            CompactionMap generation = tracker.getCompactionMap();
+            RecordId propertyId = caches.getNode(Kind.PROPERTY, content, generation);
+            if (propertyId == null) {
+                synchronized (this) {
+                    propertyId = prepare(RecordType.LIST, 4, content);
+                    writeInt(count);
+                    writeRecordId(listId);
+                }
+                caches.putNode(Kind.PROPERTY, content, propertyId, generation);
             }
+            return propertyId;
         }
     }
 
     public synchronized RecordId writeTemplate(Template template) {
         checkNotNull(template);
 
-        RecordId id = records.get(template);
+        CompactionMap generation = tracker.getCompactionMap();
+        RecordId id = caches.getTemplate(template, generation);
         if (id != null) {
             return id; // shortcut if the same template was recently stored
         }
@@ -1006,7 +1050,7 @@ public class SegmentWriter {
             buffer[position++] = propertyTypes[i];
         }
 
-        records.put(template, id);
+        caches.putTemplate(template, id, generation);
 
         return id;
     }
@@ -1029,6 +1073,7 @@ public class SegmentWriter {
     }
 
     public SegmentNodeState writeNode(NodeState state) {
+        CompactionMap generation = tracker.getCompactionMap();
         if (state instanceof SegmentNodeState) {
             SegmentNodeState sns = uncompact((SegmentNodeState) state);
             if (sns != state || store.containsSegment(
@@ -1142,17 +1187,36 @@ public class SegmentWriter {
             }
         }
 
-        synchronized (this) {
-            RecordId recordId = prepare(RecordType.NODE, 0, ids);
-            for (RecordId id : ids) {
-                writeRecordId(id);
+        // a node record consists of nothing but the given record ids, so
+        // an identical record can be reused if it was recently written.
+        // Since the list, map and property records above are deduplicated
+        // the same way, this also holds for identical subtrees.
+        RecordId recordId = caches.getNode(Kind.NODE, ids, generation);
+        if (recordId == null) {
+            synchronized (this) {
+                recordId = prepare(RecordType.NODE, 0, ids);
+                for (RecordId id : ids) {
+                    writeRecordId(id);
+                }
             }
-            return new SegmentNodeState(recordId);
+            caches.putNode(Kind.NODE, ids, recordId, generation);
         }
+        return new SegmentNodeState(recordId);
     }
 
     public SegmentTracker getTracker() {
         return tracker;
     }
 
+    /**
+     * @return  the deduplication caches of this writer
+     */
+    WriterCacheManager getCacheManager() {
+        return caches;
+    }
+
+    public SegmentVersion getVersion() {
+        return version;
+    }
+
 }
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.segment;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Lists.newArrayList;
+import static java.lang.Integer.getInteger;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Pool of {@link SegmentWriter} instances sharing the same store and tracker.
+ * Each thread is bound to one of the pooled writers, so that concurrently
+ * committing threads fill separate segment buffers instead of serializing
+ * all their record writes on a single writer. The writers are created
+ * lazily on first use and flushed independently of each other when their
+ * segment buffer is full.
+ * <p>
+ * Records written by one writer are immediately accessible to all other
+ * threads, but only become persistent once the respective writer is flushed.
+ * Use {@link #flush()} to persist the state of all writers, e.g. before the
+ * head state is made durable.
+ * <p>
+ * The writers share a single set of deduplication caches, so that a record
+ * written by one writer is reused by the others.
+ */
+public class SegmentWriterPool {
+
+    /**
+     * Default number of writers in the pool: one per available processor.
+     */
+    public static final int DEFAULT_POOL_SIZE = getInteger(
+            "oak.segment.writerPoolSize",
+            Runtime.getRuntime().availableProcessors());
+
+    private final SegmentStore store;
+
+    private final SegmentTracker tracker;
+
+    private final SegmentVersion version;
+
+    private final WriterCacheManager caches;
+
+    private final AtomicReferenceArray<SegmentWriter> writers;
+
+    public SegmentWriterPool(SegmentStore store, SegmentTracker tracker,
+            SegmentVersion version, int size, @Nonnull WriterCacheManager caches) {
+        checkArgument(size > 0);
+        this.store = store;
+        this.tracker = tracker;
+        this.version = version;
+        this.caches = checkNotNull(caches);
+        this.writers = new AtomicReferenceArray<SegmentWriter>(size);
+    }
+
+    public SegmentWriterPool(SegmentStore store, SegmentTracker tracker,
+            SegmentVersion version, int size) {
+        this(store, tracker, version, size, new WriterCacheManager());
+    }
+
+    /**
+     * @return  the number of writers in this pool
+     */
+    public int getSize() {
+        return writers.length();
+    }
+
+    /**
+     * Returns the writer bound to the current thread.
+     *
+     * @return  segment writer for the current thread
+     */
+    @Nonnull
+    public SegmentWriter getWriter() {
+        int index = (int) (Thread.currentThread().getId() % writers.length());
+        SegmentWriter writer = writers.get(index);
+        if (writer == null) {
+            writer = new SegmentWriter(store, tracker, version, caches);
+            if (!writers.compareAndSet(index, null, writer)) {
+                // lost the race against another thread, drop the new
+                // writer before it has written anything
+                writer = writers.get(index);
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * @return  the deduplication caches shared by the writers of this pool
+     */
+    @Nonnull
+    public WriterCacheManager getCacheManager() {
+        return caches;
+    }
+
+    /**
+     * @return  the writers of this pool that have been used so far
+     */
+    @Nonnull
+    public List<SegmentWriter> getWriters() {
+        List<SegmentWriter> list = newArrayList();
+        for (int i = 0; i < writers.length(); i++) {
+            SegmentWriter writer = writers.get(i);
+            if (writer != null) {
+                list.add(writer);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Flushes all writers of this pool.
+     *
+     * @see SegmentWriter#flush()
+     */
+    public void flush() {
+        for (SegmentWriter writer : getWriters()) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Drops the record caches shared by the writers of this pool.
+     *
+     * @see SegmentWriter#dropCache()
+     */
+    public void dropCache() {
+        caches.clear();
+    }
+
+}
@@ -0,0 +1,369 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.segment;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import org.apache.jackrabbit.oak.cache.CacheLIRS;
+import org.apache.jackrabbit.oak.cache.CacheStats;
+
+/**
+ * Deduplication caches of the {@link SegmentWriter}. Recently written string,
+ * template and node records are kept in separate caches, so that frequently
+ * occurring data is not stored over and over again. The caches are concurrent
+ * and bounded by the estimated memory used by their entries. All writers of a
+ * {@link SegmentWriterPool} share the same caches.
+ * <p>
+ * The node cache is content addressed: besides node records it contains the
+ * list, map and property records a node record refers to, keyed by the
+ * record ids they consist of. As identical child nodes and properties thus
+ * resolve to identical record ids, an identical subtree resolves to the
+ * record of its first copy.
+ * <p>
+ * Each entry is tagged with the generation of the repository it was written
+ * for, i.e. the {@link CompactionMap} of the tracker at the time. Entries of
+ * a different generation are never returned, so that records written before
+ * a compaction are not referenced from content written after it, even if
+ * they were put into the caches concurrently with the compaction.
+ */
+public class WriterCacheManager {
+
+    /**
+     * Default size of the string cache in MB.
+     */
+    public static final int DEFAULT_STRING_CACHE_SIZE = 16;
+
+    /**
+     * Default size of the template cache in MB.
+     */
+    public static final int DEFAULT_TEMPLATE_CACHE_SIZE = 4;
+
+    /**
+     * Default size of the node cache in MB.
+     */
+    public static final int DEFAULT_NODE_CACHE_SIZE = 16;
+
+    private static final int MB = 1024 * 1024;
+
+    /**
+     * Estimated memory of a cached record id, including its segment id
+     * reference and the generation tag.
+     */
+    private static final int RECORD_ID_SIZE = 56;
+
+    private static final Weigher<String, Cached> STRING_WEIGHER =
+            new Weigher<String, Cached>() {
+                @Override
+                public int weigh(@Nonnull String string, @Nonnull Cached id) {
+                    return 48 + 2 * string.length() + RECORD_ID_SIZE;
+                }
+            };
+
+    private static final Weigher<Template, Cached> TEMPLATE_WEIGHER =
+            new Weigher<Template, Cached>() {
+                @Override
+                public int weigh(@Nonnull Template template, @Nonnull Cached id) {
+                    return 96 + 64 * template.getPropertyTemplates().length + RECORD_ID_SIZE;
+                }
+            };
+
+    private static final Weigher<RecordKey, Cached> NODE_WEIGHER =
+            new Weigher<RecordKey, Cached>() {
+                @Override
+                public int weigh(@Nonnull RecordKey key, @Nonnull Cached id) {
+                    return key.weight() + RECORD_ID_SIZE;
+                }
+            };
+
+    private final CacheLIRS<String, Cached> strings;
+
+    private final CacheStats stringCacheStats;
+
+    private final boolean stringCacheEnabled;
+
+    private final CacheLIRS<Template, Cached> templates;
+
+    private final CacheStats templateCacheStats;
+
+    private final boolean templateCacheEnabled;
+
+    private final CacheLIRS<RecordKey, Cached> nodes;
+
+    private final CacheStats nodeCacheStats;
+
+    private final boolean nodeCacheEnabled;
+
+    /**
+     * Creates the deduplication caches of the given sizes. A size of
+     * {@code 0} disables the respective cache.
+     *
+     * @param stringCacheSizeMB    size of the string cache in MB
+     * @param templateCacheSizeMB  size of the template cache in MB
+     * @param nodeCacheSizeMB      size of the node cache in MB
+     */
+    public WriterCacheManager(
+            int stringCacheSizeMB, int templateCacheSizeMB, int nodeCacheSizeMB) {
+        long size = Math.max(1, (long) stringCacheSizeMB * MB);
+        this.strings = CacheLIRS.newBuilder()
+                .maximumWeight(size)
+                .averageWeight(128)
+                .weigher(STRING_WEIGHER)
+                .build();
+        this.stringCacheStats = new CacheStats(
+                strings, "Segment writer string cache", STRING_WEIGHER, size);
+        this.stringCacheEnabled = stringCacheSizeMB > 0;
+
+        size = Math.max(1, (long) templateCacheSizeMB * MB);
+        this.templates = CacheLIRS.newBuilder()
+                .maximumWeight(size)
+                .averageWeight(512)
+                .weigher(TEMPLATE_WEIGHER)
+                .build();
+        this.templateCacheStats = new CacheStats(
+                templates, "Segment writer template cache", TEMPLATE_WEIGHER, size);
+        this.templateCacheEnabled = templateCacheSizeMB > 0;
+
+        size = Math.max(1, (long) nodeCacheSizeMB * MB);
+        this.nodes = CacheLIRS.newBuilder()
+                .maximumWeight(size)
+                .averageWeight(256)
+                .weigher(NODE_WEIGHER)
+                .build();
+        this.nodeCacheStats = new CacheStats(
+                nodes, "Segment writer node cache", NODE_WEIGHER, size);
+        this.nodeCacheEnabled = nodeCacheSizeMB > 0;
+    }
+
+    public WriterCacheManager() {
+        this(DEFAULT_STRING_CACHE_SIZE, DEFAULT_TEMPLATE_CACHE_SIZE,
+                DEFAULT_NODE_CACHE_SIZE);
+    }
+
+    /**
+     * @param generation  the generation of the record
+     * @return  the recently written string record for {@code string}
+     *          or {@code null} if none
+     */
+    @CheckForNull
+    RecordId getString(@Nonnull String string, @Nonnull CompactionMap generation) {
+        return stringCacheEnabled
+                ? Cached.get(strings.getIfPresent(string), generation)
+                : null;
+    }
+
+    void putString(@Nonnull String string, @Nonnull RecordId id,
+            @Nonnull CompactionMap generation) {
+        if (stringCacheEnabled) {
+            strings.put(string, new Cached(id, generation));
+        }
+    }
+
+    /**
+     * @param generation  the generation of the record
+     * @return  the recently written template record for {@code template}
+     *          or {@code null} if none
+     */
+    @CheckForNull
+    RecordId getTemplate(@Nonnull Template template, @Nonnull CompactionMap generation) {
+        return templateCacheEnabled
+                ? Cached.get(templates.getIfPresent(template), generation)
+                : null;
+    }
+
+    void putTemplate(@Nonnull Template template, @Nonnull RecordId id,
+            @Nonnull CompactionMap generation) {
+        if (templateCacheEnabled) {
+            templates.put(template, new Cached(id, generation));
+        }
+    }
+
+    /**
+     * @param kind        the kind of the record
+     * @param content     the record ids, and for map records also the keys,
+     *                    making up the record
+     * @param generation  the generation of the record
+     * @return  the recently written record of the given kind consisting of
+     *          {@code content} or {@code null} if none
+     */
+    @CheckForNull
+    RecordId getNode(@Nonnull Kind kind, @Nonnull List<?> content,
+            @Nonnull CompactionMap generation) {
+        return nodeCacheEnabled
+                ? Cached.get(nodes.getIfPresent(new RecordKey(kind, content)), generation)
+                : null;
+    }
+
+    void putNode(@Nonnull Kind kind, @Nonnull List<?> content,
+            @Nonnull RecordId id, @Nonnull CompactionMap generation) {
+        if (nodeCacheEnabled) {
+            // copy the content, which the caller might still modify
+            nodes.put(new RecordKey(kind, ImmutableList.copyOf(content)),
+                    new Cached(id, generation));
+        }
+    }
+
+    /**
+     * @return  statistics of the string cache
+     */
+    @Nonnull
+    public CacheStats getStringCacheStats() {
+        return stringCacheStats;
+    }
+
+    /**
+     * @return  statistics of the template cache
+     */
+    @Nonnull
+    public CacheStats getTemplateCacheStats() {
+        return templateCacheStats;
+    }
+
+    /**
+     * @return  statistics of the node cache
+     */
+    @Nonnull
+    public CacheStats getNodeCacheStats() {
+        return nodeCacheStats;
+    }
+
+    /**
+     * Clear all caches. Required once the cached records might have been
+     * removed, e.g. after compaction.
+     */
+    public void clear() {
+        strings.invalidateAll();
+        templates.invalidateAll();
+        nodes.invalidateAll();
+    }
+
+    /**
+     * The kinds of records in the node cache. Records of different kinds
+     * never match, even if they consist of the same content.
+     */
+    enum Kind {
+
+        /**
+         * A list of record ids, keyed by its elements.
+         */
+        LIST,
+
+        /**
+         * A map without removals, keyed by its sorted keys and values.
+         */
+        MAP,
+
+        /**
+         * A multi-valued property, keyed by the list of its values.
+         */
+        PROPERTY,
+
+        /**
+         * A node, keyed by the record ids of its template, child nodes and
+         * properties.
+         */
+        NODE
+
+    }
+
+    /**
+     * A cached record id tagged with its generation.
+     */
+    private static final class Cached {
+
+        private final RecordId id;
+
+        private final CompactionMap generation;
+
+        Cached(@Nonnull RecordId id, @Nonnull CompactionMap generation) {
+            this.id = checkNotNull(id);
+            this.generation = checkNotNull(generation);
+        }
+
+        /**
+         * @return  the record id of {@code cached} if it belongs to the given
+         *          generation, {@code null} otherwise
+         */
+        @CheckForNull
+        static RecordId get(@CheckForNull Cached cached,
+                @Nonnull CompactionMap generation) {
+            return cached != null && cached.generation == generation
+                    ? cached.id
+                    : null;
+        }
+
+    }
+
+    /**
+     * Key of the node cache: the kind of a record and the content it
+     * consists of. The hash code is computed once, as keys of nodes with
+     * many properties or child nodes can be large.
+     */
+    private static final class RecordKey {
+
+        private final Kind kind;
+
+        private final List<?> content;
+
+        private final int hash;
+
+        RecordKey(@Nonnull Kind kind, @Nonnull List<?> content) {
+            this.kind = checkNotNull(kind);
+            this.content = checkNotNull(content);
+            this.hash = 31 * kind.hashCode() + content.hashCode();
+        }
+
+        int weight() {
+            int weight = 64;
+            for (Object element : content) {
+                if (element instanceof String) {
+                    weight += 48 + 2 * ((String) element).length();
+                } else {
+                    weight += RECORD_ID_SIZE;
+                }
+            }
+            return weight;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            } else if (other instanceof RecordKey) {
+                RecordKey that = (RecordKey) other;
+                return hash == that.hash
+                        && kind == that.kind
+                        && content.equals(that.content);
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+}
@@ -78,6 +78,8 @@ public abstract class CompactionStrategy {
 
     public static final byte GAIN_THRESHOLD_DEFAULT = 10;
 
+    public static final boolean OFF_HEAP_COMPACTION_MAP_DEFAULT = false;
+
     /**
      * Default value for {@link #getRetryCount()}
      */
@@ -88,6 +90,16 @@ public abstract class CompactionStrategy {
      */
     public static final boolean FORCE_AFTER_FAIL_DEFAULT = true;
 
+    /**
+     * Default value for {@link #getCompactionThreads()}
+     */
+    public static final int COMPACTION_THREADS_DEFAULT = 1;
+
+    /**
+     * Default value for {@link #getIncrementalCompaction()}
+     */
+    public static final boolean INCREMENTAL_COMPACTION_DEFAULT = false;
+
     /**
      * No compaction at all
      */
@@ -118,10 +130,16 @@ public abstract class CompactionStrategy {
 
     private boolean persistedCompactionMap = PERSIST_COMPACTION_MAP_DEFAULT;
 
+    private boolean offHeapCompactionMap = OFF_HEAP_COMPACTION_MAP_DEFAULT;
+
     private int retryCount = RETRY_COUNT_DEFAULT;
 
     private boolean forceAfterFail = FORCE_AFTER_FAIL_DEFAULT;
 
+    private int compactionThreads = COMPACTION_THREADS_DEFAULT;
+
+    private boolean incrementalCompaction = INCREMENTAL_COMPACTION_DEFAULT;
+
     private long compactionStart = currentTimeMillis();
 
     /**
@@ -194,8 +212,11 @@ public abstract class CompactionStrategy {
                 ", olderThan=" + olderThan +
                 ", memoryThreshold=" + memoryThreshold +
                 ", persistedCompactionMap=" + persistedCompactionMap +
+                ", offHeapCompactionMap=" + offHeapCompactionMap +
                 ", retryCount=" + retryCount +
                 ", forceAfterFail=" + forceAfterFail +
+                ", compactionThreads=" + compactionThreads +
+                ", incrementalCompaction=" + incrementalCompaction +
                 ", compactionStart=" + compactionStart +
                 '}';
     }
@@ -220,6 +241,24 @@ public abstract class CompactionStrategy {
         persistedCompactionMap = persist;
     }
 
+    /**
+     * Get whether or not the compaction map keeps its entries off-heap. Only
+     * applies if the compaction map is not {@link #getPersistCompactionMap() persisted}.
+     * @return  {@code true} if the compaction map is kept off-heap, {@code false} otherwise
+     */
+    public boolean getOffHeapCompactionMap() {
+        return offHeapCompactionMap;
+    }
+
+    /**
+     * Set whether or not the compaction map keeps its entries off-heap. Only
+     * applies if the compaction map is not {@link #getPersistCompactionMap() persisted}.
+     * @param offHeap
+     */
+    public void setOffHeapCompactionMap(boolean offHeap) {
+        offHeapCompactionMap = offHeap;
+    }
+
     /**
      * Get whether or not to force compact concurrent commits on top of already
      * compacted commits after the maximum number of retries has been reached.
@@ -258,6 +297,45 @@ public abstract class CompactionStrategy {
         this.retryCount = retryCount;
     }
 
+    /**
+     * Get the number of threads compacting the subtrees of the root node
+     * concurrently
+     * @return  number of compaction threads
+     */
+    public int getCompactionThreads() {
+        return compactionThreads;
+    }
+
+    /**
+     * Set the number of threads compacting the subtrees of the root node
+     * concurrently. A value of {@code 1} disables parallel compaction.
+     * @param compactionThreads
+     */
+    public void setCompactionThreads(int compactionThreads) {
+        checkArgument(compactionThreads > 0);
+        this.compactionThreads = compactionThreads;
+    }
+
+    /**
+     * Get whether compaction only rewrites the content of those tar files whose
+     * compaction gain estimate is beyond the {@link #getGainThreshold() gain
+     * threshold} instead of all content reachable from the head state.
+     * @return  {@code true} if incremental compaction is on, {@code false} otherwise
+     */
+    public boolean getIncrementalCompaction() {
+        return incrementalCompaction;
+    }
+
+    /**
+     * Set whether compaction only rewrites the content of those tar files whose
+     * compaction gain estimate is beyond the {@link #getGainThreshold() gain
+     * threshold} instead of all content reachable from the head state.
+     * @param incrementalCompaction
+     */
+    public void setIncrementalCompaction(boolean incrementalCompaction) {
+        this.incrementalCompaction = incrementalCompaction;
+    }
+
     /**
      * Get the compaction gain estimate threshold beyond which compaction should
      * run
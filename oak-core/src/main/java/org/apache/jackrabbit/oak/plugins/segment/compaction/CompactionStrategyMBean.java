@@ -73,6 +73,36 @@ public interface CompactionStrategyMBean {
      */
     void setRetryCount(int retryCount);
 
+    /**
+     * Get the number of threads compacting the subtrees of the root node
+     * concurrently
+     * @return  number of compaction threads
+     */
+    int getCompactionThreads();
+
+    /**
+     * Set the number of threads compacting the subtrees of the root node
+     * concurrently. A value of {@code 1} disables parallel compaction.
+     * @param compactionThreads
+     */
+    void setCompactionThreads(int compactionThreads);
+
+    /**
+     * Get whether compaction only rewrites the content of those tar files whose
+     * compaction gain estimate is beyond the gain threshold instead of all
+     * content reachable from the head state.
+     * @return  {@code true} if incremental compaction is on, {@code false} otherwise
+     */
+    boolean getIncrementalCompaction();
+
+    /**
+     * Set whether compaction only rewrites the content of those tar files whose
+     * compaction gain estimate is beyond the gain threshold instead of all
+     * content reachable from the head state.
+     * @param incrementalCompaction
+     */
+    void setIncrementalCompaction(boolean incrementalCompaction);
+
     /**
      * Get the compaction gain estimate threshold beyond which compaction should
      * run
@@ -103,6 +103,26 @@ public class DefaultCompactionStrategyMBean
         strategy.setRetryCount(retryCount);
     }
 
+    @Override
+    public int getCompactionThreads() {
+        return strategy.getCompactionThreads();
+    }
+
+    @Override
+    public void setCompactionThreads(int compactionThreads) {
+        strategy.setCompactionThreads(compactionThreads);
+    }
+
+    @Override
+    public boolean getIncrementalCompaction() {
+        return strategy.getIncrementalCompaction();
+    }
+
+    @Override
+    public void setIncrementalCompaction(boolean incrementalCompaction) {
+        strategy.setIncrementalCompaction(incrementalCompaction);
+    }
+
     @Override
     public byte getGainThreshold() {
         return strategy.getGainThreshold();
@@ -42,6 +42,13 @@ class BackgroundThread extends Thread {
 
     private boolean alive = true;
 
+    /**
+     * Set when the thread is triggered and cleared when the next iteration
+     * starts, so that a trigger arriving while the thread is still busy
+     * with the previous iteration is not lost.
+     */
+    private boolean triggered = false;
+
     private long iterations = 0;
 
     private long sumDuration = 0;
@@ -103,18 +110,20 @@ class BackgroundThread extends Thread {
         if (close) {
             alive = false;
         }
+        triggered = true;
         notify();
     }
 
     private synchronized boolean waitUntilNextIteration()
             throws InterruptedException {
-        if (alive) {
+        if (alive && !triggered) {
             if (interval < 0) {
                 wait();
             } else {
                 wait(interval);
             }
         }
+        triggered = false;
         return alive;
     }
 
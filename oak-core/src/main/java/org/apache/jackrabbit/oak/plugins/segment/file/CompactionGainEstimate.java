@@ -18,7 +18,13 @@ package org.apache.jackrabbit.oak.plugins.segment.file;
 
 import static org.apache.jackrabbit.oak.api.Type.BINARIES;
 
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newHashSet;
+
 import java.io.File;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 import java.util.UUID;
 
 import com.google.common.hash.BloomFilter;
@@ -26,7 +32,7 @@ import com.google.common.hash.Funnel;
 import com.google.common.hash.PrimitiveSink;
 import org.apache.jackrabbit.oak.api.Blob;
 import org.apache.jackrabbit.oak.api.PropertyState;
-import org.apache.jackrabbit.oak.plugins.segment.RecordIdSet;
+import org.apache.jackrabbit.oak.plugins.segment.PrimitiveRecordIdSet;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentBlob;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentId;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeState;
@@ -49,12 +55,17 @@ class CompactionGainEstimate implements TarEntryVisitor {
 
     private long reachableSize = 0;
 
+    /**
+     * Total and reachable size of each visited tar file
+     */
+    private final Map<File, long[]> fileSizes = newHashMap();
+
     CompactionGainEstimate(SegmentNodeState node, int estimatedBulkCount) {
         uuids = BloomFilter.create(UUID_FUNNEL, estimatedBulkCount);
-        collectReferencedSegments(node, new RecordIdSet());
+        collectReferencedSegments(node, new PrimitiveRecordIdSet());
     }
 
-    private void collectReferencedSegments(SegmentNodeState node, RecordIdSet visited) {
+    private void collectReferencedSegments(SegmentNodeState node, PrimitiveRecordIdSet visited) {
         if (visited.addIfNotPresent(node.getRecordId())) {
             collectUUID(node.getRecordId().getSegmentId());
             for (PropertyState property : node.getProperties()) {
@@ -100,6 +111,25 @@ class CompactionGainEstimate implements TarEntryVisitor {
         return 100 * (totalSize - reachableSize - offset) / totalSize;
     }
 
+    /**
+     * Returns the tar files for which running compaction (and cleanup) could
+     * potentially release at least the given percentage of their size.
+     *
+     * @param threshold  minimal percentage (scale 0-100) of releasable space
+     * @return tar files beyond the threshold
+     */
+    public Set<File> getCompactableFiles(long threshold) {
+        Set<File> files = newHashSet();
+        for (Entry<File, long[]> entry : fileSizes.entrySet()) {
+            long total = entry.getValue()[0];
+            long reachable = entry.getValue()[1];
+            if (total > 0 && 100 * (total - reachable) / total >= threshold) {
+                files.add(entry.getKey());
+            }
+        }
+        return files;
+    }
+
     public long getTotalSize() {
         return totalSize;
     }
@@ -114,9 +144,16 @@ class CompactionGainEstimate implements TarEntryVisitor {
     public void visit(long msb, long lsb, File file, int offset, int size) {
         UUID uuid = new UUID(msb, lsb);
         int entrySize = TarReader.getEntrySize(size);
+        long[] sizes = fileSizes.get(file);
+        if (sizes == null) {
+            sizes = new long[2];
+            fileSizes.put(file, sizes);
+        }
         totalSize += entrySize;
+        sizes[0] += entrySize;
         if (uuids.mightContain(uuid)) {
             reachableSize += entrySize;
+            sizes[1] += entrySize;
         }
     }
 
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.segment.file;
+
+/**
+ * Durability guarantees of the {@link FileStore} for the head states set by
+ * commits, i.e. when new head states get persisted to the journal.
+ */
+public enum Durability {
+
+    /**
+     * The head state is persisted by the background flush thread in regular
+     * intervals. Commits never wait for the disk.
+     */
+    INTERVAL,
+
+    /**
+     * Like {@link #INTERVAL}, but the background flush thread is additionally
+     * triggered as soon as a given number of segments has been written since
+     * the last flush.
+     */
+    BATCH,
+
+    /**
+     * Each commit waits until its head state is persisted. Commits that wait
+     * concurrently are persisted together by a single flush of the background
+     * flush thread (group commit).
+     */
+    COMMIT
+
+}
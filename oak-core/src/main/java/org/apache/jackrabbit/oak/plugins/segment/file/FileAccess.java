@@ -19,19 +19,25 @@ package org.apache.jackrabbit.oak.plugins.segment.file;
 import static com.google.common.base.Preconditions.checkState;
 import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 
 /**
- * A wrapper around either memory mapped files or random access files, to allow
- * reading from a file.
+ * A wrapper around either memory mapped files, random access files or file
+ * channels, to allow reading from a file.
  */
 abstract class FileAccess {
 
     abstract boolean isMemoryMapped();
 
+    abstract boolean isPositional();
+
     abstract int length() throws IOException;
 
     abstract ByteBuffer read(int position, int length) throws IOException;
@@ -56,6 +62,11 @@ abstract class FileAccess {
             return true;
         }
 
+        @Override
+        boolean isPositional() {
+            return false;
+        }
+
         @Override
         public int length() {
             return buffer.remaining();
@@ -91,6 +102,11 @@ abstract class FileAccess {
             return false;
         }
 
+        @Override
+        boolean isPositional() {
+            return false;
+        }
+
         @Override
         public int length() throws IOException {
             long length = file.length();
@@ -114,4 +130,106 @@ abstract class FileAccess {
 
     }
 
-}
\ No newline at end of file
+    /**
+     * The implementation that uses positional reads on the file channel of
+     * a random access file. As there is no shared file pointer, reads are not
+     * synchronized and can proceed concurrently.
+     * <p>
+     * A file channel is closed if a thread is interrupted while reading from
+     * it. In that case the file is reopened and the read is retried with the
+     * interrupt status of the thread cleared (and restored afterwards), so
+     * that an interrupt neither fails the read nor any subsequent reads by
+     * other threads.
+     */
+    static class Positional extends FileAccess {
+
+        private final File file;
+
+        private volatile RandomAccessFile access;
+
+        private volatile boolean closed;
+
+        Positional(File file, RandomAccessFile access) {
+            this.file = file;
+            this.access = access;
+        }
+
+        @Override
+        boolean isMemoryMapped() {
+            return false;
+        }
+
+        @Override
+        boolean isPositional() {
+            return true;
+        }
+
+        @Override
+        public int length() throws IOException {
+            long length = file.length();
+            checkState(length < Integer.MAX_VALUE);
+            return (int) length;
+        }
+
+        @Override
+        public ByteBuffer read(int position, int length) throws IOException {
+            ByteBuffer entry = ByteBuffer.allocate(length);
+            FileChannel channel = access.getChannel();
+            try {
+                read(channel, entry, position);
+            } catch (ClosedChannelException e) {
+                // the channel was closed because this or another thread was
+                // interrupted while reading from it
+                boolean interrupted = Thread.interrupted();
+                try {
+                    entry.clear();
+                    read(reopen(channel, e), entry, position);
+                } finally {
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            entry.flip();
+            return entry;
+        }
+
+        private static void read(FileChannel channel, ByteBuffer entry, int position)
+                throws IOException {
+            while (entry.hasRemaining()) {
+                int n = channel.read(entry, position + entry.position());
+                if (n == -1) {
+                    throw new EOFException("Unexpected end of file at position "
+                            + (position + entry.position()));
+                }
+            }
+        }
+
+        /**
+         * Reopens the file unless it was closed explicitly, or another thread
+         * already reopened it after the given channel was closed.
+         */
+        private synchronized FileChannel reopen(
+                FileChannel channel, ClosedChannelException cause)
+                throws IOException {
+            if (closed) {
+                throw cause;
+            }
+            RandomAccessFile current = access;
+            if (current.getChannel() == channel) {
+                current.close();
+                current = new RandomAccessFile(file, "r");
+                access = current;
+            }
+            return current.getChannel();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            closed = true;
+            access.close();
+        }
+
+    }
+
+}
@@ -27,17 +27,26 @@ import static com.google.common.collect.Sets.newHashSet;
 import static java.lang.String.format;
 import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonMap;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.apache.jackrabbit.oak.commons.IOUtils.humanReadableByteCount;
 import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
 import static org.apache.jackrabbit.oak.plugins.segment.CompactionMap.sum;
+import static org.apache.jackrabbit.oak.plugins.segment.SegmentTracker.DEFAULT_MEMORY_CACHE_SIZE;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.NO_COMPACTION;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -45,20 +54,39 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Maps;
+import com.google.common.io.Files;
 import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.cache.CacheLIRS;
+import org.apache.jackrabbit.oak.commons.json.JsopBuilder;
+import org.apache.jackrabbit.oak.commons.json.JsopTokenizer;
 import org.apache.jackrabbit.oak.plugins.blob.BlobStoreBlob;
+import org.apache.jackrabbit.oak.plugins.segment.ChangeIndex;
 import org.apache.jackrabbit.oak.plugins.segment.Compactor;
 import org.apache.jackrabbit.oak.plugins.segment.CompactionMap;
+import org.apache.jackrabbit.oak.plugins.segment.OffHeapCompactionMap;
+import org.apache.jackrabbit.oak.plugins.segment.PartialCompactionMap;
 import org.apache.jackrabbit.oak.plugins.segment.PersistedCompactionMap;
 import org.apache.jackrabbit.oak.plugins.segment.RecordId;
 import org.apache.jackrabbit.oak.plugins.segment.Segment;
@@ -70,6 +98,8 @@ import org.apache.jackrabbit.oak.plugins.segment.SegmentStore;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentTracker;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentVersion;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentWriter;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentWriterPool;
+import org.apache.jackrabbit.oak.plugins.segment.WriterCacheManager;
 import org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy;
 import org.apache.jackrabbit.oak.spi.blob.BlobStore;
 import org.apache.jackrabbit.oak.spi.gc.GCMonitor;
@@ -95,11 +125,53 @@ public class FileStore implements SegmentStore {
 
     private static final String JOURNAL_FILE_NAME = "journal.log";
 
+    private static final String CHANGES_FILE_NAME = "changes.log";
+
     private static final String LOCK_FILE_NAME = "repo.lock";
 
     static final boolean MEMORY_MAPPING_DEFAULT =
             "64".equals(System.getProperty("sun.arch.data.model", "32"));
 
+    /**
+     * Default interval in ms of the background flush thread
+     */
+    private static final int DEFAULT_FLUSH_INTERVAL = 5000;
+
+    /**
+     * Default number of segments written after which the background flush
+     * thread is triggered with {@link Durability#BATCH}
+     */
+    private static final int DEFAULT_FLUSH_BATCH_SIZE = 100;
+
+    /**
+     * Maximum time in ms a commit waits for its head state to be persisted
+     * with {@link Durability#COMMIT}
+     */
+    private static final long FLUSH_WAIT_TIMEOUT = 60000;
+
+    /**
+     * Default number of most recently written tar files that are always
+     * kept in the hot tier
+     */
+    public static final int DEFAULT_HOT_FILE_COUNT = 16;
+
+    /**
+     * Default number of segment reads per {@link #TIERING_INTERVAL} below
+     * which a tar file is moved to the cold tier
+     */
+    public static final int DEFAULT_COLD_READ_THRESHOLD = 100;
+
+    /**
+     * Interval in ms of the background thread migrating tar files between
+     * the hot and the cold tier
+     */
+    private static final int TIERING_INTERVAL = 60000;
+
+    /**
+     * Maximum number of segment locations kept in {@link #locations}
+     */
+    private static final int LOCATION_CACHE_SIZE = 65536;
+
     private final SegmentTracker tracker;
 
     private final File directory;
@@ -110,8 +182,97 @@ public class FileStore implements SegmentStore {
 
     private final boolean memoryMapping;
 
+    private final boolean positionalReads;
+
+    /**
+     * Whether data segments are compressed when written to tar files.
+     * @see SegmentCompression
+     */
+    private final boolean compression;
+
+    /**
+     * Directory of the cold tier, which receives the tar files that are
+     * neither among the {@link #hotFileCount} most recently written ones
+     * nor frequently read. {@code null} if tiering is disabled.
+     */
+    private final File coldDirectory;
+
+    private final int hotFileCount;
+
+    private final int coldReadThreshold;
+
+    private final Durability durability;
+
+    /**
+     * Number of segments written since the last flush after which the
+     * background flush thread is triggered. Only applies to
+     * {@link Durability#BATCH}.
+     */
+    private final int flushBatchSize;
+
+    /**
+     * Number of segments written since the last flush.
+     */
+    private final AtomicInteger unflushedSegments = new AtomicInteger();
+
+    /**
+     * Monitor for commits waiting for their head state to be persisted.
+     * Guards {@link #flushRequested}, {@link #flushCompleted},
+     * {@link #flushFailed}, {@link #flushError} and {@link #flushClosed}.
+     */
+    private final Object flushMonitor = new Object();
+
+    /**
+     * Sequence number of the last flush requested by a commit.
+     */
+    private long flushRequested;
+
+    /**
+     * Sequence number of the last request covered by a completed flush.
+     */
+    private long flushCompleted;
+
+    /**
+     * Sequence number of the last request covered by a failed flush.
+     */
+    private long flushFailed;
+
+    private Exception flushError;
+
+    /**
+     * Whether the store was closed, after which no flush completes any
+     * more requests.
+     */
+    private boolean flushClosed;
+
+    private final FlushStats flushStats;
+
+    private final SegmentPrefetcher prefetcher;
+
     private volatile List<TarReader> readers;
 
+    /**
+     * The tar files containing recently read segments, so that repeated
+     * reads of a segment go directly to the right tar file. Invalidated
+     * whenever the cleanup replaces tar files.
+     */
+    private final CacheLIRS<UUID, TarReader> locations = CacheLIRS.newBuilder()
+            .maximumSize(LOCATION_CACHE_SIZE)
+            .build();
+
+    /**
+     * Serializes concurrent {@link #cleanup()} runs, which only
+     * synchronize on this store while swapping the tar readers, with
+     * each other and with the tar readers being replaced by
+     * {@link #migrateTarFiles()}.
+     */
+    private final Object cleanupMonitor = new Object();
+
+    /**
+     * Serializes concurrent {@link #migrateTarFiles()} runs.
+     */
+    private final Object tieringMonitor = new Object();
+
     private int writeNumber;
 
     private File writeFile;
@@ -120,6 +281,27 @@ public class FileStore implements SegmentStore {
 
     private final RandomAccessFile journalFile;
 
+    /**
+     * The paths changed by recent commits, persisted for the
+     * {@link org.apache.jackrabbit.oak.plugins.segment.ChangeIndex}.
+     */
+    private final RandomAccessFile changesFile;
+
+    /**
+     * Number of entries in the {@link #changesFile}. Once it exceeds twice
+     * the capacity of the change index, the file is trimmed to the most
+     * recent entries.
+     */
+    private int changesFileEntries;
+
+    /**
+     * Entries of the change index not yet written to the {@link #changesFile},
+     * in the format of the file. Entries exceeding the capacity of the queue
+     * are not persisted.
+     */
+    private final BlockingQueue<String> unwrittenChanges =
+            new LinkedBlockingQueue<String>(ChangeIndex.MAX_ENTRIES);
+
     private final RandomAccessFile lockFile;
 
     private final FileLock lock;
@@ -147,6 +329,13 @@ public class FileStore implements SegmentStore {
      */
     private final BackgroundThread compactionThread;
 
+    /**
+     * The background tiering thread, or {@code null} if tiering is
+     * disabled. Periodically migrates tar files between the hot and the
+     * cold tier based on their read statistics.
+     */
+    private final BackgroundThread tieringThread;
+
     private CompactionStrategy compactionStrategy = NO_COMPACTION;
 
     /**
@@ -191,6 +380,20 @@ public class FileStore implements SegmentStore {
         private int maxFileSize = 256;
         private int cacheSize;   // 0 -> DEFAULT_MEMORY_CACHE_SIZE
         private boolean memoryMapping;
+        private boolean positionalReads;
+        private boolean compression;
+        private Durability durability = Durability.INTERVAL;
+        private int flushInterval = DEFAULT_FLUSH_INTERVAL;
+        private int flushBatchSize = DEFAULT_FLUSH_BATCH_SIZE;
+        private int writerPoolSize = SegmentWriterPool.DEFAULT_POOL_SIZE;
+        private int stringCacheSize = WriterCacheManager.DEFAULT_STRING_CACHE_SIZE;
+        private int templateCacheSize = WriterCacheManager.DEFAULT_TEMPLATE_CACHE_SIZE;
+        private int nodeCacheSize = WriterCacheManager.DEFAULT_NODE_CACHE_SIZE;
+        private int prefetchDepth = SegmentPrefetcher.DEFAULT_DEPTH;
+        private int prefetchThreads = SegmentPrefetcher.DEFAULT_THREADS;
+        private File coldDirectory;
+        private int hotFileCount = DEFAULT_HOT_FILE_COUNT;
+        private int coldReadThreshold = DEFAULT_COLD_READ_THRESHOLD;
         private final LoggingGCMonitor gcMonitor = new LoggingGCMonitor();
 
         private Builder(File directory) {
@@ -262,6 +465,197 @@ public class FileStore implements SegmentStore {
             return this;
         }
 
+        /**
+         * Turn positional reads on or off. When on, tar files that are not
+         * memory mapped are read through positional reads on their file
+         * channel, which allows concurrent reads from the same file. When off,
+         * such reads are synchronized on a random access file.
+         * @param positionalReads
+         * @return this instance
+         */
+        @Nonnull
+        public Builder withPositionalReads(boolean positionalReads) {
+            this.positionalReads = positionalReads;
+            return this;
+        }
+
+        /**
+         * Turn compression of data segments on or off. When on, data segments
+         * are compressed before they are written to the tar files and
+         * decompressed when read back, trading some CPU time for a smaller
+         * disk footprint. Tar files may contain both compressed and
+         * uncompressed segments, so the setting can be changed for an
+         * existing repository. Compressed segments can't be read by older
+         * versions of Oak though.
+         * @param compression
+         * @return this instance
+         */
+        @Nonnull
+        public Builder withCompression(boolean compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * Durability guarantees for the head states set by commits.
+         * @param durability
+         * @return this instance
+         * @see Durability
+         */
+        @Nonnull
+        public Builder withDurability(@Nonnull Durability durability) {
+            this.durability = checkNotNull(durability);
+            return this;
+        }
+
+        /**
+         * Interval in ms in which the background flush thread persists
+         * the head state.
+         * @param flushInterval
+         * @return this instance
+         */
+        @Nonnull
+        public Builder withFlushInterval(int flushInterval) {
+            checkArgument(flushInterval > 0);
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        /**
+         * Number of segments written after which the background flush thread
+         * is triggered. Only applies to {@link Durability#BATCH}.
+         * @param flushBatchSize
+         * @return this instance
+         */
+        @Nonnull
+        public Builder withFlushBatchSize(int flushBatchSize) {
+            checkArgument(flushBatchSize > 0);
+            this.flushBatchSize = flushBatchSize;
+            return this;
+        }
+
+        /**
+         * Number of segment writers used by concurrently writing threads.
+         * @param writerPoolSize
+         * @return this instance
+         */
+        @Nonnull
+        public Builder withWriterPoolSize(int writerPoolSize) {
+            checkArgument(writerPoolSize > 0);
+            this.writerPoolSize = writerPoolSize;
+            return this;
+        }
+
+        /**
+         * Size in MB of the cache of string records used by the segment
+         * writers to avoid storing duplicate strings.
+         * A size of {@code 0} disables the cache.
+         * @param stringCacheSize
+         * @return this instance
+         */
+        @Nonnull
+        public Builder withStringCacheSize(int stringCacheSize) {
+            checkArgument(stringCacheSize >= 0);
+            this.stringCacheSize = stringCacheSize;
+            return this;
+        }
+
+        /**
+         * Size in MB of the cache of template records used by the segment
+         * writers to avoid storing duplicate templates.
+         * A size of {@code 0} disables the cache.
+         * @param templateCacheSize
+         * @return this instance
+         */
+        @Nonnull
+        public Builder withTemplateCacheSize(int templateCacheSize) {
+            checkArgument(templateCacheSize >= 0);
+            this.templateCacheSize = templateCacheSize;
+            return this;
+        }
+
+        /**
+         * Size in MB of the cache of node records used by the segment
+         * writers to avoid storing duplicate nodes.
+         * A size of {@code 0} disables the cache.
+         * @param nodeCacheSize
+         * @return this instance
+         */
+        @Nonnull
+        public Builder withNodeCacheSize(int nodeCacheSize) {
+            checkArgument(nodeCacheSize >= 0);
+            this.nodeCacheSize = nodeCacheSize;
+            return this;
+        }
+
+        /**
+         * Number of levels of referenced segments read ahead on a segment
+         * cache miss. Only segments stored in the same tar file as the
+         * missing segment are read ahead. {@code 0} disables prefetching.
+         * @param prefetchDepth
+         * @return this instance
+         * @see SegmentPrefetcher
+         */
+        @Nonnull
+        public Builder withPrefetchDepth(int prefetchDepth) {
+            checkArgument(prefetchDepth >= 0);
+            this.prefetchDepth = prefetchDepth;
+            return this;
+        }
+
+        /**
+         * Number of threads reading segments ahead.
+         * @param prefetchThreads
+         * @return this instance
+         */
+        @Nonnull
+        public Builder withPrefetchThreads(int prefetchThreads) {
+            checkArgument(prefetchThreads > 0);
+            this.prefetchThreads = prefetchThreads;
+            return this;
+        }
+
+        /**
+         * Directory of the cold storage tier, typically on a cheaper
+         * volume. Tar files which are neither recently written nor
+         * frequently read are moved there from the main directory, and
+         * moved back once they are frequently read again.
+         * @param coldDirectory
+         * @return this instance
+         */
+        @Nonnull
+        public Builder withColdDirectory(@Nonnull File coldDirectory) {
+            this.coldDirectory = checkNotNull(coldDirectory);
+            return this;
+        }
+
+        /**
+         * Number of most recently written tar files that are always kept
+         * in the main directory when a cold directory is configured.
+         * @param hotFileCount
+         * @return this instance
+         */
+        @Nonnull
+        public Builder withHotFileCount(int hotFileCount) {
+            checkArgument(hotFileCount >= 0);
+            this.hotFileCount = hotFileCount;
+            return this;
+        }
+
+        /**
+         * Number of segment reads per minute below which a tar file is
+         * moved to the cold directory. Cold tar files are moved back once
+         * they are read twice as often.
+         * @param coldReadThreshold
+         * @return this instance
+         */
+        @Nonnull
+        public Builder withColdReadThreshold(int coldReadThreshold) {
+            checkArgument(coldReadThreshold > 0);
+            this.coldReadThreshold = coldReadThreshold;
+            return this;
+        }
+
         /**
          * {@link GCMonitor} for monitoring this files store's gc process.
          * @param gcMonitor
@@ -283,6 +677,20 @@ public class FileStore implements SegmentStore {
          * <li>max file size: 256MB</li>
          * <li>cache size: 256MB</li>
          * <li>memory mapping: on for 64 bit JVMs off otherwise</li>
+         * <li>positional reads: off</li>
+         * <li>compression: off</li>
+         * <li>durability: {@link Durability#INTERVAL}</li>
+         * <li>flush interval: 5s</li>
+         * <li>flush batch size: 100 segments</li>
+         * <li>writer pool size: number of available processors</li>
+         * <li>string cache size: 16MB</li>
+         * <li>template cache size: 4MB</li>
+         * <li>node cache size: 16MB</li>
+         * <li>prefetch depth: 0, no prefetching</li>
+         * <li>prefetch threads: 4</li>
+         * <li>cold directory: none, tiering disabled</li>
+         * <li>hot file count: 16</li>
+         * <li>cold read threshold: 100 reads per minute</li>
          * <li>whiteboard: none. No {@link GCMonitor} tracking</li>
          * </ul>
          *
@@ -292,14 +700,23 @@ public class FileStore implements SegmentStore {
         @Nonnull
         public FileStore create() throws IOException {
             return new FileStore(
-                    blobStore, directory, root, maxFileSize, cacheSize, memoryMapping, gcMonitor);
+                    blobStore, directory, root, maxFileSize, cacheSize, memoryMapping,
+                    positionalReads, compression, durability, flushInterval,
+                    flushBatchSize, writerPoolSize,
+                    new WriterCacheManager(stringCacheSize, templateCacheSize, nodeCacheSize),
+                    prefetchDepth, prefetchThreads, coldDirectory, hotFileCount,
+                    coldReadThreshold, gcMonitor);
         }
     }
 
     @Deprecated
     public FileStore(BlobStore blobStore, File directory, int maxFileSizeMB, boolean memoryMapping)
             throws IOException {
-        this(blobStore, directory, EMPTY_NODE, maxFileSizeMB, 0, memoryMapping, GCMonitor.EMPTY);
+        this(blobStore, directory, EMPTY_NODE, maxFileSizeMB, 0, memoryMapping, false,
+                false, Durability.INTERVAL, DEFAULT_FLUSH_INTERVAL, DEFAULT_FLUSH_BATCH_SIZE,
+                SegmentWriterPool.DEFAULT_POOL_SIZE, new WriterCacheManager(),
+                SegmentPrefetcher.DEFAULT_DEPTH, SegmentPrefetcher.DEFAULT_THREADS,
+                null, DEFAULT_HOT_FILE_COUNT, DEFAULT_COLD_READ_THRESHOLD, GCMonitor.EMPTY);
     }
 
     @Deprecated
@@ -317,48 +734,86 @@ public class FileStore implements SegmentStore {
     @Deprecated
     public FileStore(File directory, int maxFileSizeMB, int cacheSizeMB,
             boolean memoryMapping) throws IOException {
-        this(null, directory, EMPTY_NODE, maxFileSizeMB, cacheSizeMB, memoryMapping, GCMonitor.EMPTY);
+        this(null, directory, EMPTY_NODE, maxFileSizeMB, cacheSizeMB, memoryMapping, false,
+                false, Durability.INTERVAL, DEFAULT_FLUSH_INTERVAL, DEFAULT_FLUSH_BATCH_SIZE,
+                SegmentWriterPool.DEFAULT_POOL_SIZE, new WriterCacheManager(),
+                SegmentPrefetcher.DEFAULT_DEPTH, SegmentPrefetcher.DEFAULT_THREADS,
+                null, DEFAULT_HOT_FILE_COUNT, DEFAULT_COLD_READ_THRESHOLD, GCMonitor.EMPTY);
     }
 
     @Deprecated
     FileStore(File directory, NodeState initial, int maxFileSize) throws IOException {
-        this(null, directory, initial, maxFileSize, -1, MEMORY_MAPPING_DEFAULT, GCMonitor.EMPTY);
+        this(null, directory, initial, maxFileSize, -1, MEMORY_MAPPING_DEFAULT, false,
+                false, Durability.INTERVAL, DEFAULT_FLUSH_INTERVAL, DEFAULT_FLUSH_BATCH_SIZE,
+                SegmentWriterPool.DEFAULT_POOL_SIZE, new WriterCacheManager(),
+                SegmentPrefetcher.DEFAULT_DEPTH, SegmentPrefetcher.DEFAULT_THREADS,
+                null, DEFAULT_HOT_FILE_COUNT, DEFAULT_COLD_READ_THRESHOLD, GCMonitor.EMPTY);
     }
 
     @Deprecated
     public FileStore(
             BlobStore blobStore, final File directory, NodeState initial, int maxFileSizeMB,
             int cacheSizeMB, boolean memoryMapping) throws IOException {
-        this(blobStore, directory, initial, maxFileSizeMB, cacheSizeMB, memoryMapping, GCMonitor.EMPTY);
+        this(blobStore, directory, initial, maxFileSizeMB, cacheSizeMB, memoryMapping, false,
+                false, Durability.INTERVAL, DEFAULT_FLUSH_INTERVAL, DEFAULT_FLUSH_BATCH_SIZE,
+                SegmentWriterPool.DEFAULT_POOL_SIZE, new WriterCacheManager(),
+                SegmentPrefetcher.DEFAULT_DEPTH, SegmentPrefetcher.DEFAULT_THREADS,
+                null, DEFAULT_HOT_FILE_COUNT, DEFAULT_COLD_READ_THRESHOLD, GCMonitor.EMPTY);
     }
 
     private FileStore(
             BlobStore blobStore, final File directory, NodeState initial, int maxFileSizeMB,
-            int cacheSizeMB, boolean memoryMapping, GCMonitor gcMonitor)
+            int cacheSizeMB, boolean memoryMapping, boolean positionalReads,
+            boolean compression, Durability durability, int flushInterval, int flushBatchSize,
+            int writerPoolSize, WriterCacheManager writerCaches,
+            int prefetchDepth, int prefetchThreads, File coldDirectory,
+            int hotFileCount, int coldReadThreshold, GCMonitor gcMonitor)
             throws IOException {
         checkNotNull(directory).mkdirs();
+        if (coldDirectory != null) {
+            checkArgument(!coldDirectory.getCanonicalFile().equals(
+                    directory.getCanonicalFile()),
+                    "The cold directory must differ from the main directory");
+            coldDirectory.mkdirs();
+        }
         if (cacheSizeMB < 0) {
-            this.tracker = new SegmentTracker(this, 0, getVersion());
+            this.tracker = new SegmentTracker(
+                    this, 0, getVersion(), writerPoolSize, writerCaches);
         } else if (cacheSizeMB > 0) {
-            this.tracker = new SegmentTracker(this, cacheSizeMB, getVersion());
+            this.tracker = new SegmentTracker(
+                    this, cacheSizeMB, getVersion(), writerPoolSize, writerCaches);
         } else {
-            this.tracker = new SegmentTracker(this, getVersion());
+            this.tracker = new SegmentTracker(
+                    this, DEFAULT_MEMORY_CACHE_SIZE, getVersion(), writerPoolSize, writerCaches);
         }
         this.blobStore = blobStore;
         this.directory = directory;
         this.maxFileSize = maxFileSizeMB * MB;
         this.memoryMapping = memoryMapping;
+        this.positionalReads = positionalReads;
+        this.compression = compression;
+        this.coldDirectory = coldDirectory;
+        this.hotFileCount = hotFileCount;
+        this.coldReadThreshold = coldReadThreshold;
+        this.durability = durability;
+        this.flushBatchSize = flushBatchSize;
+        this.flushStats = new FlushStats(durability);
+        this.prefetcher = new SegmentPrefetcher(tracker, prefetchDepth, prefetchThreads);
         this.gcMonitor = gcMonitor;
 
         journalFile = new RandomAccessFile(new File(directory, JOURNAL_FILE_NAME), "rw");
         lockFile = new RandomAccessFile(new File(directory, LOCK_FILE_NAME), "rw");
 
         Map<Integer, Map<Character, File>> map = collectFiles(directory);
+        if (coldDirectory != null) {
+            addColdFiles(map, collectFiles(coldDirectory));
+        }
         this.readers = newArrayListWithCapacity(map.size());
         Integer[] indices = map.keySet().toArray(new Integer[map.size()]);
         Arrays.sort(indices);
         for (int i = indices.length - 1; i >= 0; i--) {
-            readers.add(TarReader.open(map.get(indices[i]), memoryMapping));
+            readers.add(TarReader.open(map.get(indices[i]), memoryMapping, positionalReads));
+            tracker.getIOStats().tarFileOpened();
         }
 
         if (indices.length > 0) {
@@ -369,7 +824,7 @@ public class FileStore implements SegmentStore {
         this.writeFile = new File(
                 directory,
                 String.format(FILE_NAME_FORMAT, writeNumber, "a"));
-        this.writer = new TarWriter(writeFile);
+        this.writer = new TarWriter(writeFile, compression);
 
         RecordId id = null;
         JournalReader journalReader = new JournalReader(new File(directory, JOURNAL_FILE_NAME));
@@ -393,6 +848,9 @@ public class FileStore implements SegmentStore {
         journalFile.seek(journalFile.length());
         lock = lockFile.getChannel().lock();
 
+        changesFile = new RandomAccessFile(new File(directory, CHANGES_FILE_NAME), "rw");
+        loadChanges();
+
         if (id != null) {
             head = new AtomicReference<RecordId>(id);
             persistedHead = new AtomicReference<RecordId>(id);
@@ -405,15 +863,20 @@ public class FileStore implements SegmentStore {
         }
 
         this.flushThread = new BackgroundThread(
-                "TarMK flush thread [" + directory + "]", 5000, // 5s interval
+                "TarMK flush thread [" + directory + "]", flushInterval,
                 new Runnable() {
                     @Override
                     public void run() {
                         try {
                             flush();
+                            writeUnwrittenChanges();
                         } catch (IOException e) {
                             log.warn("Failed to flush the TarMK at" +
                                     directory, e);
+                        } catch (RuntimeException e) {
+                            // keep the flush thread alive for the next attempt
+                            log.warn("Failed to flush the TarMK at" +
+                                    directory, e);
                         }
                     }
                 });
@@ -426,7 +889,27 @@ public class FileStore implements SegmentStore {
                     }
                 });
 
-        log.info("TarMK opened: {} (mmap={})", directory, memoryMapping);
+        if (coldDirectory != null) {
+            this.tieringThread = new BackgroundThread(
+                    "TarMK tiering thread [" + directory + "]", TIERING_INTERVAL,
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                migrateTarFiles();
+                            } catch (IOException e) {
+                                log.warn("Failed to migrate tar files between " +
+                                        directory + " and " + FileStore.this.coldDirectory, e);
+                            }
+                        }
+                    });
+        } else {
+            this.tieringThread = null;
+        }
+
+        log.info("TarMK opened: {} (mmap={}, positional={}, compression={}, durability={}, cold={})",
+                directory, memoryMapping, positionalReads, compression, durability,
+                coldDirectory);
     }
 
     public boolean maybeCompact(boolean cleanup) {
@@ -461,7 +944,31 @@ public class FileStore implements SegmentStore {
 
         CompactionGainEstimate estimate = estimateCompactionGain();
         long gain = estimate.estimateCompactionGain(offset);
-        if (gain >= compactionStrategy.getGainThreshold()) {
+        if (compactionStrategy.getIncrementalCompaction()) {
+            Set<UUID> segments = getCompactableSegments(
+                    estimate.getCompactableFiles(compactionStrategy.getGainThreshold()));
+            if (!segments.isEmpty()) {
+                gcMonitor.info(
+                        "Estimated compaction in {}, gain is {}% ({}/{}) or ({}/{}), so running " +
+                        "incremental compaction of {} segments",
+                        watch, gain, estimate.getReachableSize(),
+                        estimate.getTotalSize(),
+                        humanReadableByteCount(estimate.getReachableSize()),
+                        humanReadableByteCount(estimate.getTotalSize()),
+                        segments.size());
+                if (!compactionStrategy.isPaused()) {
+                    compact(segments);
+                    compacted = true;
+                } else {
+                    gcMonitor.skipped("TarMK compaction paused");
+                }
+            } else {
+                gcMonitor.skipped(
+                        "Estimated compaction in {}, no tar file has a gain beyond {}%, " +
+                        "so skipping incremental compaction for now",
+                        watch, compactionStrategy.getGainThreshold());
+            }
+        } else if (gain >= compactionStrategy.getGainThreshold()) {
             gcMonitor.info(
                     "Estimated compaction in {}, gain is {}% ({}/{}) or ({}/{}), so running compaction",
                     watch, gain, estimate.getReachableSize(),
@@ -488,6 +995,34 @@ public class FileStore implements SegmentStore {
         return compacted;
     }
 
+    /**
+     * Adds the tar files of the cold tier to those of the main directory.
+     * A tar file present in both directories is left over from an
+     * interrupted migration, in which case the copy in the main directory
+     * is used and the one in the cold directory is removed.
+     */
+    private static void addColdFiles(Map<Integer, Map<Character, File>> files,
+            Map<Integer, Map<Character, File>> coldFiles) {
+        for (Map.Entry<Integer, Map<Character, File>> entry : coldFiles.entrySet()) {
+            Map<Character, File> generations = files.get(entry.getKey());
+            if (generations == null) {
+                files.put(entry.getKey(), entry.getValue());
+            } else {
+                for (Map.Entry<Character, File> generation : entry.getValue().entrySet()) {
+                    if (!generations.containsKey(generation.getKey())) {
+                        generations.put(generation.getKey(), generation.getValue());
+                    } else {
+                        File file = generation.getValue();
+                        log.info("Removing duplicate cold tar file {}", file);
+                        if (!file.delete()) {
+                            log.warn("Failed to remove duplicate cold tar file {}", file);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     static Map<Integer, Map<Character, File>> collectFiles(File directory) {
         Map<Integer, Map<Character, File>> dataFiles = newHashMap();
         Map<Integer, File> bulkFiles = newHashMap();
@@ -591,45 +1126,331 @@ public class FileStore implements SegmentStore {
         return estimate;
     }
 
+    /**
+     * Returns the identifiers of all segments contained in the given tar files.
+     */
+    private synchronized Set<UUID> getCompactableSegments(Set<File> files) {
+        Set<UUID> segments = newHashSet();
+        for (TarReader reader : readers) {
+            if (files.contains(reader.getFile())) {
+                segments.addAll(reader.getUUIDs());
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * @return  the directory containing the tar files and the journal
+     *          of this store
+     */
+    @Nonnull
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return  the directory of the cold tier, or {@code null} if tiering
+     *          is disabled
+     */
+    @CheckForNull
+    public File getColdDirectory() {
+        return coldDirectory;
+    }
+
+    /**
+     * @return  flush statistics of this store
+     */
+    @Nonnull
+    public FlushStats getFlushStats() {
+        return flushStats;
+    }
+
+    /**
+     * @return  the prefetcher reading segments ahead on segment cache misses
+     */
+    @Nonnull
+    public SegmentPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Loads the most recent entries of the changes file into the change
+     * index and drops the older ones from the file.
+     */
+    private void loadChanges() throws IOException {
+        ChangeIndex index = tracker.getChangeIndex();
+        List<String> retained = newArrayList();
+        for (String line : readRecentChanges()) {
+            try {
+                String[] parts = line.split(" ", 3);
+                List<String> paths = newArrayList();
+                JsopTokenizer json = new JsopTokenizer(parts[2]);
+                json.read('[');
+                if (!json.matches(']')) {
+                    do {
+                        paths.add(json.readString());
+                    } while (json.matches(','));
+                    json.read(']');
+                }
+                index.put(RecordId.fromString(tracker, parts[0]),
+                        RecordId.fromString(tracker, parts[1]), paths);
+                retained.add(line);
+            } catch (RuntimeException e) {
+                // e.g. a partially written line after a crash
+                log.debug("Ignoring invalid change index entry {}", line, e);
+            }
+        }
+        writeChanges(retained);
+    }
+
+    /**
+     * @return  the {@link ChangeIndex#MAX_ENTRIES} most recent entries of
+     *          the changes file
+     */
+    private List<String> readRecentChanges() throws IOException {
+        LinkedList<String> lines = newLinkedList();
+        ReversedLinesFileReader reader = new ReversedLinesFileReader(
+                new File(directory, CHANGES_FILE_NAME), 4096, Charsets.UTF_8);
+        try {
+            String line = reader.readLine();
+            while (line != null && lines.size() < ChangeIndex.MAX_ENTRIES) {
+                lines.addFirst(line);
+                line = reader.readLine();
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    /**
+     * Replaces the content of the changes file with the given entries.
+     */
+    private void writeChanges(List<String> lines) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (String line : lines) {
+            content.append(line).append('\n');
+        }
+        changesFile.setLength(0);
+        changesFile.write(content.toString().getBytes(Charsets.UTF_8));
+        changesFileEntries = lines.size();
+    }
+
+    /**
+     * Adds the paths changed by a commit to the change index and queues the
+     * entry for the changes file. The paths are collected when the commit
+     * sets the head state, so that the diff is bounded by the size of the
+     * commit. Changes to checkpoints are not indexed.
+     */
+    private void indexChanges(SegmentNodeState base, SegmentNodeState head) {
+        NodeState before = base.getChildNode("root");
+        NodeState after = head.getChildNode("root");
+        if (before instanceof SegmentNodeState
+                && after instanceof SegmentNodeState) {
+            RecordId beforeId = ((SegmentNodeState) before).getRecordId();
+            RecordId afterId = ((SegmentNodeState) after).getRecordId();
+            if (beforeId.equals(afterId)) {
+                return;
+            }
+            try {
+                List<String> paths = ChangeIndex.collectChanges(
+                        before, after, ChangeIndex.MAX_PATHS);
+                if (paths != null) {
+                    tracker.getChangeIndex().put(beforeId, afterId, paths);
+                    JsopBuilder json = new JsopBuilder().array();
+                    for (String path : paths) {
+                        json.value(path);
+                    }
+                    unwrittenChanges.offer(beforeId.toString10() + ' '
+                            + afterId.toString10() + ' ' + json.endArray());
+                }
+            } catch (SegmentNotFoundException e) {
+                // e.g. the base state was removed by a cleanup
+                log.debug("Not indexing the changes from {} to {}", beforeId, afterId, e);
+            }
+        }
+    }
+
+    /**
+     * Appends the change index entries queued since the last call to the
+     * changes file. Called after flushing, so that the persisted entries
+     * do not usually refer to lost revisions.
+     */
+    private void writeUnwrittenChanges() throws IOException {
+        synchronized (unwrittenChanges) {
+            StringBuilder lines = new StringBuilder();
+            String line = unwrittenChanges.poll();
+            while (line != null) {
+                lines.append(line).append('\n');
+                changesFileEntries++;
+                line = unwrittenChanges.poll();
+            }
+            if (lines.length() > 0) {
+                changesFile.write(lines.toString().getBytes(Charsets.UTF_8));
+            }
+            if (changesFileEntries > 2 * ChangeIndex.MAX_ENTRIES) {
+                // the file is appended on every flush, but only the most
+                // recent entries are ever loaded
+                writeChanges(readRecentChanges());
+            }
+        }
+    }
+
     public void flush() throws IOException {
+        boolean pending = true;
+        while (pending) {
+            long request;
+            synchronized (flushMonitor) {
+                request = flushRequested;
+            }
+            try {
+                doFlush();
+            } catch (IOException e) {
+                failFlush(request, e);
+                throw e;
+            } catch (RuntimeException e) {
+                failFlush(request, e);
+                throw e;
+            }
+            synchronized (flushMonitor) {
+                flushCompleted = Math.max(flushCompleted, request);
+                flushMonitor.notifyAll();
+                // flush again for the commits that arrived in the meantime,
+                // as their trigger might have been missed while flushing
+                pending = flushRequested > request;
+            }
+        }
+
+        // the cleanup runs once the head states of all waiting commits are
+        // persisted, so that its failures do not fail these commits
+        if (cleanupNeeded.getAndSet(false)) {
+            cleanup();
+            removeObsoleteFiles();
+        }
+    }
+
+    /**
+     * Fails the commits waiting for the given and all earlier requests.
+     */
+    private void failFlush(long request, Exception e) {
+        synchronized (flushMonitor) {
+            flushFailed = Math.max(flushFailed, request);
+            flushError = e;
+            flushMonitor.notifyAll();
+        }
+    }
+
+    private void doFlush() throws IOException {
         synchronized (persistedHead) {
             RecordId before = persistedHead.get();
             RecordId after = head.get();
-            boolean cleanup = cleanupNeeded.getAndSet(false);
+            boolean cleanup = cleanupNeeded.get();
+            unflushedSegments.set(0);
             if (cleanup || !after.equals(before)) {
+                long start = System.nanoTime();
+
                 // needs to happen outside the synchronization block below to
-                // avoid a deadlock with another thread flushing the writer
-                tracker.getWriter().flush();
+                // avoid a deadlock with another thread flushing the writers
+                tracker.getWriterPool().flush();
 
                 // needs to happen outside the synchronization block below to
                 // prevent the flush from stopping concurrent reads and writes
                 writer.flush();
+                long synced = System.nanoTime();
 
                 synchronized (this) {
                     log.debug("TarMK journal update {} -> {}", before, after);
                     journalFile.writeBytes(after.toString10() + " root\n");
-                    journalFile.getChannel().force(false);
-                    persistedHead.set(after);
-
-                    if (cleanup) {
-                        cleanup();
-                    }
                 }
+
+                // the journal is only written by the thread holding the
+                // persistedHead lock, so it can be synced without
+                // blocking concurrent segment reads and writes
+                journalFile.getChannel().force(false);
+                persistedHead.set(after);
+                long end = System.nanoTime();
+                flushStats.flushed(
+                        NANOSECONDS.toMillis(synced - start),
+                        NANOSECONDS.toMillis(end - synced),
+                        NANOSECONDS.toMillis(end - start));
+                tracker.getIOStats().flushed(NANOSECONDS.toMillis(end - start));
             }
-            synchronized (this) {
-                // remove all obsolete tar generations
-                Iterator<File> iterator = toBeRemoved.iterator();
-                while (iterator.hasNext()) {
-                    File file = iterator.next();
-                    log.debug("TarMK GC: Attempting to remove old file {}",
-                            file);
-                    if (!file.exists() || file.delete()) {
-                        log.debug("TarMK GC: Removed old file {}", file);
-                        iterator.remove();
+            removeObsoleteFiles();
+        }
+    }
+
+    /**
+     * Remove all obsolete tar generations left behind by the cleanup.
+     */
+    private synchronized void removeObsoleteFiles() {
+        Iterator<File> iterator = toBeRemoved.iterator();
+        while (iterator.hasNext()) {
+            File file = iterator.next();
+            log.debug("TarMK GC: Attempting to remove old file {}",
+                    file);
+            if (!file.exists() || file.delete()) {
+                log.debug("TarMK GC: Removed old file {}", file);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Wait until the head state set by the calling thread is persisted if
+     * the durability of this store is {@link Durability#COMMIT}, return
+     * immediately otherwise. Callers serializing their commits must call
+     * this method after releasing their commit lock, so that commits waiting
+     * concurrently are covered by the same flush.
+     *
+     * @throws RuntimeException if the flush persisting the head state failed
+     */
+    public void awaitDurability() {
+        if (durability == Durability.COMMIT) {
+            awaitFlush();
+        }
+    }
+
+    /**
+     * Wait until the current head state is persisted by the background
+     * flush thread. All commits waiting concurrently are covered by the
+     * same flush. The wait fails if the flush fails, if the store is closed
+     * or after {@link #FLUSH_WAIT_TIMEOUT}.
+     */
+    private void awaitFlush() {
+        long start = System.nanoTime();
+        long deadline = start + MILLISECONDS.toNanos(FLUSH_WAIT_TIMEOUT);
+        boolean interrupted = false;
+        try {
+            synchronized (flushMonitor) {
+                long request = ++flushRequested;
+                flushThread.trigger();
+                while (flushCompleted < request) {
+                    if (flushFailed >= request) {
+                        throw new RuntimeException(
+                                "Failed to persist the head state", flushError);
+                    } else if (flushClosed) {
+                        throw new IllegalStateException(
+                                "TarMK closed before the head state was persisted: " + directory);
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new RuntimeException(format(
+                                "Timed out after %d ms waiting for the head state to be persisted",
+                                FLUSH_WAIT_TIMEOUT));
+                    }
+                    try {
+                        flushMonitor.wait(Math.max(1, NANOSECONDS.toMillis(remaining)));
+                    } catch (InterruptedException e) {
+                        interrupted = true;
                     }
                 }
             }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
+        flushStats.committed(NANOSECONDS.toMillis(System.nanoTime() - start));
     }
 
     /**
@@ -637,56 +1458,326 @@ public class FileStore implements SegmentStore {
      * generations of tar files. It checks which segments are still reachable,
      * and throws away those that are not.
      * <p>
+     * The reachable segments are determined from the segment graphs of the
+     * tar files, which are processed one after another from the newest to
+     * the oldest while the graphs of the next few tar files are loaded
+     * concurrently. Only taking the initial
+     * snapshot of the tar files and the final swap of the cleaned tar files
+     * synchronize with concurrent reads and writes of segments.
+     * <p>
      * A new generation of a tar file is created (and segments are only
      * discarded) if doing so releases more than 25% of the space in a tar file.
      */
-    public synchronized void cleanup() throws IOException {
-        Stopwatch watch = Stopwatch.createStarted();
-        long initialSize = size();
-        gcMonitor.info("TarMK revision cleanup started. Current repository size {}",
-                humanReadableByteCount(initialSize));
+    public void cleanup() throws IOException {
+        synchronized (cleanupMonitor) {
+            Stopwatch watch = Stopwatch.createStarted();
+            long initialSize = size();
+            gcMonitor.info("TarMK revision cleanup started. Current repository size {}",
+                    humanReadableByteCount(initialSize));
+
+            List<TarReader> snapshot;
+            synchronized (this) {
+                newWriter();
+                snapshot = readers;
+            }
+            tracker.clearCache();
+
+            // Suggest to the JVM that now would be a good time
+            // to clear stale weak references in the SegmentTracker
+            System.gc();
+
+            // mark: compute the closure of the segments referenced in memory
+            // one tar file at a time
+            Set<UUID> reachable = getReferencedIds(snapshot);
+            markReachable(snapshot, reachable);
+            long markTime = watch.elapsed(MILLISECONDS);
+
+            // sweep: write new generations of the tar files, which are only
+            // made visible to readers by the final swap below
+            Set<UUID> cleanedIds = newHashSet();
+            Map<TarReader, TarReader> cleaned = newHashMap();
+            for (TarReader reader : snapshot) {
+                TarReader result = reader.cleanup(reachable, cleanedIds);
+                if (result != reader) {
+                    cleaned.put(reader, result);
+                    if (result != null) {
+                        tracker.getIOStats().tarFileOpened();
+                    }
+                }
+            }
 
-        newWriter();
-        tracker.clearCache();
+            CompactionMap cm = tracker.getCompactionMap();
+            synchronized (this) {
+                Set<UUID> referenced = getReferencedIds(snapshot);
+                referenced.retainAll(cleanedIds);
+                if (!referenced.isEmpty()) {
+                    // segments written during the mark phase refer to
+                    // segments deemed unreachable: keep the current files
+                    for (TarReader result : cleaned.values()) {
+                        if (result != null) {
+                            toBeRemoved.addLast(result.close());
+                        }
+                    }
+                    gcMonitor.warn("TarMK revision cleanup aborted as concurrent " +
+                            "writes refer to {} segments deemed unreachable",
+                            referenced.size());
+                    return;
+                }
 
-        // Suggest to the JVM that now would be a good time
-        // to clear stale weak references in the SegmentTracker
-        System.gc();
+                List<TarReader> list = newArrayListWithCapacity(readers.size());
+                for (TarReader reader : readers) {
+                    if (!cleaned.containsKey(reader)) {
+                        list.add(reader);
+                    } else if (cleaned.get(reader) != null) {
+                        list.add(cleaned.get(reader));
+                    }
+                }
+                readers = list;
+                locations.invalidateAll();
 
+                for (TarReader reader : cleaned.keySet()) {
+                    File file = reader.close();
+                    gcMonitor.info("TarMK revision cleanup reclaiming {}", file.getName());
+                    toBeRemoved.addLast(file);
+                }
+            }
+            prefetcher.clear();
+            cm.remove(cleanedIds);
+            long sweepTime = watch.elapsed(MILLISECONDS) - markTime;
+
+            // the new writer opened above may grow the store beyond the
+            // space reclaimed, which is not reported as negative reclaim
+            long finalSize = size();
+            long reclaimed = Math.max(0, initialSize - finalSize);
+            gcMonitor.cleaned(reclaimed, finalSize);
+            gcMonitor.info("TarMK revision cleanup completed in {} (mark {}ms, sweep {}ms). " +
+                    "Post cleanup size is {} and space reclaimed {}. " +
+                    "Compaction map weight/depth is {}/{}.", watch, markTime, sweepTime,
+                    humanReadableByteCount(finalSize),
+                    humanReadableByteCount(reclaimed),
+                    humanReadableByteCount(sum(cm.getEstimatedWeights())),
+                    cm.getDepth());
+        }
+    }
+
+    /**
+     * Migrates tar files between the main directory and the cold directory
+     * based on their age and the number of segment reads since the
+     * previous migration. The {@link #hotFileCount} most recently written
+     * tar files and the frequently read ones are kept in (or moved back
+     * to) the main directory, all others are moved to the cold directory.
+     * A tar file is copied to its new location and the copy is synced to
+     * disk before it replaces the original one in the list of readers, so
+     * concurrent reads are not affected and the tar file is not lost on a
+     * crash. The copying does not block a concurrent {@link #cleanup()}.
+     * Does nothing if no cold directory is configured.
+     */
+    public void migrateTarFiles() throws IOException {
+        if (coldDirectory == null) {
+            return;
+        }
+
+        synchronized (tieringMonitor) {
+            List<TarReader> snapshot = readers;
+            int moved = 0;
+            for (int i = 0; i < snapshot.size(); i++) {
+                TarReader reader = snapshot.get(i);
+                long reads = reader.resetReadCount();
+                boolean cold = coldDirectory.equals(reader.getFile().getParentFile());
+                if (!cold && i >= hotFileCount && reads < coldReadThreshold) {
+                    if (moveTarFile(reader, coldDirectory)) {
+                        moved++;
+                    }
+                } else if (cold && (i < hotFileCount || reads >= 2L * coldReadThreshold)) {
+                    if (moveTarFile(reader, directory)) {
+                        moved++;
+                    }
+                }
+            }
+            if (moved > 0) {
+                log.info("TarMK tiering moved {} tar files", moved);
+            }
+        }
+    }
+
+    /**
+     * Moves the given tar file to the target directory.
+     *
+     * @return  {@code true} if the tar file was moved, {@code false} if it
+     *          was concurrently replaced by a cleanup or the store was closed
+     */
+    private boolean moveTarFile(TarReader reader, File target) throws IOException {
+        File file = reader.getFile();
+        File newFile = new File(target, file.getName());
+        File tmpFile = new File(target, file.getName() + ".tmp");
+        Files.copy(file, tmpFile);
+        RandomAccessFile copy = new RandomAccessFile(tmpFile, "rw");
+        try {
+            copy.getChannel().force(true);
+        } finally {
+            copy.close();
+        }
+        if (newFile.exists() && !newFile.delete() || !tmpFile.renameTo(newFile)) {
+            tmpFile.delete();
+            throw new IOException("Failed to move " + file + " to " + newFile);
+        }
+        syncDirectory(target);
+        TarReader moved = TarReader.open(newFile, memoryMapping, positionalReads);
+        tracker.getIOStats().tarFileOpened();
+
+        synchronized (cleanupMonitor) {
+            synchronized (this) {
+                List<TarReader> list = newArrayList(readers);
+                int index = list.indexOf(reader);
+                if (index == -1) {
+                    // replaced by a cleanup or the store was closed
+                    // concurrently: the original file stays in place
+                    File movedFile = moved.close();
+                    if (!movedFile.delete()) {
+                        toBeRemoved.addLast(movedFile);
+                    }
+                    return false;
+                }
+                list.set(index, moved);
+                readers = list;
+                locations.invalidateAll();
+
+                reader.close();
+                toBeRemoved.addLast(file);
+            }
+        }
+        prefetcher.clear();
+        log.debug("TarMK tiering moved {} to {}", file, target);
+        return true;
+    }
+
+    /**
+     * Syncs the entries of the given directory to disk, so that files
+     * renamed into it survive a crash. Java 6 has no API for this, so the
+     * directory is opened through {@code java.nio.file} if available. This
+     * is best effort, as not all platforms support syncing a directory.
+     */
+    private static void syncDirectory(File directory) {
+        try {
+            Object path = File.class.getMethod("toPath").invoke(directory);
+            Class<?> pathClass = Class.forName("java.nio.file.Path");
+            Class<?> optionClass = Class.forName("java.nio.file.OpenOption");
+            Object options = Array.newInstance(optionClass, 1);
+            Array.set(options, 0, Class.forName("java.nio.file.StandardOpenOption")
+                    .getField("READ").get(null));
+            FileChannel channel = (FileChannel) FileChannel.class
+                    .getMethod("open", pathClass, options.getClass())
+                    .invoke(null, path, options);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (Exception e) {
+            log.debug("Failed to sync directory " + directory, e);
+        }
+    }
+
+    /**
+     * Adds the segments transitively referenced from the given reachable
+     * segments to that set. The tar files are processed from the newest to
+     * the oldest, as segments only refer to segments in the same or in older
+     * tar files. Only the segment graphs of the tar file being processed and
+     * of the next few ones, which are loaded concurrently, are kept in memory.
+     *
+     * @param readers    the tar files, newest first
+     * @param reachable  the reachable segments (input and output)
+     */
+    private static void markReachable(List<TarReader> readers, Set<UUID> reachable)
+            throws IOException {
+        if (readers.isEmpty()) {
+            return;
+        }
+
+        int threads = Math.min(
+                readers.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread thread = new Thread(r, "TarMK cleanup worker-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            Iterator<TarReader> unloaded = readers.iterator();
+            Deque<Future<Map<UUID, List<UUID>>>> loading =
+                    new ArrayDeque<Future<Map<UUID, List<UUID>>>>(threads);
+            while (loading.size() < threads && unloaded.hasNext()) {
+                loading.addLast(loadReferences(executor, unloaded.next()));
+            }
+            while (!loading.isEmpty()) {
+                Map<UUID, List<UUID>> graph = loading.removeFirst().get();
+                if (unloaded.hasNext()) {
+                    loading.addLast(loadReferences(executor, unloaded.next()));
+                }
+
+                Deque<UUID> pending = new ArrayDeque<UUID>();
+                for (UUID id : graph.keySet()) {
+                    if (reachable.contains(id)) {
+                        pending.addLast(id);
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    for (UUID ref : graph.get(pending.removeFirst())) {
+                        if (reachable.add(ref) && graph.containsKey(ref)) {
+                            pending.addLast(ref);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("TarMK revision cleanup interrupted");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Future<Map<UUID, List<UUID>>> loadReferences(
+            ExecutorService executor, final TarReader reader) {
+        return executor.submit(new Callable<Map<UUID, List<UUID>>>() {
+            @Override
+            public Map<UUID, List<UUID>> call() throws IOException {
+                return reader.getReferences();
+            }
+        });
+    }
+
+    /**
+     * Collects the ids of the segments currently referenced from memory or
+     * from segments written after the given snapshot of the tar files was
+     * taken. The latter are tracked conservatively, including their
+     * unreachable segments.
+     */
+    private Set<UUID> getReferencedIds(List<TarReader> snapshot) throws IOException {
         Set<UUID> ids = newHashSet();
         for (SegmentId id : tracker.getReferencedSegmentIds()) {
             ids.add(new UUID(
                     id.getMostSignificantBits(),
                     id.getLeastSignificantBits()));
         }
-        writer.collectReferences(ids);
-
-        CompactionMap cm = tracker.getCompactionMap();
-        List<TarReader> list = newArrayListWithCapacity(readers.size());
-        Set<UUID> cleanedIds = newHashSet();
-        for (TarReader reader : readers) {
-            TarReader cleaned = reader.cleanup(ids, cm, cleanedIds);
-            if (cleaned == reader) {
-                list.add(reader);
-            } else {
-                if (cleaned != null) {
-                    list.add(cleaned);
+        synchronized (this) {
+            writer.collectReferences(ids);
+            for (TarReader reader : readers) {
+                if (!snapshot.contains(reader)) {
+                    for (List<UUID> refs : reader.getReferences().values()) {
+                        ids.addAll(refs);
+                    }
                 }
-                File file = reader.close();
-                gcMonitor.info("TarMK revision cleanup reclaiming {}", file.getName());
-                toBeRemoved.addLast(file);
             }
         }
-        readers = list;
-        cm.remove(cleanedIds);
-        long finalSize = size();
-        gcMonitor.cleaned(initialSize - finalSize, finalSize);
-        gcMonitor.info("TarMK revision cleanup completed in {}. Post cleanup size is {} " +
-                "and space reclaimed {}. Compaction map weight/depth is {}/{}.", watch,
-                humanReadableByteCount(finalSize),
-                humanReadableByteCount(initialSize - finalSize),
-                humanReadableByteCount(sum(cm.getEstimatedWeights())),
-                cm.getDepth());
+        return ids;
     }
 
     /**
@@ -695,16 +1786,48 @@ public class FileStore implements SegmentStore {
      * reference to them).
      */
     public void compact() {
+        compact(null);
+    }
+
+    /**
+     * Copy the referenced records in the given data segments, along with the
+     * nodes referring to them. Subtrees without any records in these segments
+     * are kept as they are.
+     *
+     * @param segments  identifiers of the segments to compact or {@code null}
+     *                  to compact all referenced records
+     * @see #compact()
+     */
+    public void compact(@Nullable final Set<UUID> segments) {
         checkArgument(!compactionStrategy.equals(NO_COMPACTION),
                 "You must set a compactionStrategy before calling compact");
         gcMonitor.info("TarMK compaction running, strategy={}", compactionStrategy);
 
         long start = System.currentTimeMillis();
-        SegmentWriter writer = new SegmentWriter(this, tracker, getVersion());
-        SegmentWriter mapWriter = compactionStrategy.getPersistCompactionMap()
-            ? new SegmentWriter(this, tracker, getVersion())
-            : null;
-        final Compactor compactor = new Compactor(writer, mapWriter, compactionStrategy.cloneBinaries());
+        // the writers of a compaction run share their own caches, which
+        // never return records written outside of the compaction
+        WriterCacheManager caches = new WriterCacheManager();
+        SegmentWriter writer = new SegmentWriter(this, tracker, getVersion(), caches);
+        PartialCompactionMap map = null;
+        if (compactionStrategy.getPersistCompactionMap()) {
+            map = new PersistedCompactionMap(
+                    new SegmentWriter(this, tracker, getVersion(), caches));
+        } else if (compactionStrategy.getOffHeapCompactionMap()) {
+            map = new OffHeapCompactionMap(tracker);
+        }
+        Predicate<SegmentId> include = null;
+        if (segments != null) {
+            include = new Predicate<SegmentId>() {
+                @Override
+                public boolean apply(SegmentId id) {
+                    return segments.contains(new UUID(
+                            id.getMostSignificantBits(),
+                            id.getLeastSignificantBits()));
+                }
+            };
+        }
+        final Compactor compactor = new Compactor(writer, map, compactionStrategy.cloneBinaries(),
+                compactionStrategy.getCompactionThreads(), gcMonitor, include);
         SegmentNodeState before = getHead();
         long existing = before.getChildNode(SegmentNodeStore.CHECKPOINTS)
                 .getChildNodeCount(Long.MAX_VALUE);
@@ -788,6 +1911,19 @@ public class FileStore implements SegmentStore {
 
     @Override
     public boolean setHead(SegmentNodeState base, SegmentNodeState head) {
+        if (compareAndSetHead(base, head)) {
+            indexChanges(base, head);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Sets the head state without indexing its changes, e.g. for compacted
+     * head states, whose content equals the one of their base state.
+     */
+    private boolean compareAndSetHead(SegmentNodeState base, SegmentNodeState head) {
         RecordId id = this.head.get();
         return id.equals(base.getRecordId())
                 && this.head.compareAndSet(id, head.getRecordId());
@@ -799,23 +1935,38 @@ public class FileStore implements SegmentStore {
         // threads before acquiring the synchronization lock
         compactionThread.close();
         flushThread.close();
+        if (tieringThread != null) {
+            tieringThread.close();
+        }
+        prefetcher.close();
 
         synchronized (this) {
             try {
-                flush();
+                try {
+                    flush();
+                    writeUnwrittenChanges();
+                } finally {
+                    // fail the commits not covered by the last flush
+                    synchronized (flushMonitor) {
+                        flushClosed = true;
+                        flushMonitor.notifyAll();
+                    }
 
-                writer.close();
-                tracker.getWriter().dropCache();
+                    // release the files even if the last flush failed
+                    writer.close();
+                    tracker.getWriterPool().dropCache();
 
-                List<TarReader> list = readers;
-                readers = newArrayList();
-                for (TarReader reader : list) {
-                    reader.close();
-                }
+                    List<TarReader> list = readers;
+                    readers = newArrayList();
+                    for (TarReader reader : list) {
+                        reader.close();
+                    }
 
-                lock.release();
-                lockFile.close();
-                journalFile.close();
+                    lock.release();
+                    lockFile.close();
+                    journalFile.close();
+                    changesFile.close();
+                }
             } catch (IOException e) {
                 throw new RuntimeException(
                         "Failed to close the TarMK at " + directory, e);
@@ -864,9 +2015,33 @@ public class FileStore implements SegmentStore {
 
     @Override
     public Segment readSegment(SegmentId id) {
+        Segment segment = loadSegment(id);
+        tracker.getIOStats().bytesRead(segment.size());
+        return segment;
+    }
+
+    private Segment loadSegment(SegmentId id) {
         long msb = id.getMostSignificantBits();
         long lsb = id.getLeastSignificantBits();
 
+        ByteBuffer prefetched = prefetcher.take(msb, lsb);
+        if (prefetched != null) {
+            return new Segment(tracker, id, prefetched);
+        }
+
+        UUID uuid = new UUID(msb, lsb);
+        TarReader located = locations.getIfPresent(uuid);
+        if (located != null && !located.isClosed()) {
+            try {
+                ByteBuffer buffer = located.readEntry(msb, lsb);
+                if (buffer != null) {
+                    return newSegment(id, located, buffer);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to read from tar file " + located, e);
+            }
+        }
+
         for (TarReader reader : readers) {
             try {
                 if (reader.isClosed()) {
@@ -878,7 +2053,8 @@ public class FileStore implements SegmentStore {
 
                 ByteBuffer buffer = reader.readEntry(msb, lsb);
                 if (buffer != null) {
-                    return new Segment(tracker, id, buffer);
+                    locations.put(uuid, reader);
+                    return newSegment(id, reader, buffer);
                 }
             } catch (IOException e) {
                 log.warn("Failed to read from tar file " + reader, e);
@@ -909,6 +2085,7 @@ public class FileStore implements SegmentStore {
 
                 ByteBuffer buffer = reader.readEntry(msb, lsb);
                 if (buffer != null) {
+                    locations.put(uuid, reader);
                     return new Segment(tracker, id, buffer);
                 }
             } catch (IOException e) {
@@ -919,6 +2096,13 @@ public class FileStore implements SegmentStore {
         throw new SegmentNotFoundException(id);
     }
 
+    private Segment newSegment(SegmentId id, TarReader reader, ByteBuffer buffer) {
+        if (id.isDataSegmentId()) {
+            prefetcher.prefetch(reader, buffer);
+        }
+        return new Segment(tracker, id, buffer);
+    }
+
     @Override
     public synchronized void writeSegment(
             SegmentId id, byte[] data, int offset, int length) {
@@ -927,9 +2111,14 @@ public class FileStore implements SegmentStore {
                     id.getMostSignificantBits(),
                     id.getLeastSignificantBits(),
                     data, offset, length);
+            tracker.getIOStats().bytesWritten(length);
             if (size >= maxFileSize) {
                 newWriter();
             }
+            if (durability == Durability.BATCH
+                    && unflushedSegments.incrementAndGet() >= flushBatchSize) {
+                flushThread.trigger();
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -941,7 +2130,8 @@ public class FileStore implements SegmentStore {
 
             List<TarReader> list =
                     newArrayListWithCapacity(1 + readers.size());
-            list.add(TarReader.open(writeFile, memoryMapping));
+            list.add(TarReader.open(writeFile, memoryMapping, positionalReads));
+            tracker.getIOStats().tarFileOpened();
             list.addAll(readers);
             readers = list;
 
@@ -949,7 +2139,7 @@ public class FileStore implements SegmentStore {
             writeFile = new File(
                     directory,
                     String.format(FILE_NAME_FORMAT, writeNumber, "a"));
-            writer = new TarWriter(writeFile);
+            writer = new TarWriter(writeFile, compression);
         }
     }
 
@@ -1062,6 +2252,12 @@ public class FileStore implements SegmentStore {
         @Override
         public synchronized void cleanup() { /* nop */ }
 
+        /**
+         * no-op
+         */
+        @Override
+        public void migrateTarFiles() { /* nop */ }
+
         /**
          * no-op
          */
@@ -1086,14 +2282,14 @@ public class FileStore implements SegmentStore {
             // When used in conjunction with the SegmentNodeStore, this method
             // needs to be called inside the commitSemaphore as doing otherwise
             // might result in mixed segments. See OAK-2192.
-            if (setHead(before, after)) {
+            if (compareAndSetHead(before, after)) {
                 tracker.setCompactionMap(compactor.getCompactionMap());
 
                 // Drop the SegmentWriter caches and flush any existing state
                 // in an attempt to prevent new references to old pre-compacted
                 // content. TODO: There should be a cleaner way to do this. (implement GCMonitor!?)
-                tracker.getWriter().dropCache();
-                tracker.getWriter().flush();
+                tracker.getWriterPool().dropCache();
+                tracker.getWriterPool().flush();
 
                 CompactionMap cm = tracker.getCompactionMap();
                 gcMonitor.compacted(cm.getSegmentCounts(), cm.getRecordCounts(), cm.getEstimatedWeights());
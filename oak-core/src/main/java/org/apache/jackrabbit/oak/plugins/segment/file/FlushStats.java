@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.segment.file;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.commons.jmx.AnnotatedStandardMBean;
+import org.apache.jackrabbit.oak.plugins.segment.LatencyHistogram;
+
+/**
+ * Latency statistics of the flushes of a {@link FileStore}. The durations
+ * are recorded in histograms with buckets of exponentially growing size.
+ */
+public class FlushStats extends AnnotatedStandardMBean implements FlushStatsMBean {
+
+    private final Durability durability;
+
+    private final LatencyHistogram flushTimes = new LatencyHistogram(16, "ms");
+
+    private final LatencyHistogram segmentSyncTimes = new LatencyHistogram(16, "ms");
+
+    private final LatencyHistogram journalSyncTimes = new LatencyHistogram(16, "ms");
+
+    private final LatencyHistogram commitWaitTimes = new LatencyHistogram(16, "ms");
+
+    FlushStats(@Nonnull Durability durability) {
+        super(FlushStatsMBean.class);
+        this.durability = checkNotNull(durability);
+    }
+
+    void flushed(long segmentSyncTime, long journalSyncTime, long flushTime) {
+        segmentSyncTimes.record(segmentSyncTime);
+        journalSyncTimes.record(journalSyncTime);
+        flushTimes.record(flushTime);
+    }
+
+    void committed(long waitTime) {
+        commitWaitTimes.record(waitTime);
+    }
+
+    //------------------------------------------------------------< FlushStatsMBean >---
+
+    @Nonnull
+    @Override
+    public String getDurability() {
+        return durability.toString();
+    }
+
+    @Override
+    public long getFlushCount() {
+        return flushTimes.getCount();
+    }
+
+    @Override
+    public long getMaxFlushTime() {
+        return flushTimes.getMax();
+    }
+
+    @Nonnull
+    @Override
+    public String getFlushTimeHistogram() {
+        return flushTimes.toString();
+    }
+
+    @Nonnull
+    @Override
+    public String getSegmentSyncTimeHistogram() {
+        return segmentSyncTimes.toString();
+    }
+
+    @Nonnull
+    @Override
+    public String getJournalSyncTimeHistogram() {
+        return journalSyncTimes.toString();
+    }
+
+    @Nonnull
+    @Override
+    public String getCommitWaitTimeHistogram() {
+        return commitWaitTimes.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "FlushStats{" +
+                "durability=" + durability +
+                ", flushTimes=" + flushTimes +
+                ", segmentSyncTimes=" + segmentSyncTimes +
+                ", journalSyncTimes=" + journalSyncTimes +
+                ", commitWaitTimes=" + commitWaitTimes +
+                '}';
+    }
+
+}
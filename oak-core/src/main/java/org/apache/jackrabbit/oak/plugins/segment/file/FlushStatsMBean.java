@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.segment.file;
+
+import javax.annotation.Nonnull;
+
+/**
+ * MBean for monitoring the flushes of the {@link FileStore}.
+ */
+public interface FlushStatsMBean {
+    String TYPE = "Flush Statistics";
+
+    /**
+     * @return  the {@link Durability} mode of the file store
+     */
+    @Nonnull
+    String getDurability();
+
+    /**
+     * @return  number of flushes so far
+     */
+    long getFlushCount();
+
+    /**
+     * @return  maximal duration of a flush in ms
+     */
+    long getMaxFlushTime();
+
+    /**
+     * @return  histogram of the durations of the flushes
+     */
+    @Nonnull
+    String getFlushTimeHistogram();
+
+    /**
+     * @return  histogram of the durations for syncing the segments
+     *          written since the previous flush to disk
+     */
+    @Nonnull
+    String getSegmentSyncTimeHistogram();
+
+    /**
+     * @return  histogram of the durations for syncing the journal to disk
+     */
+    @Nonnull
+    String getJournalSyncTimeHistogram();
+
+    /**
+     * @return  histogram of the durations commits waited for their head
+     *          state to be persisted. Only applies to {@link Durability#COMMIT}.
+     */
+    @Nonnull
+    String getCommitWaitTimeHistogram();
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.segment.file;
+
+import static org.apache.jackrabbit.oak.plugins.segment.SegmentId.isDataSegmentId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Fast block compression of data segments stored in tar files. The
+ * compressed block uses the LZ4 block format: a sequence of literal runs
+ * each followed by a back reference of at least four bytes into the
+ * already decompressed data.
+ * <p>
+ * A compressed data segment is stored with the following header, which
+ * can't be confused with the {@code 0aK} header of uncompressed data
+ * segments. Files can thus contain both compressed and uncompressed
+ * segments, which are told apart when read.
+ * <ul>
+ * <li>The magic bytes {@code 0zK} followed by a zero byte.</li>
+ * <li>The size of the uncompressed segment, 4 bytes.</li>
+ * <li>The compressed block.</li>
+ * </ul>
+ * Bulk segments are never compressed as their content is arbitrary and
+ * mostly binaries that don't compress well.
+ */
+final class SegmentCompression {
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int MIN_MATCH = 4;
+
+    private static final int HASH_LOG = 12;
+
+    private static final int MAX_DISTANCE = 0xffff;
+
+    /**
+     * The last bytes of a block are always literals.
+     */
+    private static final int LAST_LITERALS = 5;
+
+    /**
+     * A match must start at least this many bytes before the end of a block.
+     */
+    private static final int MF_LIMIT = 12;
+
+    private SegmentCompression() {
+    }
+
+    /**
+     * Checks whether the given entry contains a compressed data segment.
+     *
+     * @param lsb the least significant bits of the segment id
+     * @param data the entry as stored in the tar file
+     * @return {@code true} if the entry is compressed
+     */
+    static boolean isCompressed(long lsb, ByteBuffer data) {
+        int pos = data.position();
+        return isDataSegmentId(lsb)
+                && data.remaining() >= HEADER_SIZE
+                && data.get(pos) == '0'
+                && data.get(pos + 1) == 'z'
+                && data.get(pos + 2) == 'K';
+    }
+
+    /**
+     * Compresses the given data segment.
+     *
+     * @return the compressed segment including the header, or {@code null}
+     *         if compressing does not reduce the size of the segment
+     */
+    static byte[] compress(byte[] data, int offset, int size) {
+        byte[] compressed = new byte[HEADER_SIZE + size + size / 255 + 16];
+        compressed[0] = '0';
+        compressed[1] = 'z';
+        compressed[2] = 'K';
+        compressed[3] = 0;
+        writeInt(compressed, 4, size);
+        int length = compressBlock(data, offset, size, compressed, HEADER_SIZE);
+        if (length >= size) {
+            return null;
+        }
+        return Arrays.copyOf(compressed, length);
+    }
+
+    /**
+     * Returns the uncompressed segment of the given entry, or the given
+     * buffer if the entry is not compressed.
+     *
+     * @param lsb the least significant bits of the segment id
+     * @param data the entry as stored in the tar file
+     * @return the uncompressed segment
+     * @throws IOException if the compressed entry is corrupt
+     */
+    static ByteBuffer decompress(long lsb, ByteBuffer data) throws IOException {
+        if (!isCompressed(lsb, data)) {
+            return data;
+        }
+
+        byte[] src;
+        int srcOff;
+        if (data.hasArray()) {
+            src = data.array();
+            srcOff = data.arrayOffset() + data.position();
+        } else {
+            src = new byte[data.remaining()];
+            data.duplicate().get(src);
+            srcOff = 0;
+        }
+        int srcLen = data.remaining();
+
+        int size = ((src[srcOff + 4] & 0xff) << 24)
+                | ((src[srcOff + 5] & 0xff) << 16)
+                | ((src[srcOff + 6] & 0xff) << 8)
+                | (src[srcOff + 7] & 0xff);
+        byte[] dst = new byte[size];
+        decompressBlock(src, srcOff + HEADER_SIZE, srcLen - HEADER_SIZE, dst);
+        return ByteBuffer.wrap(dst);
+    }
+
+    private static int compressBlock(
+            byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        int srcEnd = srcOff + srcLen;
+        int mfLimit = srcEnd - MF_LIMIT;
+        int matchLimit = srcEnd - LAST_LITERALS;
+
+        int[] table = new int[1 << HASH_LOG];
+        Arrays.fill(table, -1);
+
+        int s = srcOff;
+        int anchor = srcOff;
+        int d = dstOff;
+        while (s < mfLimit) {
+            int value = readInt(src, s);
+            int hash = (value * -1640531535) >>> (32 - HASH_LOG);
+            int ref = table[hash];
+            table[hash] = s;
+            if (ref < 0 || s - ref > MAX_DISTANCE || readInt(src, ref) != value) {
+                s++;
+                continue;
+            }
+
+            // extend the match backwards over the pending literals
+            while (s > anchor && ref > srcOff && src[s - 1] == src[ref - 1]) {
+                s--;
+                ref--;
+            }
+
+            // and forward up to the trailing literals
+            int matchLength = MIN_MATCH;
+            while (s + matchLength < matchLimit
+                    && src[ref + matchLength] == src[s + matchLength]) {
+                matchLength++;
+            }
+
+            d = writeSequence(src, anchor, s - anchor, s - ref, matchLength, dst, d);
+            s += matchLength;
+            anchor = s;
+        }
+
+        // the remaining bytes are stored as literals
+        int literals = srcEnd - anchor;
+        int token = d++;
+        dst[token] = (byte) (Math.min(literals, 15) << 4);
+        d = writeLength(literals - 15, dst, d);
+        System.arraycopy(src, anchor, dst, d, literals);
+        return d + literals;
+    }
+
+    private static int writeSequence(
+            byte[] src, int literalOff, int literals, int distance,
+            int matchLength, byte[] dst, int d) {
+        int token = d++;
+        d = writeLength(literals - 15, dst, d);
+        System.arraycopy(src, literalOff, dst, d, literals);
+        d += literals;
+
+        dst[d++] = (byte) distance;
+        dst[d++] = (byte) (distance >>> 8);
+
+        int length = matchLength - MIN_MATCH;
+        d = writeLength(length - 15, dst, d);
+
+        dst[token] = (byte) ((Math.min(literals, 15) << 4) | Math.min(length, 15));
+        return d;
+    }
+
+    private static int writeLength(int remaining, byte[] dst, int d) {
+        if (remaining >= 0) {
+            while (remaining >= 255) {
+                dst[d++] = (byte) 255;
+                remaining -= 255;
+            }
+            dst[d++] = (byte) remaining;
+        }
+        return d;
+    }
+
+    private static void decompressBlock(
+            byte[] src, int srcOff, int srcLen, byte[] dst)
+            throws IOException {
+        int srcEnd = srcOff + srcLen;
+        int s = srcOff;
+        int d = 0;
+        try {
+            while (true) {
+                int token = src[s++] & 0xff;
+
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[s++] & 0xff;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, s, dst, d, literals);
+                s += literals;
+                d += literals;
+                if (s >= srcEnd) {
+                    break; // the last sequence only contains literals
+                }
+
+                int distance = (src[s++] & 0xff) | ((src[s++] & 0xff) << 8);
+                int matchLength = token & 0x0f;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[s++] & 0xff;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+
+                int ref = d - distance;
+                if (distance == 0 || ref < 0) {
+                    throw new IOException("Invalid match distance " + distance);
+                }
+                if (distance >= matchLength) {
+                    System.arraycopy(dst, ref, dst, d, matchLength);
+                    d += matchLength;
+                } else {
+                    // byte by byte, as the match overlaps the copied bytes
+                    for (int i = 0; i < matchLength; i++) {
+                        dst[d++] = dst[ref++];
+                    }
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt compressed segment", e);
+        }
+        if (d != dst.length || s != srcEnd) {
+            throw new IOException("Corrupt compressed segment");
+        }
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return ((b[pos] & 0xff) << 24)
+                | ((b[pos + 1] & 0xff) << 16)
+                | ((b[pos + 2] & 0xff) << 8)
+                | (b[pos + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] b, int pos, int value) {
+        b[pos] = (byte) (value >>> 24);
+        b[pos + 1] = (byte) (value >>> 16);
+        b[pos + 2] = (byte) (value >>> 8);
+        b[pos + 3] = (byte) value;
+    }
+
+}
@@ -0,0 +1,324 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.segment.file;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.Collections.newSetFromMap;
+import static org.apache.jackrabbit.oak.plugins.segment.Segment.REF_COUNT_OFFSET;
+import static org.apache.jackrabbit.oak.plugins.segment.SegmentId.isDataSegmentId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import org.apache.jackrabbit.oak.commons.jmx.AnnotatedStandardMBean;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous read ahead of segments along the segment graph. On a segment
+ * cache miss the {@link FileStore} passes the segment read from a tar file to
+ * {@link #prefetch(TarReader, ByteBuffer)}, which schedules reads of the data
+ * segments it references that are stored in the same tar file. Prefetched
+ * segments are again followed up to the configured depth.
+ * <p>
+ * Prefetched segments are kept in a small buffer until {@link #take(long, long)}
+ * hands them over on the next cache miss for them. Taking a prefetched segment
+ * in turn schedules the prefetching of its references, so that the prefetched
+ * segments stay ahead of a traversal. The reads are done by a
+ * bounded pool of daemon threads. Prefetch requests exceeding the bounded
+ * queue are dropped, so that prefetching never blocks a reader.
+ */
+public class SegmentPrefetcher extends AnnotatedStandardMBean implements SegmentPrefetcherMBean {
+    private static final Logger log = LoggerFactory.getLogger(SegmentPrefetcher.class);
+
+    public static final int DEFAULT_DEPTH = 0;
+
+    public static final int DEFAULT_THREADS = 4;
+
+    private static final int QUEUE_SIZE = 1024;
+
+    private static final long MAX_WEIGHT = 64 * 1024 * 1024;
+
+    private static final int PAGE_SIZE = 4096;
+
+    private final SegmentTracker tracker;
+
+    private final int depth;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Segments read ahead that have not been taken yet.
+     */
+    private final Cache<UUID, Prefetched> prefetched;
+
+    /**
+     * Segments currently queued or being read ahead.
+     */
+    private final Set<UUID> pending = newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+
+    private final AtomicLong prefetchCount = new AtomicLong();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * @param tracker  tracker of the file store, used to skip segments that
+     *                 are already cached
+     * @param depth    levels of referenced segments to prefetch. {@code 0}
+     *                 disables prefetching.
+     * @param threads  number of threads reading segments ahead
+     */
+    SegmentPrefetcher(@Nonnull SegmentTracker tracker, int depth, int threads) {
+        super(SegmentPrefetcherMBean.class);
+        checkArgument(depth >= 0, "depth must not be negative");
+        checkArgument(threads > 0, "threads must be positive");
+        this.tracker = checkNotNull(tracker);
+        this.depth = depth;
+        this.executor = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_SIZE),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    @Override
+                    public Thread newThread(@Nonnull Runnable runnable) {
+                        Thread thread = new Thread(
+                                runnable, "TarMK segment prefetch-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.prefetched = CacheBuilder.newBuilder()
+                .maximumWeight(MAX_WEIGHT)
+                .weigher(new Weigher<UUID, Prefetched>() {
+                    @Override
+                    public int weigh(@Nonnull UUID id, @Nonnull Prefetched segment) {
+                        return segment.buffer.remaining();
+                    }
+                })
+                .build();
+    }
+
+    boolean isEnabled() {
+        return depth > 0;
+    }
+
+    /**
+     * Take the given segment if it has been prefetched.
+     * @return  the prefetched segment or {@code null} if not prefetched
+     */
+    @CheckForNull
+    ByteBuffer take(long msb, long lsb) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        UUID id = new UUID(msb, lsb);
+        Prefetched segment = prefetched.getIfPresent(id);
+        if (segment != null) {
+            prefetched.invalidate(id);
+            hitCount.incrementAndGet();
+            if (!segment.reader.isClosed()) {
+                schedule(segment.reader, segment.buffer, depth);
+            }
+            return segment.buffer.duplicate();
+        } else {
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Schedule the prefetching of the data segments referenced by the
+     * given segment that are stored in the same tar file.
+     * @param reader   the tar file the segment was read from
+     * @param segment  the segment
+     */
+    void prefetch(@Nonnull TarReader reader, @Nonnull ByteBuffer segment) {
+        if (isEnabled()) {
+            schedule(reader, segment, depth);
+        }
+    }
+
+    /**
+     * Drop all prefetched segments. Called when tar files are removed
+     * by cleanup.
+     */
+    void clear() {
+        prefetched.invalidateAll();
+    }
+
+    void close() {
+        executor.shutdownNow();
+        clear();
+    }
+
+    private void schedule(TarReader reader, ByteBuffer segment, int level) {
+        int pos = segment.position();
+        int refcount = segment.get(pos + REF_COUNT_OFFSET) & 0xff;
+        int refend = pos + 16 * (refcount + 1);
+        for (int refpos = pos + 16; refpos < refend; refpos += 16) {
+            long msb = segment.getLong(refpos);
+            long lsb = segment.getLong(refpos + 8);
+            if (isDataSegmentId(lsb) && reader.containsEntry(msb, lsb)) {
+                UUID id = new UUID(msb, lsb);
+                if (prefetched.getIfPresent(id) == null && pending.add(id)) {
+                    try {
+                        executor.execute(new Prefetch(reader, id, level));
+                    } catch (RejectedExecutionException e) {
+                        pending.remove(id);
+                        droppedCount.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Touch every page of memory mapped segments, so that they are actually
+     * read from disk by the prefetch thread.
+     */
+    private static void touch(ByteBuffer buffer) {
+        if (buffer.isDirect()) {
+            for (int pos = buffer.position(); pos < buffer.limit(); pos += PAGE_SIZE) {
+                buffer.get(pos);
+            }
+        }
+    }
+
+    private static class Prefetched {
+        private final TarReader reader;
+        private final ByteBuffer buffer;
+
+        Prefetched(TarReader reader, ByteBuffer buffer) {
+            this.reader = reader;
+            this.buffer = buffer;
+        }
+    }
+
+    private class Prefetch implements Runnable {
+        private final TarReader reader;
+        private final UUID id;
+        private final int level;
+
+        Prefetch(TarReader reader, UUID id, int level) {
+            this.reader = reader;
+            this.id = id;
+            this.level = level;
+        }
+
+        @Override
+        public void run() {
+            long msb = id.getMostSignificantBits();
+            long lsb = id.getLeastSignificantBits();
+            try {
+                if (reader.isClosed() || tracker.isCached(msb, lsb)) {
+                    return;
+                }
+                ByteBuffer buffer = reader.readEntry(msb, lsb);
+                if (buffer != null) {
+                    touch(buffer);
+                    prefetched.put(id, new Prefetched(reader, buffer));
+                    prefetchCount.incrementAndGet();
+                    if (level > 1) {
+                        schedule(reader, buffer, level - 1);
+                    }
+                }
+            } catch (IOException e) {
+                log.debug("Failed to prefetch segment " + id + " from " + reader, e);
+            } finally {
+                pending.remove(id);
+            }
+        }
+    }
+
+    //------------------------------------------------------------< SegmentPrefetcherMBean >---
+
+    @Override
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public long getPrefetchCount() {
+        return prefetchCount.get();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    @Override
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentPrefetcher{" +
+                "depth=" + depth +
+                ", prefetchCount=" + prefetchCount +
+                ", hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", droppedCount=" + droppedCount +
+                '}';
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.segment.file;
+
+/**
+ * MBean for monitoring the {@link SegmentPrefetcher} of the {@link FileStore}.
+ */
+public interface SegmentPrefetcherMBean {
+    String TYPE = "Segment Prefetch Statistics";
+
+    /**
+     * @return  how many levels of referenced segments are prefetched on a
+     *          segment cache miss. {@code 0} if prefetching is disabled.
+     */
+    int getDepth();
+
+    /**
+     * @return  number of segments read ahead so far
+     */
+    long getPrefetchCount();
+
+    /**
+     * @return  number of segment reads served from prefetched segments
+     */
+    long getHitCount();
+
+    /**
+     * @return  number of segment reads that had to go to the tar files
+     */
+    long getMissCount();
+
+    /**
+     * @return  the ratio of segment reads served from prefetched segments
+     *          to all segment reads
+     */
+    double getHitRate();
+
+    /**
+     * @return  number of prefetch requests dropped as the prefetch queue
+     *          was full
+     */
+    long getDroppedCount();
+
+    /**
+     * @return  number of prefetch requests currently waiting in the queue
+     */
+    int getQueueSize();
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.segment.file;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter of the identifiers of the segments contained in a tar file,
+ * used to skip tar files not containing a segment without searching their
+ * index. The filter is persisted in the tar file (see
+ * {@link TarWriter#BLOOM_MAGIC}) in a fixed binary format, so it does
+ * not depend on the hashing of any library.
+ * <p>
+ * With {@link #BITS_PER_ENTRY} bits per segment and {@link #HASH_COUNT}
+ * hash functions the false positive probability is below 1%.
+ */
+final class TarBloomFilter {
+
+    static final int BITS_PER_ENTRY = 10;
+
+    static final int HASH_COUNT = 7;
+
+    private final long[] bits;
+
+    private final int hashCount;
+
+    private TarBloomFilter(long[] bits, int hashCount) {
+        this.bits = bits;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * Creates an empty filter sized for the given number of segments.
+     */
+    static TarBloomFilter create(int count) {
+        int words = Math.max(1, (int) ((Math.max(1L, count) * BITS_PER_ENTRY + 63) / 64));
+        return new TarBloomFilter(new long[words], HASH_COUNT);
+    }
+
+    /**
+     * Reads a filter previously written with {@link #write(ByteBuffer)}.
+     *
+     * @param buffer  the serialized filter, positioned at its start
+     * @param words   the number of 64 bit words of the filter
+     * @return  the filter, or {@code null} if the data is not valid
+     */
+    static TarBloomFilter read(ByteBuffer buffer, int words) {
+        int hashCount = buffer.getInt();
+        if (words < 1 || hashCount < 1 || buffer.remaining() < words * 8) {
+            return null;
+        }
+        long[] bits = new long[words];
+        for (int i = 0; i < words; i++) {
+            bits[i] = buffer.getLong();
+        }
+        return new TarBloomFilter(bits, hashCount);
+    }
+
+    /**
+     * @return  the number of 64 bit words of this filter
+     */
+    int getWordCount() {
+        return bits.length;
+    }
+
+    /**
+     * @return  the number of bytes written by {@link #write(ByteBuffer)}
+     */
+    int getSerializedSize() {
+        return 4 + bits.length * 8;
+    }
+
+    void write(ByteBuffer buffer) {
+        buffer.putInt(hashCount);
+        for (long word : bits) {
+            buffer.putLong(word);
+        }
+    }
+
+    void put(long msb, long lsb) {
+        long hash = hash(msb, lsb);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long size = bits.length * 64L;
+        for (int i = 1; i <= hashCount; i++) {
+            int combined = h1 + i * h2;
+            long bit = (combined & Integer.MAX_VALUE) % size;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return  {@code false} if the given segment is definitely not
+     *          contained in the tar file, {@code true} if it might be
+     */
+    boolean mightContain(long msb, long lsb) {
+        long hash = hash(msb, lsb);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long size = bits.length * 64L;
+        for (int i = 1; i <= hashCount; i++) {
+            int combined = h1 + i * h2;
+            long bit = (combined & Integer.MAX_VALUE) % size;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Mixes the bits of the segment identifier. Segment identifiers are
+     * mostly random, but the version and variant bits are fixed.
+     */
+    private static long hash(long msb, long lsb) {
+        long h = msb * 0x9e3779b97f4a7c15L ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -27,6 +27,7 @@ import static com.google.common.collect.Sets.newHashSetWithExpectedSize;
 import static java.util.Collections.singletonList;
 import static org.apache.jackrabbit.oak.plugins.segment.Segment.REF_COUNT_OFFSET;
 import static org.apache.jackrabbit.oak.plugins.segment.SegmentId.isDataSegmentId;
+import static org.apache.jackrabbit.oak.plugins.segment.file.TarWriter.BLOOM_MAGIC;
 import static org.apache.jackrabbit.oak.plugins.segment.file.TarWriter.GRAPH_MAGIC;
 
 import java.io.File;
@@ -41,12 +42,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.CRC32;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.jackrabbit.oak.plugins.segment.CompactionMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -75,9 +76,10 @@ class TarReader {
         return BLOCK_SIZE + size + TarWriter.getPaddingSize(size);
     }
 
-    static TarReader open(File file, boolean memoryMapping) throws IOException {
+    static TarReader open(File file, boolean memoryMapping,
+            boolean positionalReads) throws IOException {
         TarReader reader = openFirstFileWithValidIndex(
-                singletonList(file), memoryMapping);
+                singletonList(file), memoryMapping, positionalReads);
         if (reader != null) {
             return reader;
         } else {
@@ -97,18 +99,20 @@ class TarReader {
      *
      * @param files
      * @param memoryMapping
+     * @param positionalReads
      * @return
      * @throws IOException
      */
-    static TarReader open(Map<Character, File> files, boolean memoryMapping)
-            throws IOException {
+    static TarReader open(Map<Character, File> files, boolean memoryMapping,
+            boolean positionalReads) throws IOException {
         SortedMap<Character, File> sorted = newTreeMap();
         sorted.putAll(files);
 
         List<File> list = newArrayList(sorted.values());
         Collections.reverse(list);
 
-        TarReader reader = openFirstFileWithValidIndex(list, memoryMapping);
+        TarReader reader = openFirstFileWithValidIndex(
+                list, memoryMapping, positionalReads);
         if (reader != null) {
             return reader;
         }
@@ -146,7 +150,8 @@ class TarReader {
         }
         writer.close();
 
-        reader = openFirstFileWithValidIndex(singletonList(file), memoryMapping);
+        reader = openFirstFileWithValidIndex(
+                singletonList(file), memoryMapping, positionalReads);
         if (reader != null) {
             return reader;
         } else {
@@ -183,7 +188,8 @@ class TarReader {
     }
 
     private static TarReader openFirstFileWithValidIndex(
-            List<File> files, boolean memoryMapping) throws IOException {
+            List<File> files, boolean memoryMapping, boolean positionalReads)
+            throws IOException {
         for (File file : files) {
             String name = file.getName();
             try {
@@ -227,7 +233,9 @@ class TarReader {
                             }
                         }
 
-                        FileAccess random = new FileAccess.Random(access);
+                        FileAccess random = positionalReads
+                                ? new FileAccess.Positional(file, access)
+                                : new FileAccess.Random(access);
                         // prevent the finally block from closing the file
                         // as the returned TarReader will take care of that
                         access = null;
@@ -431,12 +439,25 @@ class TarReader {
 
     private final ByteBuffer index;
 
+    /**
+     * Bloom filter of the segments in this file, either loaded from the
+     * file or built from the index for files written without a filter.
+     */
+    private final TarBloomFilter bloomFilter;
+
+    /**
+     * Number of segments read from this file since the last call to
+     * {@link #resetReadCount()}. Used for tiered storage.
+     */
+    private final AtomicLong readCount = new AtomicLong();
+
     private volatile boolean closed;
 
     private TarReader(File file, FileAccess access, ByteBuffer index) {
         this.file = file;
         this.access = access;
         this.index = index;
+        this.bloomFilter = loadBloomFilter();
     }
 
     long size() {
@@ -487,12 +508,21 @@ class TarReader {
         return findEntry(msb, lsb) != -1;
     }
 
+    /**
+     * @return  {@code false} if the given segment is definitely not in this
+     *          file, {@code true} if it might be
+     */
+    boolean mightContain(long msb, long lsb) {
+        return bloomFilter.mightContain(msb, lsb);
+    }
+
     /**
      * If the given segment is in this file, get the byte buffer that allows
      * reading it.
      * <p>
      * Whether or not this will read from the file depends on whether memory
-     * mapped files are used or not.
+     * mapped files are used or not. Compressed data segments are returned
+     * decompressed.
      * 
      * @param msb the most significant bits of the segment id
      * @param lsb the least significant bits of the segment id
@@ -501,9 +531,10 @@ class TarReader {
     ByteBuffer readEntry(long msb, long lsb) throws IOException {
         int position = findEntry(msb, lsb);
         if (position != -1) {
-            return access.read(
+            readCount.incrementAndGet();
+            return SegmentCompression.decompress(lsb, access.read(
                     index.getInt(position + 16),
-                    index.getInt(position + 20));
+                    index.getInt(position + 20)));
         } else {
             return null;
         }
@@ -518,6 +549,10 @@ class TarReader {
      * @return the position in the file, or -1 if not found
      */
     private int findEntry(long msb, long lsb) {
+        if (!bloomFilter.mightContain(msb, lsb)) {
+            return -1;
+        }
+
         // The segment identifiers are randomly generated with uniform
         // distribution, so we can use interpolation search to find the
         // matching entry in the index. The average runtime is O(log log n).
@@ -562,24 +597,66 @@ class TarReader {
     }
 
     /**
-     * Garbage collects segments in this file. First it collects the set of
-     * segments that are referenced / reachable, then (if more than 25% is
-     * garbage) creates a new generation of the file.
+     * Collects the segments directly referenced by the data segments in
+     * this file. Uses the pre-compiled segment graph if available, otherwise
+     * reads the references from the segments themselves.
+     *
+     * @return  map from the identifiers of the data segments in this file
+     *          to the identifiers of the segments they reference
+     */
+    Map<UUID, List<UUID>> getReferences() throws IOException {
+        Map<UUID, List<UUID>> graph = getGraph();
+        if (graph != null) {
+            return graph;
+        }
+
+        graph = newHashMap();
+        for (int position = index.position(); position < index.limit(); position += 24) {
+            long msb = index.getLong(position);
+            long lsb = index.getLong(position + 8);
+            int offset = index.getInt(position + 16);
+            int length = index.getInt(position + 20);
+            if (isDataSegmentId(lsb)) {
+                ByteBuffer segment = access.read(offset, Math.min(length, 16 * 256));
+                if (SegmentCompression.isCompressed(lsb, segment)) {
+                    segment = SegmentCompression.decompress(
+                            lsb, access.read(offset, length));
+                }
+                int pos = segment.position();
+                int refcount = segment.get(pos + REF_COUNT_OFFSET) & 0xff;
+                int refend = pos + 16 * (refcount + 1);
+                List<UUID> refids = newArrayListWithCapacity(refcount);
+                for (int refpos = pos + 16; refpos < refend; refpos += 16) {
+                    refids.add(new UUID(
+                            segment.getLong(refpos),
+                            segment.getLong(refpos + 8)));
+                }
+                graph.put(new UUID(msb, lsb), refids);
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Garbage collects segments in this file. Given the set of segments
+     * that are reachable, (if more than 25% is garbage) creates a new
+     * generation of the file.
      * <p>
      * The old generation files are not removed (they can't easily be removed,
      * for memory mapped files).
-     * 
-     * @param referencedIds the referenced segment ids (input and output).
-     * @param cm the compaction map
+     *
+     * @param reachableIds the identifiers of all reachable segments, as
+     *                     determined from the {@link #getReferences()
+     *                     references} of all tar files
      * @param removed a set which will receive the uuids of all segments that
      *                have been cleaned.
      * @return this (if the file is kept as is), or the new generation file, or
      *         null if the file is fully garbage
      */
-    synchronized TarReader cleanup(Set<UUID> referencedIds, CompactionMap cm, Set<UUID> removed)
+    synchronized TarReader cleanup(Set<UUID> reachableIds, Set<UUID> removed)
             throws IOException {
         Set<UUID> cleaned = newHashSet();
-        Map<UUID, List<UUID>> graph = getGraph();
+        boolean hasGraph = loadGraph() != null;
 
         TarEntry[] sorted = new TarEntry[index.remaining() / 24];
         int position = index.position();
@@ -598,36 +675,13 @@ class TarReader {
         for (int i = sorted.length - 1; i >= 0; i--) {
             TarEntry entry = sorted[i];
             UUID id = new UUID(entry.msb(), entry.lsb());
-            if (!referencedIds.remove(id)) {
+            if (!reachableIds.contains(id)) {
                 // this segment is not referenced anywhere
                 cleaned.add(id);
                 sorted[i] = null;
             } else {
                 size += getEntrySize(entry.size());
                 count += 1;
-                if (isDataSegmentId(entry.lsb())) {
-                    // this is a referenced data segment, so follow the graph
-                    if (graph != null) {
-                        List<UUID> refids = graph.get(id);
-                        if (refids != null) {
-                            referencedIds.addAll(refids);
-                        }
-                    } else {
-                        // a pre-compiled graph is not available, so read the
-                        // references directly from this segment
-                        ByteBuffer segment = access.read(
-                                entry.offset(),
-                                Math.min(entry.size(), 16 * 256));
-                        int pos = segment.position();
-                        int refcount = segment.get(pos + REF_COUNT_OFFSET) & 0xff;
-                        int refend = pos + 16 * (refcount + 1);
-                        for (int refpos = pos + 16; refpos < refend; refpos += 16) {
-                            referencedIds.add(new UUID(
-                                    segment.getLong(refpos),
-                                    segment.getLong(refpos + 8)));
-                        }
-                    }
-                }
             }
         }
         size += getEntrySize(24 * count + 16);
@@ -638,7 +692,7 @@ class TarReader {
             removed.addAll(cleaned);
             logCleanedSegments(cleaned);
             return null;
-        } else if (size >= access.length() * 3 / 4 && graph != null) {
+        } else if (size >= access.length() * 3 / 4 && hasGraph) {
             // the space savings are not worth it at less than 25%,
             // unless this tar file lacks a pre-compiled segment graph
             // in which case we'll always generate a new tar file with
@@ -670,7 +724,8 @@ class TarReader {
         writer.close();
 
         TarReader reader = openFirstFileWithValidIndex(
-                singletonList(newFile), access.isMemoryMapped());
+                singletonList(newFile), access.isMemoryMapped(),
+                access.isPositional());
         if (reader != null) {
             logCleanedSegments(cleaned);
             removed.addAll(cleaned);
@@ -774,6 +829,63 @@ class TarReader {
         return graph;
     }
 
+    /**
+     * Loads the bloom filter entry preceding the graph entry of this tar
+     * file, or builds the filter from the tar index if the file does not
+     * contain a (valid) filter.
+     *
+     * @return the bloom filter of the segments in this file
+     */
+    private TarBloomFilter loadBloomFilter() {
+        try {
+            // read the graph metadata just before the tar index entry
+            int pos = access.length() - 2 * BLOCK_SIZE - getEntrySize(index.remaining());
+            ByteBuffer meta = access.read(pos - 16, 16);
+            int bytes = meta.getInt(8);
+            if (meta.getInt(12) == GRAPH_MAGIC && bytes > 0 && BLOCK_SIZE + bytes <= pos) {
+                // read the filter metadata just before the graph entry
+                pos -= getEntrySize(bytes);
+                meta = access.read(pos - 16, 16);
+                int crc32 = meta.getInt();
+                int count = meta.getInt();
+                bytes = meta.getInt();
+                int magic = meta.getInt();
+
+                if (magic == BLOOM_MAGIC) {
+                    if (count < 1 || bytes != count * 8 + 20 || BLOCK_SIZE + bytes > pos) {
+                        log.warn("Invalid bloom filter metadata in tar file {}", file);
+                    } else {
+                        ByteBuffer buffer = access.read(pos - bytes, bytes);
+                        byte[] b = new byte[bytes - 16];
+                        buffer.mark();
+                        buffer.get(b);
+                        buffer.reset();
+
+                        CRC32 checksum = new CRC32();
+                        checksum.update(b);
+                        if (crc32 != (int) checksum.getValue()) {
+                            log.warn("Invalid bloom filter checksum in tar file {}", file);
+                        } else {
+                            TarBloomFilter filter = TarBloomFilter.read(buffer, count);
+                            if (filter != null) {
+                                return filter;
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to read the bloom filter of tar file " + file, e);
+        }
+
+        // a pre-compiled filter is not available, so build it from the index
+        TarBloomFilter filter = TarBloomFilter.create(index.remaining() / 24);
+        for (int position = index.position(); position < index.limit(); position += 24) {
+            filter.put(index.getLong(position), index.getLong(position + 8));
+        }
+        return filter;
+    }
+
     private static Map<UUID, List<UUID>> parseGraph(ByteBuffer graphByteBuffer) {
         int count = graphByteBuffer.getInt(graphByteBuffer.limit() - 12);
 
@@ -828,6 +940,14 @@ class TarReader {
         return file;
     }
 
+    /**
+     * @return  the number of segments read from this file since the
+     *          previous call to this method
+     */
+    long resetReadCount() {
+        return readCount.getAndSet(0);
+    }
+
     //------------------------------------------------------------< Object >--
 
     @Override
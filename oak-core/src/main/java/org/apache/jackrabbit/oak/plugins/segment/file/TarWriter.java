@@ -92,6 +92,24 @@ class TarWriter {
     static final int GRAPH_MAGIC =
             ('\n' << 24) + ('0' << 16) + ('G' << 8) + '\n';
 
+    /**
+     * Magic byte sequence at the end of the bloom filter block.
+     * <p>
+     * The bloom filter entry precedes the graph entry, so that tar files
+     * written with it remain readable by code not aware of it. File format:
+     * <ul>
+     * <li>0 padding to make the footer end at a 512 byte boundary</li>
+     * <li>The number of hash functions (4 bytes).</li>
+     * <li>The bits of the filter, as 64 bit words (8 bytes each).</li>
+     * <li>The footer, which contains metadata of the filter (checksum, the
+     * number of words, size).</li>
+     * </ul>
+     *
+     * @see TarBloomFilter
+     */
+    static final int BLOOM_MAGIC =
+            ('\n' << 24) + ('0' << 16) + ('B' << 8) + '\n';
+
     /** The tar file block size. */
     static final int BLOCK_SIZE = 512;
 
@@ -146,8 +164,19 @@ class TarWriter {
      */
     private final SortedMap<UUID, List<UUID>> graph = newTreeMap();
 
+    /**
+     * Whether data segments are stored compressed.
+     * @see SegmentCompression
+     */
+    private final boolean compress;
+
     TarWriter(File file) {
+        this(file, false);
+    }
+
+    TarWriter(File file, boolean compress) {
         this.file = file;
+        this.compress = compress;
     }
 
     /**
@@ -185,7 +214,7 @@ class TarWriter {
             access.seek(entry.offset());
             access.readFully(data.array());
             access.seek(access.length());
-            return data;
+            return SegmentCompression.decompress(lsb, data);
         } else {
             return null;
         }
@@ -197,6 +226,22 @@ class TarWriter {
         checkNotNull(data);
         checkPositionIndexes(offset, offset + size, data.length);
 
+        // the uncompressed segment, used for tracking the segment graph
+        ByteBuffer segment = ByteBuffer.wrap(data, offset, size);
+        if (isDataSegmentId(lsb)) {
+            if (SegmentCompression.isCompressed(lsb, segment)) {
+                // already compressed entry copied from another tar file
+                segment = SegmentCompression.decompress(lsb, segment);
+            } else if (compress) {
+                byte[] compressed = SegmentCompression.compress(data, offset, size);
+                if (compressed != null) {
+                    data = compressed;
+                    offset = 0;
+                    size = compressed.length;
+                }
+            }
+        }
+
         UUID uuid = new UUID(msb, lsb);
         CRC32 checksum = new CRC32();
         checksum.update(data, offset, size);
@@ -204,12 +249,12 @@ class TarWriter {
         byte[] header = newEntryHeader(entryName, size);
 
         log.debug("Writing segment {} to {}", uuid, file);
-        return writeEntry(uuid, header, data, offset, size);
+        return writeEntry(uuid, header, data, offset, size, segment);
     }
 
     private synchronized long writeEntry(
-            UUID uuid, byte[] header, byte[] data, int offset, int size)
-            throws IOException {
+            UUID uuid, byte[] header, byte[] data, int offset, int size,
+            ByteBuffer segment) throws IOException {
         checkState(!closed);
         if (access == null) {
             access = new RandomAccessFile(file, "rw");
@@ -230,7 +275,6 @@ class TarWriter {
         index.put(uuid, entry);
 
         if (isDataSegmentId(uuid.getLeastSignificantBits())) {
-            ByteBuffer segment = ByteBuffer.wrap(data, offset, size);
             int pos = segment.position();
             int refcount = segment.get(pos + REF_COUNT_OFFSET) & 0xff;
             if (refcount != 0) {
@@ -301,11 +345,12 @@ class TarWriter {
             return;
         }
 
-        // Complete the tar file by adding the graph, the index and the
-        // trailing two zero blocks. This code is synchronized on the file
-        // instance to  ensure that no concurrent thread is still flushing
-        // the file when we close the file handle.
+        // Complete the tar file by adding the bloom filter, the graph, the
+        // index and the trailing two zero blocks. This code is synchronized
+        // on the file instance to  ensure that no concurrent thread is still
+        // flushing the file when we close the file handle.
         synchronized (file) {
+            writeBloomFilter();
             writeGraph();
             writeIndex();
             access.write(ZERO_BYTES);
@@ -314,6 +359,36 @@ class TarWriter {
         }
     }
 
+    private void writeBloomFilter() throws IOException {
+        TarBloomFilter filter = TarBloomFilter.create(index.size());
+        for (TarEntry entry : index.values()) {
+            filter.put(entry.msb(), entry.lsb());
+        }
+
+        int filterSize = filter.getSerializedSize() + 16;
+        int padding = getPaddingSize(filterSize);
+
+        String filterName = file.getName() + ".bf";
+        byte[] header = newEntryHeader(filterName, filterSize + padding);
+
+        ByteBuffer buffer = ByteBuffer.allocate(filterSize);
+        filter.write(buffer);
+
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) checksum.getValue());
+        buffer.putInt(filter.getWordCount());
+        buffer.putInt(filterSize);
+        buffer.putInt(BLOOM_MAGIC);
+
+        access.write(header);
+        if (padding > 0) {
+            // padding comes *before* the filter!
+            access.write(ZERO_BYTES, 0, padding);
+        }
+        access.write(buffer.array());
+    }
+
     private void writeGraph() throws IOException {
         List<UUID> uuids = Lists.newArrayListWithCapacity(
                 index.size() + references.size());
@@ -672,4 +672,55 @@ public class CacheTest {
         cache.refresh(-1);
     }
     
+    @Test
+    public void testEvictionCallback() {
+        final HashSet<Integer> evicted = new HashSet<Integer>();
+        CacheLIRS<Integer, String> cache = new CacheLIRS.Builder().
+                maximumSize(10).
+                segmentCount(1).
+                evictionCallback(new CacheLIRS.EvictionCallback<Integer, String>() {
+
+                    @Override
+                    public void evicted(Integer key, String value) {
+                        assertEquals("n" + key, value);
+                        assertTrue(evicted.add(key));
+                    }
+
+                }).
+                build();
+        for (int i = 0; i < 20; i++) {
+            cache.put(i, "n" + i);
+        }
+        assertEquals(20, cache.size() + evicted.size());
+        assertEquals(cache.stats().evictionCount(), evicted.size());
+        for (Integer key : evicted) {
+            assertFalse(cache.containsKey(key));
+        }
+        evicted.clear();
+        cache.invalidateAll();
+        assertTrue(evicted.isEmpty());
+
+        long hits = cache.stats().hitCount();
+        cache.recordHit(1);
+        assertEquals(hits + 1, cache.stats().hitCount());
+    }
+
+    @Test
+    public void testRecordHit() {
+        CacheLIRS<Integer, String> cache = new CacheLIRS.Builder().
+                maximumSize(10).
+                segmentCount(1).
+                stackMoveDistance(0).
+                build();
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, "n" + i);
+            cache.getIfPresent(i);
+            // the value of key 0 is held by the caller
+            cache.recordHit(0);
+        }
+        assertTrue(cache.containsKey(0));
+        assertEquals(200, cache.stats().hitCount());
+        assertEquals(0, cache.stats().missCount());
+    }
+
 }
@@ -21,6 +21,7 @@ package org.apache.jackrabbit.oak.plugins.backup;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -34,6 +35,7 @@ import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
 import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
 import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.jackrabbit.oak.spi.state.NodeStore;
 import org.junit.After;
 import org.junit.Before;
@@ -100,6 +102,61 @@ public class FileStoreBackupTest {
         source.close();
     }
 
+    @Test
+    public void testIncrementalBackup() throws Exception {
+        FileStore source = new FileStore(src, 8, false);
+
+        NodeStore store = new SegmentNodeStore(source);
+        init(store);
+
+        FileStoreBackup.incrementalBackup(source, destination);
+        FileStoreRestore.verify(destination);
+        compare(store, destination);
+
+        addTestContent(store);
+        FileStoreBackup.incrementalBackup(source, destination);
+        FileStoreRestore.verify(destination);
+        compare(store, destination);
+
+        source.close();
+    }
+
+    @Test
+    public void testIncrementalRestore() throws Exception {
+        FileStore source = new FileStore(src, 8, false);
+
+        NodeStore store = new SegmentNodeStore(source);
+        init(store);
+        FileStoreBackup.incrementalBackup(source, destination);
+        NodeState backedUp = store.getRoot();
+
+        addTestContent(store);
+        source.close();
+
+        FileStoreRestore.restoreFiles(destination, src);
+        FileStore restored = new FileStore(src, 8, false);
+        assertEquals(backedUp, new SegmentNodeStore(restored).getRoot());
+        restored.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptIncrementalBackup() throws Exception {
+        FileStore source = new FileStore(src, 8, false);
+        init(new SegmentNodeStore(source));
+        FileStoreBackup.incrementalBackup(source, destination);
+        source.close();
+
+        RandomAccessFile journal =
+                new RandomAccessFile(new File(destination, "journal.log"), "rw");
+        try {
+            journal.seek(0);
+            journal.write('x');
+        } finally {
+            journal.close();
+        }
+        FileStoreRestore.verify(destination);
+    }
+
     private static void addTestContent(NodeStore store)
             throws CommitFailedException {
         NodeBuilder builder = store.getRoot().builder();
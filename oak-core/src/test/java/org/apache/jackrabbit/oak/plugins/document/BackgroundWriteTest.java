@@ -17,11 +17,13 @@
 package org.apache.jackrabbit.oak.plugins.document;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -57,6 +59,41 @@ public class BackgroundWriteTest {
         mk.dispose();
     }
 
+    @Test
+    public void writeLevelsDeepestFirst() {
+        DocumentMK mk = new DocumentMK.Builder().setDocumentStore(
+                new TestStore()).setBackgroundWriteThreads(4)
+                .setAsyncDelay(0).open();
+        try {
+            List<String> paths = new ArrayList<String>();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 10; i++) {
+                String child = "node-" + i;
+                sb.append("+\"").append(child).append("\":{\"a\":{\"b\":{}}}");
+                paths.add("/" + child);
+                paths.add("/" + child + "/a");
+                paths.add("/" + child + "/a/b");
+            }
+            mk.commit("/", sb.toString(), null, null);
+            mk.runBackgroundOperations();
+
+            DocumentNodeStore ns = mk.getNodeStore();
+            UnsavedModifications pending = ns.getPendingModifications();
+            pending.put("/", ns.newRevision());
+            for (String p : paths) {
+                // use distinct revisions to get batched updates
+                pending.put(p, ns.newRevision());
+            }
+            BackgroundWriteStats stats = ns.backgroundWrite();
+            assertEquals(paths.size() + 1, stats.num);
+            assertEquals(new ArrayList<Integer>(Arrays.asList(3, 2, 1, 0)),
+                    new ArrayList<Integer>(stats.levels.keySet()));
+            assertTrue(pending.getPaths().isEmpty());
+        } finally {
+            mk.dispose();
+        }
+    }
+
     private static final class TestStore extends MemoryDocumentStore {
 
         @Override
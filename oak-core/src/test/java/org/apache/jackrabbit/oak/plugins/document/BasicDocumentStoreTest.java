@@ -300,6 +300,82 @@ public class BasicDocumentStoreTest extends AbstractDocumentStoreTest {
         assertEquals("bar", d.get("foo").toString());
     }
 
+    @Test
+    public void testCreateOrUpdateMultiple() {
+        String id = this.getClass().getName() + ".testCreateOrUpdateMultiple";
+        // create a test node
+        super.ds.remove(Collection.NODES, id);
+        UpdateOp up = new UpdateOp(id, true);
+        up.set("_id", id);
+        up.set("foo", "old");
+        boolean success = super.ds.create(Collection.NODES, Collections.singletonList(up));
+        assertTrue(success);
+        removeMe.add(id);
+
+        // update this one and create a new one
+        String newId = id + "-" + UUID.randomUUID();
+        super.ds.remove(Collection.NODES, newId);
+        removeMe.add(newId);
+        List<UpdateOp> ops = new ArrayList<UpdateOp>();
+        UpdateOp up1 = new UpdateOp(id, false);
+        up1.set("_id", id);
+        up1.set("foo", "bar");
+        ops.add(up1);
+        UpdateOp up2 = new UpdateOp(newId, true);
+        up2.set("_id", newId);
+        up2.set("foo", "baz");
+        ops.add(up2);
+
+        List<NodeDocument> old = ds.createOrUpdate(Collection.NODES, ops);
+        assertEquals(2, old.size());
+        assertNotNull(old.get(0));
+        assertEquals("old", old.get(0).get("foo").toString());
+        assertNull(old.get(1));
+
+        ds.invalidateCache();
+        Document d = ds.find(Collection.NODES, id);
+        assertNotNull(d);
+        assertEquals("bar", d.get("foo").toString());
+        d = ds.find(Collection.NODES, newId);
+        assertNotNull(d);
+        assertEquals("baz", d.get("foo").toString());
+    }
+
+    @Test
+    public void testUpdateMultipleOps() {
+        String id = this.getClass().getName() + ".testUpdateMultipleOps";
+        // create a test node
+        super.ds.remove(Collection.NODES, id);
+        UpdateOp up = new UpdateOp(id, true);
+        up.set("_id", id);
+        up.set("foo", "old");
+        boolean success = super.ds.create(Collection.NODES, Collections.singletonList(up));
+        assertTrue(success);
+        removeMe.add(id);
+
+        // update this one and one that doesn't exist
+        String missingId = id + "-" + UUID.randomUUID();
+        super.ds.remove(Collection.NODES, missingId);
+        removeMe.add(missingId);
+        List<UpdateOp> ops = new ArrayList<UpdateOp>();
+        UpdateOp up1 = new UpdateOp(id, false);
+        up1.set("_id", id);
+        up1.set("foo", "bar");
+        ops.add(up1);
+        UpdateOp up2 = new UpdateOp(missingId, false);
+        up2.set("_id", missingId);
+        up2.set("foo", "baz");
+        ops.add(up2);
+
+        ds.update(Collection.NODES, ops);
+
+        ds.invalidateCache();
+        Document d = ds.find(Collection.NODES, id);
+        assertNotNull(d);
+        assertEquals("bar", d.get("foo").toString());
+        assertNull(ds.find(Collection.NODES, missingId));
+    }
+
     @Test
     public void testUpdateModified() {
         String id = this.getClass().getName() + ".testUpdateModified";
@@ -163,6 +163,13 @@ public class CountingDocumentStore implements DocumentStore {
         delegate.update(collection, keys, updateOp);
     }
 
+    @Override
+    public <T extends Document> void update(Collection<T> collection,
+                                            List<UpdateOp> updateOps) {
+        getStats(collection).numCreateOrUpdateCalls++;
+        delegate.update(collection, updateOps);
+    }
+
     @Override
     public <T extends Document> T createOrUpdate(Collection<T> collection,
                                                  UpdateOp update) {
@@ -170,6 +177,13 @@ public class CountingDocumentStore implements DocumentStore {
         return delegate.createOrUpdate(collection, update);
     }
 
+    @Override
+    public <T extends Document> List<T> createOrUpdate(Collection<T> collection,
+                                                       List<UpdateOp> updateOps) {
+        getStats(collection).numCreateOrUpdateCalls++;
+        return delegate.createOrUpdate(collection, updateOps);
+    }
+
     @Override
     public <T extends Document> T findAndUpdate(Collection<T> collection,
                                                 UpdateOp update) {
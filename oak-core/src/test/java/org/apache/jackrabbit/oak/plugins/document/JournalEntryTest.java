@@ -65,6 +65,31 @@ public class JournalEntryTest {
         sort.close();
     }
 
+    @Test
+    public void applyToPendingDiff() throws Exception {
+        DiffCache cache = new MemoryDiffCache(new DocumentMK.Builder());
+        List<String> paths = Lists.newArrayList();
+        addRandomPaths(paths);
+        StringSort sort = JournalEntry.newSorter();
+        add(sort, paths);
+        sort.sort();
+        JournalEntry.PendingDiff diff = new JournalEntry.PendingDiff();
+        JournalEntry.applyTo(sort, diff);
+
+        // revisions are only known when the pending diff is applied
+        Revision from = new Revision(1, 0, 1);
+        Revision to = new Revision(2, 0, 1);
+        assertTrue(diff.applyTo(cache, from, to));
+        for (String p : paths) {
+            String changes = cache.getChanges(from, to, p, null);
+            assertNotNull("missing changes for " + p, changes);
+            for (String c : getChildren(changes)) {
+                assertTrue(paths.contains(PathUtils.concat(p, c)));
+            }
+        }
+        sort.close();
+    }
+
     @Test
     public void fillExternalChanges() throws Exception {
         DocumentStore store = new MemoryDocumentStore();
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.cache;
+
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.Ordering;
+import org.apache.jackrabbit.oak.cache.CacheValue;
+import org.apache.jackrabbit.oak.cache.EmpiricalWeigher;
+import org.apache.jackrabbit.oak.plugins.document.Collection;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.NodeDocument;
+import org.apache.jackrabbit.oak.plugins.document.Revision;
+import org.apache.jackrabbit.oak.plugins.document.StableRevisionComparator;
+import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.util.StringValue;
+import org.apache.jackrabbit.oak.plugins.document.util.Utils;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DirectNodeDocumentCacheTest {
+
+    private final DocumentStore store = new MemoryDocumentStore();
+
+    private DirectNodeDocumentCache cache = newCache(16 * 1024 * 1024);
+
+    @After
+    public void close() {
+        cache.close();
+    }
+
+    @Test
+    public void roundTrip() {
+        NodeDocument doc = createDocument("/foo", 100);
+        CacheValue key = new StringValue(doc.getId());
+        cache.put(key, doc);
+
+        NodeDocument cached = cache.getIfPresent(key);
+        assertNotNull(cached);
+        assertTrue(cached.isSealed());
+        assertEquals(doc.keySet(), cached.keySet());
+        for (String k : doc.keySet()) {
+            assertEquals(k, doc.get(k), cached.get(k));
+        }
+        assertEquals(doc.getModCount(), cached.getModCount());
+        assertEquals(doc.getCreated(), cached.getCreated());
+
+        @SuppressWarnings("unchecked")
+        NavigableMap<Revision, Object> values = (NavigableMap<Revision, Object>) cached.get("prop");
+        assertTrue(Ordering.from(StableRevisionComparator.REVERSE).isOrdered(values.keySet()));
+        try {
+            values.clear();
+            fail("must not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            cached.put("prop", "value");
+            fail("must not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void nullDocument() throws Exception {
+        CacheValue key = new StringValue(Utils.getIdFromPath("/missing"));
+        NodeDocument doc = cache.get(key, new Callable<NodeDocument>() {
+            @Override
+            public NodeDocument call() {
+                return NodeDocument.NULL;
+            }
+        });
+        assertSame(NodeDocument.NULL, doc);
+        assertEquals(1, cache.stats().loadCount());
+        assertSame(NodeDocument.NULL, cache.getIfPresent(key));
+        assertSame(NodeDocument.NULL, cache.offHeapEntriesMap().get(key));
+    }
+
+    @Test
+    public void markUpToDate() {
+        NodeDocument doc = createDocument("/foo", 10);
+        CacheValue key = new StringValue(doc.getId());
+        cache.put(key, doc);
+
+        cache.getIfPresent(key).markUpToDate(42);
+        assertEquals(42, cache.getIfPresent(key).getLastCheckTime());
+        assertEquals(42, cache.getCachedDocument(doc.getId()).getLastCheckTime());
+
+        cache.getCachedDocument(doc.getId()).markUpToDate(0);
+        assertEquals(0, cache.getIfPresent(key).getLastCheckTime());
+        for (NodeDocument d : cache.asMap().values()) {
+            assertEquals(0, d.getLastCheckTime());
+        }
+    }
+
+    @Test
+    public void eviction() {
+        long maxWeight = 1024 * 1024;
+        cache.close();
+        cache = newCache(maxWeight);
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            // spans several pages, so the documents don't fit in the cache
+            NodeDocument doc = createDocument("/node-" + i, 100);
+            cache.put(new StringValue(doc.getId()), doc);
+        }
+        cache.cleanUp();
+        assertTrue(cache.size() > 0);
+        assertTrue(cache.size() < count);
+        assertTrue(cache.getDirectMemoryUsed() <= maxWeight);
+        assertTrue(cache.getCacheStats().estimateCurrentWeight() <= maxWeight);
+
+        cache.invalidateAll();
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getDirectMemoryUsed());
+    }
+
+    @Test
+    public void invalidate() {
+        NodeDocument doc = createDocument("/foo", 10);
+        CacheValue key = new StringValue(doc.getId());
+        cache.put(key, doc);
+        assertTrue(cache.getDirectMemoryUsed() > 0);
+
+        // a document read before the invalidation remains usable
+        NodeDocument cached = cache.getIfPresent(key);
+        cache.invalidate(key);
+        assertNull(cache.getIfPresent(key));
+        assertEquals(0, cache.getDirectMemoryUsed());
+        assertEquals(doc.get("prop"), cached.get("prop"));
+    }
+
+    @Test
+    public void mapOperations() {
+        NodeDocument doc = createDocument("/foo", 10);
+        NodeDocument other = createDocument("/foo", 20);
+        CacheValue key = new StringValue(doc.getId());
+        ConcurrentMap<CacheValue, NodeDocument> map = cache.asMap();
+
+        assertNull(map.putIfAbsent(key, doc));
+        assertEquals(doc.keySet(), map.putIfAbsent(key, other).keySet());
+        assertEquals(doc.get("prop"), cache.getIfPresent(key).get("prop"));
+
+        assertFalse(map.replace(key, other, other));
+        assertTrue(map.replace(key, doc, other));
+        assertEquals(other.get("prop"), cache.getIfPresent(key).get("prop"));
+
+        assertEquals(other.get("prop"), map.replace(key, doc).get("prop"));
+        assertFalse(map.remove(key, other));
+        assertTrue(map.remove(key, doc));
+        assertNull(cache.getIfPresent(key));
+        assertNull(map.replace(key, doc));
+        assertNull(cache.getIfPresent(key));
+
+        cache.cleanUp();
+        assertEquals(0, cache.getDirectMemoryUsed());
+    }
+
+    @Test
+    public void stats() {
+        NodeDocument doc = createDocument("/foo", 10);
+        CacheValue key = new StringValue(doc.getId());
+        assertNull(cache.getIfPresent(key));
+        cache.put(key, doc);
+        assertNotNull(cache.getIfPresent(key));
+
+        assertEquals(1, cache.stats().hitCount());
+        assertEquals(1, cache.stats().missCount());
+        assertEquals(1, cache.getCacheStats().getHitCount());
+        assertFalse(cache.getCacheStats().estimateCurrentWeight() == 0);
+    }
+
+    private DirectNodeDocumentCache newCache(long maxWeight) {
+        return new DirectNodeDocumentCache(maxWeight, new EmpiricalWeigher(), store);
+    }
+
+    private NodeDocument createDocument(String path, int revisions) {
+        NodeDocument doc = Collection.NODES.newDocument(store);
+        doc.put(NodeDocument.ID, Utils.getIdFromPath(path));
+        doc.put(NodeDocument.MOD_COUNT, 1L);
+        doc.put("_deletedOnce", Boolean.FALSE);
+        doc.put("_sdType", 70);
+        NavigableMap<Revision, Object> values = new TreeMap<Revision, Object>(StableRevisionComparator.REVERSE);
+        NavigableMap<Revision, Object> deleted = new TreeMap<Revision, Object>(StableRevisionComparator.REVERSE);
+        long timestamp = 1430000000000L;
+        for (int i = 0; i < revisions; i++) {
+            timestamp += 1 + i % 7;
+            Revision r = new Revision(timestamp, i % 3, 1 + i % 2, i % 5 == 0);
+            values.put(r, "\"value-" + i + "\"");
+            if (i % 10 == 0) {
+                deleted.put(r, "false");
+            }
+        }
+        doc.put("prop", values);
+        doc.put("_deleted", deleted);
+        doc.seal();
+        return doc;
+    }
+}
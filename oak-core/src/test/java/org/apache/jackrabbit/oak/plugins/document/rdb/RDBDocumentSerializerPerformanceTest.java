@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.rdb;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jackrabbit.oak.plugins.document.Collection;
+import org.apache.jackrabbit.oak.plugins.document.NodeDocument;
+import org.apache.jackrabbit.oak.plugins.document.Revision;
+import org.apache.jackrabbit.oak.plugins.document.StableRevisionComparator;
+import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures parsing and serializing documents with many revisions in the
+ * JSON and in the compact binary format of the {@link RDBDocumentSerializer}.
+ * Each case is run for a number of warmup iterations followed by the
+ * measured iterations, the throughput is logged.
+ */
+@Ignore("Performance test")
+public class RDBDocumentSerializerPerformanceTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RDBDocumentSerializerPerformanceTest.class);
+
+    private static final int REVISIONS = 1000;
+
+    private static final int WARMUP_ITERATIONS = 2;
+
+    private static final int ITERATIONS = 3;
+
+    private static final long ITERATION_MILLIS = 100;
+
+    private final MemoryDocumentStore store = new MemoryDocumentStore();
+
+    private final RDBDocumentSerializer ser = new RDBDocumentSerializer(store, Collections.singleton("_id"));
+
+    private final NodeDocument doc = createDocument();
+
+    @Test
+    public void parseJson() throws UnsupportedEncodingException {
+        final RDBRow row = new RDBRow("_foo", false, false, 1, 2, 3, "\"blob\"",
+                ser.asString(doc).getBytes("UTF-8"));
+        run("parse JSON", new Runnable() {
+            @Override
+            public void run() {
+                ser.fromRow(Collection.NODES, row);
+            }
+        });
+    }
+
+    @Test
+    public void parseBinary() {
+        final RDBRow row = new RDBRow("_foo", false, false, 1, 2, 3, "\"blob\"", ser.asBytes(doc));
+        run("parse binary", new Runnable() {
+            @Override
+            public void run() {
+                ser.fromRow(Collection.NODES, row);
+            }
+        });
+    }
+
+    @Test
+    public void serializeJson() {
+        run("serialize JSON", new Runnable() {
+            @Override
+            public void run() {
+                ser.asString(doc);
+            }
+        });
+    }
+
+    @Test
+    public void serializeBinary() {
+        run("serialize binary", new Runnable() {
+            @Override
+            public void run() {
+                ser.asBytes(doc);
+            }
+        });
+    }
+
+    private static void run(String name, Runnable op) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(op);
+        }
+        double total = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            total += iteration(op);
+        }
+        LOG.info("{} ({} revisions): {} ops/s", name, REVISIONS, String.format("%.1f", total / ITERATIONS));
+    }
+
+    /**
+     * @return the number of operations per second of one iteration.
+     */
+    private static double iteration(Runnable op) {
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(ITERATION_MILLIS);
+        long count = 0;
+        long now;
+        do {
+            op.run();
+            count++;
+            now = System.nanoTime();
+        } while (now < end);
+        return count * 1e9 / (now - start);
+    }
+
+    private NodeDocument createDocument() {
+        NodeDocument doc = Collection.NODES.newDocument(store);
+        doc.put("_id", "1:/foo");
+        doc.put("_path", "/foo");
+        Map<Revision, Object> revisions = new TreeMap<Revision, Object>(StableRevisionComparator.REVERSE);
+        Map<Revision, Object> commitRoot = new TreeMap<Revision, Object>(StableRevisionComparator.REVERSE);
+        Map<Revision, Object> deleted = new TreeMap<Revision, Object>(StableRevisionComparator.REVERSE);
+        Map<Revision, Object> values = new TreeMap<Revision, Object>(StableRevisionComparator.REVERSE);
+        long timestamp = 1430000000000L;
+        for (int i = 0; i < REVISIONS; i++) {
+            timestamp += 1 + i % 50;
+            Revision r = new Revision(timestamp, i % 4, 1 + i % 3);
+            if (i % 2 == 0) {
+                revisions.put(r, "c");
+            } else {
+                commitRoot.put(r, "0");
+            }
+            if (i % 100 == 0) {
+                deleted.put(r, "false");
+            }
+            values.put(r, "\"value-" + i + "\"");
+        }
+        doc.put("_revisions", revisions);
+        doc.put("_commitRoot", commitRoot);
+        doc.put("_deleted", deleted);
+        doc.put("prop", values);
+        return doc;
+    }
+}
@@ -17,16 +17,24 @@
 package org.apache.jackrabbit.oak.plugins.document.rdb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.jackrabbit.oak.plugins.document.Collection;
 import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
 import org.apache.jackrabbit.oak.plugins.document.DocumentStoreException;
 import org.apache.jackrabbit.oak.plugins.document.DocumentStoreFixture;
 import org.apache.jackrabbit.oak.plugins.document.NodeDocument;
+import org.apache.jackrabbit.oak.plugins.document.Revision;
+import org.apache.jackrabbit.oak.plugins.document.StableRevisionComparator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -139,4 +147,90 @@ public class RDBDocumentSerializerTest  {
         assertEquals("_foo", doc.getId());
         assertEquals("\u20ac\uD834\uDD1E", doc.get("x"));
     }
+
+    @Test
+    public void testBinaryBlob() throws IOException {
+        NodeDocument doc = createDocument();
+        byte[] bytes = this.ser.asBytes(doc);
+        assertTrue(RDBBinaryFormat.isBinary(bytes));
+        assertSameProperties(doc, this.ser.fromRow(Collection.NODES,
+                new RDBRow("_foo", false, false, 1, 2, 3, "\"blob\"", bytes)));
+        // GZIPped
+        assertSameProperties(doc, this.ser.fromRow(Collection.NODES,
+                new RDBRow("_foo", false, false, 1, 2, 3, "\"blob\"", gzip(bytes))));
+    }
+
+    @Test
+    public void testBinaryBlobAndDiff() throws UnsupportedEncodingException {
+        NodeDocument doc = Collection.NODES.newDocument(store);
+        doc.put("m1", 2L);
+        doc.put("m2", 2L);
+        byte[] bytes = this.ser.asBytes(doc);
+        RDBRow row = new RDBRow("_foo", true, false, 1, 2, 3, "\"blob\", [[\"=\", \"foo\", \"bar\"],[\"M\", \"m1\", 1],[\"M\", \"m2\", 3]]", bytes);
+        NodeDocument result = this.ser.fromRow(Collection.NODES, row);
+        assertEquals("bar", result.get("foo"));
+        assertEquals(2L, result.get("m1"));
+        assertEquals(3L, result.get("m2"));
+    }
+
+    @Test
+    public void testBinaryBlobBorked() {
+        NodeDocument doc = createDocument();
+        byte[] bytes = this.ser.asBytes(doc);
+        byte[] truncated = new byte[bytes.length / 2];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        try {
+            RDBRow row = new RDBRow("_foo", false, false, 1, 2, 3, "\"blob\"", truncated);
+            this.ser.fromRow(Collection.NODES, row);
+            fail("should fail");
+        }
+        catch (DocumentStoreException expected) {
+        }
+    }
+
+    @Test
+    public void testJsonAndBinarySameDocument() throws UnsupportedEncodingException {
+        NodeDocument doc = createDocument();
+        NodeDocument fromJson = this.ser.fromRow(Collection.NODES, new RDBRow("_foo", false, false, 1, 2, 3,
+                "\"blob\"", this.ser.asString(doc).getBytes("UTF-8")));
+        NodeDocument fromBinary = this.ser.fromRow(Collection.NODES, new RDBRow("_foo", false, false, 1, 2, 3,
+                "\"blob\"", this.ser.asBytes(doc)));
+        assertSameProperties(fromJson, fromBinary);
+        assertSameProperties(doc, fromBinary);
+    }
+
+    private NodeDocument createDocument() {
+        NodeDocument doc = Collection.NODES.newDocument(store);
+        doc.put("_id", "_foo");
+        doc.put("s", "\u20ac\uD834\uDD1E");
+        doc.put("b", Boolean.FALSE);
+        doc.put("n", null);
+        doc.put("i", -1L);
+        Map<Revision, Object> revisions = new TreeMap<Revision, Object>(StableRevisionComparator.REVERSE);
+        Map<Revision, Object> values = new TreeMap<Revision, Object>(StableRevisionComparator.REVERSE);
+        for (int i = 0; i < 100; i++) {
+            Revision r = new Revision(1000000 + i * 10, i % 3, 1 + i % 2, i % 5 == 0);
+            revisions.put(r, "c");
+            values.put(r, i % 7 == 0 ? null : "\"value " + i + "\"");
+        }
+        doc.put("_revisions", revisions);
+        doc.put("prop", values);
+        return doc;
+    }
+
+    private static void assertSameProperties(NodeDocument expected, NodeDocument actual) {
+        for (String key : expected.keySet()) {
+            if (!"_id".equals(key)) {
+                assertEquals(key, expected.get(key), actual.get(key));
+            }
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        GZIPOutputStream gos = new GZIPOutputStream(bos);
+        gos.write(bytes);
+        gos.close();
+        return bos.toByteArray();
+    }
 }
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.segment;
+
+import static com.google.common.collect.Sets.newHashSet;
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.jackrabbit.oak.plugins.segment.memory.MemoryStore;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.junit.Test;
+
+public class ChangeIndexTest {
+
+    private final SegmentStore store = new MemoryStore();
+
+    private final ChangeIndex index = store.getTracker().getChangeIndex();
+
+    @Test
+    public void testIndexedComparison() {
+        NodeBuilder builder = EMPTY_NODE.builder();
+        for (int i = 0; i < 100; i++) {
+            builder.child("a").child("child" + i).setProperty("p", i);
+        }
+        builder.child("b");
+        SegmentNodeState base = store.getTracker().getWriter().writeNode(
+                builder.getNodeState());
+
+        builder = base.builder();
+        builder.child("a").child("child1").setProperty("p", -1);
+        builder.child("a").child("child2").remove();
+        SegmentNodeState middle = (SegmentNodeState) builder.getNodeState();
+
+        builder = middle.builder();
+        builder.child("a").child("child3").child("added");
+        builder.child("a").child("new");
+        SegmentNodeState head = (SegmentNodeState) builder.getNodeState();
+
+        List<String> first = ChangeIndex.collectChanges(base, middle, 10);
+        assertEquals(ImmutableSet.of("a/child1", "a/child2/"), newHashSet(first));
+        List<String> second = ChangeIndex.collectChanges(middle, head, 10);
+        assertEquals(ImmutableSet.of("a/child3/added/", "a/new/"), newHashSet(second));
+
+        assertNull(index.getChanges(base.getRecordId(), head.getRecordId()));
+        index.put(base.getRecordId(), middle.getRecordId(), first);
+        index.put(middle.getRecordId(), head.getRecordId(), second);
+        assertEquals(2, index.size());
+        assertNotNull(index.getChanges(base.getRecordId(), head.getRecordId()));
+
+        // the comparison along the indexed paths reports the same changes
+        assertEquals(
+                ImmutableSet.of("a/child1", "a/child2/", "a/child3/added/", "a/new/"),
+                newHashSet(ChangeIndex.collectChanges(base, head, 10)));
+    }
+
+    @Test
+    public void testRemovedAndAddedAgain() {
+        NodeBuilder builder = EMPTY_NODE.builder();
+        for (int i = 0; i < 100; i++) {
+            builder.child("a").child("child" + i);
+        }
+        builder.child("a").child("child0").child("old1");
+        builder.child("a").child("child0").child("old2");
+        builder.child("b");
+        SegmentNodeState base = store.getTracker().getWriter().writeNode(
+                builder.getNodeState());
+
+        builder = base.builder();
+        builder.child("a").child("child0").remove();
+        SegmentNodeState middle = (SegmentNodeState) builder.getNodeState();
+
+        builder = middle.builder();
+        builder.child("a").child("child0").child("new1");
+        builder.child("a").child("child0").child("new2");
+        SegmentNodeState head = (SegmentNodeState) builder.getNodeState();
+
+        List<String> first = ChangeIndex.collectChanges(base, middle, 10);
+        assertEquals(ImmutableSet.of("a/child0/"), newHashSet(first));
+        List<String> second = ChangeIndex.collectChanges(middle, head, 10);
+        assertEquals(ImmutableSet.of("a/child0/"), newHashSet(second));
+        index.put(base.getRecordId(), middle.getRecordId(), first);
+        index.put(middle.getRecordId(), head.getRecordId(), second);
+        assertNotNull(index.getChanges(base.getRecordId(), head.getRecordId()));
+
+        // the subtree of the node added again is compared completely
+        assertEquals(
+                ImmutableSet.of("a/child0/old1/", "a/child0/old2/",
+                        "a/child0/new1/", "a/child0/new2/"),
+                newHashSet(ChangeIndex.collectChanges(base, head, 10)));
+    }
+
+    @Test
+    public void testTooManyChanges() {
+        NodeBuilder builder = EMPTY_NODE.builder();
+        for (int i = 0; i < 10; i++) {
+            builder.child("child" + i);
+        }
+        assertNull(ChangeIndex.collectChanges(
+                EMPTY_NODE, builder.getNodeState(), 5));
+    }
+
+}
@@ -354,6 +354,59 @@ public class CompactionAndCleanupTest {
         }
     }
 
+    @Test
+    public void incrementalCompaction() throws IOException, CommitFailedException {
+        FileStore fileStore = new NonCachingFileStore(directory, 1);
+        try {
+            final SegmentNodeStore nodeStore = new SegmentNodeStore(fileStore);
+            CompactionStrategy strategy = new CompactionStrategy(false, false, CLEAN_ALL, 0, (byte) 0) {
+                @Override
+                public boolean compacted(@Nonnull Callable<Boolean> setHead)
+                        throws Exception {
+                    return nodeStore.locked(setHead);
+                }
+            };
+            strategy.setPersistCompactionMap(false);
+            strategy.setIncrementalCompaction(true);
+            fileStore.setCompactionStrategy(strategy);
+
+            // Fill the first tar file with content that is removed later,
+            // along with a small node that remains
+            NodeBuilder builder = nodeStore.getRoot().builder();
+            builder.setChildNode("keep").setProperty("kept", "value");
+            addContent(builder.setChildNode("garbage"));
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+            builder = nodeStore.getRoot().builder();
+            builder.getChildNode("garbage").remove();
+            addContent(builder.setChildNode("content"));
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+            fileStore.flush();
+
+            File first = new File(directory, "data00000a.tar");
+            assertTrue(first.exists());
+            long size = fileStore.size();
+
+            // Only the tar files with enough garbage are compacted, and the
+            // remaining content of these is rewritten, so that cleanup
+            // removes them completely instead of writing a new generation
+            assertTrue(fileStore.maybeCompact(false));
+            fileStore.cleanup();
+            fileStore.flush();
+
+            assertFalse(first.exists());
+            assertFalse(new File(directory, "data00000b.tar").exists());
+            assertTrue(fileStore.size() < size);
+
+            NodeState root = nodeStore.getRoot();
+            assertEquals("value", root.getChildNode("keep").getProperty("kept").getValue(STRING));
+            assertFalse(root.hasChildNode("garbage"));
+            assertEquals(10000, root.getChildNode("content").getPropertyCount());
+        } finally {
+            fileStore.close();
+        }
+    }
+
     private static void addContent(NodeBuilder builder) {
         for (int k = 0; k < 10000; k++) {
             builder.setProperty(UUID.randomUUID().toString(), UUID.randomUUID().toString());
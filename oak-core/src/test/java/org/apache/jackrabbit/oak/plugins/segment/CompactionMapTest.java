@@ -60,32 +60,38 @@ public class CompactionMapTest {
 
     @Parameterized.Parameters
     public static List<Boolean[]> fixtures() {
-        return ImmutableList.of(new Boolean[] {true}, new Boolean[] {false});
+        return ImmutableList.of(
+                new Boolean[] {true, false},
+                new Boolean[] {false, false},
+                new Boolean[] {false, true});
     }
 
-    private static PartialCompactionMap createCompactionMap(SegmentTracker tracker, SegmentWriter writer) {
+    private static PartialCompactionMap createCompactionMap(SegmentTracker tracker, SegmentWriter writer,
+            boolean useOffHeapMap) {
         if (writer != null) {
             return new PersistedCompactionMap(writer);
+        } else if (useOffHeapMap) {
+            return new OffHeapCompactionMap(tracker);
         } else {
             return new InMemoryCompactionMap(tracker);
         }
     }
 
-    public CompactionMapTest(boolean usePersistedMap) {
+    public CompactionMapTest(boolean usePersistedMap, boolean useOffHeapMap) {
         SegmentWriter writer = usePersistedMap
             ? new SegmentWriter(store, tracker, V_11)
             : null;
-        compactionMap1 = createCompactionMap(tracker, writer);
+        compactionMap1 = createCompactionMap(tracker, writer, useOffHeapMap);
         referenceMap1 = randomRecordIdMap(rnd, tracker, 10, 10);
         putAll(compactionMap1, referenceMap1);
         referenceMap.putAll(referenceMap1);
 
-        compactionMap2 = createCompactionMap(tracker, writer);
+        compactionMap2 = createCompactionMap(tracker, writer, useOffHeapMap);
         referenceMap2 = randomRecordIdMap(rnd, tracker, 10, 10);
         putAll(compactionMap2, referenceMap2);
         referenceMap.putAll(referenceMap2);
 
-        compactionMap3 = createCompactionMap(tracker, writer);
+        compactionMap3 = createCompactionMap(tracker, writer, useOffHeapMap);
         referenceMap3 = randomRecordIdMap(rnd, tracker, 10, 10);
         putAll(compactionMap3, referenceMap3);
         referenceMap.putAll(referenceMap3);
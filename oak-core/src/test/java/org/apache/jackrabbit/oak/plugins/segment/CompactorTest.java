@@ -18,11 +18,14 @@ package org.apache.jackrabbit.oak.plugins.segment;
 
 import junit.framework.Assert;
 
+import com.google.common.base.Predicates;
 import org.apache.jackrabbit.oak.Oak;
 import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
 import org.apache.jackrabbit.oak.plugins.segment.memory.MemoryStore;
 import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
 import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.gc.GCMonitor;
 import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
@@ -56,6 +59,85 @@ public class CompactorTest {
 
     }
 
+    @Test
+    public void testParallelCompactor() throws Exception {
+        MemoryStore source = new MemoryStore();
+        try {
+            SegmentNodeStore store = new SegmentNodeStore(source);
+            init(store);
+            addTestContent(store, 0);
+            String cp0 = store.checkpoint(Long.MAX_VALUE);
+            addTestContent(store, 1);
+            String cp1 = store.checkpoint(Long.MAX_VALUE);
+
+            Compactor compactor = new Compactor(source.getTracker().getWriter(),
+                    null, false, 4, GCMonitor.EMPTY);
+            SegmentNodeState head = source.getHead();
+            SegmentNodeState after = compactor.compact(EmptyNodeState.EMPTY_NODE, head);
+            Assert.assertEquals(head, after);
+            Assert.assertTrue(compactor.getCompactedNodes() > 0);
+
+            // the checkpoints are de-duplicated against the compacted root
+            NodeState checkpoints = after.getChildNode(SegmentNodeStore.CHECKPOINTS);
+            Assert.assertEquals(
+                    getRecordId(after.getChildNode("root")),
+                    getRecordId(checkpoints.getChildNode(cp1).getChildNode("root")));
+            Assert.assertEquals(
+                    getRecordId(after.getChildNode("root").getChildNode("test0")),
+                    getRecordId(checkpoints.getChildNode(cp0).getChildNode("root").getChildNode("test0")));
+
+            // compact concurrent changes on top of the compacted head
+            addTestContent(store, 2);
+            SegmentNodeState newHead = source.getHead();
+            after = compactor.compact(after, newHead);
+            Assert.assertEquals(newHead, after);
+
+            // a plain (non super root) node state
+            after = compactor.compact(EmptyNodeState.EMPTY_NODE, store.getRoot());
+            Assert.assertEquals(store.getRoot(), after);
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void testIncrementalCompactor() throws Exception {
+        MemoryStore source = new MemoryStore();
+        try {
+            NodeStore store = new SegmentNodeStore(source);
+            init(store);
+            addTestContent(store, 0);
+            SegmentNodeState head = (SegmentNodeState) store.getRoot();
+
+            // nothing included: all subtrees are retained as they are
+            Compactor compactor = new Compactor(source.getTracker().getWriter(),
+                    null, false, 1, GCMonitor.EMPTY, Predicates.<SegmentId>alwaysFalse());
+            SegmentNodeState after = compactor.compact(EmptyNodeState.EMPTY_NODE, head);
+            Assert.assertEquals(head, after);
+            Assert.assertEquals(
+                    ((SegmentNodeState) head.getChildNode("test0")).getRecordId(),
+                    ((SegmentNodeState) after.getChildNode("test0")).getRecordId());
+
+            // everything included: all subtrees are rewritten. Like for
+            // FileStore.compact() the writer must not share the caches of
+            // the writer pool, which would return the existing records
+            compactor = new Compactor(
+                    new SegmentWriter(source, source.getTracker(), SegmentVersion.V_11),
+                    null, false, 1, GCMonitor.EMPTY, Predicates.<SegmentId>alwaysTrue());
+            after = compactor.compact(EmptyNodeState.EMPTY_NODE, head);
+            Assert.assertEquals(head, after);
+            Assert.assertFalse(
+                    ((SegmentNodeState) head.getChildNode("test0")).getRecordId().equals(
+                    ((SegmentNodeState) after.getChildNode("test0")).getRecordId()));
+        } finally {
+            source.close();
+        }
+    }
+
+    private static RecordId getRecordId(NodeState state) {
+        return ((SegmentNodeState) state).getRecordId();
+    }
+
     private static void init(NodeStore store) {
         new Oak(store).with(new OpenSecurityProvider())
                 .createContentRepository();
@@ -16,10 +16,14 @@
  */
 package org.apache.jackrabbit.oak.plugins.segment;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -135,4 +139,88 @@ public class MergeTest {
         background.join();
     }
 
+    @Test
+    public void testParallelCommitHooks() throws Exception {
+        final SegmentNodeStore store = SegmentNodeStore
+                .newSegmentNodeStore(new MemoryStore())
+                .withOptimisticCommits(true)
+                .create();
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final CommitHook hook = new CommitHook() {
+            @Override @Nonnull
+            public NodeState processCommit(
+                    NodeState before, NodeState after, CommitInfo info) {
+                try {
+                    // only passes if both hooks run at the same time
+                    barrier.await(10, SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                return after;
+            }
+        };
+
+        Thread background = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    NodeBuilder a = store.getRoot().builder();
+                    a.setProperty("foo", "abc");
+                    store.merge(a, hook, CommitInfo.EMPTY);
+                } catch (CommitFailedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        background.start();
+
+        NodeBuilder b = store.getRoot().builder();
+        b.setProperty("bar", "xyz");
+        store.merge(b, hook, CommitInfo.EMPTY);
+        background.join();
+
+        assertTrue(store.getRoot().hasProperty("foo"));
+        assertTrue(store.getRoot().hasProperty("bar"));
+
+        SegmentCommitStats stats = store.getCommitStats();
+        assertEquals(2, stats.getCommitCount());
+        assertEquals(0, stats.getRetryCount());
+        assertEquals(0, stats.getFallbackCount());
+    }
+
+    @Test
+    public void testOptimisticCommitConflict() throws Exception {
+        final SegmentNodeStore store = SegmentNodeStore
+                .newSegmentNodeStore(new MemoryStore())
+                .withOptimisticCommits(true)
+                .create();
+        final CountDownLatch committed = new CountDownLatch(1);
+
+        NodeBuilder a = store.getRoot().builder();
+        a.setProperty("foo", "abc");
+        final NodeBuilder b = store.getRoot().builder();
+        b.setProperty("foo", "xyz");
+
+        final AtomicBoolean first = new AtomicBoolean(true);
+        store.merge(a, new CommitHook() {
+            @Override @Nonnull
+            public NodeState processCommit(
+                    NodeState before, NodeState after, CommitInfo info)
+                    throws CommitFailedException {
+                if (first.getAndSet(false)) {
+                    // commit a conflicting change while this hook runs
+                    store.merge(b, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+                    committed.countDown();
+                }
+                return after;
+            }
+        }, CommitInfo.EMPTY);
+
+        assertEquals(0, committed.getCount());
+        SegmentCommitStats stats = store.getCommitStats();
+        assertEquals(2, stats.getCommitCount());
+        assertEquals(1, stats.getRetryCount());
+        assertEquals(0, stats.getFallbackCount());
+    }
+
 }
@@ -64,6 +64,7 @@ public class PartialCompactionMapTest {
 
     private final Random rnd = new Random(SEED);
     private final boolean usePersistedMap;
+    private final boolean useOffHeapMap;
 
     private File directory;
     private SegmentStore segmentStore;
@@ -73,11 +74,15 @@ public class PartialCompactionMapTest {
 
     @Parameterized.Parameters
     public static List<Boolean[]> fixtures() {
-        return ImmutableList.of(new Boolean[] {true}, new Boolean[] {false});
+        return ImmutableList.of(
+                new Boolean[] {true, false},
+                new Boolean[] {false, false},
+                new Boolean[] {false, true});
     }
 
-    public PartialCompactionMapTest(boolean usePersistedMap) {
+    public PartialCompactionMapTest(boolean usePersistedMap, boolean useOffHeapMap) {
         this.usePersistedMap = usePersistedMap;
+        this.useOffHeapMap = useOffHeapMap;
     }
 
     @Before
@@ -103,6 +108,8 @@ public class PartialCompactionMapTest {
         SegmentWriter writer = new SegmentWriter(segmentStore, getTracker(), V_11);
         if (usePersistedMap) {
             return new PersistedCompactionMap(writer);
+        } else if (useOffHeapMap) {
+            return new OffHeapCompactionMap(writer.getTracker());
         } else {
             return new InMemoryCompactionMap(writer.getTracker());
         }
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.segment;
+
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newHashSet;
+import static org.apache.jackrabbit.oak.plugins.segment.Segment.MAX_SEGMENT_SIZE;
+import static org.apache.jackrabbit.oak.plugins.segment.Segment.RECORD_ALIGN_BITS;
+import static org.apache.jackrabbit.oak.plugins.segment.TestUtils.newValidOffset;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.jackrabbit.oak.plugins.segment.memory.MemoryStore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class PrimitiveRecordIdSetTest {
+
+    private final SegmentTracker tracker = new MemoryStore().getTracker();
+
+    private final boolean offHeap;
+
+    @Parameters
+    public static Collection<Object[]> fixtures() {
+        return Arrays.asList(new Object[][] {{false}, {true}});
+    }
+
+    public PrimitiveRecordIdSetTest(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    private RecordId newRecordId(Random r, SegmentId[] segments) {
+        return new RecordId(
+                segments[r.nextInt(segments.length)],
+                newValidOffset(r, 0, MAX_SEGMENT_SIZE));
+    }
+
+    private SegmentId[] newSegmentIds(int count) {
+        SegmentId[] ids = new SegmentId[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = i % 2 == 0
+                    ? tracker.newDataSegmentId()
+                    : tracker.newBulkSegmentId();
+        }
+        return ids;
+    }
+
+    @Test
+    public void testSet() {
+        int seed = new Random().nextInt();
+        Random r = new Random(seed);
+        SegmentId[] segments = newSegmentIds(100);
+
+        PrimitiveRecordIdSet set = new PrimitiveRecordIdSet(0, offHeap);
+        Set<RecordId> reference = newHashSet();
+        for (int i = 0; i < 100000; i++) {
+            RecordId id = newRecordId(r, segments);
+            assertEquals("Failed with seed " + seed,
+                    reference.add(id), set.addIfNotPresent(id));
+        }
+        assertEquals("Failed with seed " + seed, reference.size(), set.size());
+
+        for (RecordId id : reference) {
+            assertTrue("Failed with seed " + seed, set.contains(id));
+        }
+        for (int i = 0; i < 10000; i++) {
+            RecordId id = newRecordId(r, segments);
+            assertEquals("Failed with seed " + seed,
+                    reference.contains(id), set.contains(id));
+        }
+    }
+
+    @Test
+    public void testMap() {
+        int seed = new Random().nextInt();
+        Random r = new Random(seed);
+        SegmentId[] segments = newSegmentIds(100);
+
+        PrimitiveRecordIdMap map = new PrimitiveRecordIdMap(tracker, 0, offHeap);
+        Map<RecordId, RecordId> reference = newHashMap();
+        for (int i = 0; i < 100000; i++) {
+            RecordId key = newRecordId(r, segments);
+            RecordId value = newRecordId(r, segments);
+            reference.put(key, value);
+            map.put(key, value);
+        }
+        assertEquals("Failed with seed " + seed, reference.size(), map.size());
+
+        for (Entry<RecordId, RecordId> entry : reference.entrySet()) {
+            assertEquals("Failed with seed " + seed,
+                    entry.getValue(), map.get(entry.getKey()));
+        }
+
+        int count = 0;
+        for (Entry<RecordId, RecordId> entry : map) {
+            assertEquals("Failed with seed " + seed,
+                    reference.get(entry.getKey()), entry.getValue());
+            count++;
+        }
+        assertEquals("Failed with seed " + seed, reference.size(), count);
+    }
+
+    @Test
+    public void testEmpty() {
+        RecordId id = new RecordId(tracker.newDataSegmentId(), 0);
+        PrimitiveRecordIdMap map = new PrimitiveRecordIdMap(tracker, 0, offHeap);
+        assertTrue(map.isEmpty());
+        assertNull(map.get(id));
+        assertFalse(map.iterator().hasNext());
+        assertFalse(new PrimitiveRecordIdSet(0, offHeap).contains(id));
+    }
+
+    @Test
+    public void testZeroIds() {
+        SegmentId zero = tracker.getSegmentId(0, 0);
+        PrimitiveRecordIdSet set = new PrimitiveRecordIdSet(0, offHeap);
+        PrimitiveRecordIdMap map = new PrimitiveRecordIdMap(tracker, 0, offHeap);
+        Map<RecordId, RecordId> reference = newHashMap();
+        for (int i = 0; i < 100; i++) {
+            RecordId id = new RecordId(zero, i << RECORD_ALIGN_BITS);
+            assertTrue(set.addIfNotPresent(id));
+            map.put(id, id);
+            reference.put(id, id);
+        }
+        assertEquals(reference.size(), set.size());
+        assertEquals(reference.size(), map.size());
+
+        int count = 0;
+        for (Entry<RecordId, RecordId> entry : map) {
+            assertTrue(set.contains(entry.getKey()));
+            assertEquals(reference.get(entry.getKey()), entry.getValue());
+            count++;
+        }
+        assertEquals(reference.size(), count);
+    }
+
+}
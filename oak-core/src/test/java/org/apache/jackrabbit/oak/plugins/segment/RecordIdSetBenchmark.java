@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.segment;
+
+import static com.google.common.collect.Maps.newHashMap;
+import static org.apache.jackrabbit.oak.plugins.segment.Segment.MAX_SEGMENT_SIZE;
+import static org.apache.jackrabbit.oak.plugins.segment.TestUtils.newValidOffset;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.jackrabbit.oak.plugins.segment.memory.MemoryStore;
+
+/**
+ * Compares the heap footprint and the lookup throughput of
+ * {@link RecordIdSet} and {@link PrimitiveRecordIdSet}, and of a
+ * {@code HashMap} and a {@link PrimitiveRecordIdMap} of record ids.
+ * Run with a fixed heap size, e.g. {@code -Xmx2g}, for comparable
+ * footprint numbers.
+ */
+public class RecordIdSetBenchmark {
+
+    private static final int SEGMENTS = 10000;
+
+    private static final int RECORDS = 2000000;
+
+    public static void main(String... args) {
+        for (int i = 0; i < 3; i++) {
+            test();
+        }
+    }
+
+    private static void test() {
+        SegmentTracker tracker = new MemoryStore().getTracker();
+        Random r = new Random(1);
+        SegmentId[] segments = new SegmentId[SEGMENTS];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = tracker.newDataSegmentId();
+        }
+        RecordId[] ids = new RecordId[RECORDS];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = new RecordId(
+                    segments[r.nextInt(segments.length)],
+                    newValidOffset(r, 0, MAX_SEGMENT_SIZE));
+        }
+
+        long heap = usedHeap();
+        long time = System.currentTimeMillis();
+        RecordIdSet set = new RecordIdSet();
+        for (RecordId id : ids) {
+            set.addIfNotPresent(id);
+        }
+        long insert = System.currentTimeMillis() - time;
+        long footprint = usedHeap() - heap;
+        time = System.currentTimeMillis();
+        int found = 0;
+        for (RecordId id : ids) {
+            if (set.contains(id)) {
+                found++;
+            }
+        }
+        print("RecordIdSet", insert, System.currentTimeMillis() - time, footprint, found);
+        set = null;
+
+        for (boolean offHeap : new boolean[] { false, true }) {
+            heap = usedHeap();
+            time = System.currentTimeMillis();
+            PrimitiveRecordIdSet primitiveSet = new PrimitiveRecordIdSet(0, offHeap);
+            for (RecordId id : ids) {
+                primitiveSet.addIfNotPresent(id);
+            }
+            insert = System.currentTimeMillis() - time;
+            footprint = offHeap ? primitiveSet.getTableSize() : usedHeap() - heap;
+            time = System.currentTimeMillis();
+            found = 0;
+            for (RecordId id : ids) {
+                if (primitiveSet.contains(id)) {
+                    found++;
+                }
+            }
+            print(offHeap ? "PrimitiveRecordIdSet (off-heap)" : "PrimitiveRecordIdSet",
+                    insert, System.currentTimeMillis() - time, footprint, found);
+        }
+
+        // the record ids are shared with the ids array, so only the map
+        // entries account for the footprint of the HashMap
+        heap = usedHeap();
+        time = System.currentTimeMillis();
+        Map<RecordId, RecordId> map = newHashMap();
+        for (int i = 0; i < ids.length; i++) {
+            map.put(ids[i], ids[ids.length - i - 1]);
+        }
+        insert = System.currentTimeMillis() - time;
+        footprint = usedHeap() - heap;
+        time = System.currentTimeMillis();
+        found = 0;
+        for (RecordId id : ids) {
+            if (map.get(id) != null) {
+                found++;
+            }
+        }
+        print("HashMap", insert, System.currentTimeMillis() - time, footprint, found);
+        map = null;
+
+        for (boolean offHeap : new boolean[] { false, true }) {
+            heap = usedHeap();
+            time = System.currentTimeMillis();
+            PrimitiveRecordIdMap primitiveMap = new PrimitiveRecordIdMap(tracker, 0, offHeap);
+            for (int i = 0; i < ids.length; i++) {
+                primitiveMap.put(ids[i], ids[ids.length - i - 1]);
+            }
+            insert = System.currentTimeMillis() - time;
+            footprint = offHeap ? primitiveMap.getTableSize() : usedHeap() - heap;
+            time = System.currentTimeMillis();
+            found = 0;
+            for (RecordId id : ids) {
+                if (primitiveMap.get(id) != null) {
+                    found++;
+                }
+            }
+            print(offHeap ? "PrimitiveRecordIdMap (off-heap)" : "PrimitiveRecordIdMap",
+                    insert, System.currentTimeMillis() - time, footprint, found);
+        }
+        System.out.println();
+    }
+
+    private static void print(String name, long insert, long lookup, long footprint, int found) {
+        System.out.printf("%-32s insert: %5d ms, lookup: %5d ms (%d found), footprint: %6d kB%n",
+                name, insert, lookup, found, footprint >> 10);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -188,6 +188,69 @@ public class RecordTest {
         assertEquals(builder.toString(), segment.readString(large));
     }
 
+    @Test
+    public void testDeduplication() {
+        WriterCacheManager caches =
+                store.getTracker().getWriterPool().getCacheManager();
+
+        RecordId first = writer.writeString(hello);
+        RecordId second = writer.writeString(new String(hello));
+        assertEquals(first, second);
+        assertTrue(caches.getStringCacheStats().getHitCount() > 0);
+
+        NodeBuilder builder = EMPTY_NODE.builder();
+        builder.setProperty("foo", "abc");
+        builder.child("bar").setProperty("baz", "qux");
+        NodeState node = builder.getNodeState();
+        SegmentNodeState one = writer.writeNode(node);
+        SegmentNodeState two = writer.writeNode(node);
+        assertEquals(one.getRecordId(), two.getRecordId());
+        assertTrue(caches.getTemplateCacheStats().getHitCount() > 0);
+        assertTrue(caches.getNodeCacheStats().getHitCount() > 0);
+
+        caches.clear();
+        assertEquals(0, caches.getNodeCacheStats().getElementCount());
+    }
+
+    @Test
+    public void testNoDeduplicationAcrossCompaction() {
+        NodeBuilder builder = EMPTY_NODE.builder();
+        builder.setProperty("foo", "abc");
+        NodeState node = builder.getNodeState();
+
+        RecordId string = writer.writeString(hello);
+        SegmentNodeState one = writer.writeNode(node);
+
+        // records cached before a compaction are not reused after it
+        SegmentTracker tracker = store.getTracker();
+        tracker.setCompactionMap(new InMemoryCompactionMap(tracker));
+        assertFalse(string.equals(writer.writeString(hello)));
+        assertFalse(one.getRecordId().equals(writer.writeNode(node).getRecordId()));
+
+        assertEquals(writer.writeString(hello), writer.writeString(hello));
+    }
+
+    @Test
+    public void testSubtreeDeduplication() {
+        NodeBuilder content = EMPTY_NODE.builder();
+        content.setProperty("jcr:primaryType", "nt:unstructured");
+        content.setProperty("tags", Arrays.asList("a", "b", "c"), STRINGS);
+        for (int i = 0; i < 100; i++) {
+            content.child("child" + i).setProperty("index", "value" + i);
+        }
+
+        NodeBuilder builder = EMPTY_NODE.builder();
+        builder.setChildNode("one").setChildNode("jcr:content", content.getNodeState());
+        builder.setChildNode("two").setChildNode("jcr:content", content.getNodeState());
+        SegmentNodeState state = writer.writeNode(builder.getNodeState());
+
+        // the copy resolves to the record of the original subtree
+        SegmentNodeState one = (SegmentNodeState) state.getChildNode("one");
+        SegmentNodeState two = (SegmentNodeState) state.getChildNode("two");
+        assertEquals(one.getRecordId(), two.getRecordId());
+        assertEquals(content.getNodeState(), one.getChildNode("jcr:content"));
+    }
+
     @Test
     public void testMapRecord() {
         RecordId blockId = writer.writeBlock(bytes, 0, bytes.length);
@@ -31,6 +31,8 @@ import static org.apache.jackrabbit.oak.plugins.segment.Segment.MEDIUM_LIMIT;
 import static org.apache.jackrabbit.oak.plugins.segment.Segment.SMALL_LIMIT;
 import static org.apache.jackrabbit.oak.plugins.segment.SegmentVersion.V_10;
 import static org.apache.jackrabbit.oak.plugins.segment.SegmentVersion.V_11;
+import static org.apache.jackrabbit.oak.plugins.segment.WriterCacheManager.DEFAULT_STRING_CACHE_SIZE;
+import static org.apache.jackrabbit.oak.plugins.segment.WriterCacheManager.DEFAULT_TEMPLATE_CACHE_SIZE;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -69,7 +71,9 @@ public class RecordUsageAnalyserTest {
         store = mock(SegmentStore.class);
         SegmentTracker tracker = new SegmentTracker(store);
         when(store.getTracker()).thenReturn(tracker);
-        writer = new SegmentWriter(store, store.getTracker(), segmentVersion);
+        // no node deduplication, so that each node is counted as written
+        writer = new SegmentWriter(store, store.getTracker(), segmentVersion,
+                new WriterCacheManager(DEFAULT_STRING_CACHE_SIZE, DEFAULT_TEMPLATE_CACHE_SIZE, 0));
         analyser = new RecordUsageAnalyser();
     }
 
@@ -20,6 +20,7 @@
 package org.apache.jackrabbit.oak.plugins.segment.file;
 
 import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
@@ -87,8 +88,9 @@ public class CompactionEstimatorTest {
         fileStore.flush();
         try {
             // should be at 66%
-            assertTrue(fileStore.estimateCompactionGain()
-                    .estimateCompactionGain(0) > 60);
+            CompactionGainEstimate estimate = fileStore.estimateCompactionGain();
+            assertTrue(estimate.estimateCompactionGain(0) > 60);
+            assertFalse(estimate.getCompactableFiles(60).isEmpty());
         } finally {
             fileStore.close();
         }
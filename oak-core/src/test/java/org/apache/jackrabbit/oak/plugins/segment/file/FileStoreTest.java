@@ -22,6 +22,7 @@ import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
 import static org.apache.jackrabbit.oak.plugins.segment.SegmentVersion.V_11;
+import static org.apache.jackrabbit.oak.plugins.segment.file.FileStore.newFileStore;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -32,17 +33,26 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.base.Strings;
 import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
 import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
 import org.apache.jackrabbit.oak.plugins.segment.Compactor;
 import org.apache.jackrabbit.oak.plugins.segment.RecordId;
 import org.apache.jackrabbit.oak.plugins.segment.Segment;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentBlob;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentIOStats;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeBuilder;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeState;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeStore;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentWriter;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.gc.GCMonitor;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -256,4 +266,343 @@ public class FileStoreTest {
         }
     }
 
+    @Test
+    public void commitDurability() throws Exception {
+        final FileStore store = newFileStore(directory)
+                .withDurability(Durability.COMMIT)
+                .withFlushInterval(Integer.MAX_VALUE)
+                .create();
+        try {
+            final SegmentNodeStore nodeStore = new SegmentNodeStore(store);
+            List<Thread> threads = newArrayList();
+            for (int k = 0; k < 4; k++) {
+                final String name = "t" + k;
+                threads.add(new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 0; i < 10; i++) {
+                                NodeBuilder builder = nodeStore.getRoot().builder();
+                                builder.setProperty(name, i);
+                                nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+                            }
+                        } catch (CommitFailedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                });
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            // without waiting for the flush interval the head is persisted
+            JournalReader journal = new JournalReader(new File(directory, "journal.log"));
+            try {
+                assertEquals(store.getHead().getRecordId().toString10(),
+                        journal.iterator().next());
+            } finally {
+                journal.close();
+            }
+            assertTrue(store.getFlushStats().getFlushCount() > 0);
+            assertFalse(store.getFlushStats().getCommitWaitTimeHistogram().isEmpty());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void concurrentWriters() throws Exception {
+        FileStore store = newFileStore(directory)
+                .withWriterPoolSize(4)
+                .create();
+        try {
+            final SegmentNodeStore nodeStore = new SegmentNodeStore(store);
+            List<Thread> threads = newArrayList();
+            for (int k = 0; k < 4; k++) {
+                final String name = "t" + k;
+                threads.add(new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 0; i < 10; i++) {
+                                NodeBuilder builder = nodeStore.getRoot().builder();
+                                NodeBuilder parent = builder.child(name);
+                                for (int j = 0; j < 100; j++) {
+                                    parent.child("n" + i + "-" + j).setProperty("p", name + j);
+                                }
+                                nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+                            }
+                        } catch (CommitFailedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                });
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertTrue(store.getTracker().getWriterPool().getWriters().size() > 1);
+        } finally {
+            store.close();
+        }
+
+        store = newFileStore(directory).create();
+        try {
+            NodeState root = store.getHead().getChildNode("root");
+            for (int k = 0; k < 4; k++) {
+                NodeState parent = root.getChildNode("t" + k);
+                assertEquals(1000, parent.getChildNodeCount(Long.MAX_VALUE));
+                assertEquals("t" + k + "99", parent.getChildNode("n9-99")
+                        .getString("p"));
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void compression() throws Exception {
+        FileStore store = newFileStore(directory)
+                .withCompression(true)
+                .create();
+        try {
+            SegmentNodeStore nodeStore = new SegmentNodeStore(store);
+            NodeBuilder builder = nodeStore.getRoot().builder();
+            for (int i = 0; i < 1000; i++) {
+                builder.child("n" + i).setProperty("p", "value " + i);
+            }
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+            builder = nodeStore.getRoot().builder();
+            builder.child("n0").remove();
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+            store.flush();
+            store.cleanup();
+        } finally {
+            store.close();
+        }
+
+        // compressed segments are read regardless of the setting
+        store = newFileStore(directory).create();
+        try {
+            NodeState root = store.getHead().getChildNode("root");
+            assertEquals(999, root.getChildNodeCount(Long.MAX_VALUE));
+            assertEquals("value 999", root.getChildNode("n999").getString("p"));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void prefetch() throws Exception {
+        FileStore store = newFileStore(directory).create();
+        try {
+            SegmentNodeStore nodeStore = new SegmentNodeStore(store);
+            NodeBuilder builder = nodeStore.getRoot().builder();
+            for (int i = 0; i < 100; i++) {
+                NodeBuilder child = builder.child("c" + i);
+                for (int j = 0; j < 100; j++) {
+                    child.child("n" + j).setProperty("p", Strings.repeat("x", 100) + i + "-" + j);
+                }
+            }
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        } finally {
+            store.close();
+        }
+
+        store = newFileStore(directory)
+                .withPrefetchDepth(2)
+                .withPrefetchThreads(2)
+                .create();
+        try {
+            NodeState root = store.getHead().getChildNode("root");
+            for (int i = 0; i < 100; i++) {
+                NodeState child = root.getChildNode("c" + i);
+                for (int j = 0; j < 100; j++) {
+                    assertEquals(Strings.repeat("x", 100) + i + "-" + j,
+                            child.getChildNode("n" + j).getString("p"));
+                }
+            }
+            SegmentPrefetcher prefetcher = store.getPrefetcher();
+            assertEquals(2, prefetcher.getDepth());
+            assertTrue(prefetcher.getMissCount() > 0);
+            assertEquals(prefetcher.getHitCount(), prefetcher.getHitRate()
+                    * (prefetcher.getHitCount() + prefetcher.getMissCount()), 0.001);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void cleanupKeepsReachableSegments() throws Exception {
+        final AtomicLong reclaimed = new AtomicLong(-1);
+        final AtomicLong current = new AtomicLong(-1);
+        FileStore store = newFileStore(directory)
+                .withMaxFileSize(1)
+                .withGCMonitor(new GCMonitor.Empty() {
+                    @Override
+                    public void cleaned(long reclaimedSize, long currentSize) {
+                        reclaimed.set(reclaimedSize);
+                        current.set(currentSize);
+                    }
+                })
+                .create();
+        try {
+            // random values are neither deduplicated nor compressible,
+            // so the revisions spread over several tar files
+            String[][] values = newRandomValues(10, 100, 4000);
+            SegmentNodeStore nodeStore = new SegmentNodeStore(store);
+            for (int k = 0; k < 10; k++) {
+                NodeBuilder builder = nodeStore.getRoot().builder();
+                for (int i = 0; i < 100; i++) {
+                    builder.child("n" + i).setProperty("p", values[k][i]);
+                }
+                nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+                store.flush();
+            }
+            assertTrue(countTarFiles(directory) > 1);
+            store.cleanup();
+
+            assertTrue(reclaimed.get() >= 0);
+            assertTrue(current.get() > 0);
+            NodeState root = store.getHead().getChildNode("root");
+            for (int i = 0; i < 100; i++) {
+                assertEquals(values[9][i],
+                        root.getChildNode("n" + i).getString("p"));
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void tieredStorage() throws Exception {
+        File coldDirectory = new File(directory, "cold");
+        FileStore store = newFileStore(directory)
+                .withMaxFileSize(1)
+                .withColdDirectory(coldDirectory)
+                .withHotFileCount(1)
+                .withColdReadThreshold(Integer.MAX_VALUE)
+                .create();
+        String[][] values = newRandomValues(5, 100, 10000);
+        try {
+            SegmentNodeStore nodeStore = new SegmentNodeStore(store);
+            for (int k = 0; k < 5; k++) {
+                NodeBuilder builder = nodeStore.getRoot().builder();
+                for (int i = 0; i < 100; i++) {
+                    builder.child("n" + k).child("c" + i).setProperty(
+                            "p", values[k][i]);
+                }
+                nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+                store.flush();
+            }
+            assertTrue(countTarFiles(directory) > 1);
+
+            // all but the most recent tar file are rarely read
+            store.migrateTarFiles();
+            store.flush();
+            assertTrue(countTarFiles(coldDirectory) > 0);
+            assertTiered(store.getHead().getChildNode("root"), values);
+        } finally {
+            store.close();
+        }
+
+        // tar files are opened from both tiers
+        store = newFileStore(directory)
+                .withColdDirectory(coldDirectory)
+                .create();
+        try {
+            assertTiered(store.getHead().getChildNode("root"), values);
+
+            // recent tar files are moved back to the main directory
+            int total = countTarFiles(directory) + countTarFiles(coldDirectory);
+            store.migrateTarFiles();
+            store.flush();
+            assertEquals(0, countTarFiles(coldDirectory));
+            assertTrue(countTarFiles(directory) >= total);
+            assertTiered(store.getHead().getChildNode("root"), values);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void ioStatistics() throws Exception {
+        FileStore store = newFileStore(directory).create();
+        try {
+            SegmentNodeStore nodeStore = new SegmentNodeStore(store);
+            NodeBuilder builder = nodeStore.getRoot().builder();
+            for (int i = 0; i < 100; i++) {
+                builder.child("n" + i).setProperty("p", "value " + i);
+            }
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+            store.flush();
+
+            SegmentIOStats stats = store.getTracker().getIOStats();
+            assertTrue(stats.getBytesWritten() > 0);
+            assertTrue(stats.getFlushCount() > 0);
+        } finally {
+            store.close();
+        }
+
+        store = newFileStore(directory).create();
+        try {
+            NodeState root = store.getHead().getChildNode("root");
+            assertEquals("value 99", root.getChildNode("n99").getString("p"));
+
+            SegmentIOStats stats = store.getTracker().getIOStats();
+            assertTrue(stats.getTarFileOpenCount() > 0);
+            assertTrue(stats.getCacheMissCount() > 0);
+            assertTrue(stats.getBytesRead() > 0);
+            assertFalse(stats.getCacheMissLatencyHistogram().isEmpty());
+        } finally {
+            store.close();
+        }
+    }
+
+    private static void assertTiered(NodeState root, String[][] values) {
+        for (int k = 0; k < values.length; k++) {
+            NodeState node = root.getChildNode("n" + k);
+            for (int i = 0; i < values[k].length; i++) {
+                assertEquals(values[k][i],
+                        node.getChildNode("c" + i).getString("p"));
+            }
+        }
+    }
+
+    private static int countTarFiles(File directory) {
+        int count = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".tar")) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static String[][] newRandomValues(int revisions, int count, int length) {
+        Random random = new Random();
+        String[][] values = new String[revisions][count];
+        for (int k = 0; k < revisions; k++) {
+            for (int i = 0; i < count; i++) {
+                char[] chars = new char[length];
+                for (int j = 0; j < length; j++) {
+                    chars[j] = (char) ('a' + random.nextInt(26));
+                }
+                values[k][i] = new String(chars);
+            }
+        }
+        return values;
+    }
+
 }
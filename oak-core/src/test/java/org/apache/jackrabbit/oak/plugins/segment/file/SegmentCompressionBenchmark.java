@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.segment.file;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Compares the disk footprint and the read latency of tar files with
+ * uncompressed and with compressed data segments.
+ */
+public class SegmentCompressionBenchmark {
+
+    private static final int SEGMENT_COUNT = 1000;
+
+    private static final int SEGMENT_SIZE = 256 * 1024;
+
+    private static final int READS = 20000;
+
+    private static final String[] NAMES = {
+            "jcr:primaryType", "jcr:mixinTypes", "jcr:created", "jcr:createdBy",
+            "jcr:lastModified", "jcr:title", "jcr:description", "sling:resourceType",
+            "nt:unstructured", "oak:Unstructured", "rep:versionable", "mix:referenceable" };
+
+    public static void main(String... args) throws Exception {
+        File raw = File.createTempFile("SegmentCompressionBenchmark", ".tar", new File("target"));
+        File compressed = File.createTempFile("SegmentCompressionBenchmark", ".tar", new File("target"));
+        try {
+            long[][] ids = createTarFile(raw, false);
+            createTarFile(compressed, true);
+            System.out.printf("uncompressed: %6d kB%n", raw.length() >> 10);
+            System.out.printf("compressed:   %6d kB (%d%%)%n",
+                    compressed.length() >> 10, compressed.length() * 100 / raw.length());
+
+            for (int i = 0; i < 3; i++) {
+                test("mapped", raw, compressed, true, false, ids);
+                test("random", raw, compressed, false, false, ids);
+                test("positional", raw, compressed, false, true, ids);
+            }
+        } finally {
+            raw.delete();
+            compressed.delete();
+        }
+    }
+
+    /**
+     * Creates a tar file of data segments that resemble real ones: short
+     * records of property names, node types, values and record ids.
+     */
+    private static long[][] createTarFile(File file, boolean compress)
+            throws IOException {
+        Random r = new Random(1);
+        long[][] ids = new long[SEGMENT_COUNT][];
+        TarWriter writer = new TarWriter(file, compress);
+        try {
+            for (int i = 0; i < SEGMENT_COUNT; i++) {
+                UUID id = new UUID(r.nextLong(), r.nextLong());
+                ids[i] = new long[] {
+                        id.getMostSignificantBits(),
+                        (id.getLeastSignificantBits() & (-1L >>> 4)) | (0xAL << 60) };
+                byte[] data = createSegment(r);
+                writer.writeEntry(ids[i][0], ids[i][1], data, 0, data.length);
+            }
+        } finally {
+            writer.close();
+        }
+        return ids;
+    }
+
+    private static byte[] createSegment(Random r) {
+        byte[] data = new byte[SEGMENT_SIZE];
+        data[0] = '0';
+        data[1] = 'a';
+        data[2] = 'K';
+        data[3] = 11;
+        int pos = 16;
+        while (pos < SEGMENT_SIZE - 64) {
+            byte[] name = NAMES[r.nextInt(NAMES.length)].getBytes(UTF_8);
+            data[pos++] = (byte) name.length;
+            System.arraycopy(name, 0, data, pos, name.length);
+            pos += name.length;
+            // a record id and a value of a few random bytes
+            for (int k = r.nextInt(12); k > 0; k--) {
+                data[pos++] = (byte) r.nextInt();
+            }
+        }
+        return data;
+    }
+
+    private static void test(String name, File raw, File compressed,
+            boolean memoryMapping, boolean positionalReads, long[][] ids)
+            throws IOException {
+        System.out.printf("%-10s uncompressed: %6d ns/read, compressed: %6d ns/read%n",
+                name,
+                read(raw, memoryMapping, positionalReads, ids),
+                read(compressed, memoryMapping, positionalReads, ids));
+    }
+
+    private static long read(File file, boolean memoryMapping,
+            boolean positionalReads, long[][] ids) throws IOException {
+        TarReader reader = TarReader.open(file, memoryMapping, positionalReads);
+        try {
+            Random r = new Random(1);
+            long n = 0;
+            long time = System.nanoTime();
+            for (int i = 0; i < READS; i++) {
+                long[] id = ids[r.nextInt(ids.length)];
+                // touch the data so mapped reads are not free
+                n += reader.readEntry(id[0], id[1]).get(SEGMENT_SIZE / 2);
+            }
+            time = System.nanoTime() - time;
+            if (n == 42) {
+                System.out.println(); // keep the reads from being optimized away
+            }
+            return time / READS;
+        } finally {
+            reader.close();
+        }
+    }
+
+}
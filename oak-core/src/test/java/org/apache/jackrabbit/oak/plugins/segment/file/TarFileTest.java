@@ -17,11 +17,16 @@
 package org.apache.jackrabbit.oak.plugins.segment.file;
 
 import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.collect.Lists.newArrayList;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 
 import org.junit.Before;
@@ -51,16 +56,16 @@ public class TarFileTest {
             writer.close();
         }
 
-        assertEquals(4096, file.length());
+        assertEquals(5120, file.length());
 
-        TarReader reader = TarReader.open(file, false);
+        TarReader reader = TarReader.open(file, false, false);
         try {
             assertEquals(ByteBuffer.wrap(data), reader.readEntry(msb, lsb));
         } finally {
             reader.close();
         }
 
-        reader = TarReader.open(file, false);
+        reader = TarReader.open(file, false, true);
         try {
             assertEquals(ByteBuffer.wrap(data), reader.readEntry(msb, lsb));
         } finally {
@@ -68,4 +73,122 @@ public class TarFileTest {
         }
     }
 
+    @Test
+    public void testInterruptedPositionalRead() throws IOException {
+        UUID id = UUID.randomUUID();
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits() & (-1 >>> 4); // OAK-1672
+        byte[] data = "Hello, World!".getBytes(UTF_8);
+
+        TarWriter writer = new TarWriter(file);
+        try {
+            writer.writeEntry(msb, lsb, data, 0, data.length);
+        } finally {
+            writer.close();
+        }
+
+        TarReader reader = TarReader.open(file, false, true);
+        try {
+            // an interrupt closes the file channel while reading
+            Thread.currentThread().interrupt();
+            assertEquals(ByteBuffer.wrap(data), reader.readEntry(msb, lsb));
+            assertTrue(Thread.interrupted());
+            assertEquals(ByteBuffer.wrap(data), reader.readEntry(msb, lsb));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testCompressedWriteAndRead() throws IOException {
+        UUID id = UUID.randomUUID();
+        long msb = id.getMostSignificantBits();
+        long lsb = (id.getLeastSignificantBits() & (-1L >>> 4)) | (0xAL << 60);
+        byte[] data = new byte[16 * 1024];
+        Arrays.fill(data, (byte) 'x');
+        data[0] = '0';
+        data[1] = 'a';
+        data[2] = 'K';
+        data[3] = 11;
+        data[5] = 0; // no references
+
+        TarWriter writer = new TarWriter(file, true);
+        try {
+            writer.writeEntry(msb, lsb, data, 0, data.length);
+            assertEquals(ByteBuffer.wrap(data), writer.readEntry(msb, lsb));
+        } finally {
+            writer.close();
+        }
+
+        assertTrue(file.length() < data.length);
+
+        for (boolean memoryMapping : new boolean[] { false, true }) {
+            TarReader reader = TarReader.open(file, memoryMapping, false);
+            try {
+                assertEquals(ByteBuffer.wrap(data), reader.readEntry(msb, lsb));
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void testBloomFilter() throws IOException {
+        List<UUID> ids = newArrayList();
+        byte[] data = "Hello, World!".getBytes(UTF_8);
+        TarWriter writer = new TarWriter(file);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                UUID id = UUID.randomUUID();
+                long lsb = id.getLeastSignificantBits() & (-1 >>> 4); // OAK-1672
+                id = new UUID(id.getMostSignificantBits(), lsb);
+                writer.writeEntry(id.getMostSignificantBits(), lsb, data, 0, data.length);
+                ids.add(id);
+            }
+        } finally {
+            writer.close();
+        }
+
+        TarReader reader = TarReader.open(file, false, false);
+        try {
+            for (UUID id : ids) {
+                assertTrue(reader.containsEntry(
+                        id.getMostSignificantBits(), id.getLeastSignificantBits()));
+            }
+            int misses = 0;
+            for (int i = 0; i < 10000; i++) {
+                UUID id = UUID.randomUUID();
+                assertNull(reader.readEntry(
+                        id.getMostSignificantBits(), id.getLeastSignificantBits()));
+                if (!reader.mightContain(
+                        id.getMostSignificantBits(), id.getLeastSignificantBits())) {
+                    misses++;
+                }
+            }
+            // the false positive probability is below 1%
+            assertTrue(misses > 9800);
+        } finally {
+            reader.close();
+        }
+
+        TarBloomFilter filter = TarBloomFilter.create(ids.size());
+        for (UUID id : ids) {
+            filter.put(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(filter.getSerializedSize());
+        filter.write(buffer);
+        buffer.flip();
+        TarBloomFilter read = TarBloomFilter.read(buffer, filter.getWordCount());
+        for (UUID id : ids) {
+            assertTrue(read.mightContain(
+                    id.getMostSignificantBits(), id.getLeastSignificantBits()));
+        }
+        for (int i = 0; i < 1000; i++) {
+            UUID id = UUID.randomUUID();
+            assertEquals(
+                    filter.mightContain(id.getMostSignificantBits(), id.getLeastSignificantBits()),
+                    read.mightContain(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+        }
+    }
+
 }
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.segment.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares concurrent read throughput of a single tar file for the memory
+ * mapped, random access and positional {@link FileAccess} implementations.
+ */
+public class TarReaderBenchmark {
+
+    private static final int SEGMENT_COUNT = 1000;
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    private static final int READS_PER_THREAD = 20000;
+
+    public static void main(String... args) throws Exception {
+        File file = File.createTempFile("TarReaderBenchmark", ".tar", new File("target"));
+        try {
+            long[][] ids = createTarFile(file);
+            for (int threads : new int[] { 1, 4, 16, 64 }) {
+                test("mapped", file, true, false, ids, threads);
+                test("random", file, false, false, ids, threads);
+                test("positional", file, false, true, ids, threads);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static long[][] createTarFile(File file) throws IOException {
+        Random r = new Random(1);
+        byte[] data = new byte[SEGMENT_SIZE];
+        long[][] ids = new long[SEGMENT_COUNT][];
+        TarWriter writer = new TarWriter(file);
+        try {
+            for (int i = 0; i < SEGMENT_COUNT; i++) {
+                UUID id = UUID.randomUUID();
+                ids[i] = new long[] {
+                        id.getMostSignificantBits(),
+                        id.getLeastSignificantBits() & (-1 >>> 4) };
+                r.nextBytes(data);
+                writer.writeEntry(ids[i][0], ids[i][1], data, 0, data.length);
+            }
+        } finally {
+            writer.close();
+        }
+        return ids;
+    }
+
+    private static void test(String name, File file, boolean memoryMapping,
+            boolean positionalReads, final long[][] ids, int threadCount)
+            throws Exception {
+        final TarReader reader = TarReader.open(file, memoryMapping, positionalReads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final AtomicLong bytes = new AtomicLong();
+            Thread[] threads = new Thread[threadCount];
+            for (int i = 0; i < threads.length; i++) {
+                final Random r = new Random(i);
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            long n = 0;
+                            for (int k = 0; k < READS_PER_THREAD; k++) {
+                                long[] id = ids[r.nextInt(ids.length)];
+                                // touch the data so mapped reads are not free
+                                n += reader.readEntry(id[0], id[1]).get(SEGMENT_SIZE / 2);
+                                n += SEGMENT_SIZE;
+                            }
+                            bytes.addAndGet(n);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+            long time = System.nanoTime();
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            time = System.nanoTime() - time;
+            long reads = (long) threadCount * READS_PER_THREAD;
+            System.out.printf("%-10s threads=%2d: %8d reads/s, %6d MB/s%n",
+                    name, threadCount,
+                    reads * 1000000000L / time,
+                    (bytes.get() >> 20) * 1000000000L / time);
+        } finally {
+            reader.close();
+        }
+    }
+
+}
@@ -213,6 +213,7 @@ public class BenchmarkRunner {
                     base.value(options),
                     luceneIndexOnFS.value(options)),
             new CreateNodesBenchmark(),
+            new SegmentWriterScalabilityBenchmark(base.value(options)),
             new ManyNodes(),
             new ObservationTest(),
             new RevisionGCTest(),
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.benchmark;
+
+import static java.util.Arrays.asList;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.oak.fixture.OakFixture;
+import org.apache.jackrabbit.oak.fixture.RepositoryFixture;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeStore;
+import org.apache.jackrabbit.oak.plugins.segment.file.FileStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+
+/**
+ * Measures the write throughput of the TarMK with an increasing number of
+ * concurrently committing threads. Each thread writes its own subtree
+ * directly to the {@code SegmentNodeStore}, so that the result reflects the
+ * scalability of the segment writers rather than that of the JCR layer.
+ * The total number of written nodes is the same for all concurrency levels.
+ * <p>
+ * Only runs against the {@code Oak-Tar} fixture. Uses the concurrency levels
+ * given by {@code --concurrency} or 1, 2, 4, 8, 16 and 32 threads otherwise.
+ */
+public class SegmentWriterScalabilityBenchmark extends Benchmark {
+
+    private static final List<Integer> DEFAULT_CONCURRENCY_LEVELS =
+            asList(1, 2, 4, 8, 16, 32);
+
+    private static final int NODE_COUNT = Integer.getInteger("nodeCount", 320000);
+
+    private static final int SAVE_INTERVAL = Integer.getInteger("saveInterval", 100);
+
+    private final File base;
+
+    public SegmentWriterScalabilityBenchmark(File base) {
+        this.base = base;
+    }
+
+    @Override
+    public void run(Iterable<RepositoryFixture> fixtures) {
+        run(fixtures, null);
+    }
+
+    @Override
+    public void run(Iterable<RepositoryFixture> fixtures, List<Integer> concurrencyLevels) {
+        if (concurrencyLevels == null || concurrencyLevels.isEmpty()) {
+            concurrencyLevels = DEFAULT_CONCURRENCY_LEVELS;
+        }
+        for (RepositoryFixture fixture : fixtures) {
+            if (OakFixture.OAK_TAR.equals(fixture.toString())) {
+                System.out.format(
+                        "# %-26.26s       C    time(ms)    nodes/s%n", toString());
+                for (int threads : concurrencyLevels) {
+                    try {
+                        run(threads);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    private void run(int threads) throws Exception {
+        File directory = new File(base, "segment-writer-" + AbstractTest.TEST_ID);
+        FileStore store = FileStore.newFileStore(directory)
+                .withMaxFileSize(256)
+                .withWriterPoolSize(threads)
+                .create();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final NodeStore nodeStore = new SegmentNodeStore(store);
+            NodeBuilder builder = nodeStore.getRoot().builder();
+            builder.child("test");
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+            List<Future<Void>> futures = Lists.newArrayList();
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(
+                        new Writer(nodeStore, "t" + i, NODE_COUNT / threads)));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            store.flush();
+            long duration = Math.max(1, System.currentTimeMillis() - start);
+
+            System.out.format(
+                    "  %-26.26s  %6d  %10d  %9d%n",
+                    toString(), threads, duration,
+                    NODE_COUNT * 1000L / duration);
+        } finally {
+            executor.shutdown();
+            store.close();
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+
+    private static class Writer implements Callable<Void> {
+
+        private final NodeStore store;
+
+        private final String name;
+
+        private final int count;
+
+        Writer(NodeStore store, String name, int count) {
+            this.store = store;
+            this.name = name;
+            this.count = count;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            NodeBuilder builder = store.getRoot().builder();
+            NodeBuilder parent = builder.child("test").child(name);
+            for (int i = 0; i < count; i++) {
+                NodeBuilder child = parent.child("folder-" + (i / 1000))
+                        .child("node-" + i);
+                child.setProperty("title", name + " node " + i);
+                child.setProperty("index", i);
+                if ((i + 1) % SAVE_INTERVAL == 0) {
+                    store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+                    builder = store.getRoot().builder();
+                    parent = builder.child("test").child(name);
+                }
+            }
+            store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+            return null;
+        }
+
+    }
+
+}
@@ -21,10 +21,17 @@ package org.apache.jackrabbit.oak.plugins.segment.standby.client;
 import static org.apache.jackrabbit.oak.commons.IOUtils.humanReadableByteCount;
 import static org.apache.jackrabbit.oak.plugins.segment.standby.codec.Messages.newGetBlobReq;
 import static org.apache.jackrabbit.oak.plugins.segment.standby.codec.Messages.newGetSegmentReq;
+import static org.apache.jackrabbit.oak.plugins.segment.standby.codec.Messages.newGetSegmentsReq;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.util.concurrent.EventExecutorGroup;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -146,6 +153,23 @@ public class SegmentLoaderHandler extends ChannelInboundHandlerAdapter
         return getSegment(id);
     }
 
+    @Override
+    public List<Segment> readSegments(List<String> ids) {
+        ctx.writeAndFlush(newGetSegmentsReq(this.clientID, ids));
+        Set<String> pending = new HashSet<String>(ids);
+        List<Segment> segments = new ArrayList<Segment>(ids.size());
+        while (!pending.isEmpty()) {
+            Segment s = getReply(pending, SegmentReply.SEGMENT).getSegment();
+            if (s == null) {
+                // timeout, return what has been received so far
+                break;
+            }
+            pending.remove(s.getSegmentId().toString());
+            segments.add(s);
+        }
+        return segments;
+    }
+
     @Override
     public Blob readBlob(String blobId) {
         ctx.writeAndFlush(newGetBlobReq(this.clientID, blobId));
@@ -160,14 +184,14 @@ public class SegmentLoaderHandler extends ChannelInboundHandlerAdapter
     }
 
     private Segment getSegment(final String id) {
-        return getReply(id, SegmentReply.SEGMENT).getSegment();
+        return getReply(Collections.singleton(id), SegmentReply.SEGMENT).getSegment();
     }
 
     private Blob getBlob(final String id) {
-        return getReply(id, SegmentReply.BLOB).getBlob();
+        return getReply(Collections.singleton(id), SegmentReply.BLOB).getBlob();
     }
 
-    private SegmentReply getReply(final String id, int type) {
+    private SegmentReply getReply(final Collection<String> ids, int type) {
         boolean interrupted = false;
         try {
             for (;;) {
@@ -175,19 +199,19 @@ public class SegmentLoaderHandler extends ChannelInboundHandlerAdapter
                     SegmentReply r = segment.poll(readTimeoutMs,
                             TimeUnit.MILLISECONDS);
                     if (r == null) {
-                        log.warn("timeout waiting for {}", id);
+                        log.warn("timeout waiting for {}", ids);
                         return SegmentReply.empty();
                     }
                     if (r.getType() == type) {
                         switch (r.getType()) {
                         case SegmentReply.SEGMENT:
-                            if (r.getSegment().getSegmentId().toString()
-                                    .equals(id)) {
+                            if (ids.contains(r.getSegment().getSegmentId()
+                                    .toString())) {
                                 return r;
                             }
                             break;
                         case SegmentReply.BLOB:
-                            if (r.getBlob().getBlobId().equals(id)) {
+                            if (ids.contains(r.getBlob().getBlobId())) {
                                 return r;
                             }
                             break;
@@ -93,6 +93,19 @@ public final class StandbyClient implements ClientStandbyStatusMBean, Runnable,
     public StandbyClient(String host, int port, SegmentStore store,
             boolean secure, int readTimeoutMs, boolean autoClean)
             throws SSLException {
+        this(host, port, store, secure, readTimeoutMs, autoClean, 1);
+    }
+
+    /**
+     * @param batchSize maximum number of segments requested at once from
+     *                  the primary, which streams them without waiting for
+     *                  further requests. {@code 1} requests the segments
+     *                  one at a time, which is also supported by older
+     *                  primaries.
+     */
+    public StandbyClient(String host, int port, SegmentStore store,
+            boolean secure, int readTimeoutMs, boolean autoClean,
+            int batchSize) throws SSLException {
         this.state = STATUS_INITIALIZING;
         this.lastSuccessfulRequest = -1;
         this.failedRequests = 0;
@@ -103,7 +116,7 @@ public final class StandbyClient implements ClientStandbyStatusMBean, Runnable,
         }
         this.readTimeoutMs = readTimeoutMs;
         this.autoClean = autoClean;
-        this.store = new StandbyStore(store);
+        this.store = new StandbyStore(store, batchSize);
         String s = System.getProperty(CLIENT_ID_PROPERTY_NAME);
         this.observer = new CommunicationObserver((s == null || s.length() == 0) ? UUID.randomUUID().toString() : s);
 
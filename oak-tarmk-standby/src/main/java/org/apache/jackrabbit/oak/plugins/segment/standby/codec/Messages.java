@@ -18,6 +18,11 @@
  */
 package org.apache.jackrabbit.oak.plugins.segment.standby.codec;
 
+import java.util.List;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+
 public class Messages {
 
     public static final byte HEADER_RECORD = 0x00;
@@ -26,10 +31,19 @@ public class Messages {
 
     public static final String GET_HEAD = "h";
     public static final String GET_SEGMENT = "s.";
+    public static final String GET_SEGMENTS = "ss.";
     public static final String GET_BLOB = "b.";
 
     private static final String MAGIC = "Standby-CMD@";
     private static final String SEPARATOR = ":";
+    private static final String ID_SEPARATOR = ",";
+
+    /**
+     * Maximum number of segments requested with a single
+     * {@link #GET_SEGMENTS} request, so that the request fits into the
+     * request line limit of the primary.
+     */
+    public static final int MAX_SEGMENTS_PER_REQUEST = 128;
 
     private static String newRequest(String clientID, String body) {
         return MAGIC + (clientID == null ? "" : clientID.replace(SEPARATOR, "#")) + SEPARATOR + body + "\r\n";
@@ -43,6 +57,15 @@ public class Messages {
         return newRequest(clientID, GET_SEGMENT + sid);
     }
 
+    public static String newGetSegmentsReq(String clientID, List<String> sids) {
+        return newRequest(clientID, GET_SEGMENTS + Joiner.on(ID_SEPARATOR).join(sids));
+    }
+
+    public static List<String> extractSegmentIdsFrom(String request) {
+        return Splitter.on(ID_SEPARATOR).omitEmptyStrings().trimResults()
+                .splitToList(request.substring(GET_SEGMENTS.length()));
+    }
+
     public static String newGetBlobReq(String clientID, String blobId) {
         return newRequest(clientID, GET_BLOB + blobId);
     }
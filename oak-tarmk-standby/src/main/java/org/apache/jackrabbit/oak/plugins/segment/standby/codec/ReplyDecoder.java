@@ -115,15 +115,10 @@ public class ReplyDecoder extends ReplayingDecoder<DecodingState> {
         long hash = in.readLong();
 
         // #readBytes throws a 'REPLAY' exception if there are not enough bytes
-        // available for reading
-        ByteBuf data = in.readBytes(len - 25);
-        byte[] segment;
-        if (data.hasArray()) {
-            segment = data.array();
-        } else {
-            segment = new byte[len - 25];
-            in.readBytes(segment);
-        }
+        // available for reading. The segment is copied only once, directly
+        // into the array backing the new segment.
+        byte[] segment = new byte[len - 25];
+        in.readBytes(segment);
 
         Hasher hasher = Hashing.murmur3_32().newHasher();
         long check = hasher.putBytes(segment).hash().padToLong();
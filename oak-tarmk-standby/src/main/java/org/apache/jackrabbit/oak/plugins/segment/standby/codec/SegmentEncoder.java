@@ -19,11 +19,14 @@
 
 package org.apache.jackrabbit.oak.plugins.segment.standby.codec;
 
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 import org.apache.jackrabbit.oak.plugins.segment.Segment;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentId;
@@ -31,7 +34,7 @@ import org.apache.jackrabbit.oak.plugins.segment.SegmentId;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 
-public class SegmentEncoder extends MessageToByteEncoder<Segment> {
+public class SegmentEncoder extends MessageToMessageEncoder<Segment> {
 
     /**
      * A segment message is composed of:
@@ -51,23 +54,38 @@ public class SegmentEncoder extends MessageToByteEncoder<Segment> {
      */
     private int EXTRA_HEADERS_WO_SIZE = EXTRA_HEADERS_LEN - 4;
 
+    /**
+     * size of the chunks in which segments not backed by an array are hashed
+     */
+    private static final int HASH_CHUNK_SIZE = 8192;
+
     @Override
-    protected void encode(ChannelHandlerContext ctx, Segment s, ByteBuf out)
+    protected void encode(ChannelHandlerContext ctx, Segment s, List<Object> out)
             throws Exception {
         SegmentId id = s.getSegmentId();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(s.size());
-        s.writeTo(baos);
-        byte[] segment = baos.toByteArray();
+        // the segment data (possibly memory mapped from the tar file) is
+        // wrapped instead of copied, so that it is passed down the
+        // pipeline without an intermediate heap copy
+        ByteBuffer segment = s.getData();
 
-        Hasher hasher = Hashing.murmur3_32().newHasher();
-        long hash = hasher.putBytes(segment).hash().padToLong();
+        ByteBuf header = ctx.alloc().buffer(EXTRA_HEADERS_LEN);
+        header.writeInt(segment.remaining() + EXTRA_HEADERS_WO_SIZE);
+        header.writeByte(Messages.HEADER_SEGMENT);
+        header.writeLong(id.getMostSignificantBits());
+        header.writeLong(id.getLeastSignificantBits());
+        header.writeLong(hash(segment));
+        out.add(wrappedBuffer(header, wrappedBuffer(segment)));
+    }
 
-        int len = segment.length + EXTRA_HEADERS_WO_SIZE;
-        out.writeInt(len);
-        out.writeByte(Messages.HEADER_SEGMENT);
-        out.writeLong(id.getMostSignificantBits());
-        out.writeLong(id.getLeastSignificantBits());
-        out.writeLong(hash);
-        out.writeBytes(segment);
+    private static long hash(ByteBuffer segment) {
+        Hasher hasher = Hashing.murmur3_32().newHasher();
+        ByteBuffer buffer = segment.duplicate();
+        byte[] chunk = new byte[Math.min(HASH_CHUNK_SIZE, buffer.remaining())];
+        while (buffer.hasRemaining()) {
+            int n = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, n);
+            hasher.putBytes(chunk, 0, n);
+        }
+        return hasher.hash().padToLong();
     }
 }
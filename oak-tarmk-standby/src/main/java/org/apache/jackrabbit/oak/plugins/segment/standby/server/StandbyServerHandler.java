@@ -21,6 +21,7 @@ package org.apache.jackrabbit.oak.plugins.segment.standby.server;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -144,26 +145,33 @@ public class StandbyServerHandler extends SimpleChannelInboundHandler<String> {
                     ctx.writeAndFlush(r);
                     return;
                 }
+            } else if (request.startsWith(Messages.GET_SEGMENTS)) {
+                List<String> sids = Messages.extractSegmentIdsFrom(request);
+                log.debug("request segment ids {}", sids);
+
+                // all segments of the batch are written before flushing
+                // once, so that they are streamed to the client without
+                // waiting for a request per segment
+                int count = 0;
+                for (String sid : sids) {
+                    Segment s = readSegment(sid);
+                    if (s != null) {
+                        log.debug("sending segment " + sid + " to " + client);
+                        ctx.write(s);
+                        observer.didSendSegmentBytes(clientID, s.size());
+                        count++;
+                    } else {
+                        log.warn("Segment {} requested by {} not found, skipping.", sid, client);
+                    }
+                }
+                if (count > 0) {
+                    ctx.flush();
+                    return;
+                }
             } else if (request.startsWith(Messages.GET_SEGMENT)) {
                 String sid = request.substring(Messages.GET_SEGMENT.length());
                 log.debug("request segment id {}", sid);
-                UUID uuid = UUID.fromString(sid);
-
-                Segment s = null;
-
-                for (int i = 0; i < 10; i++) {
-                    try {
-                        s = store.readSegment(new SegmentId(store.getTracker(),
-                                uuid.getMostSignificantBits(), uuid
-                                .getLeastSignificantBits()));
-                    } catch (IllegalStateException e) {
-                        // segment not found
-                        log.debug("waiting for segment. Got exception: " + e.getMessage());
-                        TimeUnit.MILLISECONDS.sleep(2000);
-                    }
-                    if (s != null) break;
-                }
-
+                Segment s = readSegment(sid);
                 if (s != null) {
                     log.debug("sending segment " + sid + " to " + client);
                     ctx.writeAndFlush(s);
@@ -186,6 +194,26 @@ public class StandbyServerHandler extends SimpleChannelInboundHandler<String> {
         ctx.writeAndFlush(Unpooled.EMPTY_BUFFER);
     }
 
+    private Segment readSegment(String sid) throws InterruptedException {
+        UUID uuid = UUID.fromString(sid);
+
+        Segment s = null;
+
+        for (int i = 0; i < 10; i++) {
+            try {
+                s = store.readSegment(new SegmentId(store.getTracker(),
+                        uuid.getMostSignificantBits(), uuid
+                        .getLeastSignificantBits()));
+            } catch (IllegalStateException e) {
+                // segment not found
+                log.debug("waiting for segment. Got exception: " + e.getMessage());
+                TimeUnit.MILLISECONDS.sleep(2000);
+            }
+            if (s != null) break;
+        }
+        return s;
+    }
+
     @Override
     public void channelReadComplete(ChannelHandlerContext ctx) {
         ctx.flush();
@@ -16,6 +16,8 @@
  */
 package org.apache.jackrabbit.oak.plugins.segment.standby.store;
 
+import java.util.List;
+
 import org.apache.jackrabbit.oak.api.Blob;
 import org.apache.jackrabbit.oak.plugins.segment.Segment;
 
@@ -23,6 +25,16 @@ public interface RemoteSegmentLoader {
 
     Segment readSegment(String id);
 
+    /**
+     * Reads a batch of segments with a single request. The primary streams
+     * the segments in the requested order without waiting for further
+     * requests.
+     *
+     * @param ids identifiers of the segments to read
+     * @return the segments that could be read, possibly fewer than requested
+     */
+    List<Segment> readSegments(List<String> ids);
+
     Blob readBlob(String blobId);
 
     void close();
@@ -16,14 +16,18 @@
  */
 package org.apache.jackrabbit.oak.plugins.segment.standby.store;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static org.apache.jackrabbit.oak.commons.IOUtils.humanReadableByteCount;
+import static org.apache.jackrabbit.oak.plugins.segment.standby.codec.Messages.MAX_SEGMENTS_PER_REQUEST;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -47,10 +51,29 @@ public class StandbyStore implements SegmentStore {
 
     private final SegmentStore delegate;
 
+    /**
+     * Maximum number of segments transferred with a single request. A value
+     * of {@code 1} transfers segments one at a time.
+     */
+    private final int batchSize;
+
     private RemoteSegmentLoader loader;
 
+    /**
+     * Whether batches are currently used for the transfer. Disabled for the
+     * rest of a sync when the primary does not support batch requests.
+     */
+    private boolean bulk;
+
     public StandbyStore(SegmentStore delegate) {
+        this(delegate, 1);
+    }
+
+    public StandbyStore(SegmentStore delegate, int batchSize) {
+        checkArgument(batchSize > 0 && batchSize <= MAX_SEGMENTS_PER_REQUEST,
+                "batch size must be between 1 and " + MAX_SEGMENTS_PER_REQUEST);
         this.delegate = delegate;
+        this.batchSize = batchSize;
     }
 
     @Override
@@ -98,6 +121,32 @@ public class StandbyStore implements SegmentStore {
                     cacheWeight -= s.size();
                     cacheOps++;
                     logRefs = false;
+                } else if (bulk) {
+                    List<SegmentId> batch = newBatch(id, ids, persisted, cache);
+                    log.debug("transferring segments {}", batch);
+                    s = null;
+                    List<Segment> segments = loader.readSegments(toStrings(batch));
+                    for (Segment segment : segments) {
+                        SegmentId bid = segment.getSegmentId();
+                        if (id.equals(bid)) {
+                            s = segment;
+                        } else if (!cache.containsKey(bid)) {
+                            // keep the segments transferred ahead of time
+                            // until they are processed from the queue
+                            cache.put(bid, segment);
+                            cacheWeight += segment.size();
+                            cacheOps++;
+                        }
+                    }
+                    maxWeight = Math.max(maxWeight, cacheWeight);
+                    maxKeys = Math.max(maxKeys, cache.size());
+                    if (segments.isEmpty()) {
+                        log.warn("batch transfer failed, falling back to transferring single segments");
+                        bulk = false;
+                    }
+                    if (s == null) {
+                        s = loader.readSegment(id.toString());
+                    }
                 } else {
                     log.debug("transferring segment {}", id);
                     s = loader.readSegment(id.toString());
@@ -174,18 +223,42 @@ public class StandbyStore implements SegmentStore {
         return delegate.readSegment(sid);
     }
 
+    /**
+     * Collects the given segment together with further segments from the
+     * queue that still need to be transferred, up to the batch size.
+     */
+    private List<SegmentId> newBatch(SegmentId id, Deque<SegmentId> ids,
+            Set<SegmentId> persisted, Map<SegmentId, Segment> cache) {
+        List<SegmentId> batch = new ArrayList<SegmentId>(batchSize);
+        batch.add(id);
+        Iterator<SegmentId> iterator = ids.iterator();
+        while (batch.size() < batchSize && iterator.hasNext()) {
+            SegmentId nr = iterator.next();
+            if (!nr.equals(id) && !persisted.contains(nr)
+                    && !cache.containsKey(nr) && !batch.contains(nr)
+                    && !delegate.containsSegment(nr)) {
+                batch.add(nr);
+            }
+        }
+        return batch;
+    }
+
+    private static List<String> toStrings(List<SegmentId> ids) {
+        List<String> strings = new ArrayList<String>(ids.size());
+        for (SegmentId id : ids) {
+            strings.add(id.toString());
+        }
+        return strings;
+    }
+
     public void persist(SegmentId in, Segment s) {
         SegmentId id = delegate.getTracker().getSegmentId(
                 in.getMostSignificantBits(), in.getLeastSignificantBits());
         log.debug("persisting segment {} with size {}", id, s.size());
-        try {
-            ByteArrayOutputStream bout = new ByteArrayOutputStream(s.size());
-            s.writeTo(bout);
-            writeSegment(id, bout.toByteArray(), 0, s.size());
-        } catch (IOException e) {
-            throw new IllegalStateException("Unable to write remote segment "
-                    + id, e);
-        }
+        ByteBuffer data = s.getData();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        writeSegment(id, bytes, 0, bytes.length);
     }
 
     private long callId = 0;
@@ -193,6 +266,7 @@ public class StandbyStore implements SegmentStore {
 
     public void preSync(RemoteSegmentLoader loader) {
         this.loader = loader;
+        this.bulk = batchSize > 1;
         this.cacheStats = new HashMap<Long, String>();
     }
 
@@ -88,6 +88,10 @@ public class StandbyStoreService {
     @Property(boolValue = AUTO_CLEAN_DEFAULT)
     public static final String AUTO_CLEAN = "standby.autoclean";
 
+    public static final int BATCH_SIZE_DEFAULT = 1;
+    @Property(intValue = BATCH_SIZE_DEFAULT)
+    public static final String BATCH_SIZE = "standby.batchsize";
+
     @Reference(policy = STATIC, policyOption = GREEDY)
     private SegmentStoreProvider storeProvider = null;
 
@@ -149,8 +153,9 @@ public class StandbyStoreService {
         boolean secure = PropertiesUtil.toBoolean(props.get(SECURE), SECURE_DEFAULT);
         int readTimeout = PropertiesUtil.toInteger(props.get(READ_TIMEOUT), READ_TIMEOUT_DEFAULT);
         boolean clean = PropertiesUtil.toBoolean(props.get(AUTO_CLEAN), AUTO_CLEAN_DEFAULT);
+        int batchSize = PropertiesUtil.toInteger(props.get(BATCH_SIZE), BATCH_SIZE_DEFAULT);
 
-        sync = new StandbyClient(host, port, segmentStore, secure, readTimeout, clean);
+        sync = new StandbyClient(host, port, segmentStore, secure, readTimeout, clean, batchSize);
         Dictionary<Object, Object> dictionary = new Hashtable<Object, Object>();
         dictionary.put("scheduler.period", interval);
         dictionary.put("scheduler.concurrent", false);
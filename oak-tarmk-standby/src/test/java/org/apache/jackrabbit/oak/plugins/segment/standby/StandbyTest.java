@@ -61,6 +61,15 @@ public class StandbyTest extends TestBase {
 
     @Test
     public void testSync() throws Exception {
+        testSync(1);
+    }
+
+    @Test
+    public void testBatchSync() throws Exception {
+        testSync(32);
+    }
+
+    private void testSync(int batchSize) throws Exception {
         final int mb = 1 * 1024 * 1024;
         final int blobSize = 5 * mb;
         FileStore primary = getPrimary();
@@ -72,7 +81,8 @@ public class StandbyTest extends TestBase {
         byte[] data = addTestContent(store, "server", blobSize, 150);
         primary.flush();
 
-        StandbyClient cl = new StandbyClient("127.0.0.1", getPort(), secondary);
+        StandbyClient cl = new StandbyClient("127.0.0.1", getPort(), secondary,
+                false, 10000, false, batchSize);
         cl.run();
 
         try {